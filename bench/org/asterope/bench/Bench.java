@@ -0,0 +1,227 @@
+//
+// Licenced under GPLv2, see licence.txt
+// (c) Jan Kotek,
+//
+
+package org.asterope.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal micro-benchmark harness, modeled after JMH throughput mode.
+ * <p>
+ * Each benchmark runs several warmup iterations followed by measured iterations
+ * of fixed time. Result is average operations per second with 99.9% confidence error.
+ * Values returned from benchmarked operation are consumed, so JIT can not eliminate them.
+ * Timer is read after each operation, so very fast operations should process batch of values.
+ * <p>
+ * Results are printed as tab separated lines, so results from different releases can be diffed:
+ * <pre>
+ *   benchmark  params  ops/s  error
+ * </pre>
+ * Saved results can be compared with {@link #readResults(Reader)} and {@link #compare(List, List, PrintStream)}.
+ * <p>
+ * System properties:
+ * <ul>
+ *   <li>bench.warmup, bench.iterations - number of iterations</li>
+ *   <li>bench.time - duration of single iteration in milliseconds</li>
+ *   <li>bench.filter - regular expression, only benchmarks with matching name are run</li>
+ * </ul>
+ *
+ * @author Jan Kotek
+ */
+public class Bench {
+
+    /** Benchmarked operation */
+    public interface Op{
+        /**
+         * @return any value computed by operation, it is consumed by harness
+         */
+        long run() throws Exception;
+    }
+
+    /** result of single benchmark */
+    public static final class Result{
+        public final String name, params;
+        public final double score, error;
+
+        public Result(String name, String params, double score, double error) {
+            this.name = name;
+            this.params = params;
+            this.score = score;
+            this.error = error;
+        }
+
+        public String toString(){
+            return String.format(Locale.US, "%s\t%s\t%.3f\t%.3f", name, params, score, error);
+        }
+
+        /** @return key which identifies benchmark between runs */
+        public String key(){
+            return name+"\t"+params;
+        }
+    }
+
+    public static final String HEADER = "benchmark\tparams\tops/s\terror";
+
+    /** consumed values, volatile write prevents dead code elimination */
+    public static volatile long sink;
+
+    protected final int warmupIterations;
+    protected final int iterations;
+    protected final long iterationNanos;
+    protected final PrintStream out;
+    protected Pattern filter;
+    protected final List<Result> results = new ArrayList<Result>();
+
+    public Bench(){
+        this(Integer.getInteger("bench.warmup", 5),
+                Integer.getInteger("bench.iterations", 10),
+                Long.getLong("bench.time", 200),
+                System.out);
+        String f = System.getProperty("bench.filter");
+        if(f!=null)
+            filter = Pattern.compile(f);
+    }
+
+    /**
+     * @param warmupIterations number of iterations before measurement starts
+     * @param iterations number of measured iterations
+     * @param iterationMillis duration of single iteration in milliseconds
+     * @param out results are printed here
+     */
+    public Bench(int warmupIterations, int iterations, long iterationMillis, PrintStream out) {
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationNanos = iterationMillis * 1000000L;
+        this.out = out;
+    }
+
+    /**
+     * Measure throughput of given operation and print result.
+     *
+     * @param name benchmark name, typically Class.method
+     * @param params description of parameters, such as 'nside=1024 radius=1d'
+     * @param op operation to measure
+     * @return result, or null if benchmark does not match filter
+     */
+    public Result run(String name, String params, Op op) throws Exception {
+        if(!matches(name))
+            return null;
+        for(int i=0;i<warmupIterations;i++)
+            iteration(op);
+
+        double[] scores = new double[iterations];
+        for(int i=0;i<iterations;i++)
+            scores[i] = iteration(op);
+
+        double mean = 0;
+        for(double s:scores) mean+=s;
+        mean /= scores.length;
+
+        double var = 0;
+        for(double s:scores) var += (s-mean)*(s-mean);
+        double stdev = scores.length>1 ? Math.sqrt(var / (scores.length - 1)) : 0;
+        //3.29 is z-value for 99.9% confidence
+        double error = 3.29 * stdev / Math.sqrt(scores.length);
+
+        Result r = new Result(name, params, mean, error);
+        out.println(r);
+        results.add(r);
+        return r;
+    }
+
+    /** @return true if benchmark with given name should run, use it to skip expensive setup */
+    public boolean matches(String name){
+        return filter == null || filter.matcher(name).find();
+    }
+
+    /** @return results of all benchmarks run so far */
+    public List<Result> getResults(){
+        return results;
+    }
+
+    /**
+     * Parameter list from system property, such as `-Dbench.orders=8,12`
+     *
+     * @param property name of system property
+     * @param defaults comma separated values used if property is not set
+     * @return values
+     */
+    public static double[] params(String property, String defaults){
+        String[] s = System.getProperty(property, defaults).split(",");
+        double[] ret = new double[s.length];
+        for(int i = 0;i<s.length;i++)
+            ret[i] = Double.parseDouble(s[i].trim());
+        return ret;
+    }
+
+    /**
+     * Read results printed by previous run, header and other lines are ignored
+     *
+     * @param in tab separated results
+     * @return results
+     */
+    public static List<Result> readResults(Reader in) throws IOException {
+        List<Result> ret = new ArrayList<Result>();
+        BufferedReader r = new BufferedReader(in);
+        for(String line = r.readLine();line!=null;line = r.readLine()){
+            String[] s = line.split("\t");
+            if(s.length!=4 || line.equals(HEADER))
+                continue;
+            try{
+                ret.add(new Result(s[0], s[1], Double.parseDouble(s[2]), Double.parseDouble(s[3])));
+            }catch(NumberFormatException e){
+                //not a result line
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Print current results next to baseline results, with ratio of scores.
+     * Difference is marked significant if error intervals do not overlap.
+     * Benchmarks missing in baseline are printed with empty baseline score.
+     */
+    public static void compare(List<Result> baseline, List<Result> current, PrintStream out){
+        Map<String, Result> base = new HashMap<String, Result>();
+        for(Result r:baseline)
+            base.put(r.key(), r);
+        out.println("benchmark\tparams\tbaseline ops/s\tops/s\tratio\tsignificant");
+        for(Result r:current){
+            Result b = base.get(r.key());
+            if(b == null){
+                out.println(String.format(Locale.US, "%s\t%s\t\t%.3f\t\t", r.name, r.params, r.score));
+                continue;
+            }
+            boolean significant = Math.abs(r.score - b.score) > r.error + b.error;
+            out.println(String.format(Locale.US, "%s\t%s\t%.3f\t%.3f\t%.3f\t%s",
+                    r.name, r.params, b.score, r.score, r.score / b.score, significant ? "*" : ""));
+        }
+    }
+
+    /** @return operations per second in single iteration */
+    protected double iteration(Op op) throws Exception {
+        long ops = 0;
+        long consumed = 0;
+        final long start = System.nanoTime();
+        long now;
+        do{
+            consumed += op.run();
+            ops++;
+            now = System.nanoTime();
+        }while(now-start<iterationNanos);
+        sink += consumed;
+        return ops * 1e9 / (now-start);
+    }
+
+}
@@ -0,0 +1,40 @@
+package org.asterope.bench
+
+import java.io.FileReader
+import org.asterope.data.CrossMatchBench
+import org.asterope.data.ParserBench
+import org.asterope.data.StarDaoBench
+import org.asterope.healpix.HealpixBench
+import org.asterope.healpix.LongRangeSetBench
+
+/**
+ * Runs benchmarks of healpix and data packages and prints tab separated results to standard output.
+ * Save output of each release, and pass it as argument to compare current build with it:
+ * <pre>
+ *   BenchSuite [baseline.tsv]
+ * </pre>
+ * Parameters and benchmark selection are set by system properties, see {@link Bench},
+ * {@link HealpixBench} and {@link StarDaoBench}.
+ *
+ *  @author Jan Kotek
+ */
+fun main(args:Array<String>){
+    val bench = Bench()
+    System.out.println(Bench.HEADER)
+    HealpixBench.run(bench)
+    LongRangeSetBench.run(bench)
+    StarDaoBench.run(bench)
+    ParserBench.run(bench)
+    CrossMatchBench.run(bench)
+
+    if (args.size > 0){
+        val reader = FileReader(args[0])
+        try{
+            val baseline = Bench.readResults(reader)!!
+            System.out.println()
+            Bench.compare(baseline, bench.getResults()!!, System.out)
+        }finally{
+            reader.close()
+        }
+    }
+}
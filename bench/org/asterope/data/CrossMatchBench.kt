@@ -0,0 +1,53 @@
+package org.asterope.data
+
+import java.util.Random
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D
+import org.asterope.bench.Bench
+import org.asterope.util.*
+
+/**
+ * Throughput of {@link CrossMatch} between XHIP and WDS with 1 and all cores.
+ * If catalogs are not available, random catalogs of the same size are used,
+ * where every second XHIP entry has WDS counterpart within 1 arc second.
+ *
+ *  @author Jan Kotek
+ */
+object CrossMatchBench{
+
+    val XHIP_SIZE = 117955
+    val WDS_SIZE = 105000
+
+    fun randomCatalogs():Array<MatchCatalog>{
+        val r = Random(0)
+        val a = MatchCatalogBuilder(XHIP_SIZE)
+        val b = MatchCatalogBuilder(WDS_SIZE)
+        for (i in 0..XHIP_SIZE - 1){
+            val pos = Vector3D(r.nextDouble() * 2 * Math.PI, Math.asin(r.nextDouble() * 2 - 1))
+            a.add(i.toLong(), pos)
+            if (i % 2 == 0)
+                b.add(i.toLong(), pos.add(Vector3D(r.nextGaussian(), r.nextGaussian(), r.nextGaussian()).scalarMultiply(1e-6))!!)
+        }
+        for (i in b.size()..WDS_SIZE - 1)
+            b.add(i.toLong(), Vector3D(r.nextDouble() * 2 * Math.PI, Math.asin(r.nextDouble() * 2 - 1)))
+        return array(a.build("XHIP random"), b.build("WDS random"))
+    }
+
+    fun run(bench:Bench){
+        if (!bench.matches("CrossMatch.run")) return
+        val catalogs =
+            if (DbImport.xhipDat.exists() && DbImport.wdsDat.exists())
+                array(DbImport.loadXhipMatchCatalog(), DbImport.loadWdsMatchCatalog())
+            else
+                randomCatalogs()
+        val a = catalogs[0]
+        val b = catalogs[1]
+        for (parallelism in array(1, Runtime.getRuntime()!!.availableProcessors())){
+            val matcher = CrossMatch(parallelism)
+            System.err.println(matcher.run(a, b, DbImport.MATCH_RADIUS))
+            bench.run("CrossMatch.run", "${a.name}=${a.size} ${b.name}=${b.size} radius=5s threads=$parallelism", object:Bench.Op{
+                public override fun run():Long = matcher.run(a, b, DbImport.MATCH_RADIUS).size.toLong()
+            })
+        }
+    }
+
+}
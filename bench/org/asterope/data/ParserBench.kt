@@ -0,0 +1,72 @@
+package org.asterope.data
+
+import java.util.ArrayList
+import java.util.Random
+import org.asterope.bench.Bench
+import org.asterope.util.*
+
+/**
+ * Compares {@link Parser#parseFixedWidth} with compiled {@link FixedWidthReader}
+ * on rows with XHIP layout. Rows are generated, so benchmark does not depend on catalog data.
+ *
+ *  @author Jan Kotek
+ */
+object ParserBench{
+
+    val ROWS = 10000
+
+    fun lines():ArrayList<String>{
+        val cols = Parser.parseADCColumnDefinition(DbImport.xhipReadme.readToString())
+        val reader = FixedWidthReader(cols)
+        val r = Random(0)
+        val ret = ArrayList<String>()
+        for (i in 0..ROWS - 1){
+            val b = StringBuilder()
+            for (j in 0..339) b.append(' ')
+            put(b, cols.get(reader.column("HIP"))!!, java.lang.String.format("%6d", i + 1)!!)
+            put(b, cols.get(reader.column("RAdeg"))!!, java.lang.String.format(java.util.Locale.US, "%12.8f", r.nextDouble() * 360)!!)
+            put(b, cols.get(reader.column("DEdeg"))!!, java.lang.String.format(java.util.Locale.US, "%12.8f", r.nextDouble() * 180 - 90)!!)
+            put(b, cols.get(reader.column("Plx"))!!, java.lang.String.format(java.util.Locale.US, "%6.2f", r.nextDouble() * 100)!!)
+            ret.add(b.toString())
+        }
+        return ret
+    }
+
+    private fun put(b:StringBuilder, col:ParserColumn, value:String){
+        b.replace(col.beginIndex, col.beginIndex + value.length(), value)
+    }
+
+    fun run(bench:Bench){
+        val cols = Parser.parseADCColumnDefinition(DbImport.xhipReadme.readToString())
+        val reader = FixedWidthReader(cols)
+        val ra = reader.column("RAdeg")
+        val de = reader.column("DEdeg")
+        val lines = lines()
+
+        bench.run("Parser.parseFixedWidth", "rows=$ROWS", object:Bench.Op{
+            public override fun run():Long{
+                var ret:Long = 0
+                for (l in lines){
+                    val cells = Parser.parseFixedWidth(l, cols)
+                    ret += cells.get("RAdeg")!!.toAngle().microArcSec + cells.get("DEdeg")!!.toAngle().microArcSec
+                }
+                return ret
+            }
+        })
+
+        bench.run("FixedWidthReader.readMicroArcSec", "rows=$ROWS", object:Bench.Op{
+            public override fun run():Long{
+                var ret:Long = 0
+                for (l in lines)
+                    ret += reader.readMicroArcSec(l, ra) + reader.readMicroArcSec(l, de)
+                return ret
+            }
+        })
+    }
+
+}
+
+fun main(args:Array<String>){
+    System.out.println(Bench.HEADER)
+    ParserBench.run(Bench())
+}
@@ -0,0 +1,40 @@
+package org.asterope.data
+
+import java.util.Random
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D
+import org.asterope.bench.Bench
+import org.asterope.util.*
+
+/**
+ * Area queries on {@link StarDao} with uniformly distributed random stars,
+ * so benchmark does not depend on catalog data.
+ * Number of stars is set by system property `bench.stars`, radius in degrees by `bench.radius`.
+ *
+ *  @author Jan Kotek
+ */
+object StarDaoBench{
+
+    val STARS = Integer.getInteger("bench.stars", 100000)!!
+
+    fun run(bench:Bench){
+        val dao = StarDao()
+        val r = Random(0)
+        for (i in 0..STARS - 1)
+            dao.addStar(Star(Vector3D(r.nextDouble() * 2 * Math.PI, Math.asin(r.nextDouble() * 2 - 1)), Magnitude(r.nextInt(15000))))
+        //build store before measurement
+        dao.getStore()
+        val center = Vector3D(Math.toRadians(83.8), Math.toRadians(-5.4))
+
+        for (radius in Bench.params("bench.radius", "0.0166667,1,10")!!){
+            val area = HEALPIX_TOOLS.query_disc(center, Math.toRadians(radius), true)!!
+            val params = "stars=$STARS radius=${radius}d"
+            bench.run("StarDao.getStarsByArea", params, object:Bench.Op{
+                public override fun run():Long = dao.getStarsByArea(area).size().toLong()
+            })
+            bench.run("StarDao.getStarsByDisc", params, object:Bench.Op{
+                public override fun run():Long = dao.getStarsByDisc(center, Math.toRadians(radius)).size().toLong()
+            })
+        }
+    }
+
+}
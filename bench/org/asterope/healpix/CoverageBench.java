@@ -0,0 +1,79 @@
+//
+// Licenced under GPLv2, see licence.txt
+// (c) Jan Kotek,
+//
+
+package org.asterope.healpix;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.asterope.bench.Bench;
+
+/**
+ * Compares disc query in RING scheme converted to NESTED pixels (old star index path)
+ * with hierarchical {@link Coverage} query, at 1 arc minute, 1 degree and 30 degrees radius.
+ * Number of ranges in result is printed as well, it is what area queries iterate over.
+ * Exact, inclusive and conservative modes are compared, with statistics of tested cells.
+ *
+ * @author Jan Kotek
+ */
+public class CoverageBench {
+
+    static final String[] RADIUS_NAMES = {"1m", "1d", "30d"};
+    static final double[] RADIUS = {Math.toRadians(1.0/60), Math.toRadians(1), Math.toRadians(30)};
+
+    public static void run(Bench bench, int order) throws Exception {
+        final long nside = 1L << order;
+        final PixTools tools = new PixTools(nside);
+        final Coverage coverage = new Coverage(order);
+        final Vector3D center = new Vector3D(Math.toRadians(83.8), Math.toRadians(-5.4));
+
+        for(int i = 0;i<RADIUS.length;i++){
+            final double radius = RADIUS[i];
+            String params = "order="+order+" radius="+RADIUS_NAMES[i];
+            LongRangeSet ring = tools.query_disc(center, radius, true);
+            LongRangeSet nest = coverage.queryDisc(center, radius, true);
+            System.err.println(params+": ring pixels="+ring.size()+", nested pixels="+nest.size()
+                    +", nested ranges="+nest.rangeCount());
+
+            //ring to nested conversion enumerates all pixels, skip it for huge areas
+            if(ring.size()<10000000)
+                bench.run("PixTools.query_disc+ring2nest", params, new Bench.Op(){
+                    public long run() {
+                        return PixToolsNested.ring2nest(nside, tools.query_disc(center, radius, true)).rangeCount();
+                    }
+                });
+
+            bench.run("Coverage.queryDisc", params, new Bench.Op(){
+                public long run() {
+                    return coverage.queryDisc(center, radius, true).rangeCount();
+                }
+            });
+            bench.run("Coverage.queryDisc exact", params, new Bench.Op(){
+                public long run() {
+                    return coverage.queryDisc(center, radius, false).rangeCount();
+                }
+            });
+            //conservative with margin of few pixels
+            final double margin = 8 * Coverage.maxPixrad(nside);
+            bench.run("Coverage.queryDiscConservative", params+" margin=8pix", new Bench.Op(){
+                public long run() {
+                    return coverage.queryDiscConservative(center, radius, margin, null).rangeCount();
+                }
+            });
+            Coverage.Stats exact = new Coverage.Stats(), inclusive = new Coverage.Stats(), conservative = new Coverage.Stats();
+            coverage.queryDisc(center, radius, false, exact);
+            coverage.queryDisc(center, radius, true, inclusive);
+            LongRangeSet cons = coverage.queryDiscConservative(center, radius, margin, conservative);
+            System.err.println(params+": exact "+exact+"; inclusive "+inclusive+"; conservative "+conservative
+                    +", pixels="+cons.size()+", ranges="+cons.rangeCount());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(Bench.HEADER);
+        Bench bench = new Bench();
+        //order of star index and finer order for small fields
+        for(int order:new int[]{8, 12})
+            run(bench, order);
+    }
+}
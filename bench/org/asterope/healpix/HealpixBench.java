@@ -0,0 +1,132 @@
+//
+// Licenced under GPLv2, see licence.txt
+// (c) Jan Kotek,
+//
+
+package org.asterope.healpix;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.asterope.bench.Bench;
+
+/**
+ * Core HEALPix operations parameterised by order and radius, used by {@link org.asterope.bench.BenchSuite}.
+ * Pixel operations process batch of 1000 random points, area queries are centred at fixed point
+ * and polygon is square inscribed in disc.
+ * <p>
+ * Parameters are set by system properties `bench.orders` (default 8,12,16)
+ * and `bench.radius` in degrees (default 1 arc minute, 1 and 10 degrees).
+ *
+ * @author Jan Kotek
+ */
+public class HealpixBench {
+
+    static final int BATCH = 1000;
+
+    public static void run(Bench bench) throws Exception {
+        for(double order:Bench.params("bench.orders", "8,12,16")){
+            runPixel(bench, (int) order);
+            for(double radius:Bench.params("bench.radius", "0.0166667,1,10"))
+                runArea(bench, (int) order, radius);
+        }
+    }
+
+    static void runPixel(Bench bench, int order) throws Exception {
+        final long nside = 1L << order;
+        final long npix = 12 * nside * nside;
+        final PixTools ring = PixTools.withRingTables(nside);
+        final PixToolsNested nest = new PixToolsNested(nside);
+        final Random r = new Random(0);
+        final long[] pix = new long[BATCH];
+        final double[] xyz = new double[BATCH * 3];
+        for(int i = 0;i<BATCH;i++){
+            pix[i] = (long) (r.nextDouble() * npix);
+            xyz[i*3] = r.nextGaussian();
+            xyz[i*3+1] = r.nextGaussian();
+            xyz[i*3+2] = r.nextGaussian();
+        }
+        final long[] pixOut = new long[BATCH];
+        final double[] out = new double[3];
+        String params = "order="+order+" batch="+BATCH;
+
+        bench.run("PixTools.vect2pix", params, new Bench.Op(){
+            public long run() {
+                ring.vect2pix(xyz, pixOut);
+                return pixOut[BATCH-1];
+            }
+        });
+        bench.run("PixToolsNested.vect2pix", params, new Bench.Op(){
+            public long run() {
+                nest.vect2pix(xyz, pixOut);
+                return pixOut[BATCH-1];
+            }
+        });
+        bench.run("PixTools.pix2vect", params, new Bench.Op(){
+            public long run() {
+                double ret = 0;
+                for(long p:pix){
+                    ring.pix2vect(p, out);
+                    ret += out[2];
+                }
+                return (long) ret;
+            }
+        });
+        bench.run("PixToolsNested.pix2vect", params, new Bench.Op(){
+            public long run() {
+                double ret = 0;
+                for(long p:pix){
+                    nest.pix2vect(p, out);
+                    ret += out[2];
+                }
+                return (long) ret;
+            }
+        });
+    }
+
+    static void runArea(Bench bench, int order, double radiusDeg) throws Exception {
+        final long nside = 1L << order;
+        final PixTools ring = PixTools.withRingTables(nside);
+        final Coverage coverage = new Coverage(order);
+        final Vector3D center = new Vector3D(Math.toRadians(83.8), Math.toRadians(-5.4));
+        final double radius = Math.toRadians(radiusDeg);
+        final ArrayList<Vector3D> square = new ArrayList<Vector3D>();
+        double d = radius / Math.sqrt(2);
+        square.add(new Vector3D(center.getAlpha() - d, center.getDelta() - d));
+        square.add(new Vector3D(center.getAlpha() + d, center.getDelta() - d));
+        square.add(new Vector3D(center.getAlpha() + d, center.getDelta() + d));
+        square.add(new Vector3D(center.getAlpha() - d, center.getDelta() + d));
+        String params = "order="+order+" radius="+radiusDeg+"d";
+
+        //RING queries enumerate rings, skip them when result is too large
+        if(ring.query_disc(center, radius, true).rangeCount() < 100000){
+            bench.run("PixTools.query_disc", params, new Bench.Op(){
+                public long run() {
+                    return ring.query_disc(center, radius, true).rangeCount();
+                }
+            });
+            bench.run("PixTools.query_polygon", params, new Bench.Op(){
+                public long run() throws Exception {
+                    //query_polygon may reorder vertices
+                    return ring.query_polygon(new ArrayList<Vector3D>(square), false).rangeCount();
+                }
+            });
+        }
+        bench.run("Coverage.queryDisc", params, new Bench.Op(){
+            public long run() {
+                return coverage.queryDisc(center, radius, true).rangeCount();
+            }
+        });
+        bench.run("Coverage.queryPolygon", params, new Bench.Op(){
+            public long run() {
+                return coverage.queryPolygon(square, false).rangeCount();
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(Bench.HEADER);
+        run(new Bench());
+    }
+}
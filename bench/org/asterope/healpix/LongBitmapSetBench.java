@@ -0,0 +1,87 @@
+//
+// Licenced under GPLv2, see licence.txt
+// (c) Jan Kotek,
+//
+
+package org.asterope.healpix;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.asterope.bench.Bench;
+
+import java.util.Random;
+
+/**
+ * Compares range and bitmap representation of survey footprint masks at order 12.
+ * Fragmented mask keeps random pixels from disc (such as pixels with detections),
+ * contiguous mask is plain disc. Memory of both representations is printed,
+ * union, intersect and contains are measured.
+ *
+ * @author Jan Kotek
+ */
+public class LongBitmapSetBench {
+
+    static final int ORDER = 12;
+
+    /** pixels from disc, each kept with given probability */
+    static LongRangeSet mask(Vector3D center, double radius, double density, long seed){
+        LongRangeSet disc = new Coverage(ORDER).queryDisc(center, radius, false);
+        if(density>=1)
+            return disc;
+        Random r = new Random(seed);
+        LongRangeSetBuilder b = new LongRangeSetBuilder();
+        LongIterator iter = disc.longIterator();
+        while(iter.hasNext()){
+            long p = iter.next();
+            if(r.nextDouble()<density)
+                b.append(p);
+        }
+        return b.build();
+    }
+
+    static void run(Bench bench, String name, final LongRangeSet m1, final LongRangeSet m2) throws Exception {
+        String[] reprs = {"ranges", "bitmap"};
+        LongRangeSet[][] sets = {{m1, m2}, {LongBitmapSet.valueOf(m1), LongBitmapSet.valueOf(m2)}};
+        System.err.println(name+": pixels="+m1.size()+", ranges="+m1.rangeCount()
+                +", range bytes="+m1.memoryUsage()+", bitmap bytes="+sets[1][0].memoryUsage()
+                +", compact chooses "+m1.compact().getClass().getSimpleName());
+
+        //probes into first mask
+        final long[] probes = new long[10000];
+        Random r = new Random(1);
+        for(int i = 0;i<probes.length;i++)
+            probes[i] = m1.first() + (long)(r.nextDouble() * (m1.last() - m1.first()));
+
+        for(int i = 0;i<reprs.length;i++){
+            final LongRangeSet s1 = sets[i][0], s2 = sets[i][1];
+            String params = "mask="+name+" repr="+reprs[i];
+            bench.run("LongRangeSet.union", params, new Bench.Op(){
+                public long run() {
+                    return s1.union(s2).size();
+                }
+            });
+            bench.run("LongRangeSet.intersect", params, new Bench.Op(){
+                public long run() {
+                    return s1.intersect(s2).size();
+                }
+            });
+            bench.run("LongRangeSet.contains", params+" probes="+probes.length, new Bench.Op(){
+                public long run() {
+                    long ret = 0;
+                    for(long p:probes)
+                        if(s1.contains(p)) ret++;
+                    return ret;
+                }
+            });
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(Bench.HEADER);
+        Bench bench = new Bench();
+        Vector3D c1 = new Vector3D(Math.toRadians(83.8), Math.toRadians(-5.4));
+        Vector3D c2 = new Vector3D(Math.toRadians(86), Math.toRadians(-3));
+        double radius = Math.toRadians(5);
+        run(bench, "fragmented", mask(c1, radius, 0.3, 1), mask(c2, radius, 0.3, 2));
+        run(bench, "contiguous", mask(c1, radius, 1, 1), mask(c2, radius, 1, 2));
+    }
+}
@@ -0,0 +1,150 @@
+//
+// Licenced under GPLv2, see licence.txt
+// (c) Jan Kotek,
+//
+
+package org.asterope.healpix;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.asterope.bench.Bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Set operations on footprints at order 12: intersect of small tile with large
+ * fragmented footprint (galloping) and union of hundreds of tile masks,
+ * pairwise and with {@link LongRangeSet#unionAll(java.util.Collection)}.
+ * Footprint is also serialised with {@link LongRangeSetBuilder}, plain and compressed.
+ *
+ * @author Jan Kotek
+ */
+public class LongRangeSetBench {
+
+    static final int ORDER = 12;
+
+    public static void run(Bench bench) throws Exception {
+        Coverage coverage = new Coverage(ORDER);
+        Random r = new Random(1);
+
+        //large fragmented footprint, every second pixel in 20 degree disc
+        LongRangeSet disc = coverage.queryDisc(new Vector3D(1, 1, 1), Math.toRadians(20), false);
+        LongRangeSetBuilder b = new LongRangeSetBuilder();
+        LongIterator iter = disc.longIterator();
+        while(iter.hasNext()){
+            long p = iter.next();
+            if(p%2 == 0) b.append(p);
+        }
+        final LongRangeSet footprint = b.build();
+        final LongRangeSet tile = coverage.queryDisc(new Vector3D(1, 1, 1), Math.toRadians(0.2), false);
+        System.err.println("footprint ranges="+footprint.rangeCount()+", tile ranges="+tile.rangeCount());
+        bench.run("LongRangeSet.intersect", "footprint*tile", new Bench.Op(){
+            public long run() {
+                return footprint.intersect(tile).size();
+            }
+        });
+        bench.run("LongRangeSet.substract", "tile-footprint", new Bench.Op(){
+            public long run() {
+                return tile.substract(footprint).size();
+            }
+        });
+        bench.run("LongRangeSet.containsAll", "footprint,tile", new Bench.Op(){
+            public long run() {
+                return footprint.containsAll(tile.rangeIterator()) ? 1 : 0;
+            }
+        });
+
+        //tile masks
+        for(final int count:new int[]{10, 100, 500}){
+            final ArrayList<LongRangeSet> tiles = new ArrayList<LongRangeSet>();
+            for(int i = 0;i<count;i++){
+                Vector3D c = new Vector3D(r.nextDouble()*2*Math.PI, Math.asin(r.nextDouble()*2-1));
+                tiles.add(coverage.queryDisc(c, Math.toRadians(1), true));
+            }
+            String params = "tiles="+count;
+            bench.run("LongRangeSet.union", params, new Bench.Op(){
+                public long run() {
+                    LongRangeSet ret = LongRangeSetBuilder.EMPTY;
+                    for(LongRangeSet s:tiles)
+                        ret = ret.union(s);
+                    return ret.rangeCount();
+                }
+            });
+            bench.run("LongRangeSet.unionAll", params, new Bench.Op(){
+                public long run() {
+                    return LongRangeSet.unionAll(tiles).rangeCount();
+                }
+            });
+        }
+
+        runSerialisation(bench, footprint);
+    }
+
+    static void runSerialisation(Bench bench, final LongRangeSet set) throws Exception {
+        String params = "ranges="+set.rangeCount();
+        final ByteBuffer buf = ByteBuffer.allocate(LongRangeSetBuilder.byteSize(set));
+        LongRangeSetBuilder.writeTo(buf, set);
+        //varint may take up to 10 bytes per value
+        final ByteBuffer compressed = ByteBuffer.allocate(LongRangeSetBuilder.byteSize(set) * 2);
+        LongRangeSetBuilder.writeCompressed(compressed, set);
+        System.err.println(params+": bytes="+buf.capacity()+", compressed bytes="+compressed.position());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        LongRangeSetBuilder.writeTo(new DataOutputStream(bytes), set);
+        final byte[] stream = bytes.toByteArray();
+
+        bench.run("LongRangeSetBuilder.writeTo(DataOutput)", params, new Bench.Op(){
+            public long run() throws Exception {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(stream.length);
+                LongRangeSetBuilder.writeTo(new DataOutputStream(out), set);
+                return out.size();
+            }
+        });
+        bench.run("LongRangeSetBuilder.readFrom(DataInput)", params, new Bench.Op(){
+            public long run() throws Exception {
+                return LongRangeSetBuilder.readFrom(new DataInputStream(new ByteArrayInputStream(stream))).rangeCount();
+            }
+        });
+        bench.run("LongRangeSetBuilder.writeTo(ByteBuffer)", params, new Bench.Op(){
+            public long run() {
+                buf.clear();
+                LongRangeSetBuilder.writeTo(buf, set);
+                return buf.position();
+            }
+        });
+        bench.run("LongRangeSetBuilder.readFrom(ByteBuffer)", params, new Bench.Op(){
+            public long run() {
+                buf.rewind();
+                return LongRangeSetBuilder.readFrom(buf).rangeCount();
+            }
+        });
+        bench.run("LongRangeSetBuilder.view", params, new Bench.Op(){
+            public long run() {
+                buf.rewind();
+                return LongRangeSetBuilder.view(buf).rangeCount();
+            }
+        });
+        bench.run("LongRangeSetBuilder.writeCompressed", params, new Bench.Op(){
+            public long run() {
+                compressed.clear();
+                LongRangeSetBuilder.writeCompressed(compressed, set);
+                return compressed.position();
+            }
+        });
+        bench.run("LongRangeSetBuilder.readCompressed", params, new Bench.Op(){
+            public long run() {
+                compressed.rewind();
+                return LongRangeSetBuilder.readCompressed(compressed).rangeCount();
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(Bench.HEADER);
+        run(new Bench());
+    }
+}
@@ -0,0 +1,133 @@
+//
+// Licenced under GPLv2, see licence.txt
+// (c) Jan Kotek,
+//
+
+package org.asterope.healpix;
+
+import java.util.Random;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.asterope.bench.Bench;
+
+/**
+ * Compares native NESTED scheme in {@link PixToolsNested} with RING scheme in {@link PixTools},
+ * and allocation free variants of methods with variants returning objects.
+ * Each operation processes batch of 1000 random pixels or vectors.
+ *
+ * @author Jan Kotek
+ */
+public class PixToolsNestedBench {
+
+    static final int BATCH = 1000;
+
+    public static void run(Bench bench, int order) throws Exception {
+        final long nside = 1L << order;
+        final long npix = 12 * nside * nside;
+        final PixTools ring = new PixTools(nside);
+        final PixToolsNested nest = new PixToolsNested(nside);
+        final Random r = new Random(0);
+        final long[] pix = new long[BATCH];
+        final Vector3D[] vect = new Vector3D[BATCH];
+        for(int i = 0;i<BATCH;i++){
+            pix[i] = (long) (r.nextDouble() * npix);
+            vect[i] = new Vector3D(r.nextGaussian(), r.nextGaussian(), r.nextGaussian());
+        }
+        final double[] out = new double[3];
+        final double[] xyz = new double[BATCH * 3];
+        for(int i = 0;i<BATCH;i++){
+            xyz[i*3] = vect[i].getX();
+            xyz[i*3+1] = vect[i].getY();
+            xyz[i*3+2] = vect[i].getZ();
+        }
+        final long[] pixOut = new long[BATCH];
+        final Vector3D center = new Vector3D(Math.toRadians(83.8), Math.toRadians(-5.4));
+        String params = "order="+order+" batch="+BATCH;
+
+        bench.run("PixTools.vect2pix", params, new Bench.Op(){
+            public long run() {
+                long ret = 0;
+                for(Vector3D v:vect) ret += ring.vect2pix(v);
+                return ret;
+            }
+        });
+        bench.run("PixTools.vect2pix+ring2nest", params, new Bench.Op(){
+            public long run() {
+                long ret = 0;
+                for(Vector3D v:vect) ret += PixToolsNested.ring2nest(nside, ring.vect2pix(v));
+                return ret;
+            }
+        });
+        bench.run("PixTools.vect2pix(xyz,out)", params, new Bench.Op(){
+            public long run() {
+                ring.vect2pix(xyz, pixOut);
+                return pixOut[BATCH-1];
+            }
+        });
+        bench.run("PixToolsNested.vect2pix", params, new Bench.Op(){
+            public long run() {
+                long ret = 0;
+                for(Vector3D v:vect) ret += nest.vect2pix(v);
+                return ret;
+            }
+        });
+        bench.run("PixTools.pix2vect", params, new Bench.Op(){
+            public long run() {
+                long ret = 0;
+                for(long p:pix) ret += (long) ring.pix2vect(p).getZ();
+                return ret;
+            }
+        });
+        bench.run("PixTools.pix2vect(ipix,out)", params, new Bench.Op(){
+            public long run() {
+                long ret = 0;
+                for(long p:pix){
+                    ring.pix2vect(p, out);
+                    ret += (long) out[2];
+                }
+                return ret;
+            }
+        });
+        bench.run("PixToolsNested.pix2vect", params, new Bench.Op(){
+            public long run() {
+                long ret = 0;
+                for(long p:pix){
+                    nest.pix2vect(p, out);
+                    ret += (long) out[2];
+                }
+                return ret;
+            }
+        });
+        bench.run("PixToolsNested.ring2nest", params, new Bench.Op(){
+            public long run() {
+                long ret = 0;
+                for(long p:pix) ret += PixToolsNested.ring2nest(nside, p);
+                return ret;
+            }
+        });
+        bench.run("PixToolsNested.nest2ring", params, new Bench.Op(){
+            public long run() {
+                long ret = 0;
+                for(long p:pix) ret += PixToolsNested.nest2ring(nside, p);
+                return ret;
+            }
+        });
+        bench.run("PixTools.query_disc", params+" radius=1d", new Bench.Op(){
+            public long run() {
+                return ring.query_disc(center, Math.toRadians(1), true).size();
+            }
+        });
+        bench.run("PixToolsNested.query_disc", params+" radius=1d", new Bench.Op(){
+            public long run() {
+                return nest.query_disc(center, Math.toRadians(1), true).size();
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(Bench.HEADER);
+        Bench bench = new Bench();
+        for(int order:new int[]{8, 12, 20})
+            run(bench, order);
+    }
+}
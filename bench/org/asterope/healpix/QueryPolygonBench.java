@@ -0,0 +1,54 @@
+//
+// Licenced under GPLv2, see licence.txt
+// (c) Jan Kotek,
+//
+
+package org.asterope.healpix;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.asterope.bench.Bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Scaling of {@link PixTools#query_polygon(ArrayList, boolean, ForkJoinPool)} with number of cores,
+ * for 40x40 degrees field of view at high nside. Threads=0 is query in calling thread.
+ *
+ * @author Jan Kotek
+ */
+public class QueryPolygonBench {
+
+    public static void run(Bench bench, long nside) throws Exception {
+        final PixTools tools = new PixTools(nside);
+        final ArrayList<Vector3D> square = new ArrayList<Vector3D>();
+        square.add(new Vector3D(Math.toRadians(60), Math.toRadians(-20)));
+        square.add(new Vector3D(Math.toRadians(100), Math.toRadians(-20)));
+        square.add(new Vector3D(Math.toRadians(100), Math.toRadians(20)));
+        square.add(new Vector3D(Math.toRadians(60), Math.toRadians(20)));
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        //0, 1, 2, 4 ... and all cores
+        for(int threads = 0; threads<=cores; threads = threads == 0 ? 1 : threads<cores ? Math.min(threads*2, cores) : cores+1){
+            final ForkJoinPool pool = threads == 0 ? null : new ForkJoinPool(threads);
+            try{
+                bench.run("PixTools.query_polygon", "nside="+nside+" threads="+threads, new Bench.Op(){
+                    public long run() throws Exception {
+                        //query_polygon reorders vertices
+                        return tools.query_polygon(new ArrayList<Vector3D>(square), true, pool).rangeCount();
+                    }
+                });
+            }finally{
+                if(pool!=null)
+                    pool.shutdown();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(Bench.HEADER);
+        Bench bench = new Bench();
+        for(long nside:new long[]{1<<12, 1<<16})
+            run(bench, nside);
+    }
+}
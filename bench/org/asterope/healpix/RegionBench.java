@@ -0,0 +1,50 @@
+//
+// Licenced under GPLv2, see licence.txt
+// (c) Jan Kotek,
+//
+
+package org.asterope.healpix;
+
+import org.asterope.bench.Bench;
+
+/**
+ * Compares RING pixelization {@link Region#pixelize(double)},
+ * RING pixelization converted by {@link PixToolsNested#ring2nest(long, LongRangeSet)}
+ * and nested hierarchy descent in {@link Region#pixelizeNested(double)}.
+ *
+ * @author Jan Kotek
+ */
+public class RegionBench {
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(Bench.HEADER);
+        Bench bench = new Bench();
+        final Region region = new Region(10., 60., -20., 20.);
+        //1 arc minute, 10 and 1 arc second
+        for(final double precision:new double[]{60, 10, 1}){
+            final long nside = PixTools.GetNSide(precision);
+            String params = "nside="+nside+" box=50x40d";
+            LongRangeSet nested = region.pixelizeNested(precision);
+            System.err.println(params+": pixels="+nested.size()+", nested ranges="+nested.rangeCount()
+                    +", ring ranges="+region.pixelize(precision).rangeCount());
+
+            bench.run("Region.pixelize", params, new Bench.Op(){
+                public long run() {
+                    return region.pixelize(precision).rangeCount();
+                }
+            });
+
+            bench.run("Region.pixelize+ring2nest", params, new Bench.Op(){
+                public long run() {
+                    return PixToolsNested.ring2nest(nside, region.pixelize(precision)).rangeCount();
+                }
+            });
+
+            bench.run("Region.pixelizeNested", params, new Bench.Op(){
+                public long run() {
+                    return region.pixelizeNested(precision).rangeCount();
+                }
+            });
+        }
+    }
+}
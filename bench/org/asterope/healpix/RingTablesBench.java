@@ -0,0 +1,68 @@
+//
+// Licenced under GPLv2, see licence.txt
+// (c) Jan Kotek,
+//
+
+package org.asterope.healpix;
+
+import java.util.Random;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.asterope.bench.Bench;
+
+/**
+ * Compares {@link PixTools} with and without precomputed ring tables.
+ * Pixel operations process batch of 1000 random pixels, disc query uses 1 degree radius.
+ *
+ * @author Jan Kotek
+ */
+public class RingTablesBench {
+
+    static final int BATCH = 1000;
+
+    public static void run(Bench bench, int order) throws Exception {
+        final long nside = 1L << order;
+        final long npix = 12 * nside * nside;
+        final Random r = new Random(0);
+        final long[] pix = new long[BATCH];
+        for(int i = 0;i<BATCH;i++)
+            pix[i] = (long) (r.nextDouble() * npix);
+        final double[] out = new double[3];
+        final Vector3D center = new Vector3D(Math.toRadians(83.8), Math.toRadians(-5.4));
+        final double radius = Math.toRadians(1);
+
+        for(final PixTools tools:new PixTools[]{new PixTools(nside), PixTools.withRingTables(nside)}){
+            String params = "order="+order+" tables="+tools.hasRingTables();
+            bench.run("PixTools.pix2vect(ipix,out)", params+" batch="+BATCH, new Bench.Op(){
+                public long run() {
+                    double ret = 0;
+                    for(long p:pix){
+                        tools.pix2vect(p, out);
+                        ret += out[2];
+                    }
+                    return (long) ret;
+                }
+            });
+            bench.run("PixTools.pix2ang", params+" batch="+BATCH, new Bench.Op(){
+                public long run() {
+                    double ret = 0;
+                    for(long p:pix) ret += tools.pix2ang(p)[0];
+                    return (long) ret;
+                }
+            });
+            bench.run("PixTools.query_disc", params+" radius=1d", new Bench.Op(){
+                public long run() {
+                    return tools.query_disc(center, radius, true).rangeCount();
+                }
+            });
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(Bench.HEADER);
+        Bench bench = new Bench();
+        //order of star index and finer order
+        for(int order:new int[]{8, 14})
+            run(bench, order);
+    }
+}
@@ -0,0 +1,133 @@
+package skyview.process;
+
+import nom.tam.fits.Header;
+import org.asterope.bench.Bench;
+import skyview.executive.Key;
+import skyview.executive.Settings;
+import skyview.geometry.Sampler;
+import skyview.geometry.WCS;
+import skyview.survey.Image;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares single threaded and tile-parallel {@link Mosaicker} on a DSS-like mosaic:
+ * output image is resampled from a grid of overlapping TAN plates.
+ * Plates are generated in memory, so the benchmark does not depend on DSS files.
+ * Before measuring it checks that parallel output is bit-identical to single threaded output.
+ * <p>
+ * System properties:
+ * <ul>
+ *   <li>bench.size - width and height of output image, default 4096</li>
+ *   <li>bench.plates - number of plates along each axis, default 3</li>
+ *   <li>bench.samplers - comma separated samplers, default NN,LI,Lanczos,Clip</li>
+ *   <li>bench.threads - MosaicThreads used for parallel run, default 4</li>
+ * </ul>
+ */
+public class MosaickerBench {
+
+    /** output pixel size in degrees, about the DSS2 pixel */
+    static final double SCALE = 1.0/3600;
+
+    final int size;
+    final int plates;
+    final WCS outWCS;
+    final WCS[] plateWCS;
+    final int plateSize;
+    final double[][] plateData;
+    final int[] source;
+
+    MosaickerBench(int size, int plates) throws Exception {
+        this.size = size;
+        this.plates = plates;
+        outWCS = new WCS(header(10, 20, size, size, SCALE));
+
+        //plates have 10% bigger pixels, so neighbouring plates overlap
+        plateSize = size / plates;
+        plateWCS = new WCS[plates * plates];
+        plateData = new double[plates * plates][];
+        Random r = new Random(1);
+        for(int py = 0; py<plates; py++){
+            for(int px = 0; px<plates; px++){
+                //center of plate in output pixels
+                double[] c = outWCS.inverse().transform(new double[]{(px + 0.5) * size / plates, (py + 0.5) * size / plates});
+                double[] radec = skyview.geometry.Util.coord(c);
+                int i = px + py * plates;
+                plateWCS[i] = new WCS(header(Math.toDegrees(radec[0]), Math.toDegrees(radec[1]), plateSize, plateSize, SCALE * 1.1));
+                double[] data = new double[plateSize * plateSize];
+                for(int j = 0; j<data.length; j++)
+                    data[j] = r.nextInt(30000);
+                plateData[i] = data;
+            }
+        }
+        //source plate of output pixel, as from image finder
+        source = new int[size * size];
+        for(int y = 0; y<size; y++)
+            for(int x = 0; x<size; x++)
+                source[x + y * size] = x * plates / size + y * plates / size * plates;
+    }
+
+    static Header header(double ra, double dec, int nx, int ny, double scale) throws Exception {
+        Header h = new Header();
+        h.addValue("SIMPLE", true, "");
+        h.addValue("BITPIX", -64, "");
+        h.addValue("NAXIS", 2, "");
+        h.addValue("NAXIS1", nx, "");
+        h.addValue("NAXIS2", ny, "");
+        h.addValue("CTYPE1", "RA---TAN", "");
+        h.addValue("CTYPE2", "DEC--TAN", "");
+        h.addValue("CRVAL1", ra, "");
+        h.addValue("CRVAL2", dec, "");
+        h.addValue("CRPIX1", nx / 2. + 0.5, "");
+        h.addValue("CRPIX2", ny / 2. + 0.5, "");
+        h.addValue("CDELT1", -scale, "");
+        h.addValue("CDELT2", scale, "");
+        h.addValue("EQUINOX", 2000., "");
+        return h;
+    }
+
+    /** mosaic plates into new output image */
+    double[] mosaic(String sampler, int threads) throws Exception {
+        Settings.put(Key.MosaicThreads, "" + threads);
+        Image[] input = new Image[plateWCS.length];
+        //mosaicker clears data of processed plates, so images are created for each run
+        for(int i = 0; i<input.length; i++)
+            input[i] = new Image(plateData[i], plateWCS[i], plateSize, plateSize);
+        Image output = new Image(new double[size * size], outWCS, size, size);
+        Sampler samp = Sampler.factory(sampler);
+        new Mosaicker().process(input, output, source, samp, null);
+        return output.getDataArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int size = Integer.getInteger("bench.size", 4096);
+        int plates = Integer.getInteger("bench.plates", 3);
+        final int threads = Integer.getInteger("bench.threads", 4);
+        String[] samplers = System.getProperty("bench.samplers", "NN,LI,Lanczos,Clip").split(",");
+
+        System.out.println(Bench.HEADER);
+        Bench bench = new Bench();
+        final MosaickerBench m = new MosaickerBench(size, plates);
+        for(final String sampler:samplers){
+            String params = "size=" + size + " plates=" + plates * plates + " sampler=" + sampler;
+            if(!bench.matches("Mosaicker.process"))
+                continue;
+            double[] single = m.mosaic(sampler, 1);
+            double[] parallel = m.mosaic(sampler, threads);
+            if(!Arrays.equals(single, parallel))
+                throw new AssertionError("Parallel mosaic differs from single threaded, sampler " + sampler);
+
+            bench.run("Mosaicker.process", params + " threads=1", new Bench.Op(){
+                public long run() throws Exception {
+                    return m.mosaic(sampler, 1).length;
+                }
+            });
+            bench.run("Mosaicker.process", params + " threads=" + threads, new Bench.Op(){
+                public long run() throws Exception {
+                    return m.mosaic(sampler, threads).length;
+                }
+            });
+        }
+    }
+}
@@ -3,6 +3,10 @@ package skyview.executive;
 import java.io.FileReader;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Batch {
     
@@ -10,6 +14,12 @@ public class Batch {
      *  Usage:  java skyview.executive.Batch file [key1=val1 key2=val2 ...]
      *  where each line of file contains  settings that supplement
      *  the those given on this command line. 
+     *  <p>
+     *  The BatchThreads setting gives the number of lines processed
+     *  in parallel, the default is 1.  Each line is processed in its own
+     *  Settings context, while the survey definitions are loaded only once.
+     *  The time taken by each line and the number of images per minute
+     *  are reported when processing finishes.
      */
     public static void main(String[] args) throws Exception {
 
@@ -29,40 +39,110 @@ public class Batch {
 	    in = new BufferedReader(new FileReader(file));
 	}
 	
-	Imager img = new Imager();
+	int threads = 1;
+	if (Settings.has(Key.BatchThreads)) {
+	    threads = Integer.parseInt(Settings.get(Key.BatchThreads));
+	}
+	if (threads < 1) {
+	    threads = Runtime.getRuntime().availableProcessors();
+	}
+	
+	// Make sure the surveyfinder default is set before contexts are copied.
+	new Imager();
+	
+	ExecutorService pool = Executors.newFixedThreadPool(threads);
+	AtomicInteger done   = new AtomicInteger();
+	AtomicInteger failed = new AtomicInteger();
+	long start  = System.nanoTime();
 	int count = 0;
 	String origOutput = Settings.get(Key.output);
-	while (true) {
-	    Settings.save();
-	    String line = in.readLine();
-	    if (line == null) {
-		break;
-	    }
-	    line = line.trim();
-	    if (line.length() == 0  || line.startsWith("#") ) {
-		continue;
-	    }
-	    args = line.split(" ");
-	    for (int i=0; i<args.length; i += 1) {
-		args[i] = args[i].trim();
+	try {
+	    while (true) {
+		String line = in.readLine();
+		if (line == null) {
+		    break;
+		}
+		line = line.trim();
+		if (line.length() == 0  || line.startsWith("#") ) {
+		    continue;
+		}
+		args = line.split(" ");
+		for (int i=0; i<args.length; i += 1) {
+		    args[i] = args[i].trim();
+		}
+		
+		Settings.Context ctx = Settings.newContext();
+		Settings.Context previous = Settings.enter(ctx);
+		try {
+		    Settings.addArgs(args);
+		    String currOutput = Settings.get(Key.output);
+		    // Make sure each line has a distinct output setting.
+		    if (currOutput == null) {
+			Settings.put(Key.output, "output"+count);
+		    } else if (currOutput.equals(origOutput)) {
+			Settings.put(Key.output, origOutput+count);
+		    }
+		} catch (Exception e) {
+		    System.err.println("Caught exception for line:"+line+"\n   "+e.getMessage());
+		    failed.incrementAndGet();
+		    count += 1;
+		    continue;
+		} finally {
+		    Settings.leave(previous);
+		}
+		pool.execute(new Line(count, line, ctx, done, failed));
+		count += 1;
 	    }
+	} finally {
+	    pool.shutdown();
+	    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+	
+	double minutes = (System.nanoTime() - start) / 60e9;
+	System.err.println(String.format(
+	   "Batch finished: %d images, %d failed in %.2f minutes with %d threads, %.1f images/minute",
+	   done.get(), failed.get(), minutes, threads, done.get() / minutes));
+    }
+    
+    /** Processes one line of the batch file in its own Settings context */
+    private static class Line implements Runnable {
+	
+	private final int              number;
+	private final String           line;
+	private final Settings.Context ctx;
+	private final AtomicInteger    done;
+	private final AtomicInteger    failed;
+	
+	Line(int number, String line, Settings.Context ctx, AtomicInteger done, AtomicInteger failed) {
+	    this.number = number;
+	    this.line   = line;
+	    this.ctx    = ctx;
+	    this.done   = done;
+	    this.failed = failed;
+	}
+	
+	public void run() {
+	    Settings.Context previous = Settings.enter(ctx);
+	    long start = System.nanoTime();
+	    boolean ok = false;
 	    try {
-		Settings.addArgs(args);
-		String currOutput = Settings.get(Key.output);
-		// Make sure each line has a distinct output setting.
-		if (currOutput == null) {
-		    Settings.put(Key.output, "output"+count);
-		} else if (currOutput.equals(origOutput)) {
-		    Settings.put(Key.output, origOutput+count);
-		}
+		Imager img = new Imager();
 	        img.run();
+		img.clearImageCache();
+		ok = true;
 	    } catch (Exception e) {
 		System.err.println("Caught exception for line:"+line+"\n   "+e.getMessage());
 		e.printStackTrace(System.err);
+	    } finally {
+		Settings.leave(previous);
+	    }
+	    if (ok) {
+		done.incrementAndGet();
+	    } else {
+		failed.incrementAndGet();
 	    }
-	    img.clearImageCache();
-	    Settings.restore();
-	    count += 1;
+	    System.err.println(String.format("Batch line %d %s in %.3f s: %s",
+	       number, ok ? "finished" : "failed", (System.nanoTime()-start)/1e9, line));
 	}
     }
 }
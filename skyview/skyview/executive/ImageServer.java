@@ -0,0 +1,282 @@
+package skyview.executive;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/** Long running image service.  The JVM, the survey descriptions
+ *  and loaded classes stay warm between requests, so a request
+ *  costs only the image processing.
+ *  Usage:  java skyview.executive.ImageServer [key1=val1 key2=val2 ...]
+ *  <p>
+ *  Requests are sent to <code>http://host:port/image</code> and take the
+ *  same key=value settings as the Imager command line, either as
+ *  the query string of a GET (<code>/image?survey=dss&amp;position=m31</code>)
+ *  or as the body of a POST separated by spaces, newlines or &amp;.
+ *  The settings given when the server was started are the defaults
+ *  for each request.  Each request runs in its own Settings context.
+ *  Settings which name files, directories, URLs or classes on the server,
+ *  or which configure the server, may be given only at startup;
+ *  a request with any of them is rejected with status 400.
+ *  <p>
+ *  The output files are created in a temporary directory and returned
+ *  in the response.  A single file is returned as is, several files
+ *  (e.g., when more than one survey is requested) are returned as a ZIP archive.
+ *  <p>
+ *  The server is controlled by the settings:
+ *  <dl>
+ *  <dt> ServerHost <dd> The address to listen on, default is the loopback address,
+ *       so only local clients are served.
+ *  <dt> ServerPort <dd> The port to listen on, default 8080.
+ *  <dt> ServerThreads <dd> The number of images created at the same time,
+ *       default is the number of processors.
+ *  <dt> ServerQueue <dd> The number of requests which may wait for a free thread,
+ *       default 100.  Requests over this limit are rejected with status 503.
+ *  </dl>
+ *  The time the request waited and the time it took to create the images
+ *  are returned in the Server-Timing header.
+ */
+public class ImageServer implements HttpHandler {
+    
+    /** Settings which requests may not give */
+    private static final EnumSet<Key> serverKeys = EnumSet.of(
+	Key.output, Key.outputRoot, Key.FilePrefix, Key.SaveBySurvey, Key.settings, Key.SettingsUpdaters,
+	Key.surveyfinder, Key.surveymanifest, Key.surveyxml, Key.xmlroot, Key.cache, Key.purgecache,
+	Key.LocalURL, Key.CopyWCS, Key.userfile, Key.file, Key.DrawFile, Key.catalogFile, Key.CatalogFileKey,
+	Key.NullImageDir, Key.webrootpath, Key.lutcbarpath,
+	Key.Preprocessor, Key.Postprocessor, Key.finalpostprocessor, Key.Mosaicker, Key.Deedger,
+	Key.ImageFinder, Key.ImageFactory, Key.ExposureFinder, Key.ExposureFileMatch, Key.ExposureFileGen,
+	Key.RGBWriter, Key.HTMLWriter, Key.HeaderTemplate, Key.FooterTemplate, Key.SurveyTemplate,
+	Key.RGBTemplate, Key.GalleryXSLT, Key.DescriptionXSLT,
+	Key.SIABase, Key.SiapURL, Key.DSS2Prefix, Key.Url_VizierBase, Key.Url_HeasarcBase,
+	Key.MaxRequestSize, Key.imagej, Key.NOEXIT, Key.BatchThreads, Key.SurveyThreads, Key.MosaicThreads,
+	Key.ServerHost, Key.ServerPort, Key.ServerThreads, Key.ServerQueue);
+    
+    /** Limits the number of requests processed at the same time */
+    private final Semaphore running;
+    
+    /** Number of requests waiting or running */
+    private final AtomicInteger pending = new AtomicInteger();
+    
+    /** Maximal number of requests waiting or running */
+    private final int maxPending;
+    
+    /** Used to give each request its own directory */
+    private final AtomicInteger requestCount = new AtomicInteger();
+    
+    /** Where the request directories are created */
+    private final File workDir;
+    
+    public ImageServer(int threads, int queue, File workDir) {
+	this.running    = new Semaphore(threads, true);
+	this.maxPending = threads + queue;
+	this.workDir    = workDir;
+    }
+    
+    public static void main(String[] args) throws Exception {
+	
+	Settings.addArgs(args);
+	int port    = Integer.parseInt(Settings.get(Key.ServerPort, "8080"));
+	int threads = Integer.parseInt(Settings.get(Key.ServerThreads,
+				       ""+Runtime.getRuntime().availableProcessors()));
+	int queue   = Integer.parseInt(Settings.get(Key.ServerQueue, "100"));
+	
+	// Sets up the default survey finder and parses the survey descriptions,
+	// so the first request does not have to.
+	new Imager();
+	Imager.getSurveyFinder();
+	
+	File workDir = File.createTempFile("skyview", "");
+	workDir.delete();
+	if (!workDir.mkdirs()) {
+	    throw new IOException("Unable to create work directory: "+workDir);
+	}
+	workDir.deleteOnExit();
+	
+	String host = Settings.get(Key.ServerHost);
+	InetSocketAddress address = host == null ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+	                                         : new InetSocketAddress(host, port);
+	HttpServer server = HttpServer.create(address, 0);
+	server.createContext("/image", new ImageServer(threads, queue, workDir));
+	// Waiting requests hold a thread, the semaphore limits the number of running ones.
+	server.setExecutor(Executors.newCachedThreadPool());
+	server.start();
+	System.err.println("Image server listening on "+address+" with "+threads+" threads.");
+    }
+    
+    public void handle(HttpExchange exchange) throws IOException {
+	try {
+	    if (pending.incrementAndGet() > maxPending) {
+		sendText(exchange, 503, "Too many requests, try again later.");
+		return;
+	    }
+	    long start = System.nanoTime();
+	    String[] args;
+	    try {
+		args = parseArgs(exchange);
+	    } catch (Exception e) {
+		sendText(exchange, 400, "Invalid request: "+e);
+		return;
+	    }
+	    
+	    running.acquireUninterruptibly();
+	    long started = System.nanoTime();
+	    File dir = new File(workDir, "req"+requestCount.incrementAndGet());
+	    try {
+		dir.mkdirs();
+		Exception failure = null;
+		Settings.Context previous = Settings.enter(Settings.newContext());
+		try {
+		    Settings.addArgs(args);
+		    Settings.put(Key.output, new File(dir, "output").getPath());
+		    new Imager().run();
+		} catch (Exception e) {
+		    failure = e;
+		    e.printStackTrace(System.err);
+		} finally {
+		    Settings.leave(previous);
+		    Imager.releaseImager();
+		}
+		long finished = System.nanoTime();
+		
+		exchange.getResponseHeaders().add("Server-Timing", String.format(java.util.Locale.US,
+		   "queue;dur=%.1f, image;dur=%.1f", (started-start)/1e6, (finished-started)/1e6));
+		File[] files = dir.listFiles();
+		if (failure != null) {
+		    sendText(exchange, 500, "Error creating image: "+failure);
+		} else if (files == null || files.length == 0) {
+		    sendText(exchange, 400, "No image created, check the survey and position settings.");
+		} else {
+		    sendFiles(exchange, files);
+		}
+	    } finally {
+		delete(dir);
+		running.release();
+	    }
+	} finally {
+	    pending.decrementAndGet();
+	    exchange.close();
+	}
+    }
+    
+    /** Get settings from the query string or the request body */
+    private String[] parseArgs(HttpExchange exchange) throws IOException {
+	
+	String query = exchange.getRequestURI().getRawQuery();
+	if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+	    query = new String(readAll(exchange.getRequestBody()), "UTF-8");
+	}
+	ArrayList<String> args = new ArrayList<String>();
+	if (query != null) {
+	    for (String arg: query.split("[&\\s]+")) {
+		if (arg.length() > 0) {
+		    arg = URLDecoder.decode(arg, "UTF-8");
+		    String name = arg.split("=", 2)[0];
+		    Key key = Key.valueOfIgnoreCase(name);
+		    if (name.startsWith("_") || serverKeys.contains(key)) {
+			throw new IllegalArgumentException("Setting not allowed in a request: "+name);
+		    }
+		    args.add(arg);
+		}
+	    }
+	}
+	return args.toArray(new String[0]);
+    }
+    
+    private void sendFiles(HttpExchange exchange, File[] files) throws IOException {
+	if (files.length == 1) {
+	    String name = files[0].getName();
+	    exchange.getResponseHeaders().add("Content-Type", contentType(name));
+	    exchange.getResponseHeaders().add("Content-Disposition", "attachment; filename=\""+name+"\"");
+	    exchange.sendResponseHeaders(200, files[0].length());
+	    OutputStream out = exchange.getResponseBody();
+	    copy(files[0], out);
+	    out.close();
+	    
+	} else {
+	    java.util.Arrays.sort(files);
+	    exchange.getResponseHeaders().add("Content-Type", "application/zip");
+	    exchange.getResponseHeaders().add("Content-Disposition", "attachment; filename=\"output.zip\"");
+	    exchange.sendResponseHeaders(200, 0);
+	    ZipOutputStream zip = new ZipOutputStream(exchange.getResponseBody());
+	    for (File f: files) {
+		zip.putNextEntry(new ZipEntry(f.getName()));
+		copy(f, zip);
+		zip.closeEntry();
+	    }
+	    zip.close();
+	}
+    }
+    
+    private static String contentType(String name) {
+	name = name.toLowerCase();
+	if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+	    return "image/jpeg";
+	} else if (name.endsWith(".png")) {
+	    return "image/png";
+	} else if (name.endsWith(".gz")) {
+	    return "application/gzip";
+	} else if (name.endsWith(".fits")) {
+	    return "application/fits";
+	} else {
+	    return "application/octet-stream";
+	}
+    }
+    
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+	byte[] bytes = (text+"\n").getBytes("UTF-8");
+	exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+	exchange.sendResponseHeaders(status, bytes.length);
+	exchange.getResponseBody().write(bytes);
+    }
+    
+    private static byte[] readAll(InputStream in) throws IOException {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	byte[] buf = new byte[8192];
+	int len;
+	while ((len = in.read(buf)) > 0) {
+	    out.write(buf, 0, len);
+	}
+	return out.toByteArray();
+    }
+    
+    private static void copy(File f, OutputStream out) throws IOException {
+	InputStream in = new FileInputStream(f);
+	try {
+	    byte[] buf = new byte[65536];
+	    int len;
+	    while ((len = in.read(buf)) > 0) {
+		out.write(buf, 0, len);
+	    }
+	} finally {
+	    in.close();
+	}
+    }
+    
+    private static void delete(File dir) {
+	File[] files = dir.listFiles();
+	if (files != null) {
+	    for (File f: files) {
+		f.delete();
+	    }
+	}
+	dir.delete();
+    }
+}
@@ -20,6 +20,8 @@ import skyview.geometry.Position;
 import skyview.process.ImageFinder;
 import skyview.process.Processor;
 
+import skyview.ij.IJProcessor;
+
 import skyview.request.SourceCoordinates;
 
 import nom.tam.fits.Fits;
@@ -30,6 +32,13 @@ import nom.tam.util.ArrayFuncs;
 import java.util.regex.Pattern;
 import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import java.lang.ref.SoftReference;
 
@@ -179,7 +188,8 @@ public class Imager {
     /** The Hash of survey images that have been created
      *  for this imager.
      */
-    private static HashMap<String, SoftReference<ImageState>> doneImages = new HashMap<String,SoftReference<ImageState>>();
+    private Map<String, SoftReference<ImageState>> doneImages =
+       Collections.synchronizedMap(new HashMap<String,SoftReference<ImageState>>());
     
     /** A scalar adjustment to the output value for each
      *  input image used to minimize edge effects.
@@ -229,8 +239,8 @@ public class Imager {
     /** The current output image */
     protected Image output;
     
-    /** An imager instance */
-    private static Imager lastImager;
+    /** The last imager created in each thread */
+    private static final ThreadLocal<Imager> lastImager = new ThreadLocal<Imager>();
     
     /** The object to find a survey matching the requested name */
     private static SurveyFinder finder;
@@ -277,7 +287,15 @@ public class Imager {
 	if (Settings.get(Key.surveyfinder) == null) {
 	    Settings.put(Key.surveyfinder, "XMLSurveyFinder");
 	}
-	lastImager = this;
+	lastImager.set(this);
+    }
+    
+    /** Create an imager processing one of the surveys of the parent.
+     *  It shares the image cache of the parent.  It is registered
+     *  for {@link #getImager()} by the pool thread which runs its survey.
+     */
+    private Imager(Imager parent) {
+	doneImages = parent.doneImages;
     }
 	
     
@@ -433,9 +451,7 @@ public class Imager {
 	    System.err.println("No position specified");
 	    return false;
 	}
-	if (finder == null) {
-	    finder = (SurveyFinder) skyview.util.Utilities.newInstance(Settings.get(Key.surveyfinder), "skyview.survey");
-	}
+	getSurveyFinder();
 	
 	if (!Settings.has(Key.output)) {
 	    Settings.put(Key.output,"output");
@@ -451,31 +467,142 @@ public class Imager {
 	System.err.println("Imager starting v"+version+".");
 	String[] survs  = Settings.getArray(Key.survey);
 	String output   = Settings.get(Key.output);
+	
+	// Number of surveys processed at the same time
+	int parallel = Runtime.getRuntime().availableProcessors();
+	if (Settings.has(Key.SurveyThreads)) {
+	    parallel = Integer.parseInt(Settings.get(Key.SurveyThreads));
+	}
+	int threads = min(parallel, survs.length) - 1;
+	
+	// All but the last survey are processed in the pool by separate imagers.
+	// The last one is processed by this imager in this thread, so the results
+	// of the last survey are available from it as before.
+	ExecutorService pool = null;
+	if (threads > 0) {
+	    pool = Executors.newFixedThreadPool(threads);
 	    
-	int count = 1;
-	for (String surv: survs) {
-	    if (survs.length > 1) {
-		updateOutput(output, count);
+	    // If the user has specified an RGB image, then the
+	    // scale must be the same of all images.  Take it from
+	    // the first survey before any survey is processed.
+	    if (Settings.has(Key.rgb)  && !Settings.has(Key.scale)) {
+		String scale = firstSurveyScale(survs[0]);
+		if (scale != null) {
+		    Settings.put(Key.scale, scale);
+		}
 	    }
-	    try {
-		Settings.save();
-		Settings.put(Key._surveyCount, ""+count);
+	}
+	
+	ArrayList<Future<?>> pending = new ArrayList<Future<?>>();
+	boolean completed = false;
+	IJProcessor.clearRGB();
+	try {
+	    int count = 1;
+	    for (String surv: survs) {
+	        if (survs.length > 1) {
+		    updateOutput(output, count);
+	        }
+	        if (pool != null && count < survs.length) {
+		    pending.add(pool.submit(new SurveyTask(new Imager(this), surv, count, Settings.forkContext())));
+	        } else {
+		    processSurvey(surv, count);
+	        }
+	        count += 1;
+	    }
+	    completed = true;
+	} finally {
+	    if (pool != null) {
+		pool.shutdown();
+	    }
+	    // Wait for all surveys, even if one of them failed.
+	    Exception failure = null;
+	    for (Future<?> f: pending) {
+		try {
+		    f.get();
+		} catch (ExecutionException e) {
+		    if (failure == null) {
+			failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		    }
+		}
+	    }
+	    // Planes are merged once all surveys are done, anything left is from a failure.
+	    IJProcessor.clearRGB();
+	    if (failure != null && completed) {
+		throw failure;
+	    }
+	}
+    }
+    
+    /** Process a survey in its own saved state of the Settings */
+    private void processSurvey(String surv, int count) throws Exception {
+	try {
+	    Settings.save();
+	    Settings.put(Key._surveyCount, ""+count);
 		
-	        System.err.println("\nProcessing survey:"+surv);
-		processSurvey(surv);
+	    System.err.println("\nProcessing survey:"+surv);
+	    processSurvey(surv);
+	} finally {
+	    String scale = null;
+	    // If the user has specified an RGB image, then the
+	    // scale must be the same of all images.
+	    if (count == 1  && Settings.has(Key.rgb)  && Settings.has(Key.scale)) {
+		scale = Settings.get(Key.scale);
+	    }
+	    Settings.restore();
+	    if (scale != null) {
+		Settings.put(Key.scale, scale);
+	    }
+	}
+    }
+    
+    /** Get the scale the first survey would use.  Only the survey
+     *  settings are read, no images are processed.
+     */
+    private String firstSurveyScale(String surv) throws Exception {
+	try {
+	    Settings.save();
+	    Settings.put(Key._surveyCount, "1");
+	    Settings.put(Key._currentSurvey, surv);
+	    if (loadSurvey(surv) == null) {
+		return null;
+	    }
+	    return Settings.get(Key.scale);
+	} finally {
+	    Settings.restore();
+	}
+    }
+    
+    /** Processes one survey of a multi-survey request in a pool thread */
+    private static class SurveyTask implements Callable<Object> {
+	
+	private final Imager           imager;
+	private final String           surv;
+	private final int              count;
+	private final Settings.Context ctx;
+	
+	SurveyTask(Imager imager, String surv, int count, Settings.Context ctx) {
+	    this.imager = imager;
+	    this.surv   = surv;
+	    this.count  = count;
+	    this.ctx    = ctx;
+	}
+	
+	public Object call() throws Exception {
+	    Settings.Context previous = Settings.enter(ctx);
+	    // Code run for the survey finds this imager by getImager()
+	    Imager previousImager = lastImager.get();
+	    lastImager.set(imager);
+	    try {
+		imager.processSurvey(surv, count);
 	    } finally {
-		String scale = null;
-		// If the user has specified an RGB image, then the
-		// scale must be the same of all images.
-		if (count == 1  && Settings.has(Key.rgb)  && Settings.has(Key.scale)) {
-		    scale = Settings.get(Key.scale);
-		}
-		Settings.restore();
-		if (scale != null) {
-		    Settings.put(Key.scale, scale);
+		if (previousImager == null) {
+		    lastImager.remove();
+		} else {
+		    lastImager.set(previousImager);
 		}
+		Settings.leave(previous);
 	    }
-	    count += 1;
+	    return null;
 	}
     }
     
@@ -1207,13 +1334,31 @@ public class Imager {
 	return new WCS(hdr);
     }
     
-    /** Get an Imager object -- normally the last one created.
+    /** Get the SurveyFinder shared by all imagers.  It is created
+     *  on first use using the current surveyfinder setting.
+     */
+    static synchronized SurveyFinder getSurveyFinder() {
+	if (finder == null) {
+	    finder = (SurveyFinder) skyview.util.Utilities.newInstance(Settings.get(Key.surveyfinder), "skyview.survey");
+	}
+	return finder;
+    }
+    
+    /** Get an Imager object -- normally the last one created
+     *  by the current thread.
      */
     public static Imager getImager() {
-	if (lastImager == null) {
+	if (lastImager.get() == null) {
 	    new Imager();
 	}
-	return lastImager;
+	return lastImager.get();
+    }
+    
+    /** Forget the imager of the current thread, so a thread which
+     *  serves many requests does not keep the last one and its output.
+     */
+    static void releaseImager() {
+	lastImager.remove();
     }
     
     private class ImageState {
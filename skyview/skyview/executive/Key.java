@@ -47,7 +47,8 @@ public enum Key {
     Url_VizierBase, Url_HeasarcBase, name,
     _meta_regime, _meta_nsurvey, _meta_frequency, _meta_bandpass, _meta_coverage, _meta_pixelscale,
     _meta_pixelunits, _meta_resolution, _meta_coordinatesystem, _meta_projection, _meta_epoch,
-    _meta_reference,
+    _meta_reference, BatchThreads, SurveyThreads, ServerPort, ServerThreads, ServerQueue, ServerHost,
+    MosaicThreads,
 
     CATLOG; //TYPO?
 
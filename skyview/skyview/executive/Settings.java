@@ -2,11 +2,14 @@ package skyview.executive;
 
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /** This class defines a singleton where SkyView preferences/settings
  *  Testchange...
  *  can be set and gotten from anywhere in the system.
+ *  Each thread may work in its own {@link Context}, so separate
+ *  requests do not see each other's settings.
  *  A setting is simply a key=string value.  When there
  *  is to be more than one value for the key it should be
  *  specified as string1,string2,string3.  A comma
@@ -17,11 +20,43 @@ import java.util.regex.Pattern;
  */
 public class Settings {
 
-    /** The hashmap storing the settings */
-    private static HashMap<Key,String> single = new HashMap<Key,String>();
+    /** Settings of a single request.  A context is created by
+     *  {@link #newContext()} and made current for a thread with
+     *  {@link #enter(Context)}.  While it is current all the static
+     *  methods of this class read and modify only this context,
+     *  so several images may be created in parallel threads.
+     */
+    public static final class Context {
+	
+	/** The hashmap storing the settings */
+	private HashMap<Key,String> single;
+	
+	/** A stack of saved versions of the settings. */
+	private final Stack<HashMap<Key,String>> backup = new Stack<HashMap<Key,String>>();
+	
+	/** Objects shared by the classes processing the request.
+	 *  They are not affected by save and restore.
+	 */
+	private final ConcurrentHashMap<String,Object> objects;
+	
+	private Context(HashMap<Key,String> single, ConcurrentHashMap<String,Object> objects) {
+	    this.single  = single;
+	    this.objects = objects;
+	}
+	
+	/** Get a value corresponding to the key in this context */
+	public String get(Key key) {
+	    return single.get(key);
+	}
+    }
+    
+    /** The context used by threads which did not enter their own.
+     *  This holds the values read from the settings file.
+     */
+    private static final Context global = new Context(new HashMap<Key,String>(), new ConcurrentHashMap<String,Object>());
     
-    /** A stack of saved versions of the settings. */
-    private static Stack<HashMap<Key,String>> backup = new Stack<HashMap<Key,String>>();
+    /** The context entered by the current thread */
+    private static final ThreadLocal<Context> current = new ThreadLocal<Context>();
     
     /** Used to split the hashmap */
     private static Pattern comma = Pattern.compile(",");
@@ -143,12 +178,89 @@ public class Settings {
     private Settings() {
     }
     
+    /** The context of the current thread */
+    private static Context context() {
+	Context ctx = current.get();
+	if (ctx == null) {
+	    return global;
+	}
+	return ctx;
+    }
+    
+    /** Create a new context with a copy of the current settings.
+     *  Changes made while the new context is entered are not seen
+     *  by other threads or contexts.
+     */
+    public static Context newContext() {
+	return new Context(new HashMap<Key,String>(context().single), new ConcurrentHashMap<String,Object>());
+    }
+    
+    /** Create a new context for a part of the current request which
+     *  runs in another thread.  Settings are copied as in {@link #newContext()},
+     *  but objects are shared with the current context.
+     */
+    public static Context forkContext() {
+	Context ctx = context();
+	return new Context(new HashMap<Key,String>(ctx.single), ctx.objects);
+    }
+    
+    /** Make the context current for this thread.
+     *  @return the previous context, to be given to {@link #leave(Context)}
+     */
+    public static Context enter(Context ctx) {
+	if (ctx == null) {
+	    throw new IllegalArgumentException("null context");
+	}
+	Context previous = current.get();
+	current.set(ctx);
+	return previous;
+    }
+    
+    /** Leave the context of this thread and go back to the previous one.
+     *  @param previous the value returned by {@link #enter(Context)}
+     */
+    public static void leave(Context previous) {
+	if (previous == null) {
+	    current.remove();
+	} else {
+	    current.set(previous);
+	}
+    }
+    
+    /** Get an object stored in the current context */
+    public static Object getObject(String name) {
+	return context().objects.get(name);
+    }
+    
+    /** Store an object in the current context.  This is used
+     *  for state which must be shared between the processing steps
+     *  of one request, but not between requests.
+     */
+    public static void putObject(String name, Object value) {
+	if (value == null) {
+	    context().objects.remove(name);
+	} else {
+	    context().objects.put(name, value);
+	}
+    }
+    
+    /** Store an object in the current context unless there already is one.
+     *  @return the object stored under the name
+     */
+    public static Object putObjectIfAbsent(String name, Object value) {
+	Object old = context().objects.putIfAbsent(name, value);
+	if (old == null) {
+	    return value;
+	}
+	return old;
+    }
+    
     /** Get a value corresponding to the key */
     public static String get(Key key) {
 	if (key == null) {
 	    return null;
 	}
-	return  single.get(key);
+	return  context().single.get(key);
     }
     
     /** Get a values corresponding to a key or the default */
@@ -203,7 +315,7 @@ public class Settings {
 	}
 	if (value.equals("null")) {
 	    Settings.add(Key._nullvalues, key.name()); //TODO key was put as value here, not sure what it is it for
-	    single.remove(key);
+	    context().single.remove(key);
 	    return;
 	}
 	
@@ -214,13 +326,14 @@ public class Settings {
 	    }
 	}
 	
-	single.put(key, value);
+	context().single.put(key, value);
     }
     
     /** Save the current state of the settings for a later restoration */
     public static void save() {
-	backup.push(single);
-	single = (HashMap<Key,String>) single.clone();
+	Context ctx = context();
+	ctx.backup.push(ctx.single);
+	ctx.single = new HashMap<Key,String>(ctx.single);
     }
     
     /** Add a setting to a list -- but only if it is
@@ -260,19 +373,20 @@ public class Settings {
     
     /** Check if the given key has been set */
     public static boolean has(Key key) {
-	return single.containsKey(key);
+	return context().single.containsKey(key);
     }
     
     /** Return the array of keys in the current settings */
     public static Key[] getKeys() {
-	return single.keySet().toArray(new Key[0]);
+	return context().single.keySet().toArray(new Key[0]);
     }
     
     /** Restore a previously saved state. */
     public static void restore() {
 	
-	if (!backup.empty()) {
-	    single = backup.pop();
+	Context ctx = context();
+	if (!ctx.backup.empty()) {
+	    ctx.single = ctx.backup.pop();
         } else {
 	    System.err.println("Attempt to restore Settings ignored: No previous state saved.");
         }
@@ -280,24 +394,26 @@ public class Settings {
     
     /** Give a copy of the current settings and pop the stack */
     public static HashMap<Key, String> pop() {
-	if (backup.size() > 0) {
-	    HashMap<Key,String> curr = single;
+	Context ctx = context();
+	if (ctx.backup.size() > 0) {
+	    HashMap<Key,String> curr = ctx.single;
 	    restore();
 	    return curr;
 	} else {
 	    System.err.println("Error: Attempt to pop Settings, but stack is empty");
-	    return single;
+	    return ctx.single;
 	}
     }
     
     public static void push(HashMap<Key,String> top) {
 	save();
-	single = top;
+	context().single = top;
     }
 
 
     /** print current settings, used for debugging*/
     public static void printSettings(){
+        HashMap<Key,String> single = context().single;
         List keys = new ArrayList();
         for(Key k:single.keySet()){
             keys.add(k.name().toLowerCase());
@@ -231,6 +231,26 @@ public class Converter extends Transformer implements skyview.Component {
         if (doDebug) {System.err.println("Check: exit "+compArr.length);}
     }
     
+    /** Copy the components, so the copy has its own temporaries.
+     *  Inverse pairs are removed first, since the copies of a pair
+     *  need not recognize each other.
+     */
+    @SuppressWarnings("rawtypes") // components are transformers of different types
+    public synchronized Converter copy() {
+	if (!checked) {
+	    check();
+	}
+	Converter copy = (Converter) super.copy();
+	copy.components = new java.util.ArrayList<Transformer>();
+	for (Transformer t: components) {
+	    copy.components.add(t.copy());
+	}
+	copy.d2      = new double[2];
+	copy.d3      = new double[3];
+	copy.checked = false;
+	return copy;
+    }
+    
     /** Return the inverse of this series of transformations. */
     public Converter inverse() {
 	Converter x = new Converter();
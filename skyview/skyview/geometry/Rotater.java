@@ -94,6 +94,14 @@ public class Rotater extends Transformer<Vector2D, Vector2D> implements skyview.
 	return transRot;
     }
     
+    /** Copy with its own temporary, the matrix is shared */
+    public Rotater copy() {
+	Rotater copy  = (Rotater) super.copy();
+	copy.temp     = new double[3];
+	copy.transRot = null;
+	return copy;
+    }
+    
     /** This isn't really right... We should check this is a rotation matrix better! */
     public Rotater inverse() {
 	return transpose();
@@ -57,7 +57,9 @@ public abstract class Sampler implements skyview.Component, Cloneable {
     public abstract void sample(int index);
     
     /** Allow someone to get a copy of this sampler for use on another
-     *  image.
+     *  image.  Subclasses give the copy its own temporaries, so
+     *  the copy may sample the same input in another thread
+     *  after it is given its own transformation.
      */
     public Object clone() {
 	try {
@@ -19,7 +19,7 @@ package skyview.geometry;
  * @
  */
 
-public abstract class Transformer<IN,OUT> implements skyview.Component {
+public abstract class Transformer<IN,OUT> implements skyview.Component, Cloneable {
     
     
     /** Temporaries that may be used in the conversion.
@@ -55,6 +55,21 @@ public abstract class Transformer<IN,OUT> implements skyview.Component {
 	}
     }
     
+    /** Get an independent copy of this transformation.  Since the
+     *  temporaries make transformers non Thread safe, each thread
+     *  should use its own copy.  This is a clone sharing the parameters
+     *  of the transformation, transformers with temporaries or components
+     *  override it to copy them.  The copy gives bit-identical results.
+     */
+    @SuppressWarnings("unchecked") // clone() gives an object of this class
+    public Transformer<IN,OUT> copy() {
+	try {
+	    return (Transformer<IN,OUT>) clone();
+	} catch (CloneNotSupportedException e) {
+	    throw new Error("Transformer is Cloneable", e);
+	}
+    }
+    
     /** Get the inverse of the transformation. If the order
      *  matters, then the inverse is to be applied after the original
      *  transformation.  This is primarily an issue with Converters.
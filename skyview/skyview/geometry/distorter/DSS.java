@@ -272,6 +272,11 @@ public class DSS extends Distorter
 	public Distorter inverse() {
 	    return DSS.this;
 	}
+	
+	/** The position coefficients are in the outer object, so copy that */
+	public DSSInv copy() {
+	    return ((DSS) DSS.this.copy()).new DSSInv();
+	}
      
         /** Is this the inverse of another distorter? */
         public boolean isInverse(Transformer t) {
@@ -42,6 +42,13 @@ public class Tea extends skyview.geometry.Projecter {
     
     
     private double[] copy = new double[3];
+    
+    /** Copy with its own temporary */
+    public Tea copy() {
+	Tea tea  = (Tea) super.copy();
+	tea.copy = new double[3];
+	return tea;
+    }
     public void transform(double[] unit, double[] plane) {
 	
 	
@@ -270,6 +270,18 @@ public class Toa extends skyview.geometry.Projecter {
 	return new ToaDeproj();
     }
     
+    /** Copy with its own temporaries, the grid is shared */
+    public Toa copy() {
+	Toa toa     = (Toa) super.copy();
+	toa.vec     = new double[2];
+	toa.tpos    = new double[2];
+	toa.result  = new double[2];
+	toa.copy    = new double[3];
+	toa.temp    = new double[4][3];
+	toa.diagTem = new double[3];
+	return toa;
+    }
+    
     double[] copy = new double[3];
     public void transform(double[] unit, double[] plane) {
 	
@@ -582,6 +594,11 @@ public class Toa extends skyview.geometry.Projecter {
 	    return Toa.this;
 	}
 	
+	/** Deprojection uses the temporaries of the outer object, so copy that */
+	public ToaDeproj copy() {
+	    return Toa.this.copy().new ToaDeproj();
+	}
+	
         public void transform(double[] plane, double[] sphere) {
 	    double[] res = deproject(plane[0]/RSCALE, plane[1]/RSCALE);
 //	    show(" Deproject:", res);
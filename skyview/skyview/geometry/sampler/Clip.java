@@ -469,6 +469,34 @@ public class Clip extends Sampler {
     
     private double[][] xcorners = new double[3][4];
     
+    /** The copy gets its own temporaries and its own copies of the
+     *  input transformations, so it may be used in another thread.
+     */
+    public Object clone() {
+	Clip copy = (Clip) super.clone();
+	if (depthArray != null) {
+	    copy.depthArray = new double[depthArray.length];
+	}
+	copy.rcX0 = new double[rcX0.length];
+	copy.rcX1 = new double[rcX1.length];
+	copy.rcY0 = new double[rcY0.length];
+	copy.rcY1 = new double[rcY1.length];
+	copy.rctx = new double[rctx.length];
+	copy.rcty = new double[rcty.length];
+	copy.psX1 = new double[psX1.length];
+	copy.psY1 = new double[psY1.length];
+	copy.corners  = new double[2][4];
+	copy.xcorners = new double[3][4];
+	if (inProj != null) {
+	    copy.inProj = (Projecter) inProj.copy();
+	}
+	if (inImgScaler != null) {
+	    copy.inImgScaler    = (Scaler) inImgScaler.copy();
+	    copy.inImgScalerInv = (Scaler) inImgScalerInv.copy();
+	}
+	return copy;
+    }
+    
     public void sample(int pix) {
 	
 //	((skyview.geometry.Converter)trans).debug(true);
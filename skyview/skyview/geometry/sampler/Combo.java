@@ -35,6 +35,13 @@ public class Combo extends Sampler {
 
     
     
+    public Object clone() {
+	Combo copy   = (Combo) super.clone();
+	copy.primary = (Sampler) primary.clone();
+	copy.backup  = (Sampler) backup.clone();
+	return copy;
+    }
+    
     /** Use the primary unless we get a NaN */
     public void sample(int index) {
 	primary.sample(index);
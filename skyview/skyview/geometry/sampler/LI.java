@@ -17,6 +17,12 @@ public class LI extends skyview.geometry.Sampler {
     }
     
     private double[] out =  new double[2];
+    
+    public Object clone() {
+	LI copy = (LI) super.clone();
+	copy.out = new double[2];
+	return copy;
+    }
  
     /** Sample at a specified pixel */
     public void sample(int pix) {
@@ -43,6 +43,14 @@ public class Lanczos extends skyview.geometry.Sampler {
     
     
     
+    public Object clone() {
+	Lanczos copy = (Lanczos) super.clone();
+	copy.out = new double[2];
+	copy.xw  = new double[xw.length];
+	copy.yw  = new double[yw.length];
+	return copy;
+    }
+    
     private void init (int n) {
 	this.nLobe = n;
 	this.coef  = PI/n;
@@ -17,6 +17,12 @@ public class NN extends skyview.geometry.Sampler {
     
     private double[] out = new double[2];
     
+    public Object clone() {
+	NN copy = (NN) super.clone();
+	copy.out = new double[2];
+	return copy;
+    }
+    
     private int count = -10;
     
     /** Sample at a specified pixel */
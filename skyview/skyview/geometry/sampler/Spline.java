@@ -388,6 +388,17 @@ public class Spline extends skyview.geometry.Sampler {
     private double[]     yWeight=new double[6];
     private int[]	 xIndex= new int[6];
     private int[]        yIndex=new int[6];
+    
+    /** The copy shares the spline coefficients, which are not changed while sampling */
+    public Object clone() {
+	Spline copy  = (Spline) super.clone();
+	copy.zout    = new double[2];
+	copy.xWeight = new double[6];
+	copy.yWeight = new double[6];
+	copy.xIndex  = new int[6];
+	copy.yIndex  = new int[6];
+	return copy;
+    }
 
     public double interpolatedValue(
   				 					double	x,			/* x coordinate where to interpolate */
@@ -25,6 +25,14 @@ public class Besselian extends skyview.geometry.SphereDistorter {
     
     
     
+    /** Copy with its own work arrays */
+    public Besselian copy() {
+	Besselian copy = (Besselian) super.copy();
+	copy.v  = new double[3];
+	copy.t1 = new double[3];
+	return copy;
+    }
+    
     /** These two work arrays mean that this class is not
      *  thread safe.  If multiple threads are to be used each thread
      *  needs its own coordinate system object.
@@ -104,6 +112,11 @@ public class Besselian extends skyview.geometry.SphereDistorter {
 	    return Besselian.this;
 	}
 	
+	/** The inverse uses the work arrays of the outer object, so copy that */
+	public BesselianInverse copy() {
+	    return Besselian.this.copy().new BesselianInverse();
+	}
+	
         /** Is the the inverse of another transformation */
         public boolean isInverse(Transformer t) {
 	    return t instanceof Besselian;
@@ -53,9 +53,18 @@ import static org.apache.commons.math3.util.FastMath.*;
  */
 public class IJProcessor implements skyview.process.Processor {
     
-    private static BufferedImage[] rgb = new BufferedImage[3];
+    /** Name of the RGB planes in the request Settings context */
+    private static final String RGB_PLANES = "IJProcessor.rgb";
 
-    private static ArrayList<BufferedImage> savedImages;
+    /** Name of the saved quicklook images in the request Settings context */
+    private static final String SAVED_IMAGES = "IJProcessor.savedImages";
+    
+    /** Forget RGB planes left in the current Settings context,
+     *  e.g., by an earlier run which failed before all planes were merged.
+     */
+    public static void clearRGB() {
+	Settings.putObject(RGB_PLANES, null);
+    }
     
     private static String[] stdLUTs= {"fire", "grays", "ice", "spectrum", "3-3-2 rgb",
 	                   "red", "green", "cyan", "magenta", "yellow", "red/green"};
@@ -413,9 +422,27 @@ public class IJProcessor implements skyview.process.Processor {
 	    if (index < 3) {
 		
 	        String[] surveys = Settings.getArray(Key.survey);
-	        rgb[index]      = toBufferedImage(ip.createImage());
+	        BufferedImage[] planes = (BufferedImage[]) Settings.putObjectIfAbsent(RGB_PLANES, new BufferedImage[3]);
+	        
+	        // Surveys may be processed in parallel, so planes can come in any order.
+	        // The image is merged by whichever survey completes the set.
+	        BufferedImage[] rgb = null;
+	        synchronized (planes) {
+		    planes[index] = toBufferedImage(ip.createImage());
+		    int needed = min(3, surveys.length);
+		    int have   = 0;
+		    for (int i=0; i<needed; i += 1) {
+		        if (planes[i] != null) {
+			    have += 1;
+		        }
+		    }
+		    if (have == needed) {
+		        rgb = planes.clone();
+		        java.util.Arrays.fill(planes, null);
+		    }
+	        }
 		
-	        if (index == 2 || index == surveys.length-1) {
+	        if (rgb != null) {
               //merge images into RGB using Java Image API
                 BufferedImage img = new BufferedImage(ip.getWidth(),ip.getHeight(), BufferedImage.TYPE_INT_RGB);
 
@@ -677,8 +704,11 @@ public class IJProcessor implements skyview.process.Processor {
 
     try{
 	if (format.equals("object")) {
+	    @SuppressWarnings("unchecked") // only this class stores the list
+	    ArrayList<BufferedImage> savedImages = (ArrayList<BufferedImage>) Settings.getObject(SAVED_IMAGES);
 	    if (savedImages == null) {
 		savedImages = new ArrayList<BufferedImage>();
+		Settings.putObject(SAVED_IMAGES, savedImages);
 	    }
 	    savedImages.add(imp1);
 	
@@ -5,9 +5,15 @@ import skyview.geometry.Sampler;
 import skyview.geometry.DepthSampler;
 import skyview.geometry.Converter;
 import skyview.geometry.TransformationException;
+import skyview.executive.Key;
+import skyview.executive.Settings;
 
 import nom.tam.fits.Header;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /** A mosaicker is an object which creates
  *  a new image from a set of input images.
  */
@@ -15,6 +21,12 @@ public class Mosaicker implements Processor {
  
     private java.util.ArrayList<String> usedImageNames = new java.util.ArrayList<String>();
     
+    /** Minimal number of output pixels sampled by one task */
+    private static final int TILE_PIXELS = 1<<16;
+    
+    /** Pools used for tile-parallel sampling, by number of threads */
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> pools = new ConcurrentHashMap<Integer, ForkJoinPool>();
+    
     /** Get the name of this component */
     public String getName() {
 	return "Mosaicker";
@@ -45,95 +57,160 @@ public class Mosaicker implements Processor {
 	int width   = output.getWidth();
 	int height  = output.getHeight();
 	
-	boolean newData = false;
-	
-	// Loop over input images.
-	double[] out = new double[2];
-	double[] in  = new double[2];
-	  
-	boolean morePixels = true;
+	ForkJoinPool pool = getPool();
 	
 	samp.setOutput(output);
+	if (pool != null && output.getDataArray() == null) {
+	    // Make sure the data is not allocated lazily by several threads.
+	    output.setDataArray(new double[width*height*output.getDepth()]);
+	}
 	int procCount = 0;
-	  
-        while(morePixels) {
+	
+	// Input images are processed in turn, in the order of their first output pixel.
+	int first = 0;
+        while(true) {
 	    
-	    morePixels = false;
+	    while (first < source.length && source[first] < 0) {
+		first += 1;
+	    }
+	    if (first == source.length) {
+		break;
+	    }
+	    int img  = source[first];
+	    int last = first;
+	    for (int pix=first+1; pix<source.length; pix += 1) {
+		if (source[pix] == img) {
+		    last = pix;
+		}
+	    }
 	    
 	    Converter cv        = null;
-	    double[]  data      = null;
-	    int       inWidth   = 0;
-	    int       inHeight  = 0;
-	    int       inDepth   = 0;
-	    int       badPixel  = 0;
-	    int       goodPixel = 0;
-	    int       currImg   = -1;
-	      
 	    boolean   validImage = true;
 	    
-	    for (int pix=0; pix<source.length; pix += 1) {
-		int img = source[pix];
-		
-		if (img < 0) {
-		// Do nothing...    
-		    
-		// If this is a pixel to be processed
-		// and not the current one, then we need
-		// to do another pass.
-		} else if (img >= 0 && currImg >= 0 && img != currImg) {
-		    morePixels = true;
-	        } else {
-		    currImg = img;
-		    // Make sure this image is fully available.
-		    
-		    if (inWidth == 0) {
-			try {
-		            input[img].validate();
-		            usedImageNames.add(input[currImg].getName());
-			} catch (Throwable e) {
-			    validImage = false;
-			    System.err.println("  Error processing candidate image #"+img+": "+e.getMessage());
-			    inWidth = -1;
-			}
-			if (validImage) {
-			    try {
-		                cv = new Converter();
-	                        cv.add(output.getWCS().inverse());
-	                        cv.add(input[img].getWCS());
-			    } catch (TransformationException e) {
-			        throw new Error("Tranformation error in mosaicker:"+e);
-			    }
-			    procCount += 1;
-			    String suffix = ordinalSuffix(procCount);
-			    System.err.println("  Processing "+procCount+suffix+" candidate image #"+img);
-			    inDepth  = input[img].getDepth();
-			    if (inDepth > 1 && dSampler != null) {
-			        input[img] = dSampler.sample(input[img]);
-			    }
-			    inWidth  = input[img].getWidth();
-			    inHeight = input[img].getHeight();
+	    // Make sure this image is fully available.
+	    try {
+		input[img].validate();
+		usedImageNames.add(input[img].getName());
+	    } catch (Throwable e) {
+		validImage = false;
+		System.err.println("  Error processing candidate image #"+img+": "+e.getMessage());
+	    }
+	    if (validImage) {
+		try {
+		    cv = new Converter();
+	            cv.add(output.getWCS().inverse());
+	            cv.add(input[img].getWCS());
+		} catch (TransformationException e) {
+		    throw new Error("Tranformation error in mosaicker:"+e);
+		}
+		procCount += 1;
+		String suffix = ordinalSuffix(procCount);
+		System.err.println("  Processing "+procCount+suffix+" candidate image #"+img);
+		int inDepth  = input[img].getDepth();
+		if (inDepth > 1 && dSampler != null) {
+		    input[img] = dSampler.sample(input[img]);
+		}
 			
-			    if (input[img].isTiled()) {
-			        /** If our input image is tiled we send
-			         *  some information about the boundaries of the output
-			         *  pixels we're interested in to the sampler.
-			         */
-			        samp.setBounds(getBounds(pix, source, width));
-			    }
-			    samp.setTransform(cv);
-			    samp.setInput(input[img]);
+		if (input[img].isTiled()) {
+		    /** If our input image is tiled we send
+		     *  some information about the boundaries of the output
+		     *  pixels we're interested in to the sampler.
+		     */
+		    samp.setBounds(getBounds(first, source, width));
+		}
+		samp.setTransform(cv);
+		samp.setInput(input[img]);
+		
+		if (pool == null || last - first < TILE_PIXELS) {
+		    for (int pix=first; pix<=last; pix += 1) {
+			if (source[pix] == img) {
+			    samp.sample(pix);
 			}
 		    }
-		    if (validImage) {
-		        samp.sample(pix);
+		} else {
+		    if (!input[img].isTiled()) {
+			// Read data which may be loaded on first use.
+			input[img].getData(0);
 		    }
+		    pool.invoke(new Tile(samp, cv, output, source, img, first, last+1));
+		}
+	    }
+	    for (int pix=first; pix<=last; pix += 1) {
+		if (source[pix] == img) {
 		    source[pix] = -4;
 		}
 	    }
-	    if (currImg >= 0) {
-		// After each image, null its data out so it can be garbage collected.
-		// Otherwise we keep all of the input images in memory.
-		input[currImg].clearData();
+	    // After each image, null its data out so it can be garbage collected.
+	    // Otherwise we keep all of the input images in memory.
+	    input[img].clearData();
+	}
+    }
+    
+    /** Get the pool used to sample tiles of the output image,
+     *  or null if the image should be sampled in this thread.
+     *  The number of threads is given by the MosaicThreads setting,
+     *  by default the number of processors.
+     */
+    private static ForkJoinPool getPool() {
+	int threads = Runtime.getRuntime().availableProcessors();
+	if (Settings.has(Key.MosaicThreads)) {
+	    threads = Integer.parseInt(Settings.get(Key.MosaicThreads));
+	}
+	if (threads <= 1) {
+	    return null;
+	}
+	ForkJoinPool pool = pools.get(threads);
+	if (pool == null) {
+	    pool = new ForkJoinPool(threads);
+	    ForkJoinPool old = pools.putIfAbsent(threads, pool);
+	    if (old != null) {
+		pool.shutdown();
+		pool = old;
+	    }
+	}
+	return pool;
+    }
+    
+    /** Samples the output pixels of one input image in a range of output pixels.
+     *  Each tile uses its own copy of the sampler and of the transformation,
+     *  pixels are sampled exactly as in a single thread.
+     */
+    private static class Tile extends RecursiveAction {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final Sampler   samp;
+	private final Converter cv;
+	private final Image     output;
+	private final int[]     source;
+	private final int       img;
+	private final int       from;
+	private final int       to;
+	
+	Tile(Sampler samp, Converter cv, Image output, int[] source, int img, int from, int to) {
+	    this.samp   = samp;
+	    this.cv     = cv;
+	    this.output = output;
+	    this.source = source;
+	    this.img    = img;
+	    this.from   = from;
+	    this.to     = to;
+	}
+	
+	protected void compute() {
+	    if (to - from > TILE_PIXELS) {
+		int mid = (from + to) >>> 1;
+		invokeAll(new Tile(samp, cv, output, source, img, from, mid),
+			  new Tile(samp, cv, output, source, img, mid, to));
+		return;
+	    }
+	    Sampler tileSamp = (Sampler) samp.clone();
+	    tileSamp.setOutput(output.pixelView());
+	    tileSamp.setTransform(cv.copy());
+	    for (int pix=from; pix<to; pix += 1) {
+		if (source[pix] == img) {
+		    tileSamp.sample(pix);
+		}
 	    }
 	}
     }
@@ -13,6 +13,8 @@ import skyview.executive.Settings;
 import nom.tam.fits.Header;
 import nom.tam.fits.HeaderCard;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 /** This class defines an image as the combination
  *  of a set of pixel values and a WCS describing the
  *  pixel coordinates.
@@ -20,7 +22,8 @@ import nom.tam.fits.HeaderCard;
 public class DSSImage extends Image {
     
     // Define an array of 28x28 pointers to a double array.
-    private int[][] dssData;
+    // Pixels may be read from several threads, tiles are installed atomically.
+    private volatile AtomicReferenceArray<int[]> dssData;
     private static char[] suffixes={'0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
 				    'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j',
 				    'k', 'l', 'm', 'n', 'o', 'p', 'q', 'r', 's', 't',
@@ -72,8 +75,9 @@ public class DSSImage extends Image {
     /** Get a pixels data associated with the image. */
     public double  getData(int npix) {
 	
-	if (dssData == null) {
-	    dssData = new int[nTiles*nTiles][];
+	AtomicReferenceArray<int[]> tiles = dssData;
+	if (tiles == null) {
+	    tiles = initTiles();
 	}
 	
 	int x = npix % xSize;
@@ -87,35 +91,61 @@ public class DSSImage extends Image {
 	y = y%tileSize;
 	
 	int tile = px + nTiles*py;
-	if (dssData[tile] == null) {
-	    try {
-		String file = directory+"/"+plate+'.'+suffixes[py]+suffixes[px];
-		file = Util.replacePrefix(file, urlPrefixes);
-		lastImage = file;
+	int[] tileData = tiles.get(tile);
+	if (tileData == null) {
+	    tileData = loadTile(tiles, tile, px, py);
+	}
+//	System.err.printf("Pixel: %d, px,py: %d %d; x,y: %d %d, val %d\n",
+//			         npix, px, py, x, y, tileData[x+tileSize*y]);
+			  
+	return (double) tileData[x+tileSize*y];
+    }
+    
+    private synchronized AtomicReferenceArray<int[]> initTiles() {
+	if (dssData == null) {
+	    dssData = new AtomicReferenceArray<int[]>(nTiles*nTiles);
+	}
+	return dssData;
+    }
+    
+    /** Read a tile.  Tiles are decompressed outside of the lock,
+     *  so several threads may fetch different tiles at the same time.
+     */
+    private int[] loadTile(AtomicReferenceArray<int[]> tiles, int tile, int px, int py) {
+	int[] tileData;
+	try {
+	    String file = directory+"/"+plate+'.'+suffixes[py]+suffixes[px];
+	    file = Util.replacePrefix(file, urlPrefixes);
+	    lastImage = file;
 		
-		if (file.startsWith("http:")) {
-		    dssData[tile] = HDecompressor.decompress(new java.net.URL(file).openStream());
-		} else {
-	            dssData[tile] = HDecompressor.decompress(new java.io.FileInputStream(file));
-		}
-	    } catch (Exception e) {
-		e.printStackTrace(System.err);
-		throw new Error("Unable to decompress file:"+ directory+"/"+plate+'.'+suffixes[py]+suffixes[px]);
+	    if (file.startsWith("http:")) {
+		tileData = HDecompressor.decompress(new java.net.URL(file).openStream());
+	    } else {
+	        tileData = HDecompressor.decompress(new java.io.FileInputStream(file));
+	    }
+	} catch (Exception e) {
+	    e.printStackTrace(System.err);
+	    throw new Error("Unable to decompress file:"+ directory+"/"+plate+'.'+suffixes[py]+suffixes[px]);
+	}
+	
+	synchronized (this) {
+	    // Another thread may have read the same tile meanwhile.
+	    int[] old = tiles.get(tile);
+	    if (old != null) {
+		return old;
 	    }
+	    tiles.set(tile, tileData);
 	    
 	    // Keep only the last few subimages in memory to avoid
 	    // using it all up!
 	    int idx = subimageCount%dssIndex.length;
 	    if (subimageCount > dssIndex.length) {
-		dssData[dssIndex[idx]] = null;
+		tiles.set(dssIndex[idx], null);
 	    }
 	    dssIndex[idx]  = tile;
 	    subimageCount += 1;
 	}
-//	System.err.printf("Pixel: %d, px,py: %d %d; x,y: %d %d, val %d\n",
-//			         npix, px, py, x, y, dssData[tile][x+tileSize*y]);
-			  
-	return (double) dssData[tile][x+tileSize*y];
+	return tileData;
     }
     
     /** Get the data as an array */
@@ -11,7 +11,7 @@ import skyview.geometry.TransformationException;
  *  class may be 'read-only' images and may throw
  *  an Error if the user attempts to set the data values.
  */
-public class Image implements skyview.Component {
+public class Image implements skyview.Component, Cloneable {
     
     /** The WCS describing the transformation from
      *  the reference sphere to pixel coordinates.
@@ -153,6 +153,22 @@ public class Image implements skyview.Component {
     
     private double[][] corners = new double[2][4];
     
+    /** Get a view of this image sharing its data and geometry,
+     *  but with its own temporaries for getCenter and getCorners.
+     *  Several threads may sample into different pixels of
+     *  an image, each through its own view.
+     */
+    public Image pixelView() {
+	try {
+	    Image view   = (Image) super.clone();
+	    view.center  = new double[2];
+	    view.corners = new double[2][4];
+	    return view;
+	} catch (CloneNotSupportedException e) {
+	    throw new Error("Unable to create view of image "+getName());
+	}
+    }
+    
     /** Get the corners of the given output pixel */
     public double[][] getCorners(int npix) {
 	
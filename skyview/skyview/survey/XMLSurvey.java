@@ -14,8 +14,10 @@ import nom.tam.fits.Header;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.parsers.SAXParser;
 import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 import java.util.ArrayList;
 import java.util.regex.Pattern;
@@ -30,17 +32,62 @@ import skyview.request.TextReplacer;
 
 /** This class defines a survey based upon an XML file
  *  which contains the metadata and image information for the survey.
+ *  The file is parsed once, later requests replay the recorded elements,
+ *  so a survey may be shared between requests and threads.
  */
 public class XMLSurvey implements Survey {
     
     /** The XML file that defines the survey */
-    private String xmlFile;
+    private final String xmlFile;
     
-    /** The default size of images. */
-    private double surveySize;
+    /** The elements of the XML file, null until the file is parsed */
+    private volatile Recording recording;
     
-    /** The list of image strings */
-    private ArrayList<String> images;
+    /** Records the elements and text of the file.  The callbacks
+     *  below use only element names and text, so replaying
+     *  the recording gives them the same input as parsing the file.
+     */
+    private static class Recording extends DefaultHandler {
+	
+	private static final int START = 0, END = 1, TEXT = 2;
+	
+	private static final Attributes noAttributes = new AttributesImpl();
+	
+	private final ArrayList<Integer> types  = new ArrayList<Integer>();
+	private final ArrayList<String>  values = new ArrayList<String>();
+	
+	public void startElement(String uri, String localName, String qName, Attributes attrib) {
+	    types.add(START);
+	    values.add(qName);
+	}
+	
+	public void endElement(String uri, String localName, String qName) {
+	    types.add(END);
+	    values.add(qName);
+	}
+	
+	public void characters(char[] arr, int start, int len) {
+	    types.add(TEXT);
+	    values.add(new String(arr, start, len));
+	}
+	
+	void replay(DefaultHandler handler) throws SAXException {
+	    for (int i=0; i<types.size(); i += 1) {
+		String value = values.get(i);
+		switch (types.get(i)) {
+		  case START:
+		    handler.startElement("", "", value, noAttributes);
+		    break;
+		  case END:
+		    handler.endElement("", "", value);
+		    break;
+		  default:
+		    char[] arr = value.toCharArray();
+		    handler.characters(arr, 0, arr.length);
+		}
+	    }
+	}
+    }
     
     /** The class the is called to add survey specific settings.
      */
@@ -146,6 +193,12 @@ public class XMLSurvey implements Survey {
 	/** Do we want to get images? */
 	private boolean needImages;
 	
+	/** The default size of images. */
+	private double surveySize;
+	
+	/** The list of image strings */
+	private ArrayList<String> images;
+	
 	private void updatePosition() {
 	    try {
 	        double[] coords = pos.getCoordinates(Settings.get(Key.SurveyCoordinateSystem));
@@ -157,9 +210,10 @@ public class XMLSurvey implements Survey {
 	    }
 	}
 	
-	ImageFinderCallBack(Position pos, double size, boolean needImages) {
+	ImageFinderCallBack(Position pos, double size, boolean needImages, ArrayList<String> images) {
 	    this.pos = pos;
 	    this.needImages = needImages;
+	    this.images = images;
 	    updatePosition();
 	    
 	    this.requestSize = size;
@@ -383,8 +437,7 @@ public class XMLSurvey implements Survey {
 	/** Get the coordinates in the native coordinate system of the
 	 *  survey.  If none is specified this defaults to J2000.
 	 */
-        SAXParser sp = SAXParserFactory.newInstance().newSAXParser();
-	images = new ArrayList<String>();
+	ArrayList<String> images = new ArrayList<String>();
 	
 	boolean needImages = true;
 	
@@ -401,7 +454,7 @@ public class XMLSurvey implements Survey {
 	// This should fill images with the strings for any images we want.
 	// If we don't need images we may still need other info from
 	// the <Images> area.
-        doParse(sp, new XMLSurvey.ImageFinderCallBack(pos, size, needImages));
+        doParse(new XMLSurvey.ImageFinderCallBack(pos, size, needImages, images));
 	
 	String imageFactory = Settings.get(Key.ImageFactory);
 	
@@ -427,11 +480,8 @@ public class XMLSurvey implements Survey {
     /** Update a FITS header with information from the XML file */
     
     public void updateHeader(Header h) {
-        XMLSurvey.HeaderUpdateCallBack dh = null;
         try {
-            SAXParser sp = SAXParserFactory.newInstance().newSAXParser();
-	    dh = new XMLSurvey.HeaderUpdateCallBack(h);
-            doParse(sp, new XMLSurvey.HeaderUpdateCallBack(h));
+            doParse(new XMLSurvey.HeaderUpdateCallBack(h));
         } catch(Exception e) {
 	    throw new Error("Error updating header:"+e);
         }
@@ -440,19 +490,32 @@ public class XMLSurvey implements Survey {
     /** Update the system settings */
     public void updateSettings() {
 	try {
-            SAXParser sp = SAXParserFactory.newInstance().newSAXParser();
-	    // This should fill images with the strings for any images we want.
-            doParse(sp, new XMLSurvey.SettingsCallBack());
+            doParse(new XMLSurvey.SettingsCallBack());
          } catch(Exception e) {
 	    throw new Error("Error updating header when reading file:"+xmlFile+"\n",e);
         }
     }
     
-    /** Run a parser */
-    protected void doParse(SAXParser sp, DefaultHandler handler) throws Exception {
-	java.io.Reader is = getSurveyReader(xmlFile);
-	sp.parse(new InputSource(is), handler);
-	is.close();
+    /** Run a handler over the elements of the file, the file is parsed on first use */
+    protected void doParse(DefaultHandler handler) throws Exception {
+	Recording rec = recording;
+	if (rec == null) {
+	    synchronized (this) {
+		rec = recording;
+		if (rec == null) {
+		    rec = new Recording();
+		    SAXParser sp = SAXParserFactory.newInstance().newSAXParser();
+		    java.io.Reader is = getSurveyReader(xmlFile);
+		    try {
+			sp.parse(new InputSource(is), rec);
+		    } finally {
+			is.close();
+		    }
+		    recording = rec;
+		}
+	    }
+	}
+	rec.replay(handler);
     }
 
     /** Get a buffered reader associated with the survey
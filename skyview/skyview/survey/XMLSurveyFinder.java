@@ -33,6 +33,7 @@ import java.io.InputStreamReader;
 import java.io.InputStream;
 import java.io.Reader;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.parsers.SAXParser;
@@ -56,6 +57,9 @@ public class XMLSurveyFinder implements SurveyFinder {
     
     /** Hashmap binding shortname to XML file */
     private HashMap<String,String> hash = new HashMap<String,String>();
+    
+    /** Surveys already created, so each XML file is parsed only once */
+    private ConcurrentHashMap<String,XMLSurvey> surveys = new ConcurrentHashMap<String,XMLSurvey>();
 
     /** Set up the SurveyFinder and populate the map */
     public XMLSurveyFinder() {
@@ -133,9 +137,16 @@ public class XMLSurveyFinder implements SurveyFinder {
 	String fileName =  findFile(shortName);
 	if (fileName == null) {
 	    return null;
-	} else {
-	    return new XMLSurvey(fileName);
 	}
+	XMLSurvey survey = surveys.get(fileName);
+	if (survey == null) {
+	    survey = new XMLSurvey(fileName);
+	    XMLSurvey old = surveys.putIfAbsent(fileName, survey);
+	    if (old != null) {
+		survey = old;
+	    }
+	}
+	return survey;
     }
     
     /** Find the survey file given the short name */
@@ -0,0 +1,274 @@
+package org.asterope.data
+
+import java.util.ArrayList
+import java.util.concurrent.Callable
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.Future
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D
+import org.asterope.util.*
+
+/**
+ * Positions of catalog entries prepared for cross-match.
+ * Entries are sorted by NESTED pixel at HEALPIX_ORDER, so candidates in area are found by binary search,
+ * the same way as in {@link StarStore}.
+ * Id identifies entry in source catalog, such as Hipparcos number or line number in catalog file.
+ *
+ *  @author Jan Kotek
+ */
+class MatchCatalog(
+        val name:String,
+        val size:Int,
+        private val idCol:LongArray,
+        private val ipixCol:LongArray,
+        private val xCol:DoubleArray,
+        private val yCol:DoubleArray,
+        private val zCol:DoubleArray
+){
+
+    fun id(row:Int):Long = idCol[row]
+    fun ipix(row:Int):Long = ipixCol[row]
+    fun x(row:Int):Double = xCol[row]
+    fun y(row:Int):Double = yCol[row]
+    fun z(row:Int):Double = zCol[row]
+
+    /**
+     * @return first row with pixel number greater or equal to ipix, or size
+     */
+    fun lowerBound(ipix:Long, from:Int = 0):Int{
+        var lo = from
+        var hi = size
+        while (lo < hi){
+            val mid = (lo + hi) ushr 1
+            if (ipixCol[mid] < ipix)
+                lo = mid + 1
+            else
+                hi = mid
+        }
+        return lo
+    }
+
+}
+
+/**
+ * Collects catalog entries and builds {@link MatchCatalog}
+ */
+class MatchCatalogBuilder(capacity:Int = 1024){
+
+    private var ids = LongArray(Math.max(capacity, 16))
+    private var xyz = DoubleArray(Math.max(capacity, 16) * 3)
+    private var count = 0
+
+    fun size():Int = count
+
+    /** add entry, position does not have to be normalized */
+    fun add(id:Long, x:Double, y:Double, z:Double){
+        if (count == ids.size){
+            ids = java.util.Arrays.copyOf(ids, count * 2)!!
+            xyz = java.util.Arrays.copyOf(xyz, count * 6)!!
+        }
+        val norm = Math.sqrt(x * x + y * y + z * z)
+        ids[count] = id
+        xyz[count * 3] = x / norm
+        xyz[count * 3 + 1] = y / norm
+        xyz[count * 3 + 2] = z / norm
+        count++
+    }
+
+    fun add(id:Long, pos:Vector3D) = add(id, pos.getX(), pos.getY(), pos.getZ())
+
+    fun build(name:String):MatchCatalog{
+        //sort by pixel, row is packed into lower bits (pixel at HEALPIX_ORDER has less than 32 bits)
+        val keys = LongArray(count)
+        for (i in 0..count - 1)
+            keys[i] = (HEALPIX_NESTED.vect2pix(xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2]) shl 32) or i.toLong()
+        java.util.Arrays.sort(keys)
+
+        val idCol = LongArray(count)
+        val ipixCol = LongArray(count)
+        val xCol = DoubleArray(count)
+        val yCol = DoubleArray(count)
+        val zCol = DoubleArray(count)
+        for (row in 0..count - 1){
+            val i = (keys[row] and 0xFFFFFFFF).toInt()
+            idCol[row] = ids[i]
+            ipixCol[row] = keys[row] ushr 32
+            xCol[row] = xyz[i * 3]
+            yCol[row] = xyz[i * 3 + 1]
+            zCol[row] = xyz[i * 3 + 2]
+        }
+        return MatchCatalog(name, count, idCol, ipixCol, xCol, yCol, zCol)
+    }
+}
+
+/**
+ * Positional cross-match between two catalogs.
+ * <p>
+ * For each entry of catalog A the nearest entry of catalog B within radius is found.
+ * Candidates are taken from pixels which overlap with disc around A entry ({@link Coverage#queryDisc}),
+ * then exact angular distance is tested. Entries of A are processed in pixel order,
+ * so consecutive entries look up nearby rows of B.
+ * <p>
+ * Catalog A is split into chunks which are matched on fork/join pool. Result does not depend on parallelism.
+ * Single B entry may be matched by several A entries.
+ *
+ *  @author Jan Kotek
+ */
+class CrossMatch(
+        val parallelism:Int = Runtime.getRuntime()!!.availableProcessors(),
+        val chunkSize:Int = 4096
+){
+
+    /**
+     * @param radius maximal separation in radians
+     * @return table of matched ids, sorted by id in catalog A
+     */
+    fun run(a:MatchCatalog, b:MatchCatalog, radius:Double):MatchTable{
+        if (radius <= 0.0 || radius > Math.PI)
+            throw IllegalArgumentException("radius is in RADIAN and should be in (0,pi]")
+        val start = System.nanoTime()
+        val pool = ForkJoinPool(parallelism)
+        try{
+            val parts = ArrayList<Future<MatchTableBuilder>>()
+            var from = 0
+            while (from < a.size){
+                parts.add(pool.submit(matchTask(a, b, radius, from, Math.min(a.size, from + chunkSize)))!!)
+                from += chunkSize
+            }
+            val out = MatchTableBuilder(a.size / 2)
+            for (p in parts)
+                out.addAll(p.get()!!)
+            return out.build(a.name, b.name, radius, a.size, System.nanoTime() - start)
+        }finally{
+            pool.shutdownNow()
+        }
+    }
+
+    private fun matchTask(a:MatchCatalog, b:MatchCatalog, radius:Double, from:Int, to:Int) = object:Callable<MatchTableBuilder>{
+        public override fun call():MatchTableBuilder{
+            val ret = MatchTableBuilder(to - from)
+            val cosRadius = Math.cos(radius)
+            for (row in from..to - 1){
+                val x = a.x(row)
+                val y = a.y(row)
+                val z = a.z(row)
+                val area = HEALPIX_COVERAGE.queryDisc(Vector3D(x, y, z), radius, true)!!
+                var best = -1
+                var bestCos = cosRadius
+                val iter = area.rangeIterator()!!
+                var brow = 0
+                while (iter.moveToNext()){
+                    brow = b.lowerBound(iter.first(), brow)
+                    val last = iter.last()
+                    while (brow < b.size && b.ipix(brow) <= last){
+                        val cos = x * b.x(brow) + y * b.y(brow) + z * b.z(brow)
+                        if (cos > bestCos || (best == -1 && cos >= bestCos)){
+                            best = brow
+                            bestCos = cos
+                        }
+                        brow++
+                    }
+                }
+                if (best != -1)
+                    ret.add(a.id(row), b.id(best), Vector3D.angle(Vector3D(x, y, z), Vector3D(b.x(best), b.y(best), b.z(best))))
+            }
+            return ret
+        }
+    }
+
+}
+
+/**
+ * Result of cross-match, maps id in catalog A to id of nearest entry in catalog B.
+ * Entries are sorted by id in catalog A, entries without counterpart are not included.
+ * Can be saved with {@link MatchTableFile}, so matching does not have to be repeated.
+ *
+ *  @author Jan Kotek
+ */
+class MatchTable(
+        val nameA:String,
+        val nameB:String,
+        /** maximal separation in radians */
+        val radius:Double,
+        val size:Int,
+        private val idsA:LongArray,
+        private val idsB:LongArray,
+        private val separations:DoubleArray,
+        /** number of entries in catalog A */
+        val tested:Int = size,
+        /** duration of cross-match */
+        val nanos:Long = 0
+){
+
+    fun idA(i:Int):Long = idsA[i]
+    fun idB(i:Int):Long = idsB[i]
+    /** separation in radians */
+    fun separation(i:Int):Double = separations[i]
+
+    /**
+     * @return index of entry with given id in catalog A, or -1 if it was not matched
+     */
+    fun indexOf(idA:Long):Int{
+        val i = java.util.Arrays.binarySearch(idsA, 0, size, idA)
+        return if (i >= 0) i else -1
+    }
+
+    /**
+     * @return id in catalog B matched to given id in catalog A, or -1 if it was not matched
+     */
+    fun lookup(idA:Long):Long{
+        val i = indexOf(idA)
+        return if (i >= 0) idsB[i] else -1
+    }
+
+    fun entriesPerSecond():Double = tested * 1e9 / nanos
+
+    fun toString() = java.lang.String.format(java.util.Locale.US,
+            "%s x %s: %d of %d entries matched within %.2f arcsec in %.2f s: %.0f entries/s",
+            nameA, nameB, size, tested, Math.toDegrees(radius) * 3600, nanos / 1e9, entriesPerSecond())!!
+}
+
+/**
+ * Collects matched pairs and builds {@link MatchTable} sorted by id in catalog A
+ */
+class MatchTableBuilder(capacity:Int = 1024){
+
+    private var idsA = LongArray(Math.max(capacity, 16))
+    private var idsB = LongArray(Math.max(capacity, 16))
+    private var separations = DoubleArray(Math.max(capacity, 16))
+    private var count = 0
+
+    fun size():Int = count
+
+    fun add(idA:Long, idB:Long, separation:Double){
+        if (count == idsA.size){
+            idsA = java.util.Arrays.copyOf(idsA, count * 2)!!
+            idsB = java.util.Arrays.copyOf(idsB, count * 2)!!
+            separations = java.util.Arrays.copyOf(separations, count * 2)!!
+        }
+        idsA[count] = idA
+        idsB[count] = idB
+        separations[count] = separation
+        count++
+    }
+
+    fun addAll(b:MatchTableBuilder){
+        for (i in 0..b.count - 1)
+            add(b.idsA[i], b.idsB[i], b.separations[i])
+    }
+
+    fun build(nameA:String, nameB:String, radius:Double, tested:Int = count, nanos:Long = 0):MatchTable{
+        val order = Array<Int>(count, { it })
+        java.util.Arrays.sort(order, object:java.util.Comparator<Int>{
+            public override fun compare(o1:Int, o2:Int):Int = java.lang.Long.compare(idsA[o1], idsA[o2])
+        })
+        val a = LongArray(count)
+        val b = LongArray(count)
+        val s = DoubleArray(count)
+        for (i in 0..count - 1){
+            a[i] = idsA[order[i]]
+            b[i] = idsB[order[i]]
+            s[i] = separations[order[i]]
+        }
+        return MatchTable(nameA, nameB, radius, count, a, b, s, tested, nanos)
+    }
+}
@@ -0,0 +1,112 @@
+package org.asterope.data
+
+import junit.framework.TestCase
+import kotlin.test.*
+import java.io.File
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D
+import org.asterope.util.*
+
+class CrossMatchTest:TestCase(){
+
+    val ARCSEC = Math.toRadians(1.0 / 3600)
+
+    fun pos(ra:Double, de:Double) = Vector3D(Math.toRadians(ra), Math.toRadians(de))
+
+    /** A has entries on grid, B has counterpart shifted by 1 arcsec for even ids */
+    fun catalogs():Array<MatchCatalog>{
+        val a = MatchCatalogBuilder()
+        val b = MatchCatalogBuilder()
+        var id:Long = 0
+        for (ra in 0..359 step 3)
+            for (de in -87..87 step 3){
+                id++
+                a.add(id, pos(ra.toDouble(), de.toDouble()))
+                if (id % 2 == 0.toLong())
+                    b.add(1000000 + id, pos(ra.toDouble(), de.toDouble() + 1.0 / 3600))
+                //far away noise
+                b.add(2000000 + id, pos(ra.toDouble() + 1, de.toDouble() + 1))
+            }
+        return array(a.build("A"), b.build("B"))
+    }
+
+    fun test_match(){
+        val c = catalogs()
+        val table = CrossMatch(2).run(c[0], c[1], 5 * ARCSEC)
+        assertEquals(c[0].size / 2, table.size)
+        assertEquals(c[0].size, table.tested)
+        for (id in 1..c[0].size){
+            val matched = table.lookup(id.toLong())
+            if (id % 2 == 0){
+                assertEquals(1000000 + id.toLong(), matched)
+                assertEquals(1.0, table.separation(table.indexOf(id.toLong())) / ARCSEC, 1e-6)
+            }else
+                assertEquals(-1.toLong(), matched)
+        }
+        //sorted by id
+        for (i in 1..table.size - 1)
+            assertTrue(table.idA(i - 1) < table.idA(i))
+    }
+
+    fun test_nearest(){
+        val a = MatchCatalogBuilder()
+        a.add(1, pos(10.0, 10.0))
+        val b = MatchCatalogBuilder()
+        b.add(3, pos(10.0, 10.0 + 3.0 / 3600))
+        b.add(1, pos(10.0, 10.0 - 1.0 / 3600))
+        b.add(2, pos(10.0, 10.0 + 2.0 / 3600))
+        val table = CrossMatch(1).run(a.build("A"), b.build("B"), 5 * ARCSEC)
+        assertEquals(1, table.size)
+        assertEquals(1.toLong(), table.lookup(1))
+    }
+
+    fun test_parallelism_does_not_change_result(){
+        val c = catalogs()
+        val t1 = CrossMatch(1, 4096).run(c[0], c[1], 2 * 3600 * ARCSEC)
+        val t2 = CrossMatch(4, 7).run(c[0], c[1], 2 * 3600 * ARCSEC)
+        assertEquals(t1.size, t2.size)
+        for (i in 0..t1.size - 1){
+            assertEquals(t1.idA(i), t2.idA(i))
+            assertEquals(t1.idB(i), t2.idB(i))
+            assertEquals(t1.separation(i), t2.separation(i))
+        }
+    }
+
+    fun test_file(){
+        val c = catalogs()
+        val table = CrossMatch().run(c[0], c[1], 5 * ARCSEC)
+        val f = File.createTempFile("asterope", ".match")!!
+        f.deleteOnExit()
+        MatchTableFile.write(table, f)
+        val read = MatchTableFile.read(f)
+        assertEquals("A", read.nameA)
+        assertEquals("B", read.nameB)
+        assertEquals(table.radius, read.radius)
+        assertEquals(table.size, read.size)
+        assertEquals(table.tested, read.tested)
+        for (i in 0..table.size - 1){
+            assertEquals(table.idA(i), read.idA(i))
+            assertEquals(table.idB(i), read.idB(i))
+            assertEquals(table.separation(i), read.separation(i))
+        }
+    }
+
+    fun test_time_units(){
+        val reader = FixedWidthReader(Parser.parseADCColumnDefinition(DbImport.wdsReadme.readToString()))
+        val b = StringBuilder()
+        for (i in 0..129) b.append(' ')
+        b.replace(112, 121, "123015.50")
+        assertEquals(12 * 15 * 3600 * ARC_SECOND_TO_MICRO_ARC_SEC, reader.readMicroArcSec(b, reader.column("RAh")))
+        assertEquals(30 * 15 * 60 * ARC_SECOND_TO_MICRO_ARC_SEC, reader.readMicroArcSec(b, reader.column("RAm")))
+        assertEquals(1550 * ARC_SECOND_TO_MICRO_ARC_SEC / 100 * 15, reader.readMicroArcSec(b, reader.column("RAs")))
+    }
+
+    fun test_negative_declination(){
+        val reader = FixedWidthReader(Parser.parseADCColumnDefinition(DbImport.wdsReadme.readToString()))
+        val b = StringBuilder()
+        for (i in 0..129) b.append(' ')
+        b.replace(121, 130, "-12345678")
+        assertEquals("-", reader.readString(b, reader.column("DE-")))
+        assertEquals(12 * 3600 * ARC_SECOND_TO_MICRO_ARC_SEC, reader.readMicroArcSec(b, reader.column("DEd")))
+    }
+
+}
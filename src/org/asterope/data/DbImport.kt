@@ -1,6 +1,7 @@
 package org.asterope.data
 
 import java.io.File
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D
 import org.asterope.Beans
 import org.asterope.util.*
 
@@ -17,6 +18,25 @@ object DbImport{
 
     val xhipDat = File("cat/xhip.dat.bz2")
 
+    /** XHIP photometry (photo.dat), optional, Vmag is joined with xhipDat by HIP */
+    val xhipPhotoDat = File("cat/xhip.photo.dat.bz2")
+
+    /** magnitude of stars without photometry, in mili-magnitudes */
+    val UNKNOWN_MAG = 1111
+
+    /** binary catalog generated from xhipDat, see {@link StarCatalogFile} */
+    val xhipStars = File("cat/xhip.stars")
+
+    val wdsReadme = File("cat/wds.readme")
+
+    val wdsDat = File("cat/wds.dat")
+
+    /** cross-match between XHIP and WDS, see {@link MatchTableFile} */
+    val xhipWdsMatch = File("cat/xhip-wds.match")
+
+    /** default cross-match radius, 5 arc seconds */
+    val MATCH_RADIUS = Math.toRadians(5.0 / 3600)
+
 
     fun loadXhip():java.util.Iterator<Star>{
         val xhipColDef = Parser.parseADCColumnDefinition(DbImport.xhipReadme.readToString());
@@ -30,7 +50,7 @@ object DbImport{
             val de:Angle = vals.get("DEdeg")!!.toAngle();
 
             val pos = Vector3D(ra,de);
-            val mag = Magnitude(1111);
+            val mag = Magnitude(UNKNOWN_MAG);
 
             Star(pos,mag)
         }
@@ -39,6 +59,139 @@ object DbImport{
 
     }
 
+    /**
+     * Parse XHIP text catalog and write it into binary catalog file.
+     * Parsing runs on all cores, see {@link ParallelImport}
+     *
+     * @return import statistics
+     */
+    fun importXhip(out:File = xhipStars, parallelism:Int = Runtime.getRuntime()!!.availableProcessors()):ImportReport{
+        val b = StarStoreBuilder(120000)
+        val parser = XhipRowParser(xhipReadme.readToString(), loadXhipVmag())
+        val report = ParallelImport(parallelism).run(xhipDat, parser, b)
+        StarCatalogFile.write(b.build(), out)
+        return report
+    }
+
+    /**
+     * Load Johnson V magnitudes from XHIP photo.dat, key is Hipparcos number, value is mili-magnitude.
+     * Returns empty map if photometry file does not exist.
+     */
+    fun loadXhipVmag(file:File = xhipPhotoDat):Map<Long,Int>{
+        val ret = java.util.HashMap<Long,Int>()
+        if (!file.exists())
+            return ret
+        //photo.dat is second file described in readme
+        val reader = FixedWidthReader(Parser.parseADCColumnDefinition(xhipReadme.readToString(), 1))
+        val hip = reader.column("HIP")
+        val vmag = reader.column("Vmag")
+        val r = file.openReader()
+        try{
+            var line = r.readLine()
+            while (line != null){
+                val l = line!!
+                if (!reader.isBlank(l, vmag))
+                    ret.put(reader.readLong(l, hip), reader.readMiliMag(l, vmag))
+                line = r.readLine()
+            }
+        }finally{
+            r.close()
+        }
+        return ret
+    }
+
+    /**
+     * Load XHIP positions for cross-match, id is Hipparcos number
+     */
+    fun loadXhipMatchCatalog():MatchCatalog{
+        val reader = FixedWidthReader(Parser.parseADCColumnDefinition(xhipReadme.readToString()))
+        val hip = reader.column("HIP")
+        val ra = reader.column("RAdeg")
+        val de = reader.column("DEdeg")
+        val b = MatchCatalogBuilder(120000)
+        val r = xhipDat.openReader()
+        try{
+            var line = r.readLine()
+            while (line != null){
+                val raRad = reader.readMicroArcSec(line!!, ra) * MICRO_ARC_SEC_TO_RADIAN
+                val deRad = reader.readMicroArcSec(line!!, de) * MICRO_ARC_SEC_TO_RADIAN
+                b.add(reader.readLong(line!!, hip), Vector3D(raRad, deRad))
+                line = r.readLine()
+            }
+        }finally{
+            r.close()
+        }
+        return b.build("XHIP")
+    }
+
+    /**
+     * Load WDS positions for cross-match, id is line number in wds.dat (counted from 1).
+     * Rows without position are skipped.
+     */
+    fun loadWdsMatchCatalog():MatchCatalog{
+        val reader = FixedWidthReader(Parser.parseADCColumnDefinition(wdsReadme.readToString()))
+        val raH = reader.column("RAh")
+        val raM = reader.column("RAm")
+        val raS = reader.column("RAs")
+        val deSign = reader.column("DE-")
+        val deD = reader.column("DEd")
+        val deM = reader.column("DEm")
+        val deS = reader.column("DEs")
+        val b = MatchCatalogBuilder(120000)
+        val r = wdsDat.openReader()
+        try{
+            var lineNum:Long = 0
+            var line = r.readLine()
+            while (line != null){
+                val l = line!!
+                lineNum++
+                if (!reader.isBlank(l, raH) && !reader.isBlank(l, deD)){
+                    val ra = reader.readMicroArcSec(l, raH) + reader.readMicroArcSec(l, raM) + reader.readMicroArcSec(l, raS)
+                    var de = reader.readMicroArcSec(l, deD) + reader.readMicroArcSec(l, deM)
+                    if (!reader.isBlank(l, deS))
+                        de += reader.readMicroArcSec(l, deS)
+                    if (reader.readString(l, deSign) == "-")
+                        de = -de
+                    b.add(lineNum, Vector3D(ra * MICRO_ARC_SEC_TO_RADIAN, de * MICRO_ARC_SEC_TO_RADIAN))
+                }
+                line = r.readLine()
+            }
+        }finally{
+            r.close()
+        }
+        return b.build("WDS")
+    }
+
+    /**
+     * Cross-match XHIP with WDS and save result into {@link #xhipWdsMatch}.
+     * Matching runs on all cores, see {@link CrossMatch}
+     */
+    fun matchXhipWds(out:File = xhipWdsMatch, radius:Double = MATCH_RADIUS,
+                     parallelism:Int = Runtime.getRuntime()!!.availableProcessors()):MatchTable{
+        val table = CrossMatch(parallelism).run(loadXhipMatchCatalog(), loadWdsMatchCatalog(), radius)
+        MatchTableFile.write(table, out)
+        return table
+    }
+
+    /**
+     * Open XHIP binary catalog. Text catalog is imported first,
+     * if binary catalog does not exist or is older than source.
+     * Binary catalog which can not be opened (other version, damaged file) is imported again.
+     */
+    fun openXhip():StarStore{
+        if (!xhipStars.exists() || xhipStars.lastModified() < xhipDat.lastModified()
+                || xhipStars.lastModified() < xhipPhotoDat.lastModified())
+            importXhip()
+        try{
+            return StarCatalogFile.open(xhipStars)
+        }catch(e:StarCatalogException){
+            //file was written by other version or is damaged, import it again
+            xhipStars.delete()
+            importXhip()
+            return StarCatalogFile.open(xhipStars)
+        }
+    }
+
 }
 
 
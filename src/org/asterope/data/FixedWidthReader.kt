@@ -0,0 +1,169 @@
+package org.asterope.data
+
+import java.math.BigDecimal
+import com.google.common.collect.ImmutableList
+import org.asterope.util.*
+
+/**
+ * Compiled reader for fixed width rows described by ADC column definition
+ * (see {@link Parser#parseADCColumnDefinition}).
+ * <p>
+ * Unlike {@link Parser#parseFixedWidth} it does not create map, substrings or cells.
+ * Numeric values are parsed directly from line into primitive values,
+ * so there is no allocation per row. Angles are read as micro arc seconds,
+ * magnitudes as mili-magnitudes.
+ * <p>
+ * Decimal values are parsed without rounding and truncated in the same way as
+ * BigDecimal.longValue(), so results are identical to ParserCell.toAngle()
+ * <p>
+ * Is thread safe.
+ *
+ *  @author Jan Kotek
+ */
+class FixedWidthReader(columns:ImmutableList<ParserColumn>){
+
+    private val names = Array<String>(columns.size(), { columns.get(it)!!.name })
+    private val units = Array<String>(columns.size(), { columns.get(it)!!.unit })
+    private val begins = IntArray(columns.size())
+    private val ends = IntArray(columns.size());
+
+    {
+        for (i in 0..columns.size() - 1){
+            begins[i] = columns.get(i)!!.beginIndex
+            ends[i] = columns.get(i)!!.endIndex
+        }
+    }
+
+    /**
+     * @return index of column with given name, used by other methods.
+     * @throws ParserException if column does not exist
+     */
+    fun column(name:String):Int{
+        for (i in 0..names.size - 1)
+            if (names[i] == name) return i
+        throw ParserException("Unknown column $name")
+    }
+
+    /** @return true if column is empty or contains only spaces*/
+    fun isBlank(line:CharSequence, col:Int):Boolean = trimBegin(line, col) >= trimEnd(line, col)
+
+    /** @return cell value as String, this allocates, use only for text columns */
+    fun readString(line:CharSequence, col:Int):String {
+        val b = trimBegin(line, col)
+        val e = trimEnd(line, col)
+        return if (b >= e) "" else line.subSequence(b, e).toString()
+    }
+
+    /** read integer column */
+    fun readLong(line:CharSequence, col:Int):Long = readScaled(line, col, 1, 0)
+
+    fun readInt(line:CharSequence, col:Int):Int = readLong(line, col).toInt()
+
+    /** read magnitude column as mili-magnitudes */
+    fun readMiliMag(line:CharSequence, col:Int):Int = readScaled(line, col, 1, 3).toInt()
+
+    /**
+     * Read angle column as micro arc seconds, unit is taken from column definition.
+     * Units h, min and s are time units of right ascension.
+     */
+    fun readMicroArcSec(line:CharSequence, col:Int):Long =
+        when (units[col]){
+            "deg" -> readScaled(line, col, 36, 8)
+            "arcmin" -> readScaled(line, col, 6, 7)
+            "arcsec" -> readScaled(line, col, 1, 6)
+            "mas" -> readScaled(line, col, 1, 3)
+            "h" -> readScaled(line, col, 54, 9)
+            "min" -> readScaled(line, col, 9, 8)
+            "s" -> readScaled(line, col, 15, 6)
+            else ->  throw ParserException("Unknown unit ${units[col]} in column ${names[col]}")
+        }
+
+    /**
+     * Parse decimal number and multiply it by `mult * 10^exp10`.
+     * Result is truncated towards zero.
+     */
+    private fun readScaled(line:CharSequence, col:Int, mult:Long, exp10:Int):Long{
+        val b = trimBegin(line, col)
+        val e = trimEnd(line, col)
+        if (b >= e)
+            throw ParserException("Empty value in column ${names[col]}")
+
+        var pos = b
+        var negative = false
+        val first = line.charAt(pos)
+        if (first == '-' || first == '+'){
+            negative = first == '-'
+            pos++
+        }
+
+        var intPart:Long = 0
+        var frac:Long = 0
+        var fracDigits = 0
+        var dot = false
+        var digits = 0
+        while (pos < e){
+            val c = line.charAt(pos)
+            if (c >= '0' && c <= '9'){
+                val d = (c - '0').toLong()
+                if (dot){
+                    //digits beyond 17 places are far below precision of result
+                    if (fracDigits < 17){
+                        frac = frac * 10 + d
+                        fracDigits++
+                    }
+                }else
+                    intPart = intPart * 10 + d
+                digits++
+            }else if (c == '.' && !dot){
+                dot = true
+            }else if (c == 'e' || c == 'E' || c == 'd' || c == 'D'){
+                //exponent notation is rare, use slow path
+                return slowScaled(line.subSequence(b, e).toString(), mult, exp10)
+            }else
+                throw ParserException("Could not parse number '${line.subSequence(b, e)}' in column ${names[col]}")
+            pos++
+        }
+        if (digits == 0)
+            throw ParserException("Could not parse number '${line.subSequence(b, e)}' in column ${names[col]}")
+
+        var ret = intPart * mult * POW10[exp10]
+        if (fracDigits <= exp10)
+            ret += frac * mult * POW10[exp10 - fracDigits]
+        else
+            ret += frac * mult / POW10[fracDigits - exp10]
+
+        return if (negative) -ret else ret
+    }
+
+    private fun slowScaled(value:String, mult:Long, exp10:Int):Long =
+        BigDecimal(value.replace('d', 'e').replace('D', 'E'))
+                .multiply(BigDecimal.valueOf(mult * POW10[exp10]))!!.longValue()
+
+    private fun trimBegin(line:CharSequence, col:Int):Int{
+        var b = begins[col]
+        val e = Math.min(ends[col], line.length())
+        while (b < e && line.charAt(b) <= ' ') b++
+        return b
+    }
+
+    private fun trimEnd(line:CharSequence, col:Int):Int{
+        var e = Math.min(ends[col], line.length())
+        val b = begins[col]
+        while (e > b && line.charAt(e - 1) <= ' ') e--
+        return e
+    }
+
+}
+
+/** powers of ten which fit into Long */
+private val POW10 = pow10Table()
+
+private fun pow10Table():LongArray{
+    val ret = LongArray(19)
+    var v:Long = 1
+    for (i in 0..18){
+        ret[i] = v
+        v *= 10
+    }
+    return ret
+}
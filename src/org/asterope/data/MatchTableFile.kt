@@ -0,0 +1,73 @@
+package org.asterope.data
+
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+
+/**
+ * Binary file with {@link MatchTable}, so cross-match between catalogs is computed only once.
+ * <p>
+ * Layout (big endian):
+ * <pre>
+ *   header:  magic(long) version(int) nameA(utf) nameB(utf) radius(double) size(int) tested(int)
+ *   columns: idA(long[size]) idB(long[size]) separation(double[size])
+ * </pre>
+ *
+ *  @author Jan Kotek
+ */
+object MatchTableFile{
+
+    val MAGIC:Long = 0x41535452584D4154 //ASTRXMAT
+    val VERSION = 1
+
+    /**
+     * Write table into file. Existing file is overwritten.
+     */
+    fun write(table:MatchTable, file:File){
+        val out = DataOutputStream(BufferedOutputStream(FileOutputStream(file), 65536))
+        try{
+            out.writeLong(MAGIC)
+            out.writeInt(VERSION)
+            out.writeUTF(table.nameA)
+            out.writeUTF(table.nameB)
+            out.writeDouble(table.radius)
+            out.writeInt(table.size)
+            out.writeInt(table.tested)
+            for (i in 0..table.size - 1) out.writeLong(table.idA(i))
+            for (i in 0..table.size - 1) out.writeLong(table.idB(i))
+            for (i in 0..table.size - 1) out.writeDouble(table.separation(i))
+        }finally{
+            out.close()
+        }
+    }
+
+    fun read(file:File):MatchTable{
+        val input = DataInputStream(BufferedInputStream(FileInputStream(file), 65536))
+        try{
+            if (input.readLong() != MAGIC)
+                throw StarCatalogException("Not a match table: $file")
+            val version = input.readInt()
+            if (version != VERSION)
+                throw StarCatalogException("Unsupported match table version $version in $file, expected $VERSION")
+            val nameA = input.readUTF()!!
+            val nameB = input.readUTF()!!
+            val radius = input.readDouble()
+            val size = input.readInt()
+            val tested = input.readInt()
+            val idsA = LongArray(size)
+            val idsB = LongArray(size)
+            val separations = DoubleArray(size)
+            for (i in 0..size - 1) idsA[i] = input.readLong()
+            for (i in 0..size - 1) idsB[i] = input.readLong()
+            for (i in 0..size - 1) separations[i] = input.readDouble()
+            return MatchTable(nameA, nameB, radius, size, idsA, idsB, separations, tested)
+        }finally{
+            input.close()
+        }
+    }
+
+}
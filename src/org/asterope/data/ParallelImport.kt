@@ -0,0 +1,175 @@
+package org.asterope.data
+
+import java.io.File
+import java.io.FileInputStream
+import java.util.ArrayList
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import com.google.common.io.CountingInputStream
+import org.asterope.util.*
+
+/**
+ * Parses single catalog line and appends star into builder.
+ * Is called from multiple threads, so implementation must be thread safe.
+ */
+trait StarRowParser{
+    fun parse(line:String, out:StarStoreBuilder)
+}
+
+/**
+ * Statistics of finished import
+ */
+class ImportReport(val rows:Int, val bytes:Long, val chars:Long, val nanos:Long){
+
+    fun rowsPerSecond():Double = rows * 1e9 / nanos
+
+    /** throughput of source file (compressed bytes) in MB/s */
+    fun mbPerSecond():Double = bytes * 1e9 / nanos / (1024 * 1024)
+
+    fun toString() = java.lang.String.format(java.util.Locale.US,
+            "%d rows, %.1f MB in %.2f s: %.0f rows/s, %.2f MB/s (%.2f MB/s decompressed)",
+            rows, bytes / (1024.0 * 1024), nanos / 1e9, rowsPerSecond(), mbPerSecond(),
+            chars * 1e9 / nanos / (1024 * 1024))!!
+}
+
+/**
+ * Pipelined catalog import which uses multiple cores.
+ * <p>
+ * Reader thread decompresses file and splits it into chunks of lines.
+ * Chunks are parsed on fork/join pool, each into its own builder (pixel number is computed here as well).
+ * Calling thread appends parsed chunks into final builder in original order.
+ * Number of chunks in flight is limited, so memory usage does not depend on file size.
+ * If calling thread fails, reader is cancelled and closes file.
+ *
+ *  @author Jan Kotek
+ */
+class ParallelImport(
+        val parallelism:Int = Runtime.getRuntime()!!.availableProcessors(),
+        val chunkSize:Int = 4096
+){
+
+    fun run(file:File, parser:StarRowParser, out:StarStoreBuilder):ImportReport{
+        val start = System.nanoTime()
+        val pool = ForkJoinPool(parallelism)
+        val queue = ArrayBlockingQueue<Future<StarStoreBuilder>>(parallelism * 4)
+        val input = CountingInputStream(FileInputStream(file))
+        val end = FutureTask<StarStoreBuilder>(object:Callable<StarStoreBuilder>{
+            public override fun call():StarStoreBuilder = StarStoreBuilder(0)
+        })
+        val chars = LongArray(1)
+        val readerError = ArrayList<Throwable>()
+        val cancelled = AtomicBoolean(false)
+
+        /** waits for free slot in queue, gives up if consumer is gone */
+        fun put(f:Future<StarStoreBuilder>){
+            while (!queue.offer(f, 100, TimeUnit.MILLISECONDS))
+                if (cancelled.get()) throw CancellationException("Import of $file was cancelled")
+        }
+
+        val reader = Thread(object:Runnable{
+            public override fun run(){
+                try{
+                    val r = openReader(file.getName()!!, input)
+                    try{
+                        var chunk = ArrayList<String>(chunkSize)
+                        var line = r.readLine()
+                        while (line != null && !cancelled.get()){
+                            chars[0] += line!!.length() + 1
+                            chunk.add(line!!)
+                            if (chunk.size() == chunkSize){
+                                put(pool.submit(parseTask(chunk, parser))!!)
+                                chunk = ArrayList<String>(chunkSize)
+                            }
+                            line = r.readLine()
+                        }
+                        if (!chunk.isEmpty() && !cancelled.get())
+                            put(pool.submit(parseTask(chunk, parser))!!)
+                    }finally{
+                        r.close()
+                    }
+                }catch(e:Throwable){
+                    if (!cancelled.get())
+                        synchronized(readerError){ readerError.add(e) }
+                }finally{
+                    input.close()
+                    try{
+                        put(end)
+                    }catch(e:Throwable){
+                        //consumer failed, nobody waits for end
+                    }
+                }
+            }
+        }, "ParallelImport reader " + file.getName())
+
+        reader.setDaemon(true)
+        reader.start()
+        var rows = 0
+        var finished = false
+        try{
+            while (true){
+                val f = queue.take()!!
+                if (f == end) break
+                val chunk = f.get()!!
+                out.addAll(chunk)
+                rows += chunk.size()
+            }
+            finished = true
+        }catch(e:ExecutionException){
+            throw ParserException("Import of $file failed", e.getCause())
+        }finally{
+            if (!finished){
+                cancelled.set(true)
+                reader.interrupt()
+            }
+            pool.shutdownNow()
+            reader.join()
+        }
+        synchronized(readerError){
+            if (!readerError.isEmpty())
+                throw ParserException("Import of $file failed", readerError.get(0))
+        }
+
+        return ImportReport(rows, input.getCount(), chars[0], System.nanoTime() - start)
+    }
+
+    private fun parseTask(lines:ArrayList<String>, parser:StarRowParser) = object:Callable<StarStoreBuilder>{
+        public override fun call():StarStoreBuilder{
+            val b = StarStoreBuilder(lines.size())
+            for (l in lines)
+                parser.parse(l, b)
+            return b
+        }
+    }
+
+}
+
+/**
+ * Parses XHIP main.dat rows using compiled {@link FixedWidthReader}.
+ * main.dat has no magnitude, Vmag from photo.dat is joined by HIP,
+ * see {@link DbImport#loadXhipVmag}. Stars without photometry get {@link DbImport#UNKNOWN_MAG}.
+ */
+class XhipRowParser(readme:String, val vmagByHip:Map<Long,Int>):StarRowParser{
+
+    private val reader = FixedWidthReader(Parser.parseADCColumnDefinition(readme))
+    private val hip = reader.column("HIP")
+    private val ra = reader.column("RAdeg")
+    private val de = reader.column("DEdeg")
+
+    public override fun parse(line:String, out:StarStoreBuilder){
+        val raRad = reader.readMicroArcSec(line, ra) * MICRO_ARC_SEC_TO_RADIAN
+        val deRad = reader.readMicroArcSec(line, de) * MICRO_ARC_SEC_TO_RADIAN
+        val cosDe = Math.cos(deRad)
+        val x = Math.cos(raRad) * cosDe
+        val y = Math.sin(raRad) * cosDe
+        val z = Math.sin(deRad)
+        val mag = vmagByHip.get(reader.readLong(line, hip)) ?: DbImport.UNKNOWN_MAG
+        out.add(HEALPIX_NESTED.vect2pix(x, y, z), x, y, z, mag)
+    }
+}
@@ -0,0 +1,120 @@
+package org.asterope.data
+
+import junit.framework.TestCase
+import kotlin.test.*
+import java.io.File
+import java.io.FileOutputStream
+import java.io.OutputStreamWriter
+import java.util.zip.GZIPOutputStream
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D
+import org.asterope.util.*
+
+class ParallelImportTest:TestCase(){
+
+    /** parses lines in format 'ra de mag' with angles in degrees */
+    object SimpleParser:StarRowParser{
+        public override fun parse(line:String, out:StarStoreBuilder){
+            val s = line.split(" ")
+            val pos = Vector3D(Math.toRadians(s[0].toDouble()), Math.toRadians(s[1].toDouble()))
+            out.add(pos.toNestedIpix(), pos.getX(), pos.getY(), pos.getZ(), s[2].toInt())
+        }
+    }
+
+    /** XHIP parser must be compiled from real readme, Vmag is joined from photo.dat */
+    fun test_xhip_row_parser(){
+        val readme = DbImport.xhipReadme.readToString()
+        val parser = XhipRowParser(readme, DbImport.loadXhipVmag(xhipPhoto(readme)))
+
+        val b = StarStoreBuilder()
+        parser.parse(xhipMainLine(readme, "     1", "  0.00091185", "  1.08901332"), b)
+        parser.parse(xhipMainLine(readme, "     2", " 10.00000000", "-20.00000000"), b)
+        val store = b.build()
+        assertEquals(2, store.size)
+        val mags = java.util.HashSet<Int>()
+        for (row in 0..store.size - 1)
+            mags.add(store.mag(row))
+        assertTrue(mags.contains(9100))
+        assertTrue(mags.contains(DbImport.UNKNOWN_MAG))
+    }
+
+    /** main.dat line with HIP, RAdeg and DEdeg filled */
+    private fun xhipMainLine(readme:String, hip:String, ra:String, de:String):String{
+        val cols = Parser.parseADCColumnDefinition(readme)
+        val b = StringBuilder()
+        for (i in 0..99) b.append(' ')
+        for (c in cols){
+            if (c.name == "HIP") b.replace(c.beginIndex, c.endIndex, hip)
+            if (c.name == "RAdeg") b.replace(c.beginIndex, c.endIndex, ra)
+            if (c.name == "DEdeg") b.replace(c.beginIndex, c.endIndex, de)
+        }
+        return b.toString()
+    }
+
+    /** photo.dat with Vmag 9.10 for HIP 1 only */
+    private fun xhipPhoto(readme:String):File{
+        val cols = Parser.parseADCColumnDefinition(readme, 1)
+        val b = StringBuilder()
+        for (i in 0..99) b.append(' ')
+        for (c in cols){
+            if (c.name == "HIP") b.replace(c.beginIndex, c.endIndex, "     1")
+            if (c.name == "Vmag") b.replace(c.beginIndex, c.endIndex, " 9.10")
+        }
+        val f = File.createTempFile("asterope", ".dat")!!
+        f.deleteOnExit()
+        val w = OutputStreamWriter(FileOutputStream(f))
+        w.write(b.toString() + "\n")
+        w.close()
+        return f
+    }
+
+    fun test_import_gz(){
+        val f = File.createTempFile("asterope", ".txt.gz")!!
+        f.deleteOnExit()
+        val w = OutputStreamWriter(GZIPOutputStream(FileOutputStream(f)))
+        var count = 0
+        for (ra in 0..359)
+            for (de in -89..89 step 2){
+                w.write("$ra $de $count\n")
+                count++
+            }
+        w.close()
+
+        val b = StarStoreBuilder()
+        //small chunks, so there are many of them in flight
+        val report = ParallelImport(parallelism = 4, chunkSize = 100).run(f, SimpleParser, b)
+        assertEquals(count, report.rows)
+        assertEquals(count, b.size())
+        assertEquals(f.length(), report.bytes)
+
+        //every line is imported exactly once
+        val store = b.build()
+        val found = IntArray(count)
+        for (row in 0..store.size - 1)
+            found[store.mag(row)]++
+        for (i in 0..count - 1)
+            assertEquals(1, found[i])
+    }
+
+    fun test_parser_failure_stops_reader(){
+        val f = File.createTempFile("asterope", ".txt")!!
+        f.deleteOnExit()
+        val w = OutputStreamWriter(FileOutputStream(f))
+        for (i in 0..99999)
+            w.write("0 0 $i\n")
+        w.close()
+
+        val failing = object:StarRowParser{
+            public override fun parse(line:String, out:StarStoreBuilder){
+                throw IllegalArgumentException("bad row")
+            }
+        }
+        try{
+            //queue is full long before file is read, run() joins reader so it must give up
+            ParallelImport(parallelism = 1, chunkSize = 10).run(f, failing, StarStoreBuilder())
+            fail()
+        }catch(e:ParserException){
+            assertTrue(e.getCause() is IllegalArgumentException)
+        }
+    }
+
+}
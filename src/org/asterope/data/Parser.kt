@@ -55,7 +55,7 @@ object Parser{
             val beginIndex = l.substring(0,4).replace(" ","").trim()
             var beginIndex2 = if (beginIndex == "") -1 else (Integer.valueOf(beginIndex)!!-1)
             if (beginIndex2 == -1 && endIndex2!=-1)
-                beginIndex2 = endIndex2;
+                beginIndex2 = endIndex2 - 1; //one byte column, only end byte is given
 
             val format = l.substring(9,16).trim()
             val unit = l.substring(16,23).trim()
@@ -97,4 +97,4 @@ class ParserColumn(val name:String, val unit:String, val format:String="", val d
 
 }
 
-class ParserException(msg:String):RuntimeException(msg){}
+class ParserException(msg:String, cause:Throwable? = null):RuntimeException(msg, cause){}
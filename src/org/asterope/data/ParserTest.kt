@@ -40,6 +40,14 @@ class ParserTest:TestCase(){
         assertEquals(6,h.endIndex)
     }
 
+    fun test_parse_ADS_one_byte_column(){
+        val cols = Parser.parseADCColumnDefinition(DbImport.wdsReadme.readToString())
+        var sign:ParserColumn? = null
+        for (c in cols) if (c.name == "DE-") sign = c
+        assertEquals(121, sign!!.beginIndex)
+        assertEquals(122, sign!!.endIndex)
+    }
+
     fun test_parse_ADS_row(){
         val cols = Parser .parseADCColumnDefinition( DbImport.xhipReadme.readToString())
         val out = DbImport.xhipDat.openReader();
@@ -54,4 +62,36 @@ class ParserTest:TestCase(){
 
     }
 
-}
\ No newline at end of file
+    fun test_fixed_width_reader(){
+        val columns = ImmutableList.of(
+            ParserColumn(name ="id",unit= "---",beginIndex = 0, endIndex=4),
+            ParserColumn(name ="ra",unit= "deg",beginIndex = 5, endIndex=17),
+            ParserColumn(name ="de",unit= "deg",beginIndex = 18, endIndex=30),
+            ParserColumn(name ="plx",unit= "mas",beginIndex = 31, endIndex=37),
+            ParserColumn(name ="mag",unit= "mag",beginIndex = 38, endIndex=43)
+        )!!;
+        val reader = FixedWidthReader(columns)
+
+        val line = "  12 123.45678901 -12.34567890  12.34  9.10"
+        val cells = Parser.parseFixedWidth(line, columns)
+
+        assertEquals(12, reader.readLong(line, reader.column("id")))
+        assertEquals(cells.get("ra")!!.toAngle().microArcSec, reader.readMicroArcSec(line, reader.column("ra")))
+        assertEquals(cells.get("de")!!.toAngle().microArcSec, reader.readMicroArcSec(line, reader.column("de")))
+        assertEquals(cells.get("plx")!!.toAngle().microArcSec, reader.readMicroArcSec(line, reader.column("plx")))
+        assertEquals(9100, reader.readMiliMag(line, reader.column("mag")))
+
+        //line shorter than column definition
+        val short = "  12 123.45678901"
+        assertTrue(reader.isBlank(short, reader.column("de")))
+        assertEquals("123.45678901", reader.readString(short, reader.column("ra")))
+
+        try{
+            reader.readLong("  ab", reader.column("id"))
+            fail()
+        }catch(e:ParserException){
+            //expected
+        }
+    }
+
+}
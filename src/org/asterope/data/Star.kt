@@ -11,7 +11,7 @@ import org.asterope.util.*
 
 class Star(
         val pos:Vector3D,
-        val mag:Magnitude
-){
-    val ipix:Long = pos.toIpix()
-}
+        val mag:Magnitude,
+        /** NESTED pixel at HEALPIX_ORDER, computed from position if not given */
+        val ipix:Long = pos.toNestedIpix()
+)
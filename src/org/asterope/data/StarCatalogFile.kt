@@ -0,0 +1,225 @@
+package org.asterope.data
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import org.asterope.healpix.LongBufferSet
+import org.asterope.util.*
+
+/**
+ * Binary star catalog file. It contains {@link StarStore} columns
+ * in the same layout as in memory, so it can be memory-mapped and queried
+ * right after JVM start, without parsing.
+ * <p>
+ * Layout (big endian, all sections are aligned to 8 bytes):
+ * <pre>
+ *   header:       magic(long) version(int) scheme(int) nside(long)
+ *                 size(int) columnCount(int) indexRangeCount(int) cellCount(int)
+ *                 coarseCount(int) reserved(int)
+ *   column table: name(8 ascii bytes) type(int) reserved(int) offset(long)  -- for each column
+ *   range index:  first(long) last(long)  -- for each range of occupied pixels
+ *   columns:      ipix(long[size]) x,y,z(double[size]) mag(int[size])
+ *                 cellpix(long[cellCount]) cellrow(int[cellCount+1])
+ *                 coarpix(long[coarseCount]) coarcell(int[coarseCount+1]) coarmag(int[coarseCount])
+ * </pre>
+ *
+ *  @author Jan Kotek
+ */
+object StarCatalogFile{
+
+    val MAGIC:Long = 0x4153545253544152 //ASTRSTAR
+    val VERSION = 1
+
+    val SCHEME_RING = 0
+    val SCHEME_NESTED = 1
+
+    val TYPE_LONG = 0
+    val TYPE_DOUBLE = 1
+    val TYPE_INT = 2
+
+    private val HEADER_SIZE = 48
+    private val COLUMN_ENTRY_SIZE = 24
+    private val COLUMNS = array("ipix", "x", "y", "z", "mag", "cellpix", "cellrow", "coarpix", "coarcell", "coarmag")
+    private val TYPES = array(TYPE_LONG, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_INT, TYPE_LONG, TYPE_INT,
+            TYPE_LONG, TYPE_INT, TYPE_INT)
+
+    /**
+     * Write store into file. Existing file is overwritten.
+     */
+    fun write(store:StarStore, file:File, nside:Long = HEALPIX_NSIDE){
+        val size = store.size
+        val cellCount = store.cellCount
+        val coarseCount = store.coarseCount
+        val indexCount = store.coverage.rangeCount()
+        val columnsStart = align(HEADER_SIZE + COLUMN_ENTRY_SIZE * COLUMNS.size + 16 * indexCount)
+        val offsets = LongArray(COLUMNS.size)
+        var offset = columnsStart.toLong()
+        for (i in 0..COLUMNS.size - 1){
+            offsets[i] = offset
+            offset = align(offset + columnLength(i, size, cellCount, coarseCount).toLong() * typeSize(TYPES[i]))
+        }
+
+        file.delete()
+        val raf = RandomAccessFile(file, "rw")
+        try{
+            val buf = raf.getChannel()!!.map(FileChannel.MapMode.READ_WRITE, 0, offset)!!
+            //header
+            buf.putLong(MAGIC)
+            buf.putInt(VERSION)
+            buf.putInt(SCHEME_NESTED)
+            buf.putLong(nside)
+            buf.putInt(size)
+            buf.putInt(COLUMNS.size)
+            buf.putInt(indexCount)
+            buf.putInt(cellCount)
+            buf.putInt(coarseCount)
+            buf.putInt(0)
+            //column table
+            for (i in 0..COLUMNS.size - 1){
+                val name = ByteArray(8)
+                val n = COLUMNS[i]
+                for (j in 0..n.length() - 1) name[j] = n.get(j).toByte()
+                buf.put(name)
+                buf.putInt(TYPES[i])
+                buf.putInt(0)
+                buf.putLong(offsets[i])
+            }
+            //range index
+            for (i in 0..indexCount - 1){
+                buf.putLong(store.coverage.rangeFirst(i))
+                buf.putLong(store.coverage.rangeLast(i))
+            }
+            //columns
+            buf.position(offsets[0].toInt())
+            for (row in 0..size - 1) buf.putLong(store.ipix(row))
+            buf.position(offsets[1].toInt())
+            for (row in 0..size - 1) buf.putDouble(store.x(row))
+            buf.position(offsets[2].toInt())
+            for (row in 0..size - 1) buf.putDouble(store.y(row))
+            buf.position(offsets[3].toInt())
+            for (row in 0..size - 1) buf.putDouble(store.z(row))
+            buf.position(offsets[4].toInt())
+            for (row in 0..size - 1) buf.putInt(store.mag(row))
+            buf.position(offsets[5].toInt())
+            for (cell in 0..cellCount - 1) buf.putLong(store.cellIpix(cell))
+            buf.position(offsets[6].toInt())
+            for (cell in 0..cellCount) buf.putInt(store.cellRow(cell))
+            buf.position(offsets[7].toInt())
+            for (c in 0..coarseCount - 1) buf.putLong(store.coarseIpix(c))
+            buf.position(offsets[8].toInt())
+            for (c in 0..coarseCount) buf.putInt(store.coarseCell(c))
+            buf.position(offsets[9].toInt())
+            for (c in 0..coarseCount - 1) buf.putInt(store.coarseMag(c))
+            buf.force()
+        }finally{
+            raf.close()
+        }
+    }
+
+    /**
+     * Map catalog file into memory and return store backed by this mapping.
+     * Only header is read, range index and columns are paged in by OS on first access.
+     */
+    fun open(file:File):StarStore{
+        val raf = RandomAccessFile(file, "r")
+        try{
+            //mapping stays valid after channel is closed
+            val buf = raf.getChannel()!!.map(FileChannel.MapMode.READ_ONLY, 0, raf.length())!!
+            if (buf.getLong() != MAGIC)
+                throw StarCatalogException("Not a star catalog: $file")
+            val version = buf.getInt()
+            if (version != VERSION)
+                throw StarCatalogException("Unsupported catalog version $version in $file, expected $VERSION")
+            val scheme = buf.getInt()
+            if (scheme != SCHEME_NESTED)
+                throw StarCatalogException("Unsupported pixel scheme $scheme in $file")
+            val nside = buf.getLong()
+            if (nside != HEALPIX_NSIDE)
+                throw StarCatalogException("Catalog $file was indexed with nside $nside, expected $HEALPIX_NSIDE")
+            val size = buf.getInt()
+            val columnCount = buf.getInt()
+            val indexCount = buf.getInt()
+            val cellCount = buf.getInt()
+            val coarseCount = buf.getInt()
+            buf.getInt()
+
+            val offsets = LongArray(COLUMNS.size)
+            for (i in 0..columnCount - 1){
+                val name = ByteArray(8)
+                buf.get(name)
+                val type = buf.getInt()
+                buf.getInt()
+                val offset = buf.getLong()
+                val col = columnIndex(name)
+                //unknown columns are ignored, so new columns can be added without version change
+                if (col == -1) continue
+                if (type != TYPES[col])
+                    throw StarCatalogException("Wrong type of column ${COLUMNS[col]} in $file")
+                offsets[col] = offset
+            }
+            for (i in 0..COLUMNS.size - 1)
+                if (offsets[i] == 0.toLong())
+                    throw StarCatalogException("Column ${COLUMNS[i]} is missing in $file")
+
+            //range index is used directly from mapping, same as columns
+            val coverage = LongBufferSet(column(buf, buf.position().toLong(), indexCount * 16).asLongBuffer()!!)
+
+            return StarStore(size, coverage,
+                    column(buf, offsets[0], size * 8).asLongBuffer()!!,
+                    column(buf, offsets[1], size * 8).asDoubleBuffer()!!,
+                    column(buf, offsets[2], size * 8).asDoubleBuffer()!!,
+                    column(buf, offsets[3], size * 8).asDoubleBuffer()!!,
+                    column(buf, offsets[4], size * 4).asIntBuffer()!!,
+                    column(buf, offsets[5], cellCount * 8).asLongBuffer()!!,
+                    column(buf, offsets[6], (cellCount + 1) * 4).asIntBuffer()!!,
+                    column(buf, offsets[7], coarseCount * 8).asLongBuffer()!!,
+                    column(buf, offsets[8], (coarseCount + 1) * 4).asIntBuffer()!!,
+                    column(buf, offsets[9], coarseCount * 4).asIntBuffer()!!)
+        }finally{
+            raf.close()
+        }
+    }
+
+    private fun columnIndex(name:ByteArray):Int{
+        val b = StringBuilder()
+        for (c in name)
+            if (c != 0.toByte()) b.append(c.toChar())
+        val n = b.toString()
+        for (i in 0..COLUMNS.size - 1)
+            if (COLUMNS[i] == n) return i
+        return -1
+    }
+
+    private fun column(buf:ByteBuffer, offset:Long, length:Int):ByteBuffer{
+        val dup = buf.duplicate()!!
+        dup.position(offset.toInt())
+        dup.limit(offset.toInt() + length)
+        return dup.slice()!!
+    }
+
+    /** number of items in column*/
+    private fun columnLength(col:Int, size:Int, cellCount:Int, coarseCount:Int):Int =
+        when (COLUMNS[col]){
+            "cellpix" -> cellCount
+            "cellrow" -> cellCount + 1
+            "coarpix" -> coarseCount
+            "coarcell" -> coarseCount + 1
+            "coarmag" -> coarseCount
+            else -> size
+        }
+
+    private fun typeSize(type:Int):Int =
+        when (type){
+            TYPE_LONG -> 8
+            TYPE_DOUBLE -> 8
+            TYPE_INT -> 4
+            else -> throw IllegalArgumentException("Unknown type $type")
+        }
+
+    private fun align(offset:Int):Int = (offset + 7) and 7.inv()
+    private fun align(offset:Long):Long = (offset + 7) and 7.toLong().inv()
+
+}
+
+class StarCatalogException(msg:String):RuntimeException(msg){}
@@ -0,0 +1,63 @@
+package org.asterope.data
+
+import junit.framework.TestCase
+import kotlin.test.*
+import java.io.File
+import com.google.common.io.Files
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D
+import org.asterope.util.*
+
+class StarCatalogFileTest:TestCase(){
+
+    fun test_write_and_map(){
+        val b = StarStoreBuilder()
+        for (ra in 0..359 step 3)
+            for (de in -85..85 step 5)
+                b.add(Star(Vector3D(Math.toRadians(ra.toDouble()), Math.toRadians(de.toDouble())), Magnitude(ra + de)))
+        val store = b.build()
+
+        val f = File.createTempFile("asterope", ".stars")!!
+        f.deleteOnExit()
+        StarCatalogFile.write(store, f)
+        val mapped = StarCatalogFile.open(f)
+
+        assertEquals(store.size, mapped.size)
+        assertEquals(store.coverage, mapped.coverage)
+        for (row in 0..store.size - 1){
+            assertEquals(store.ipix(row), mapped.ipix(row))
+            assertEquals(store.x(row), mapped.x(row))
+            assertEquals(store.y(row), mapped.y(row))
+            assertEquals(store.z(row), mapped.z(row))
+            assertEquals(store.mag(row), mapped.mag(row))
+        }
+        assertEquals(store.cellCount, mapped.cellCount)
+        for (cell in 0..store.cellCount - 1){
+            assertEquals(store.cellIpix(cell), mapped.cellIpix(cell))
+            assertEquals(store.cellRow(cell), mapped.cellRow(cell))
+        }
+        assertEquals(store.size, mapped.cellRow(mapped.cellCount))
+        assertEquals(store.coarseCount, mapped.coarseCount)
+        for (c in 0..store.coarseCount - 1){
+            assertEquals(store.coarseIpix(c), mapped.coarseIpix(c))
+            assertEquals(store.coarseCell(c), mapped.coarseCell(c))
+            assertEquals(store.coarseMag(c), mapped.coarseMag(c))
+        }
+        assertEquals(store.cellCount, mapped.coarseCell(mapped.coarseCount))
+
+        val area = HEALPIX_COVERAGE.queryDisc(Vector3D(1.0, 1.0, 1.0), Math.toRadians(10.0), false)!!
+        assertEquals(store.getStarsByArea(area).size(), mapped.getStarsByArea(area).size())
+    }
+
+    fun test_wrong_magic(){
+        val f = File.createTempFile("asterope", ".stars")!!
+        f.deleteOnExit()
+        Files.write(ByteArray(100), f)
+        try{
+            StarCatalogFile.open(f)
+            fail()
+        }catch(e:StarCatalogException){
+            //expected
+        }
+    }
+
+}
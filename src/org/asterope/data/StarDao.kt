@@ -1,41 +1,150 @@
 package org.asterope.data
 
-import java.util.ArrayList
-import java.util.TreeMap
 import java.util.List
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D
 import org.asterope.healpix.LongRangeSet
+import org.asterope.healpix.PixToolsNested
+import org.asterope.util.*
 
 /**
  * Object used to access stars from database bundled with Asterope
+ * <p>
+ * Stars are kept in columnar {@link StarStore}, added stars are collected in builder
+ * and store is rebuilt on next query.
+ * <p>
+ * Area parameters are in RING scheme at HEALPIX_NSIDE, they are converted to NESTED scheme used by store.
+ * Conversion works with ranges, but callers which already have NESTED area
+ * (for example from HEALPIX_COVERAGE) should use `Nested` methods and skip it.
+ * Disc queries use {@link Coverage} directly, so large discs do not enumerate pixels.
  *
  *  @author Jan Kotek
  */
 
 open class StarDao{
 
-    private val stars = ArrayList<Star>()
+    private val builder = StarStoreBuilder()
 
-    private val areaIndex = TreeMap<Long, List<Star>>();
+    private var store:StarStore? = null;
 
     fun addStar(star:Star){
-        stars.add(star);
-        val sublist = areaIndex.get(star.ipix) ?: ArrayList<Star>();
-        sublist.add(star)
-        areaIndex.put(star.ipix, sublist);
+        synchronized(builder){
+            if (store != null && builder.size() != store!!.size){
+                //store was loaded from file, copy its content before modification
+                builder.addAll(store!!)
+            }
+            builder.add(star)
+            store = null
+        }
     }
 
-    fun getStarsByArea(set:LongRangeSet):List<Star>{
-        val ret = ArrayList<Star>();
-        val iter = set.rangeIterator()!!;
-        while (iter.moveToNext()){
-            val submap = areaIndex.subMap(iter.first(), true, iter.last(),true)!!;
-            for (sublist in submap.values()){
-                ret.addAll(sublist)
-            }
+    /**
+     * Replace content of this DAO with given store, typically memory-mapped catalog
+     * from {@link StarCatalogFile}.
+     */
+    fun load(store:StarStore){
+        synchronized(builder){
+            builder.clear()
+            this.store = store
         }
+    }
+
+    /** @return columnar store with all stars added so far */
+    fun getStore():StarStore{
+        synchronized(builder){
+            if (store == null)
+                store = builder.build()
+            return store!!
+        }
+    }
+
+    fun getStarsByArea(set:LongRangeSet):List<Star>{
+        return getStore().getStarsByArea(ring2nest(set));
+    }
+
+    /**
+     * Return stars in area given in NESTED scheme at HEALPIX_NSIDE
+     */
+    fun getStarsByNestedArea(set:LongRangeSet):List<Star>{
+        return getStore().getStarsByArea(set);
+    }
+
+    /**
+     * Return stars in pixels which overlap with disc
+     * @param radius in radians
+     */
+    fun getStarsByDisc(center:Vector3D, radius:Double):List<Star>{
+        return getStore().getStarsByArea(HEALPIX_COVERAGE.queryDisc(center, radius, true)!!);
+    }
 
-        return ret;
+    /**
+     * Level of detail query, returns stars brighter than limit, brightest first.
+     * @param magLimit faint magnitude limit in mili-mag
+     * @param maxCount maximal number of returned stars
+     */
+    fun getStarsByArea(set:LongRangeSet, magLimit:Int, maxCount:Int = Integer.MAX_VALUE):List<Star>{
+        return getStore().getStarsByArea(ring2nest(set), magLimit, maxCount);
     }
 
+    /**
+     * Level of detail query on area given in NESTED scheme at HEALPIX_NSIDE.
+     * @param magLimit faint magnitude limit in mili-mag
+     * @param maxCount maximal number of returned stars
+     */
+    fun getStarsByNestedArea(set:LongRangeSet, magLimit:Int, maxCount:Int = Integer.MAX_VALUE):List<Star>{
+        return getStore().getStarsByArea(set, magLimit, maxCount);
+    }
+
+    /**
+     * Level of detail query, returns stars in pixels which overlap with disc, brightest first.
+     * @param radius in radians
+     * @param magLimit faint magnitude limit in mili-mag
+     * @param maxCount maximal number of returned stars
+     */
+    fun getStarsByDisc(center:Vector3D, radius:Double, magLimit:Int, maxCount:Int = Integer.MAX_VALUE):List<Star>{
+        return getStore().getStarsByArea(HEALPIX_COVERAGE.queryDisc(center, radius, true)!!, magLimit, maxCount);
+    }
+
+    /**
+     * Level of detail query, returns stars in pixels which overlap with convex polygon
+     * (for example view of chart), brightest first.
+     * @param magLimit faint magnitude limit in mili-mag
+     * @param maxCount maximal number of returned stars
+     */
+    fun getStarsByPolygon(vertices:List<Vector3D>, magLimit:Int, maxCount:Int = Integer.MAX_VALUE):List<Star>{
+        return getStore().getStarsByArea(HEALPIX_COVERAGE.queryPolygon(vertices, true)!!, magLimit, maxCount);
+    }
+
+    /**
+     * Pass stars within angular distance to visitor (or {@link StarCursor})
+     * @param ra right ascension in radians
+     * @param de declination in radians
+     * @param radius in radians
+     * @return number of visited stars
+     */
+    fun queryCone(ra:Double, de:Double, radius:Double, visitor:StarVisitor):Int{
+        return getStore().queryCone(ra, de, radius, visitor)
+    }
+
+    /**
+     * Pass stars inside convex polygon to visitor (or {@link StarCursor})
+     * @return number of visited stars
+     */
+    fun queryPolygon(vertices:List<Vector3D>, visitor:StarVisitor):Int{
+        return getStore().queryPolygon(vertices, visitor)
+    }
+
+    fun forEachInArea(set:LongRangeSet, visitor:StarVisitor){
+        getStore().forEachInArea(ring2nest(set), visitor)
+    }
+
+    /**
+     * Pass stars in area given in NESTED scheme at HEALPIX_NSIDE to visitor
+     */
+    fun forEachInNestedArea(set:LongRangeSet, visitor:StarVisitor){
+        getStore().forEachInArea(set, visitor)
+    }
+
+    private fun ring2nest(set:LongRangeSet):LongRangeSet = PixToolsNested.ring2nest(HEALPIX_NSIDE, set)!!
+
 
 }
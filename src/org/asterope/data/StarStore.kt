@@ -0,0 +1,553 @@
+package org.asterope.data
+
+import java.nio.LongBuffer
+import java.nio.DoubleBuffer
+import java.nio.IntBuffer
+import java.util.ArrayList
+import java.util.List
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D
+import org.asterope.healpix.Coverage
+import org.asterope.healpix.LongRangeSet
+import org.asterope.healpix.LongRangeSetBuilder
+import org.asterope.util.*
+
+/**
+ * Read-only columnar store of stars.
+ * <p>
+ * Each star is a row in primitive columns (HEALPix pixel, x, y, z and magnitude),
+ * there are no objects per star. Rows are sorted by pixel number,
+ * so area query is a binary search per range.
+ * <p>
+ * Pixels are in NESTED scheme at HEALPIX_ORDER, so all stars in cell at coarser order
+ * are in single continuous block of rows. Areas are usually computed by {@link Coverage},
+ * which returns few large ranges for large areas.
+ * <p>
+ * Rows in each pixel (cell) are sorted by magnitude, brightest first.
+ * Cell index (distinct pixels and their first rows) allows magnitude limited queries,
+ * which only touch stars brighter than limit. Coarse index groups cells into pixels
+ * at coarser order and keeps brightest magnitude of each group, so faint parts of sky are
+ * skipped without visiting their cells.
+ * <p>
+ * Columns are NIO buffers, they can live on heap or in memory-mapped file.
+ * Store is immutable and thread safe, buffers are only accessed with absolute get.
+ *
+ *  @author Jan Kotek
+ */
+class StarStore(
+        val size:Int,
+        /** ranges of pixels which contain at least one star */
+        val coverage:LongRangeSet,
+        private val ipixCol:LongBuffer,
+        private val xCol:DoubleBuffer,
+        private val yCol:DoubleBuffer,
+        private val zCol:DoubleBuffer,
+        private val magCol:IntBuffer,
+        /** sorted distinct pixel numbers */
+        private val cellIpixCol:LongBuffer,
+        /** first row of each cell, last item is `size`, so it is one item longer than cellIpixCol */
+        private val cellRowCol:IntBuffer,
+        /** sorted distinct pixel numbers at coarse order, see COARSE_SHIFT */
+        private val coarseIpixCol:LongBuffer,
+        /** first cell of each coarse pixel, last item is `cellCount` */
+        private val coarseCellCol:IntBuffer,
+        /** brightest magnitude in each coarse pixel */
+        private val coarseMagCol:IntBuffer
+){
+
+    /** number of distinct pixels which contain stars */
+    val cellCount:Int = cellIpixCol.limit()
+
+    /** number of distinct coarse pixels which contain stars */
+    val coarseCount:Int = coarseIpixCol.limit()
+
+    fun cellIpix(cell:Int):Long = cellIpixCol.get(cell)
+    fun cellRow(cell:Int):Int = cellRowCol.get(cell)
+
+    fun coarseIpix(coarse:Int):Long = coarseIpixCol.get(coarse)
+    fun coarseCell(coarse:Int):Int = coarseCellCol.get(coarse)
+    fun coarseMag(coarse:Int):Int = coarseMagCol.get(coarse)
+
+    fun ipix(row:Int):Long = ipixCol.get(row)
+    fun x(row:Int):Double = xCol.get(row)
+    fun y(row:Int):Double = yCol.get(row)
+    fun z(row:Int):Double = zCol.get(row)
+    /** magnitude in mili-mag */
+    fun mag(row:Int):Int = magCol.get(row)
+
+    /** materialize single row into Star object */
+    fun star(row:Int):Star = Star(Vector3D(x(row), y(row), z(row)), Magnitude(mag(row)), ipix(row))
+
+    /**
+     * @return index of first row (starting at `from`) with pixel number greater or equal to given value,
+     * or `size` if there is no such row
+     */
+    fun lowerBound(ipix:Long, from:Int = 0):Int{
+        var lo = from
+        var hi = size
+        while (lo < hi){
+            val mid = (lo + hi) ushr 1
+            if (ipixCol.get(mid) < ipix) lo = mid + 1 else hi = mid
+        }
+        return lo
+    }
+
+    /**
+     * Pass all rows in given area to visitor. No objects are created per star.
+     */
+    fun forEachInArea(set:LongRangeSet, visitor:StarVisitor){
+        val iter = set.rangeIterator()!!;
+        var row = 0
+        while (iter.moveToNext()){
+            //skip empty areas without touching columns
+            if (!coverage.containsAny(iter.first(), iter.last())) continue
+            //ranges are sorted, so search only in remaining rows
+            row = lowerBound(iter.first(), row)
+            val last = iter.last()
+            while (row < size && ipixCol.get(row) <= last){
+                visitor.visit(this, row)
+                row++
+            }
+        }
+    }
+
+    fun getStarsByArea(set:LongRangeSet):List<Star>{
+        val ret = ArrayList<Star>();
+        val iter = set.rangeIterator()!!;
+        var row = 0
+        while (iter.moveToNext()){
+            if (!coverage.containsAny(iter.first(), iter.last())) continue
+            row = lowerBound(iter.first(), row)
+            val last = iter.last()
+            while (row < size && ipixCol.get(row) <= last){
+                ret.add(star(row))
+                row++
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Pass stars within given angular distance from point to visitor.
+     * Pixels from {@link Coverage} are only coarse filter,
+     * exact distance is tested on primitive columns, so no objects are created per star.
+     *
+     * @param ra right ascension in radians
+     * @param de declination in radians
+     * @param radius in radians
+     * @return number of visited stars
+     */
+    fun queryCone(ra:Double, de:Double, radius:Double, visitor:StarVisitor):Int{
+        val cosDe = Math.cos(de)
+        val cx = Math.cos(ra) * cosDe
+        val cy = Math.sin(ra) * cosDe
+        val cz = Math.sin(de)
+        val cosRadius = Math.cos(radius)
+        val set = HEALPIX_COVERAGE.queryDisc(Vector3D(cx, cy, cz), radius, true)!!
+        var count = 0
+        val iter = set.rangeIterator()!!;
+        var row = 0
+        while (iter.moveToNext()){
+            if (!coverage.containsAny(iter.first(), iter.last())) continue
+            row = lowerBound(iter.first(), row)
+            val last = iter.last()
+            while (row < size && ipixCol.get(row) <= last){
+                if (xCol.get(row) * cx + yCol.get(row) * cy + zCol.get(row) * cz >= cosRadius){
+                    visitor.visit(this, row)
+                    count++
+                }
+                row++
+            }
+        }
+        return count
+    }
+
+    /**
+     * Pass stars inside convex polygon to visitor.
+     * Pixels from {@link Coverage} are only coarse filter, edges are tested on primitive columns.
+     *
+     * @param vertices polygon vertices, in clockwise or counter-clockwise order
+     * @return number of visited stars
+     */
+    fun queryPolygon(vertices:List<Vector3D>, visitor:StarVisitor):Int{
+        val normals = Coverage.edgeNormals(vertices)!!
+        val set = HEALPIX_COVERAGE.queryPolygon(vertices, true)!!
+        var count = 0
+        val iter = set.rangeIterator()!!;
+        var row = 0
+        while (iter.moveToNext()){
+            if (!coverage.containsAny(iter.first(), iter.last())) continue
+            row = lowerBound(iter.first(), row)
+            val last = iter.last()
+            while (row < size && ipixCol.get(row) <= last){
+                if (Coverage.polygonContains(normals, xCol.get(row), yCol.get(row), zCol.get(row))){
+                    visitor.visit(this, row)
+                    count++
+                }
+                row++
+            }
+        }
+        return count
+    }
+
+    fun getStarsByArea(set:LongRangeSet, magLimit:Int, maxCount:Int = Integer.MAX_VALUE):List<Star>{
+        val ret = ArrayList<Star>();
+        forEachBrightest(set, magLimit, maxCount, object:StarVisitor{
+            public override fun visit(store:StarStore, row:Int){
+                ret.add(star(row))
+            }
+        })
+        return ret
+    }
+
+    /**
+     * Pass stars in area brighter or equal to magnitude limit to visitor, brightest first.
+     * Stars in each cell are already sorted by magnitude, so only cells are merged using heap.
+     * Coarse pixels enter heap with their brightest magnitude and are expanded into cells
+     * only when they reach top of heap. So cost depends on number of coarse pixels in area
+     * and number of returned stars, faint cells are never visited.
+     *
+     * @param magLimit faint magnitude limit in mili-mag (inclusive)
+     * @param maxCount stop after this number of stars
+     * @return number of visited stars
+     */
+    fun forEachBrightest(set:LongRangeSet, magLimit:Int, maxCount:Int, visitor:StarVisitor):Int{
+        //heap entries are current row and end row of cell,
+        //coarse pixels which were not expanded yet are stored as negative row `-coarse-1`
+        var rows = IntArray(64)
+        var ends = IntArray(64)
+        var n = 0
+        val iter = set.rangeIterator()!!;
+        var coarse = 0
+        while (iter.moveToNext()){
+            if (!coverage.containsAny(iter.first(), iter.last())) continue
+            //coarse pixel split between several ranges is taken only once,
+            //its expansion tests all its cells against area
+            coarse = coarseLowerBound(iter.first() shr COARSE_SHIFT, coarse)
+            val last = iter.last() shr COARSE_SHIFT
+            while (coarse < coarseCount && coarseIpixCol.get(coarse) <= last){
+                if (coarseMagCol.get(coarse) <= magLimit){
+                    if (n == rows.size){
+                        rows = java.util.Arrays.copyOf(rows, n * 2)!!
+                        ends = java.util.Arrays.copyOf(ends, n * 2)!!
+                    }
+                    rows[n] = -coarse - 1
+                    ends[n] = 0
+                    n++
+                }
+                coarse++
+            }
+        }
+
+        var i = n / 2 - 1
+        while (i >= 0){
+            siftDown(rows, ends, n, i)
+            i--
+        }
+
+        var count = 0
+        while (n > 0 && count < maxCount){
+            val row = rows[0]
+            if (row < 0){
+                //expand coarse pixel into cells which are in area and bright enough
+                val c = -row - 1
+                n--
+                rows[0] = rows[n]
+                ends[0] = ends[n]
+                siftDown(rows, ends, n, 0)
+                for (cell in coarseCellCol.get(c)..coarseCellCol.get(c + 1) - 1){
+                    val first = cellRowCol.get(cell)
+                    if (magCol.get(first) > magLimit || !set.contains(cellIpixCol.get(cell))) continue
+                    if (n == rows.size){
+                        rows = java.util.Arrays.copyOf(rows, n * 2)!!
+                        ends = java.util.Arrays.copyOf(ends, n * 2)!!
+                    }
+                    rows[n] = first
+                    ends[n] = cellRowCol.get(cell + 1)
+                    siftUp(rows, ends, n)
+                    n++
+                }
+                continue
+            }
+            visitor.visit(this, row)
+            count++
+            if (row + 1 < ends[0] && magCol.get(row + 1) <= magLimit){
+                rows[0] = row + 1
+            }else{
+                //cell is exhausted, replace it with last item
+                n--
+                rows[0] = rows[n]
+                ends[0] = ends[n]
+            }
+            siftDown(rows, ends, n, 0)
+        }
+        return count
+    }
+
+    /** magnitude of heap entry, for coarse pixel it is its brightest magnitude */
+    private fun heapMag(row:Int):Int = if (row < 0) coarseMagCol.get(-row - 1) else magCol.get(row)
+
+    private fun siftDown(rows:IntArray, ends:IntArray, n:Int, pos:Int){
+        var i = pos
+        while (true){
+            var min = i
+            val l = 2 * i + 1
+            val r = l + 1
+            if (l < n && heapMag(rows[l]) < heapMag(rows[min])) min = l
+            if (r < n && heapMag(rows[r]) < heapMag(rows[min])) min = r
+            if (min == i) return
+            val tr = rows[i]; rows[i] = rows[min]; rows[min] = tr
+            val te = ends[i]; ends[i] = ends[min]; ends[min] = te
+            i = min
+        }
+    }
+
+    private fun siftUp(rows:IntArray, ends:IntArray, pos:Int){
+        var i = pos
+        while (i > 0){
+            val parent = (i - 1) / 2
+            if (heapMag(rows[parent]) <= heapMag(rows[i])) return
+            val tr = rows[i]; rows[i] = rows[parent]; rows[parent] = tr
+            val te = ends[i]; ends[i] = ends[parent]; ends[parent] = te
+            i = parent
+        }
+    }
+
+    private fun coarseLowerBound(coarseIpix:Long, from:Int):Int{
+        var lo = from
+        var hi = coarseCount
+        while (lo < hi){
+            val mid = (lo + hi) ushr 1
+            if (coarseIpixCol.get(mid) < coarseIpix) lo = mid + 1 else hi = mid
+        }
+        return lo
+    }
+
+}
+
+/**
+ * Number of bits pixel number is shifted by to get coarse pixel in StarStore.
+ * Coarse order is four levels above HEALPIX_ORDER, so each coarse pixel has up to 256 cells.
+ */
+val COARSE_SHIFT:Int = 2 * Math.min(4, HEALPIX_ORDER)
+
+/**
+ * Callback used to traverse StarStore without creating objects
+ */
+trait StarVisitor{
+    fun visit(store:StarStore, row:Int)
+}
+
+
+/**
+ * Reusable query result. It keeps only row numbers, columns are read from store.
+ * Call `reset()` before it is passed to next query, so arrays are not allocated again.
+ * Is not thread safe.
+ */
+class StarCursor(initialSize:Int = 64):StarVisitor{
+
+    private var rows = IntArray(initialSize)
+    private var size = 0
+    private var store:StarStore? = null
+
+    public override fun visit(store:StarStore, row:Int){
+        if (this.store != store){
+            if (size != 0) throw IllegalStateException("Cursor contains rows from other store, reset it first")
+            this.store = store
+        }
+        if (size == rows.size)
+            rows = java.util.Arrays.copyOf(rows, Math.max(16, size * 2))!!
+        rows[size] = row
+        size++
+    }
+
+    fun reset(){
+        size = 0
+        store = null
+    }
+
+    /** @return number of collected stars */
+    fun size():Int = size
+
+    fun row(i:Int):Int = rows[i]
+    fun ipix(i:Int):Long = store!!.ipix(rows[i])
+    fun x(i:Int):Double = store!!.x(rows[i])
+    fun y(i:Int):Double = store!!.y(rows[i])
+    fun z(i:Int):Double = store!!.z(rows[i])
+    fun mag(i:Int):Int = store!!.mag(rows[i])
+    fun star(i:Int):Star = store!!.star(rows[i])
+}
+
+
+/**
+ * Collects stars into growable primitive arrays and builds sorted StarStore.
+ * Is not thread safe.
+ */
+class StarStoreBuilder(initialSize:Int = 1024){
+
+    private var ipix = LongArray(initialSize)
+    private var x = DoubleArray(initialSize)
+    private var y = DoubleArray(initialSize)
+    private var z = DoubleArray(initialSize)
+    private var mag = IntArray(initialSize)
+
+    private var size = 0
+
+    fun add(star:Star){
+        add(star.ipix, star.pos.getX(), star.pos.getY(), star.pos.getZ(), star.mag.mili)
+    }
+
+    /** copy all rows from existing store */
+    fun addAll(store:StarStore){
+        for (row in 0..store.size - 1)
+            add(store.ipix(row), store.x(row), store.y(row), store.z(row), store.mag(row))
+    }
+
+    /** append all rows from other builder, in their current order */
+    fun addAll(other:StarStoreBuilder){
+        if (size + other.size > ipix.size)
+            grow(Math.max(size * 2, size + other.size))
+        System.arraycopy(other.ipix, 0, ipix, size, other.size)
+        System.arraycopy(other.x, 0, x, size, other.size)
+        System.arraycopy(other.y, 0, y, size, other.size)
+        System.arraycopy(other.z, 0, z, size, other.size)
+        System.arraycopy(other.mag, 0, mag, size, other.size)
+        size += other.size
+    }
+
+    /** @param ipix NESTED pixel number at HEALPIX_ORDER */
+    fun add(ipix:Long, x:Double, y:Double, z:Double, mag:Int){
+        if (size == this.ipix.size)
+            grow(Math.max(16, size * 2))
+        this.ipix[size] = ipix
+        this.x[size] = x
+        this.y[size] = y
+        this.z[size] = z
+        this.mag[size] = mag
+        size++
+    }
+
+    fun clear(){
+        size = 0
+    }
+
+    /** @return number of stars added so far */
+    fun size():Int = size
+
+    private fun grow(newSize:Int){
+        ipix = java.util.Arrays.copyOf(ipix, newSize)!!
+        x = java.util.Arrays.copyOf(x, newSize)!!
+        y = java.util.Arrays.copyOf(y, newSize)!!
+        z = java.util.Arrays.copyOf(z, newSize)!!
+        mag = java.util.Arrays.copyOf(mag, newSize)!!
+    }
+
+    /**
+     * Sort rows by pixel number and magnitude and construct new store.
+     * Arrays are copied, so builder can be used after this call.
+     */
+    fun build():StarStore{
+        sort(0, size - 1)
+        val coverage = LongRangeSetBuilder()
+        var cellCount = 0
+        for (row in 0..size - 1){
+            coverage.append(ipix[row])
+            if (row == 0 || ipix[row - 1] != ipix[row]) cellCount++
+        }
+        val cellIpix = LongArray(cellCount)
+        val cellRow = IntArray(cellCount + 1)
+        var cell = 0
+        for (row in 0..size - 1){
+            if (row == 0 || ipix[row - 1] != ipix[row]){
+                cellIpix[cell] = ipix[row]
+                cellRow[cell] = row
+                cell++
+            }
+        }
+        cellRow[cellCount] = size
+
+        var coarseCount = 0
+        for (c in 0..cellCount - 1)
+            if (c == 0 || (cellIpix[c - 1] shr COARSE_SHIFT) != (cellIpix[c] shr COARSE_SHIFT)) coarseCount++
+        val coarseIpix = LongArray(coarseCount)
+        val coarseCell = IntArray(coarseCount + 1)
+        val coarseMag = IntArray(coarseCount)
+        var coarse = -1
+        for (c in 0..cellCount - 1){
+            if (c == 0 || (cellIpix[c - 1] shr COARSE_SHIFT) != (cellIpix[c] shr COARSE_SHIFT)){
+                coarse++
+                coarseIpix[coarse] = cellIpix[c] shr COARSE_SHIFT
+                coarseCell[coarse] = c
+                coarseMag[coarse] = Integer.MAX_VALUE
+            }
+            //first row of cell is its brightest star
+            coarseMag[coarse] = Math.min(coarseMag[coarse], mag[cellRow[c]])
+        }
+        coarseCell[coarseCount] = cellCount
+
+        return StarStore(size, coverage.build()!!,
+                LongBuffer.wrap(java.util.Arrays.copyOf(ipix, size)!!)!!,
+                DoubleBuffer.wrap(java.util.Arrays.copyOf(x, size)!!)!!,
+                DoubleBuffer.wrap(java.util.Arrays.copyOf(y, size)!!)!!,
+                DoubleBuffer.wrap(java.util.Arrays.copyOf(z, size)!!)!!,
+                IntBuffer.wrap(java.util.Arrays.copyOf(mag, size)!!)!!,
+                LongBuffer.wrap(cellIpix)!!,
+                IntBuffer.wrap(cellRow)!!,
+                LongBuffer.wrap(coarseIpix)!!,
+                IntBuffer.wrap(coarseCell)!!,
+                IntBuffer.wrap(coarseMag)!!)
+    }
+
+    /** in-place quicksort over all columns, ordered by pixel number and magnitude*/
+    private fun sort(lo0:Int, hi0:Int){
+        var lo = lo0
+        var hi = hi0
+        while (hi - lo > 16){
+            val mid = (lo + hi) ushr 1
+            val pivotIpix = ipix[mid]
+            val pivotMag = mag[mid]
+            var i = lo
+            var j = hi
+            while (i <= j){
+                while (compare(i, pivotIpix, pivotMag) < 0) i++
+                while (compare(j, pivotIpix, pivotMag) > 0) j--
+                if (i <= j){
+                    swap(i, j)
+                    i++
+                    j--
+                }
+            }
+            //recurse into smaller part, loop over larger one
+            if (j - lo < hi - i){
+                sort(lo, j)
+                lo = i
+            }else{
+                sort(i, hi)
+                hi = j
+            }
+        }
+        //insertion sort for small ranges
+        for (i in lo + 1..hi){
+            var j = i
+            while (j > lo && compare(j - 1, ipix[j], mag[j]) > 0){
+                swap(j - 1, j)
+                j--
+            }
+        }
+    }
+
+    private fun compare(row:Int, ipix2:Long, mag2:Int):Int =
+        if (ipix[row] < ipix2) -1
+        else if (ipix[row] > ipix2) 1
+        else if (mag[row] < mag2) -1
+        else if (mag[row] > mag2) 1
+        else 0
+
+    private fun swap(i:Int, j:Int){
+        val p = ipix[i]; ipix[i] = ipix[j]; ipix[j] = p
+        val a = x[i]; x[i] = x[j]; x[j] = a
+        val b = y[i]; y[i] = y[j]; y[j] = b
+        val c = z[i]; z[i] = z[j]; z[j] = c
+        val m = mag[i]; mag[i] = mag[j]; mag[j] = m
+    }
+
+}
@@ -0,0 +1,190 @@
+package org.asterope.data
+
+import junit.framework.TestCase
+import kotlin.test.*
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D
+import org.asterope.healpix.LongRangeSetBuilder
+import org.asterope.util.*
+
+class StarStoreTest:TestCase(){
+
+    fun star(ra:Double, de:Double, mag:Int) = Star(Vector3D(Math.toRadians(ra), Math.toRadians(de)), Magnitude(mag))
+
+    fun test_sorted_by_ipix(){
+        val b = StarStoreBuilder(2)
+        for (ra in 0..359 step 7)
+            for (de in -80..80 step 11)
+                b.add(star(ra.toDouble(), de.toDouble(), ra * de))
+
+        val store = b.build()
+        assertEquals(b.size(), store.size)
+        for (row in 1..store.size - 1)
+            assertTrue(store.ipix(row - 1) <= store.ipix(row))
+    }
+
+    fun test_area_query(){
+        val dao = StarDao()
+        val s1 = star(10.0, 10.0, 1000)
+        val s2 = star(11.0, 10.0, 2000)
+        val s3 = star(200.0, -40.0, 3000)
+        dao.addStar(s3)
+        dao.addStar(s1)
+        dao.addStar(s2)
+
+        val area = HEALPIX_TOOLS.query_disc(Vector3D(Math.toRadians(10.5), Math.toRadians(10.0)), Math.toRadians(2.0), true)
+        val found = dao.getStarsByArea(area)
+        assertEquals(2, found.size())
+        for (s in found)
+            assertTrue(s.mag == s1.mag || s.mag == s2.mag)
+
+        assertEquals(0, dao.getStarsByArea(LongRangeSetBuilder.EMPTY).size())
+
+        //all sky
+        val all = LongRangeSetBuilder()
+        all.appendRange(0, 12 * HEALPIX_NSIDE * HEALPIX_NSIDE - 1)
+        assertEquals(3, dao.getStarsByArea(all.build()).size())
+
+        val disc = dao.getStarsByDisc(Vector3D(Math.toRadians(10.5), Math.toRadians(10.0)), Math.toRadians(2.0))
+        assertEquals(2, disc.size())
+        assertEquals(3, dao.getStarsByDisc(Vector3D(1.0, 0.0, 0.0), Math.PI).size())
+
+        //nested area is passed to store without conversion
+        val nested = HEALPIX_COVERAGE.queryDisc(Vector3D(Math.toRadians(10.5), Math.toRadians(10.0)), Math.toRadians(2.0), true)!!
+        assertEquals(2, dao.getStarsByNestedArea(nested).size())
+        var visited = 0
+        dao.forEachInNestedArea(nested, object:StarVisitor{
+            public override fun visit(store:StarStore, row:Int){
+                visited++
+            }
+        })
+        assertEquals(2, visited)
+    }
+
+    fun test_magnitude_limit_dao(){
+        val dao = StarDao()
+        val r = java.util.Random(2)
+        for (i in 0..199)
+            dao.addStar(star(10 + r.nextDouble(), 10 + r.nextDouble(), r.nextInt(15000)))
+        dao.addStar(star(200.0, -40.0, 100))
+
+        val center = Vector3D(Math.toRadians(10.5), Math.toRadians(10.5))
+        val ring = dao.getStarsByArea(HEALPIX_TOOLS.query_disc(center, Math.toRadians(3.0), true), 6000, 10)
+        val disc = dao.getStarsByDisc(center, Math.toRadians(3.0), 6000, 10)
+        assertEquals(10, disc.size())
+        for (i in 0..9)
+            assertEquals(ring.get(i)!!.mag, disc.get(i)!!.mag)
+
+        val vertices = java.util.ArrayList<Vector3D>()
+        vertices.add(Vector3D(Math.toRadians(8.0), Math.toRadians(8.0)))
+        vertices.add(Vector3D(Math.toRadians(13.0), Math.toRadians(8.0)))
+        vertices.add(Vector3D(Math.toRadians(13.0), Math.toRadians(13.0)))
+        vertices.add(Vector3D(Math.toRadians(8.0), Math.toRadians(13.0)))
+        val polygon = dao.getStarsByPolygon(vertices, 6000)
+        var expected = 0
+        for (s in dao.getStarsByNestedArea(HEALPIX_COVERAGE.queryPolygon(vertices, true)!!)) if (s.mag.mili <= 6000) expected++
+        assertEquals(expected, polygon.size())
+        for (i in 1..polygon.size() - 1)
+            assertTrue(polygon.get(i - 1)!!.mag.mili <= polygon.get(i)!!.mag.mili)
+    }
+
+    fun test_magnitude_limit(){
+        val b = StarStoreBuilder()
+        //many stars in the same cell and its surroundings, with random magnitudes
+        val r = java.util.Random(1)
+        for (i in 0..999)
+            b.add(star(10 + r.nextDouble(), 10 + r.nextDouble(), r.nextInt(15000)))
+        val store = b.build()
+
+        //cells are sorted by magnitude
+        for (cell in 0..store.cellCount - 1)
+            for (row in store.cellRow(cell) + 1..store.cellRow(cell + 1) - 1){
+                assertEquals(store.cellIpix(cell), store.ipix(row))
+                assertTrue(store.mag(row - 1) <= store.mag(row))
+            }
+
+        val area = HEALPIX_COVERAGE.queryDisc(Vector3D(Math.toRadians(10.5), Math.toRadians(10.5)), Math.toRadians(5.0), true)!!
+        val all = store.getStarsByArea(area)
+        assertEquals(1000, all.size())
+
+        var expected = 0
+        for (s in all) if (s.mag.mili <= 6000) expected++
+        val bright = store.getStarsByArea(area, 6000)
+        assertEquals(expected, bright.size())
+        for (i in 1..bright.size() - 1)
+            assertTrue(bright.get(i - 1)!!.mag.mili <= bright.get(i)!!.mag.mili)
+
+        val top10 = store.getStarsByArea(area, 6000, 10)
+        assertEquals(10, top10.size())
+        for (i in 0..9)
+            assertEquals(bright.get(i)!!.mag, top10.get(i)!!.mag)
+    }
+
+    fun test_magnitude_limit_coarse_index(){
+        val b = StarStoreBuilder()
+        //stars over large area, so there are many coarse pixels, some of them only partially in area
+        val r = java.util.Random(3)
+        for (i in 0..19999)
+            b.add(star(r.nextDouble() * 90, r.nextDouble() * 90 - 45, r.nextInt(15000)))
+        val store = b.build()
+
+        //coarse pixels group cells and keep their brightest magnitude
+        assertTrue(store.coarseCount > 1)
+        assertEquals(store.cellCount, store.coarseCell(store.coarseCount))
+        for (c in 0..store.coarseCount - 1){
+            var brightest = Integer.MAX_VALUE
+            for (cell in store.coarseCell(c)..store.coarseCell(c + 1) - 1){
+                assertEquals(store.coarseIpix(c), store.cellIpix(cell) shr COARSE_SHIFT)
+                brightest = Math.min(brightest, store.mag(store.cellRow(cell)))
+            }
+            assertEquals(brightest, store.coarseMag(c))
+        }
+
+        val area = HEALPIX_COVERAGE.queryDisc(Vector3D(Math.toRadians(40.0), Math.toRadians(3.0)), Math.toRadians(25.0), true)!!
+        for (limit in array(0, 100, 3000, 15000)){
+            val expected = java.util.ArrayList<Int>()
+            for (row in 0..store.size - 1)
+                if (area.contains(store.ipix(row)) && store.mag(row) <= limit) expected.add(store.mag(row))
+            java.util.Collections.sort(expected)
+
+            val found = store.getStarsByArea(area, limit)
+            assertEquals(expected.size(), found.size())
+            for (i in 0..found.size() - 1)
+                assertEquals(expected.get(i), found.get(i)!!.mag.mili)
+        }
+    }
+
+    fun test_cone_and_polygon(){
+        val b = StarStoreBuilder()
+        val r = java.util.Random(2)
+        for (i in 0..4999)
+            b.add(star(r.nextDouble() * 60, r.nextDouble() * 60 - 30, i))
+        val store = b.build()
+
+        val center = Vector3D(Math.toRadians(20.0), Math.toRadians(5.0))
+        val radius = Math.toRadians(7.0)
+        val cursor = StarCursor()
+        val count = store.queryCone(Math.toRadians(20.0), Math.toRadians(5.0), radius, cursor)
+        assertEquals(count, cursor.size())
+        var expected = 0
+        for (row in 0..store.size - 1)
+            if (Vector3D.angle(center, store.star(row).pos) <= radius) expected++
+        assertEquals(expected, count)
+        for (i in 0..cursor.size() - 1)
+            assertTrue(Vector3D.angle(center, cursor.star(i).pos) <= radius)
+
+        //cursor is reused
+        cursor.reset()
+        val square = java.util.ArrayList<Vector3D>()
+        square.add(Vector3D(Math.toRadians(10.0), Math.toRadians(-10.0)))
+        square.add(Vector3D(Math.toRadians(30.0), Math.toRadians(-10.0)))
+        square.add(Vector3D(Math.toRadians(30.0), Math.toRadians(10.0)))
+        square.add(Vector3D(Math.toRadians(10.0), Math.toRadians(10.0)))
+        val normals = org.asterope.healpix.Coverage.edgeNormals(square)!!
+        expected = 0
+        for (row in 0..store.size - 1)
+            if (org.asterope.healpix.Coverage.polygonContains(normals, store.x(row), store.y(row), store.z(row))) expected++
+        assertEquals(expected, store.queryPolygon(square, cursor))
+        assertEquals(expected, cursor.size())
+    }
+
+}
@@ -0,0 +1,500 @@
+//
+// Licenced under GPLv2, see licence.txt
+// (c) Jan Kotek,
+//
+
+package org.asterope.healpix;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hierarchical (MOC style) coverage queries in NESTED scheme.
+ * <p>
+ * Query starts with 12 base pixels at order 0 and descends the nested tree.
+ * Cells fully inside area are emitted whole, cells outside are dropped
+ * and only cells on the area boundary are split into four children.
+ * Cell at order k covers contiguous range of 4^(maxOrder-k) NESTED pixels at maxOrder,
+ * so result is returned as LongRangeSet at maxOrder, with few ranges even for large areas.
+ * Cost is proportional to the length of boundary, not to the area.
+ * Disc and convex polygon are supported.
+ * <p>
+ * Exact mode returns pixels whose centre is inside area, inclusive mode all pixels which may overlap with area.
+ * Conservative mode stops descent at coarse order, it is faster and returns superset with bounded margin.
+ * Cost and precision of each query can be inspected with {@link Stats}.
+ * <p>
+ * Is thread safe.
+ *
+ * @author Jan Kotek
+ */
+public class Coverage {
+
+    /** highest order supported by NESTED conversions */
+    public static final int MAX_ORDER = 20;
+
+    protected final int maxOrder;
+
+    /** maximal angular radius of cell at each order */
+    protected final double[] pixrad;
+    protected final double[] sinPixrad;
+
+    /**
+     * @param maxOrder order of pixels in result, nside = 2^maxOrder
+     */
+    public Coverage(int maxOrder){
+        if(maxOrder<0 || maxOrder>MAX_ORDER)
+            throw new IllegalArgumentException("order should be in [0,"+MAX_ORDER+"]");
+        this.maxOrder = maxOrder;
+        pixrad = new double[maxOrder+1];
+        sinPixrad = new double[maxOrder+1];
+        for(int order = 0;order<=maxOrder;order++){
+            pixrad[order] = maxPixrad(1L<<order);
+            sinPixrad[order] = pixrad[order] >= PixTools.HALFPI ? 1 : FastMath.sin(pixrad[order]);
+        }
+    }
+
+    public int getMaxOrder(){
+        return maxOrder;
+    }
+
+    /**
+     * @param nside resolution, must be power of 2
+     * @return order such as nside = 2^order
+     */
+    public static int nside2order(long nside){
+        if(nside<1 || (nside & (nside-1))!=0)
+            throw new IllegalArgumentException("nside should be power of 2 >0");
+        return Long.numberOfTrailingZeros(nside);
+    }
+
+    /**
+     * Maximal angular distance between pixel centre and its corners.
+     * Translated from HEALPix C++ max_pixrad()
+     *
+     * @param nside resolution
+     * @return angle in radians
+     */
+    public static double maxPixrad(long nside){
+        double t1 = 1.0 - 1.0/nside;
+        t1*=t1;
+        Vector3D va = zPhi2Vect(2.0/3.0, PixTools.PI/(4*nside));
+        Vector3D vb = zPhi2Vect(1.0-t1/3, 0);
+        return Vector3D.angle(va,vb);
+    }
+
+    private static Vector3D zPhi2Vect(double z, double phi){
+        double sth = FastMath.sqrt((1.0 - z) * (1.0 + z));
+        return new Vector3D(sth*FastMath.cos(phi), sth*FastMath.sin(phi), z);
+    }
+
+    /**
+     * Find NESTED pixels at maxOrder within disc.
+     *
+     * @param center disc centre
+     * @param radius disc radius in radians
+     * @param inclusive if true, all pixels which may overlap with disc are included (superset),
+     *          otherwise only pixels whose centre is in disc
+     * @return NESTED pixel numbers at maxOrder
+     */
+    public LongRangeSet queryDisc(Vector3D center, double radius, boolean inclusive){
+        return queryDisc(center, radius, inclusive, null);
+    }
+
+    /**
+     * Find NESTED pixels at maxOrder within disc, exact or inclusive mode.
+     * Exact mode returns pixels whose centre is in disc, so pixel is never further than
+     * {@link #maxPixrad(long)} from disc. Inclusive mode returns all pixels which may overlap with disc.
+     *
+     * @param stats if not null, it is filled with statistics of this query
+     */
+    public LongRangeSet queryDisc(Vector3D center, double radius, boolean inclusive, Stats stats){
+        checkRadius(radius);
+        return new Disc(center.normalize(), radius, inclusive).run(maxOrder, stats);
+    }
+
+    /**
+     * Fast conservative disc query. Descent stops at coarse order and boundary cells are returned whole.
+     * Result is superset of inclusive query and no returned pixel is further than `maxMargin` from disc.
+     *
+     * @param maxMargin maximal distance of returned pixels from disc in radians,
+     *          if it is smaller than margin of inclusive query at maxOrder, inclusive query is used
+     * @param stats if not null, it is filled with statistics of this query, including real margin
+     * @return NESTED pixel numbers at maxOrder
+     */
+    public LongRangeSet queryDiscConservative(Vector3D center, double radius, double maxMargin, Stats stats){
+        checkRadius(radius);
+        return new Disc(center.normalize(), radius, true).run(conservativeOrder(maxMargin), stats);
+    }
+
+    private static void checkRadius(double radius){
+        if (radius < 0.0 || radius > PixTools.PI)
+            throw new IllegalArgumentException("angular radius is in RADIAN and should be in [0,pi]");
+    }
+
+    /** @return coarsest order whose boundary cells are within margin */
+    protected int conservativeOrder(double maxMargin){
+        for(int order = 0;order<maxOrder;order++)
+            if(2*pixrad[order] <= maxMargin)
+                return order;
+        return maxOrder;
+    }
+
+    /**
+     * Find NESTED pixels at maxOrder within convex polygon.
+     *
+     * @param vertices polygon vertices, in clockwise or counter-clockwise order
+     * @param inclusive if true, all pixels which may overlap with polygon are included (superset),
+     *          otherwise only pixels whose centre is in polygon
+     * @return NESTED pixel numbers at maxOrder
+     * @throws IllegalArgumentException if polygon has less than 3 vertices or is not convex
+     */
+    public LongRangeSet queryPolygon(List<Vector3D> vertices, boolean inclusive){
+        return queryPolygon(vertices, inclusive, null);
+    }
+
+    /**
+     * Find NESTED pixels at maxOrder within convex polygon, exact or inclusive mode.
+     * For polygons margin is distance from edge planes, near sharp vertices pixels may be
+     * further from polygon itself.
+     *
+     * @param stats if not null, it is filled with statistics of this query
+     */
+    public LongRangeSet queryPolygon(List<Vector3D> vertices, boolean inclusive, Stats stats){
+        return new Polygon(vertices, inclusive).run(maxOrder, stats);
+    }
+
+    /**
+     * Fast conservative polygon query, see {@link #queryDiscConservative(Vector3D, double, double, Stats)}.
+     * Margin is distance from edge planes.
+     */
+    public LongRangeSet queryPolygonConservative(List<Vector3D> vertices, double maxMargin, Stats stats){
+        return new Polygon(vertices, true).run(conservativeOrder(maxMargin), stats);
+    }
+
+    /**
+     * Statistics of single query, so caller can compare cost and precision of query modes.
+     */
+    public static final class Stats{
+        /** number of cells tested against area, at all orders */
+        public int cellsTested;
+        /** number of cells on area boundary at order where descent stopped */
+        public int boundaryCells;
+        /** order where descent stopped, boundary cells are returned at this order */
+        public int order;
+        /** maximal angular distance between area and any point of returned pixels, in radians */
+        public double margin;
+
+        public String toString() {
+            return "cellsTested="+cellsTested+", boundaryCells="+boundaryCells+
+                    ", order="+order+", margin="+Math.round(Math.toDegrees(margin)*3600)+"\"";
+        }
+    }
+
+    protected static final int OUTSIDE = 0;
+    protected static final int INSIDE = 1;
+    protected static final int BOUNDARY = 2;
+
+    /**
+     * State of single query. Subclass classifies cells, descent is shared.
+     */
+    protected abstract class Query{
+        final boolean inclusive;
+        /** centre of current cell */
+        final double[] v = new double[3];
+        final LongRangeSetBuilder b = new LongRangeSetBuilder();
+        /**
+         * if {@link #containsCenter(long)} does not use `v`, cells this number of orders above maxOrder
+         * are not tested, their pixels are decided by containsCenter directly. It is faster than geometric test
+         * near maxOrder, where nearly all cells are on boundary.
+         */
+        int exactLevels = -1;
+
+        Query(boolean inclusive){
+            this.inclusive = inclusive;
+        }
+
+        /** @return OUTSIDE, INSIDE or BOUNDARY for cell at given order with centre in `v` */
+        abstract int test(int order);
+
+        /** @return true if pixel at maxOrder with centre in `v` is inside area */
+        abstract boolean containsCenter(long pix);
+
+        /** order where descent stops */
+        int stopOrder;
+        int cellsTested, boundaryCells;
+
+        LongRangeSet run(int stopOrder, Stats stats){
+            this.stopOrder = stopOrder;
+            for(long pix = 0;pix<12;pix++)
+                descend(0, pix);
+            if(stats!=null){
+                stats.cellsTested = cellsTested;
+                stats.boundaryCells = boundaryCells;
+                stats.order = stopOrder;
+                //boundary cell centre is within pixrad from area, so its corners are within 2*pixrad
+                stats.margin = (inclusive ? 2 : 1) * pixrad[stopOrder];
+            }
+            return b.build();
+        }
+
+        void descend(int order, long pix){
+            if(!inclusive && stopOrder == maxOrder && order >= maxOrder - exactLevels){
+                int shift = 2*(maxOrder-order);
+                for(long p = pix<<shift; p<(pix+1)<<shift; p++){
+                    cellsTested++;
+                    boundaryCells++;
+                    if(containsCenter(p))
+                        b.append(p);
+                }
+                return;
+            }
+            PixToolsNested.pix2vect(order, pix, v);
+            cellsTested++;
+            int t = test(order);
+            if(t == OUTSIDE)
+                return;
+            if(t == INSIDE){
+                appendCell(order, pix, b);
+                return;
+            }
+            if(order == stopOrder){
+                //boundary cell, whole cell in conservative mode
+                boundaryCells++;
+                if(inclusive)
+                    appendCell(order, pix, b);
+                else if(containsCenter(pix))
+                    b.append(pix);
+                return;
+            }
+            for(long child = pix*4; child<pix*4+4;child++)
+                descend(order+1, child);
+        }
+    }
+
+    protected class Disc extends Query{
+        final double x,y,z, cosRadius;
+        //distances are compared as cosines, so there is no acos per cell
+        final double[] cosOutside = new double[maxOrder+1];
+        final double[] cosInside = new double[maxOrder+1];
+
+        Disc(Vector3D center, double radius, boolean inclusive){
+            super(inclusive);
+            this.x = center.getX();
+            this.y = center.getY();
+            this.z = center.getZ();
+            this.cosRadius = FastMath.cos(radius);
+            for(int order = 0;order<=maxOrder;order++){
+                double r = pixrad[order];
+                cosOutside[order] = radius + r >= PixTools.PI ? -2 : FastMath.cos(radius + r);
+                cosInside[order] = radius < r ? 2 : FastMath.cos(radius - r);
+            }
+        }
+
+        int test(int order){
+            double dot = x*v[0] + y*v[1] + z*v[2];
+            if(dot < cosOutside[order])
+                return OUTSIDE;
+            if(dot >= cosInside[order])
+                return INSIDE;
+            return BOUNDARY;
+        }
+
+        boolean containsCenter(long pix){
+            return x*v[0] + y*v[1] + z*v[2] >= cosRadius;
+        }
+    }
+
+    /**
+     * Convex polygon is intersection of half-spaces given by edge planes.
+     * Cell is inside if its centre is further than cell radius from all planes.
+     */
+    protected class Polygon extends Query{
+        /** normals of edge planes, pointing inside, as x,y,z triplets */
+        final double[] normals;
+
+        Polygon(List<Vector3D> vertices, boolean inclusive){
+            super(inclusive);
+            normals = edgeNormals(vertices);
+        }
+
+        int test(int order){
+            double sin = sinPixrad[order];
+            int ret = INSIDE;
+            for(int i = 0;i<normals.length;i+=3){
+                double dot = normals[i]*v[0] + normals[i+1]*v[1] + normals[i+2]*v[2];
+                if(dot < -sin)
+                    return OUTSIDE;
+                if(dot < sin)
+                    ret = BOUNDARY;
+            }
+            return ret;
+        }
+
+        boolean containsCenter(long pix){
+            return polygonContains(normals, v[0], v[1], v[2]);
+        }
+    }
+
+    /**
+     * Finds NESTED pixels at maxOrder whose RING counterparts are returned by
+     * {@link PixTools#InRing(long, double, double, LongRangeSetBuilder)} for rings between `izTop` and `izBottom`
+     * (such as {@link Region#pixelize(double)}). Cells safely inside bounds are emitted whole,
+     * pixels near boundary are classified by longitude interval of their ring, so result contains exactly
+     * the same pixels. RING set is never constructed.
+     *
+     * @param tools PixTools with nside = 2^maxOrder
+     * @param izTop northernmost ring
+     * @param izBottom southernmost ring
+     * @param phi0 centre of longitude interval in radians
+     * @param dphi half width of longitude interval in radians
+     * @return NESTED pixel numbers at maxOrder
+     */
+    public LongRangeSet queryRingBox(PixTools tools, long izTop, long izBottom, double phi0, double dphi){
+        if(tools.nside != 1L<<maxOrder)
+            throw new IllegalArgumentException("nside of PixTools does not match maxOrder");
+        if(izTop > izBottom)
+            return LongRangeSetBuilder.EMPTY;
+        return new RingBox(tools, izTop, izBottom, phi0, dphi).run(maxOrder, null);
+    }
+
+    /**
+     * Area bounded by rings and longitudes, as selected by {@link PixTools#InRing(long, double, double, LongRangeSetBuilder)}.
+     * Cells are classified by colatitude and longitude with margin, which covers rounding in InRing.
+     * Pixels on boundary are tested against InRing interval of their ring.
+     */
+    protected class RingBox extends Query{
+        static final double EPS = 1e-12;
+        static final int EXACT_LEVELS = 1;
+        static final int RING_CACHE = 256;
+        final PixTools tools;
+        final long nside = 1L<<maxOrder;
+        final long izTop, izBottom;
+        final double thetaTop, thetaBottom, phi0, dphi;
+        /** reused for InRing intervals of single ring */
+        final LongRangeSetBuilder ring = new LongRangeSetBuilder(4);
+        /** recently used InRing intervals, indexed by lower bits of ring number */
+        final long[] cacheIz = new long[RING_CACHE];
+        final long[] cacheRanges = new long[RING_CACHE*4];
+        final int[] cacheLen = new int[RING_CACHE];
+
+        RingBox(PixTools tools, long izTop, long izBottom, double phi0, double dphi){
+            super(false);
+            this.tools = tools;
+            this.izTop = izTop;
+            this.izBottom = izBottom;
+            this.thetaTop = FastMath.acos(tools.ring2z(izTop));
+            this.thetaBottom = FastMath.acos(tools.ring2z(izBottom));
+            this.phi0 = phi0;
+            this.dphi = dphi;
+            exactLevels = EXACT_LEVELS;
+            Arrays.fill(cacheIz, -1);
+        }
+
+        int test(int order){
+            double r = pixrad[order];
+            double theta = FastMath.acos(Math.max(-1, Math.min(1, v[2])));
+            //all pixel centres in cell are within r from cell centre
+            if(theta + r < thetaTop - EPS || theta - r > thetaBottom + EPS)
+                return OUTSIDE;
+            //longitude span is widest at latitude nearest to pole
+            double near = Math.min(theta - r, PixTools.PI - theta - r);
+            if(near <= 0 || dphi < 0)
+                return BOUNDARY;
+            double sinNear = FastMath.sin(near);
+            //pixel in InRing may be included if its centre is up to one pixel outside interval
+            double rOut = r + 3*pixrad[maxOrder];
+            if(FastMath.sin(rOut) >= sinNear || rOut >= PixTools.HALFPI)
+                return BOUNDARY;
+            //longitude distance from interval centre in [0,pi]
+            double d = FastMath.atan2(v[1], v[0]) - phi0;
+            d = Math.abs(d - PixTools.TWOPI * FastMath.floor((d + PixTools.PI) / PixTools.TWOPI));
+            if(d - FastMath.asin(FastMath.sin(rOut)/sinNear) > dphi + EPS)
+                return OUTSIDE;
+            if(theta - r >= thetaTop + EPS && theta + r <= thetaBottom - EPS
+                    && d + FastMath.asin(FastMath.sin(r)/sinNear) < dphi - EPS)
+                return INSIDE;
+            return BOUNDARY;
+        }
+
+        boolean containsCenter(long pix){
+            long ringPix = PixToolsNested.nest2ring(nside, pix);
+            long iz = tools.pix2ring(ringPix);
+            if(inRing(iz, ringPix))
+                return true;
+            //InRing may end one pixel after last pixel of ring, which is first pixel of next ring
+            return ringPix > 0 && tools.pix2ring(ringPix - 1) == iz - 1 && inRing(iz - 1, ringPix);
+        }
+
+        private boolean inRing(long iz, long ringPix){
+            if(iz < izTop || iz > izBottom)
+                return false;
+            int slot = (int)(iz & (RING_CACHE-1));
+            if(cacheIz[slot] != iz){
+                //InRing appends at most two ranges
+                ring.pos = 0;
+                tools.InRing(iz, phi0, dphi, ring);
+                System.arraycopy(ring.ranges, 0, cacheRanges, slot*4, ring.pos);
+                cacheLen[slot] = ring.pos;
+                cacheIz[slot] = iz;
+            }
+            for(int i = slot*4; i<slot*4+cacheLen[slot]; i+=2)
+                if(cacheRanges[i] <= ringPix && ringPix <= cacheRanges[i+1])
+                    return true;
+            return false;
+        }
+    }
+
+    /**
+     * Computes inward normals of convex polygon edges, which can be used with
+     * {@link #polygonContains(double[], double, double, double)}
+     *
+     * @param vertices polygon vertices, in clockwise or counter-clockwise order
+     * @return normals as x,y,z triplets
+     * @throws IllegalArgumentException if polygon has less than 3 vertices or is not convex
+     */
+    public static double[] edgeNormals(List<Vector3D> vertices){
+        int n = vertices.size();
+        if(n < 3)
+            throw new IllegalArgumentException("Number of vertices should be >= 3");
+        double[] ret = new double[n*3];
+        //orientation, so normals points inside
+        Vector3D first = Vector3D.crossProduct(vertices.get(0), vertices.get(1));
+        double sign = Vector3D.dotProduct(first, vertices.get(2)) >= 0 ? 1 : -1;
+        for(int i = 0;i<n;i++){
+            Vector3D normal = Vector3D.crossProduct(vertices.get(i), vertices.get((i+1)%n));
+            if(normal.getNorm() == 0)
+                throw new IllegalArgumentException("Polygon has duplicate vertices");
+            normal = normal.normalize().scalarMultiply(sign);
+            for(int j = 0;j<n;j++){
+                if(Vector3D.dotProduct(normal, vertices.get(j)) < -1e-12)
+                    throw new IllegalArgumentException("Polygon is not convex");
+            }
+            ret[i*3] = normal.getX();
+            ret[i*3+1] = normal.getY();
+            ret[i*3+2] = normal.getZ();
+        }
+        return ret;
+    }
+
+    /**
+     * @param normals edge normals from {@link #edgeNormals(java.util.List)}
+     * @return true if unit vector is inside convex polygon
+     */
+    public static boolean polygonContains(double[] normals, double x, double y, double z){
+        for(int i = 0;i<normals.length;i+=3){
+            if(normals[i]*x + normals[i+1]*y + normals[i+2]*z < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** append all maxOrder pixels in given cell*/
+    protected void appendCell(int order, long pix, LongRangeSetBuilder b){
+        int shift = 2*(maxOrder-order);
+        b.appendRange(pix<<shift, ((pix+1)<<shift)-1);
+    }
+
+}
@@ -0,0 +1,805 @@
+//
+// Licenced under GPLv2, see licence.txt
+// (c) Jan Kotek,
+//
+
+package org.asterope.healpix;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Compressed bitmap (Roaring style) representation of LongRangeSet.
+ * <p>
+ * Values are split into chunks by upper 48 bits (key). Each chunk stores lower 16 bits
+ * either in sorted char[] array (up to 4096 values) or in 65536 bit bitmap (long[1024]).
+ * So single value costs at most 2 bytes, while range costs 16 bytes in LongRangeSet.
+ * It works well for fragmented sets with short runs, such as survey footprints or
+ * star masks at fine nside, where LongRangeSet degrades to one range per pixel.
+ * <p>
+ * Has the same API as LongRangeSet. Union, intersect and substract are done chunk by chunk
+ * and bitwise, also when other set is range based. Ranges are streamed from chunks
+ * by {@link #rangeIterator()}, range array is never kept in memory.
+ * Result of set operation is returned in representation which occupies less memory,
+ * see {@link #compact()}.
+ * <p>
+ * Is readonly, so is thread safe.
+ *
+ * @author Jan Kotek
+ */
+public class LongBitmapSet extends LongRangeSet {
+
+    private static final long serialVersionUID = 3393640563409478452L;
+
+    /** chunk with more values is stored as bitmap */
+    protected static final int ARRAY_MAX = 4096;
+    protected static final int BITMAP_WORDS = 1024;
+    /** estimated overhead of single chunk: key, pointer, cardinality and array header */
+    protected static final int CHUNK_OVERHEAD = 8 + 4 + 4 + 16;
+
+    /** sorted chunk keys, value >> 16 */
+    protected long[] keys;
+    /** chunk values, either char[] with sorted lower bits, or long[1024] bitmap */
+    protected Object[] chunks;
+    /** number of values in each chunk */
+    protected int[] cards;
+    protected long size;
+
+    /** empty constructor for serialization */
+    public LongBitmapSet(){
+        this(new long[0], new Object[0], new int[0], 0);
+    }
+
+    protected LongBitmapSet(long[] keys, Object[] chunks, int[] cards, int count){
+        if(keys.length!=count){
+            keys = Arrays.copyOf(keys, count);
+            chunks = Arrays.copyOf(chunks, count);
+            cards = Arrays.copyOf(cards, count);
+        }
+        this.keys = keys;
+        this.chunks = chunks;
+        this.cards = cards;
+        long size = 0;
+        for(int c:cards)
+            size+=c;
+        this.size = size;
+    }
+
+    /**
+     * Converts set into bitmap representation
+     */
+    public static LongBitmapSet valueOf(LongRangeSet set){
+        if(set instanceof LongBitmapSet)
+            return (LongBitmapSet) set;
+        Builder b = new Builder();
+        LongRangeIterator iter = set.rangeIterator();
+        while(iter.moveToNext())
+            b.appendRange(iter.first(), iter.last());
+        return b.build();
+    }
+
+    /**
+     * Constructs bitmap set from values
+     * @param values values in any order, may contain duplicates, array is not modified
+     */
+    public static LongBitmapSet valueOf(long[] values){
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        Builder b = new Builder();
+        for(long v:sorted)
+            b.appendRange(v, v);
+        return b.build();
+    }
+
+    /**
+     * Estimates memory used by bitmap representation of given set, without converting it.
+     *
+     * @return approximate number of bytes
+     */
+    public static long estimateMemory(LongRangeSet set){
+        if(set instanceof LongBitmapSet)
+            return set.memoryUsage();
+        long ret = 16;
+        long curKey = Long.MIN_VALUE;
+        long curCard = 0;
+        boolean hasChunk = false;
+        LongRangeIterator iter = set.rangeIterator();
+        while(iter.moveToNext()){
+            long first = iter.first(), last = iter.last();
+            long firstKey = first>>16, lastKey = last>>16;
+            if(!hasChunk || firstKey!=curKey){
+                if(hasChunk)
+                    ret+=chunkMemory(curCard);
+                curKey = firstKey;
+                curCard = 0;
+                hasChunk = true;
+            }
+            if(firstKey == lastKey){
+                curCard+=last-first+1;
+                continue;
+            }
+            //range spans multiple chunks, middle chunks are full
+            curCard+=((firstKey+1)<<16) - first;
+            ret+=chunkMemory(curCard);
+            ret+=(lastKey-firstKey-1) * chunkMemory(1<<16);
+            curKey = lastKey;
+            curCard = last - (lastKey<<16) + 1;
+        }
+        if(hasChunk)
+            ret+=chunkMemory(curCard);
+        return ret;
+    }
+
+    private static long chunkMemory(long card){
+        return CHUNK_OVERHEAD + (card<=ARRAY_MAX ? 2*card : 8*BITMAP_WORDS);
+    }
+
+    public long memoryUsage(){
+        long ret = 16;
+        for(int c:cards)
+            ret+=chunkMemory(c);
+        return ret;
+    }
+
+    /**
+     * Returns LongRangeSet if it occupies less memory
+     */
+    public LongRangeSet compact(){
+        int rangeCount = rangeCount();
+        if(16 + 16L * rangeCount < memoryUsage() / 2){
+            LongRangeSetBuilder b = new LongRangeSetBuilder(rangeCount*2);
+            b.appendRanges(rangeIterator());
+            return b.build();
+        }
+        return this;
+    }
+
+    /**
+     * Ranges are materialized into new array on each call and are not cached.
+     * It is only used by serialization, use {@link #rangeIterator()} instead.
+     */
+    protected long[] rangeArray(){
+        LongRangeSetBuilder b = new LongRangeSetBuilder();
+        b.appendRanges(rangeIterator());
+        return Arrays.copyOf(b.ranges, b.pos);
+    }
+
+    public int rangeCount(){
+        int ret = 0;
+        LongRangeIterator iter = rangeIterator();
+        while(iter.moveToNext())
+            ret++;
+        return ret;
+    }
+
+    /** ranges are not indexed, so this takes linear time */
+    public long rangeFirst(int i){
+        return nthRange(i).first();
+    }
+
+    /** ranges are not indexed, so this takes linear time */
+    public long rangeLast(int i){
+        return nthRange(i).last();
+    }
+
+    private LongRangeIterator nthRange(int i){
+        LongRangeIterator iter = rangeIterator();
+        for(int n = 0; n<=i; n++)
+            if(!iter.moveToNext())
+                throw new IndexOutOfBoundsException("Range "+i+" does not exist");
+        return iter;
+    }
+
+    public long size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return keys.length == 0;
+    }
+
+    public long first(){
+        if(isEmpty())
+            throw new NoSuchElementException();
+        Object c = chunks[0];
+        int low = c instanceof char[] ? ((char[])c)[0] : nextSetBit((long[])c, 0);
+        return (keys[0]<<16) | low;
+    }
+
+    public long last(){
+        if(isEmpty())
+            throw new NoSuchElementException();
+        int i = keys.length - 1;
+        Object c = chunks[i];
+        int low;
+        if(c instanceof char[]){
+            low = ((char[])c)[cards[i]-1];
+        }else{
+            long[] bits = (long[])c;
+            int w = BITMAP_WORDS - 1;
+            while(bits[w]==0) w--;
+            low = w*64 + 63 - Long.numberOfLeadingZeros(bits[w]);
+        }
+        return (keys[i]<<16) | low;
+    }
+
+    public boolean contains(long i){
+        int index = Arrays.binarySearch(keys, i>>16);
+        if(index<0)
+            return false;
+        int low = (int)(i & 0xFFFF);
+        Object c = chunks[index];
+        if(c instanceof char[])
+            return Arrays.binarySearch((char[])c, 0, cards[index], (char)low)>=0;
+        return (((long[])c)[low>>>6] & (1L<<low)) != 0;
+    }
+
+    public boolean containsAny(long first, long last){
+        if(first>last)
+            throw new IllegalArgumentException("First is bigger then last");
+        long lastKey = last>>16;
+        for(int i = lowerBound(first>>16); i<keys.length && keys[i]<=lastKey; i++){
+            int lo = keys[i] == first>>16 ? (int)(first & 0xFFFF) : 0;
+            int hi = keys[i] == lastKey ? (int)(last & 0xFFFF) : 0xFFFF;
+            if(countInChunk(i, lo, hi) > 0)
+                return true;
+        }
+        return false;
+    }
+
+    public boolean containsAll(long first, long last){
+        if(first>last)
+            throw new IllegalArgumentException("First is bigger then last");
+        long firstKey = first>>16, lastKey = last>>16;
+        int i = lowerBound(firstKey);
+        //all chunks between first and last must exist
+        if(i + (lastKey - firstKey) >= keys.length || keys[(int)(i + lastKey - firstKey)] != lastKey)
+            return false;
+        for(long key = firstKey; key<=lastKey; key++, i++){
+            int lo = key == firstKey ? (int)(first & 0xFFFF) : 0;
+            int hi = key == lastKey ? (int)(last & 0xFFFF) : 0xFFFF;
+            if(countInChunk(i, lo, hi) != hi-lo+1)
+                return false;
+        }
+        return true;
+    }
+
+    public boolean containsAll(LongIterator iter){
+        while(iter.hasNext())
+            if(!contains(iter.next()))
+                return false;
+        return true;
+    }
+
+    public boolean containsAny(LongIterator iter){
+        while(iter.hasNext())
+            if(contains(iter.next()))
+                return true;
+        return false;
+    }
+
+    public boolean containsAll(LongRangeIterator iter){
+        while(iter.moveToNext())
+            if(!containsAll(iter.first(), iter.last()))
+                return false;
+        return true;
+    }
+
+    public boolean containsAny(LongRangeIterator iter){
+        while(iter.moveToNext())
+            if(containsAny(iter.first(), iter.last()))
+                return true;
+        return false;
+    }
+
+    /** @return index of first key which is >= given key */
+    private int lowerBound(long key){
+        int index = Arrays.binarySearch(keys, key);
+        return index<0 ? -(index+1) : index;
+    }
+
+    /** @return number of values in chunk between lo and hi inclusive */
+    private int countInChunk(int index, int lo, int hi){
+        Object c = chunks[index];
+        if(c instanceof char[]){
+            char[] a = (char[]) c;
+            return lowerBound(a, cards[index], hi+1) - lowerBound(a, cards[index], lo);
+        }
+        long[] bits = (long[]) c;
+        int loWord = lo>>>6, hiWord = hi>>>6;
+        if(loWord == hiWord)
+            return Long.bitCount(bits[loWord] & (-1L<<lo) & (-1L>>>(63-(hi&63))));
+        int ret = Long.bitCount(bits[loWord] & (-1L<<lo));
+        for(int w = loWord+1; w<hiWord; w++)
+            ret+=Long.bitCount(bits[w]);
+        return ret + Long.bitCount(bits[hiWord] & (-1L>>>(63-(hi&63))));
+    }
+
+    private static int lowerBound(char[] a, int len, int value){
+        if(value>0xFFFF)
+            return len;
+        int index = Arrays.binarySearch(a, 0, len, (char)value);
+        return index<0 ? -(index+1) : index;
+    }
+
+    /** @return position of first set bit at or after `from`, or -1 */
+    private static int nextSetBit(long[] bits, int from){
+        if(from>0xFFFF)
+            return -1;
+        int w = from>>>6;
+        long word = bits[w] & (-1L<<from);
+        while(word == 0){
+            if(++w == BITMAP_WORDS)
+                return -1;
+            word = bits[w];
+        }
+        return w*64 + Long.numberOfTrailingZeros(word);
+    }
+
+    /** @return position of first clear bit at or after `from`, or 65536 */
+    private static int nextClearBit(long[] bits, int from){
+        int w = from>>>6;
+        long word = ~bits[w] & (-1L<<from);
+        while(word == 0){
+            if(++w == BITMAP_WORDS)
+                return 1<<16;
+            word = ~bits[w];
+        }
+        return w*64 + Long.numberOfTrailingZeros(word);
+    }
+
+    public LongIterator longIterator(){
+        return longIterator(rangeIterator());
+    }
+
+    /**
+     * Streams ranges from chunks, without materializing range array.
+     * Runs which continue over chunk boundary are merged.
+     */
+    public LongRangeIterator rangeIterator(){
+        return new LongRangeIterator(){
+            /** current chunk and position inside chunk */
+            int index = 0, pos = 0;
+            long first, last;
+            /** next run found in advance, used to merge runs over chunk boundary */
+            boolean hasRun = nextRun();
+            long runFirst = first, runLast = last;
+
+            /** finds next run in chunks and stores it in first and last */
+            boolean nextRun(){
+                while(index<keys.length){
+                    Object c = chunks[index];
+                    long base = keys[index]<<16;
+                    if(c instanceof char[]){
+                        char[] a = (char[]) c;
+                        int len = cards[index];
+                        if(pos<len){
+                            int start = pos;
+                            while(pos+1<len && a[pos+1] == a[pos]+1)
+                                pos++;
+                            first = base | a[start];
+                            last = base | a[pos];
+                            pos++;
+                            return true;
+                        }
+                    }else{
+                        long[] bits = (long[]) c;
+                        int start = nextSetBit(bits, pos);
+                        if(start>=0){
+                            pos = nextClearBit(bits, start);
+                            first = base | start;
+                            last = base | (pos-1);
+                            return true;
+                        }
+                    }
+                    index++;
+                    pos = 0;
+                }
+                return false;
+            }
+
+            public boolean moveToNext(){
+                if(!hasRun)
+                    return false;
+                long f = runFirst, l = runLast;
+                //merge with following runs which continue in next chunk
+                while((hasRun = nextRun()) && first == l+1)
+                    l = last;
+                runFirst = first;
+                runLast = last;
+                first = f;
+                last = l;
+                return true;
+            }
+
+            public long first(){
+                return first;
+            }
+
+            public long last(){
+                return last;
+            }
+        };
+    }
+
+    public LongRangeSet union(LongRangeSet rs){
+        if(rs.isEmpty())
+            return this;
+        if(isEmpty())
+            return rs;
+        if(!(rs instanceof LongBitmapSet)){
+            //long runs would fill bitmap chunks, result is better stored as ranges
+            if(estimateMemory(rs) > rs.memoryUsage())
+                return unionRuns(rs.rangeArray());
+            return unionRanges(rs.rangeArray()).compact();
+        }
+        LongBitmapSet o = (LongBitmapSet) rs;
+        Builder b = new Builder(keys.length + o.keys.length);
+        int i = 0, j = 0;
+        while(i<keys.length || j<o.keys.length){
+            if(j == o.keys.length || i<keys.length && keys[i]<o.keys[j]){
+                b.addChunk(keys[i], chunks[i], cards[i]);
+                i++;
+            }else if(i == keys.length || o.keys[j]<keys[i]){
+                b.addChunk(o.keys[j], o.chunks[j], o.cards[j]);
+                j++;
+            }else{
+                b.addBits(keys[i], or(toBits(chunks[i], cards[i]), o.chunks[j], o.cards[j]));
+                i++;
+                j++;
+            }
+        }
+        return b.build().compact();
+    }
+
+    /** union with sorted ranges into range based set, runs of this set are streamed */
+    private LongRangeSet unionRuns(long[] r){
+        LongRangeSetBuilder b = new LongRangeSetBuilder(r.length + 2);
+        LongRangeIterator iter = rangeIterator();
+        boolean run = iter.moveToNext();
+        int j = 0;
+        while(run || j<r.length){
+            if(run && (j == r.length || iter.first()<r[j])){
+                b.appendRange(iter.first(), iter.last());
+                run = iter.moveToNext();
+            }else{
+                b.appendRange(r[j], r[j+1]);
+                j+=2;
+            }
+        }
+        return b.build();
+    }
+
+    /** union with sorted ranges, chunks which do not overlap with ranges are shared */
+    private LongBitmapSet unionRanges(long[] r){
+        int n = r.length/2;
+        Builder b = new Builder(keys.length + n);
+        int i = 0, j = 0;
+        //start of remaining part of range j
+        long from = n>0 ? r[0] : 0;
+        while(j<n){
+            long key = from>>16;
+            if(i<keys.length && keys[i]<key){
+                b.addChunk(keys[i], chunks[i], cards[i]);
+                i++;
+                continue;
+            }
+            long limit;
+            if(i<keys.length && keys[i] == key){
+                //ranges in this chunk are set in its copy
+                b.startChunk(key, toBits(chunks[i], cards[i]));
+                limit = (key<<16) | 0xFFFF;
+                i++;
+            }else{
+                //ranges before next chunk go directly into builder
+                limit = i<keys.length ? (keys[i]<<16) - 1 : Long.MAX_VALUE;
+            }
+            while(j<n && from<=limit){
+                long last = Math.min(r[j*2+1], limit);
+                b.appendRange(from, last);
+                if(last<r[j*2+1])
+                    from = last+1;
+                else if(++j<n)
+                    from = r[j*2];
+            }
+        }
+        for(; i<keys.length; i++)
+            b.addChunk(keys[i], chunks[i], cards[i]);
+        return b.build();
+    }
+
+    /** values which are (keep=true) or are not (keep=false) in sorted ranges */
+    private LongBitmapSet filterRanges(long[] r, boolean keep){
+        int n = r.length/2;
+        Builder b = new Builder(keys.length);
+        int j = 0;
+        for(int i = 0; i<keys.length; i++){
+            long base = keys[i]<<16, chunkLast = base | 0xFFFF;
+            j = gallop(r, j, base);
+            if(j == n || r[j*2]>chunkLast){
+                //no range in chunk
+                if(!keep)
+                    b.addChunk(keys[i], chunks[i], cards[i]);
+                continue;
+            }
+            if(r[j*2]<=base && r[j*2+1]>=chunkLast){
+                //chunk is covered by single range
+                if(keep)
+                    b.addChunk(keys[i], chunks[i], cards[i]);
+                continue;
+            }
+            long[] mask = new long[BITMAP_WORDS];
+            for(int k = j; k<n && r[k*2]<=chunkLast; k++)
+                Builder.setRange(mask, (int)(Math.max(r[k*2], base) - base), (int)(Math.min(r[k*2+1], chunkLast) - base));
+            Object c = chunks[i];
+            if(c instanceof char[])
+                b.addFiltered(keys[i], (char[]) c, cards[i], mask, 0, keep);
+            else
+                b.addBits(keys[i], and((long[]) c, mask, keep));
+        }
+        return b.build();
+    }
+
+    /**
+     * Values from range based set which are not in this set.
+     * Runs of this set are streamed, so range array is not materialized.
+     */
+    LongRangeSet substractFrom(LongRangeSet rs){
+        long[] r = rs.rangeArray();
+        LongRangeSetBuilder b = new LongRangeSetBuilder(r.length + 2);
+        LongRangeIterator iter = rangeIterator();
+        boolean run = iter.moveToNext();
+        for(int i = 0; i<r.length; i+=2){
+            long first = r[i], last = r[i+1];
+            boolean covered = false;
+            while(run && iter.last()<first)
+                run = iter.moveToNext();
+            while(run && iter.first()<=last){
+                if(iter.first()>first)
+                    b.appendRange(first, iter.first()-1);
+                if(iter.last()>=last){
+                    //run may continue into next range, so it is not consumed
+                    covered = true;
+                    break;
+                }
+                first = iter.last()+1;
+                run = iter.moveToNext();
+            }
+            if(!covered)
+                b.appendRange(first, last);
+        }
+        return b.build();
+    }
+
+    public LongRangeSet intersect(LongRangeSet rs){
+        if(!(rs instanceof LongBitmapSet))
+            return filterRanges(rs.rangeArray(), true).compact();
+        LongBitmapSet o = (LongBitmapSet) rs;
+        Builder b = new Builder(Math.min(keys.length, o.keys.length));
+        int i = 0, j = 0;
+        while(i<keys.length && j<o.keys.length){
+            if(keys[i]<o.keys[j]){
+                i++;
+            }else if(o.keys[j]<keys[i]){
+                j++;
+            }else{
+                Object c1 = chunks[i], c2 = o.chunks[j];
+                if(c1 instanceof char[])
+                    b.addFiltered(keys[i], (char[]) c1, cards[i], c2, o.cards[j], true);
+                else if(c2 instanceof char[])
+                    b.addFiltered(keys[i], (char[]) c2, o.cards[j], c1, cards[i], true);
+                else
+                    b.addBits(keys[i], and((long[])c1, (long[])c2, true));
+                i++;
+                j++;
+            }
+        }
+        return b.build().compact();
+    }
+
+    public LongRangeSet substract(LongRangeSet rs){
+        if(rs.isEmpty())
+            return this;
+        if(!(rs instanceof LongBitmapSet))
+            return filterRanges(rs.rangeArray(), false).compact();
+        LongBitmapSet o = (LongBitmapSet) rs;
+        Builder b = new Builder(keys.length);
+        int j = 0;
+        for(int i = 0; i<keys.length; i++){
+            while(j<o.keys.length && o.keys[j]<keys[i])
+                j++;
+            if(j == o.keys.length || o.keys[j]!=keys[i]){
+                b.addChunk(keys[i], chunks[i], cards[i]);
+                continue;
+            }
+            Object c1 = chunks[i], c2 = o.chunks[j];
+            if(c1 instanceof char[])
+                b.addFiltered(keys[i], (char[]) c1, cards[i], c2, o.cards[j], false);
+            else
+                b.addBits(keys[i], and((long[])c1, c2 instanceof long[] ? (long[])c2 : toBits(c2, o.cards[j]), false));
+        }
+        return b.build().compact();
+    }
+
+    /** @return copy of chunk as bitmap */
+    private static long[] toBits(Object chunk, int card){
+        if(chunk instanceof long[])
+            return ((long[]) chunk).clone();
+        long[] bits = new long[BITMAP_WORDS];
+        char[] a = (char[]) chunk;
+        for(int k = 0; k<card; k++)
+            bits[a[k]>>>6] |= 1L<<a[k];
+        return bits;
+    }
+
+    /** adds chunk into bitmap, bitmap is modified */
+    private static long[] or(long[] bits, Object chunk, int card){
+        if(chunk instanceof char[]){
+            char[] a = (char[]) chunk;
+            for(int k = 0; k<card; k++)
+                bits[a[k]>>>6] |= 1L<<a[k];
+        }else{
+            long[] b = (long[]) chunk;
+            for(int w = 0; w<BITMAP_WORDS; w++)
+                bits[w] |= b[w];
+        }
+        return bits;
+    }
+
+    /** @return new bitmap with `b1 & b2` or `b1 & ~b2` */
+    private static long[] and(long[] b1, long[] b2, boolean keep){
+        long[] ret = new long[BITMAP_WORDS];
+        long mask = keep ? 0 : -1L;
+        for(int w = 0; w<BITMAP_WORDS; w++)
+            ret[w] = b1[w] & (b2[w] ^ mask);
+        return ret;
+    }
+
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        LongBitmapSet s = valueOf(LongRangeSetBuilder.readFrom(in));
+        keys = s.keys;
+        chunks = s.chunks;
+        cards = s.cards;
+        size = s.size;
+    }
+
+    /**
+     * Constructs bitmap set from sorted chunks or sorted ranges.
+     */
+    protected static final class Builder{
+        long[] keys;
+        Object[] chunks;
+        int[] cards;
+        int count = 0;
+
+        /** chunk which is filled by appendRange */
+        long curKey;
+        long[] curBits;
+
+        Builder(){
+            this(16);
+        }
+
+        Builder(int capacity){
+            capacity = Math.max(capacity, 4);
+            keys = new long[capacity];
+            chunks = new Object[capacity];
+            cards = new int[capacity];
+        }
+
+        /** appends chunk, chunk is shared and must not be modified */
+        void addChunk(long key, Object chunk, int card){
+            flush();
+            if(card == 0)
+                return;
+            if(count == keys.length){
+                int newSize = count*2;
+                keys = Arrays.copyOf(keys, newSize);
+                chunks = Arrays.copyOf(chunks, newSize);
+                cards = Arrays.copyOf(cards, newSize);
+            }
+            keys[count] = key;
+            chunks[count] = chunk;
+            cards[count] = card;
+            count++;
+        }
+
+        /** appends bitmap chunk, it is converted to array if it is sparse */
+        void addBits(long key, long[] bits){
+            int card = 0;
+            for(long w:bits)
+                card+=Long.bitCount(w);
+            if(card == 0 || card>ARRAY_MAX){
+                addChunk(key, bits, card);
+                return;
+            }
+            char[] a = new char[card];
+            int k = 0;
+            for(int w = 0; w<BITMAP_WORDS; w++){
+                long word = bits[w];
+                while(word!=0){
+                    a[k++] = (char)(w*64 + Long.numberOfTrailingZeros(word));
+                    word &= word-1;
+                }
+            }
+            addChunk(key, a, card);
+        }
+
+        /** appends values from array chunk which are (keep=true) or are not (keep=false) in other chunk */
+        void addFiltered(long key, char[] a, int card, Object other, int otherCard, boolean keep){
+            char[] ret = new char[card];
+            int k = 0;
+            if(other instanceof long[]){
+                long[] bits = (long[]) other;
+                for(int n = 0; n<card; n++){
+                    char v = a[n];
+                    if(((bits[v>>>6] & (1L<<v)) != 0) == keep)
+                        ret[k++] = v;
+                }
+            }else{
+                char[] b = (char[]) other;
+                int m = 0;
+                for(int n = 0; n<card; n++){
+                    char v = a[n];
+                    while(m<otherCard && b[m]<v)
+                        m++;
+                    if((m<otherCard && b[m] == v) == keep)
+                        ret[k++] = v;
+                }
+            }
+            addChunk(key, k == card ? ret : Arrays.copyOf(ret, k), k);
+        }
+
+        /** starts chunk which is filled by appendRange, bitmap is modified */
+        void startChunk(long key, long[] bits){
+            flush();
+            curKey = key;
+            curBits = bits;
+        }
+
+        /** appends range, ranges must be sorted */
+        void appendRange(long first, long last){
+            while(true){
+                long key = first>>16;
+                if(curBits == null || key!=curKey){
+                    flush();
+                    curKey = key;
+                    curBits = new long[BITMAP_WORDS];
+                }
+                int lo = (int)(first & 0xFFFF);
+                int hi = key == last>>16 ? (int)(last & 0xFFFF) : 0xFFFF;
+                setRange(curBits, lo, hi);
+                if(hi!=0xFFFF || key == last>>16)
+                    return;
+                first = (key+1)<<16;
+            }
+        }
+
+        private static void setRange(long[] bits, int lo, int hi){
+            int loWord = lo>>>6, hiWord = hi>>>6;
+            if(loWord == hiWord){
+                bits[loWord] |= (-1L<<lo) & (-1L>>>(63-(hi&63)));
+                return;
+            }
+            bits[loWord] |= -1L<<lo;
+            for(int w = loWord+1; w<hiWord; w++)
+                bits[w] = -1L;
+            bits[hiWord] |= -1L>>>(63-(hi&63));
+        }
+
+        private void flush(){
+            long[] bits = curBits;
+            curBits = null;
+            if(bits!=null)
+                addBits(curKey, bits);
+        }
+
+        LongBitmapSet build(){
+            flush();
+            return new LongBitmapSet(keys, chunks, cards, count);
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+//
+// Licenced under GPLv2, see licence.txt
+// (c) Jan Kotek,
+//
+
+package org.asterope.healpix;
+
+import java.io.ObjectStreamException;
+import java.nio.LongBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only LongRangeSet view over ranges stored in LongBuffer,
+ * typically slice of memory-mapped file written by
+ * {@link LongRangeSetBuilder#writeTo(java.nio.ByteBuffer, LongRangeSet)}.
+ * <p>
+ * `contains`, `containsAny`, `containsAll` and iteration are answered straight from buffer
+ * with binary search, nothing is deserialized. Set operations inherited from LongRangeSet
+ * copy ranges to heap on first use.
+ * <p>
+ * Buffer content is not validated, ranges must be sorted and must not be modified.
+ * Is serialized as ordinary LongRangeSet.
+ * <p>
+ * Is readonly, so is thread safe.
+ *
+ * @author Jan Kotek
+ */
+public class LongBufferSet extends LongRangeSet {
+
+    private static final long serialVersionUID = -2318471693372920781L;
+
+    /** sorted ranges, even is first, odd is last. Only absolute get is used, so it can be shared */
+    protected final LongBuffer buf;
+    /** number of ranges */
+    protected final int count;
+
+    /**
+     * @param ranges sorted ranges between position and limit, even is first, odd is last
+     */
+    public LongBufferSet(LongBuffer ranges){
+        this.buf = ranges.slice();
+        if(buf.remaining()%2!=0)
+            throw new IllegalArgumentException("not divide by 2");
+        this.count = buf.remaining()/2;
+    }
+
+    protected long[] rangeArray(){
+        long[] r = ranges;
+        if(r == null){
+            r = new long[count*2];
+            buf.duplicate().get(r);
+            ranges = r;
+        }
+        return r;
+    }
+
+    public long memoryUsage(){
+        //ranges are off heap, unless they were copied
+        return ranges == null ? 32 : super.memoryUsage();
+    }
+
+    public boolean isEmpty(){
+        return count == 0;
+    }
+
+    public int rangeCount(){
+        return count;
+    }
+
+    public long rangeFirst(int i){
+        return buf.get(i*2);
+    }
+
+    public long rangeLast(int i){
+        return buf.get(i*2+1);
+    }
+
+    public long first(){
+        if(isEmpty())
+            throw new NoSuchElementException();
+        return buf.get(0);
+    }
+
+    public long last(){
+        if(isEmpty())
+            throw new NoSuchElementException();
+        return buf.get(count*2-1);
+    }
+
+    /** @return index of first range whose last is >= value, or number of ranges */
+    private int rangeIndex(long value){
+        int lo = 0, hi = count;
+        while(lo<hi){
+            int mid = (lo+hi)>>>1;
+            if(buf.get(mid*2+1)<value)
+                lo = mid+1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    public boolean contains(long i){
+        int index = rangeIndex(i);
+        return index<count && buf.get(index*2)<=i;
+    }
+
+    public boolean containsAny(long first, long last){
+        if(first>last)
+            throw new IllegalArgumentException("First is bigger then last");
+        int index = rangeIndex(first);
+        return index<count && buf.get(index*2)<=last;
+    }
+
+    public boolean containsAll(long first, long last){
+        if(first>last)
+            throw new IllegalArgumentException("First is bigger then last");
+        int index = rangeIndex(first);
+        return index<count && buf.get(index*2)<=first && buf.get(index*2+1)>=last;
+    }
+
+    public LongRangeIterator rangeIterator(){
+        return new LongRangeIterator(){
+            int pos = -2;
+
+            public boolean moveToNext(){
+                if(pos+2>=count*2)
+                    return false;
+                pos+=2;
+                return true;
+            }
+
+            public long first(){
+                if(pos<0 || pos>=count*2)
+                    throw new NoSuchElementException();
+                return buf.get(pos);
+            }
+
+            public long last(){
+                if(pos<0 || pos>=count*2)
+                    throw new NoSuchElementException();
+                return buf.get(pos+1);
+            }
+        };
+    }
+
+    public LongIterator longIterator(){
+        return longIterator(rangeIterator());
+    }
+
+    /** serialize as ordinary LongRangeSet, buffer can not be serialized */
+    protected Object writeReplace() throws ObjectStreamException {
+        return new LongRangeSet(rangeArray(), count*2);
+    }
+
+}
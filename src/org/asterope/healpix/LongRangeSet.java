@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -32,7 +33,7 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
 
     private static final long serialVersionUID = -7543399451387806240L;
 
-    /** sorted ranges, even is first, odd is last */
+    /** sorted ranges, even is first, odd is last. Subclasses may leave it empty, use {@link #rangeArray()} */
     protected long[] ranges;
 
     private static final LongRangeIterator EMPTY_ITERATOR = new LongRangeIterator(){
@@ -111,6 +112,7 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
 					throw new NoSuchElementException();
 				}};
 				
+        final long[] ranges = rangeArray();
         return new LongIterator(){
 
                 int pos = 0;
@@ -145,6 +147,7 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
     	if(isEmpty())
                 return EMPTY_ITERATOR;
     	
+        final long[] ranges = rangeArray();
         return new LongRangeIterator(){
 
             int pos = -2;
@@ -200,7 +203,7 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
     public long first() {
     	if(isEmpty())
     		throw new NoSuchElementException();
-        return ranges[0];
+        return rangeArray()[0];
     }
 
     /**
@@ -210,6 +213,7 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
     public long last() {
     	if(isEmpty())
     		throw new NoSuchElementException();
+        long[] ranges = rangeArray();
         return ranges[ranges.length-1];
     }
 
@@ -218,7 +222,7 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
      * @return true if i is in the set.
      */
     public boolean contains(long i) {
-        int pos = Arrays.binarySearch(ranges,i);
+        int pos = Arrays.binarySearch(rangeArray(),i);
         if (pos > 0) {
             return true;
         }
@@ -232,6 +236,7 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
     	if(isEmpty() || last < first() || first>last())
     		return false;
 
+        long[] ranges = rangeArray();
     	int index = Arrays.binarySearch(ranges, first);
         if(index<0)
             index = -index-1;
@@ -247,6 +252,7 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
     	if(isEmpty() || last < first() || first>last())
     		return false;
 
+        long[] ranges = rangeArray();
     	int firstIndex = Arrays.binarySearch(ranges, first);    	
     	int lastIndex = Arrays.binarySearch(ranges, last);
 
@@ -261,34 +267,63 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
     
 
     
+    /**
+     * Values are located by galloping from previous position,
+     * so it is fast if values are sorted.
+     */
     public boolean containsAll(LongIterator iter){
-    	while(iter.hasNext())
-    		if(!contains(iter.next()))
+    	long[] ranges = rangeArray();
+    	int index = 0;
+    	while(iter.hasNext()){
+    		long v = iter.next();
+    		index = seek(ranges, index, v);
+    		if(index*2>=ranges.length || ranges[index*2]>v)
     			return false;
+    	}
     	return true;
     }
-    
+
     public boolean containsAny(LongIterator iter){
-    	while(iter.hasNext())
-    		if(contains(iter.next()))
+    	long[] ranges = rangeArray();
+    	int index = 0;
+    	while(iter.hasNext()){
+    		long v = iter.next();
+    		index = seek(ranges, index, v);
+    		if(index*2<ranges.length && ranges[index*2]<=v)
     			return true;
+    	}
     	return false;
     }
 
     public boolean containsAll(LongRangeIterator iter){
-    	while(iter.moveToNext())
-    		if(!containsAll(iter.first(), iter.last()))
+    	long[] ranges = rangeArray();
+    	int index = 0;
+    	while(iter.moveToNext()){
+    		index = seek(ranges, index, iter.first());
+    		if(index*2>=ranges.length || ranges[index*2]>iter.first() || ranges[index*2+1]<iter.last())
     			return false;
+    	}
     	return true;
     }
     
     public boolean containsAny(LongRangeIterator iter){
-    	while(iter.moveToNext())
-    		if(containsAny(iter.first(), iter.last()))
+    	long[] ranges = rangeArray();
+    	int index = 0;
+    	while(iter.moveToNext()){
+    		index = seek(ranges, index, iter.first());
+    		if(index*2<ranges.length && ranges[index*2]<=iter.last())
     			return true;
+    	}
     	return false;
     }
 
+    /** gallops forward from previous index, or starts from beginning if value is before it */
+    private static int seek(long[] ranges, int index, long value){
+    	if(index>0 && ranges[index*2-1]>=value)
+    		return gallop(ranges, 0, value);
+    	return gallop(ranges, index, value);
+    }
+
 
     /** 
      * @return number of longs (pixels) in this set. !!NOT number of ranges!!
@@ -306,16 +341,72 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
      * @return number of ranges in this set
      */
     public int rangeCount(){
-    	return ranges.length/2;    	
+    	return rangeArray().length/2;
     }
 
 
     public long rangeFirst(int i){
-        return ranges[i*2];
+        return rangeArray()[i*2];
     }
 
     public long rangeLast(int i){
-        return ranges[i*2+1];
+        return rangeArray()[i*2+1];
+    }
+
+    /**
+     * Iterates over values in ranges, used by subclasses which do not keep range array
+     */
+    protected static LongIterator longIterator(final LongRangeIterator ranges){
+        return new LongIterator(){
+            boolean run = ranges.moveToNext();
+            long value = run ? ranges.first() : 0;
+
+            public boolean hasNext(){
+                return run;
+            }
+
+            public long next(){
+                if(!run)
+                    throw new NoSuchElementException();
+                long ret = value;
+                if(value == ranges.last()){
+                    run = ranges.moveToNext();
+                    if(run)
+                        value = ranges.first();
+                }else{
+                    value++;
+                }
+                return ret;
+            }
+        };
+    }
+
+    /**
+     * @return sorted ranges, even is first, odd is last. Returned array must not be modified.
+     */
+    protected long[] rangeArray(){
+        return ranges;
+    }
+
+    /**
+     * @return approximate number of bytes occupied by this set on heap
+     */
+    public long memoryUsage(){
+        return 16 + 8L * rangeArray().length;
+    }
+
+    /**
+     * Returns set with the same values in representation which occupies less memory.
+     * Long runs are best stored as ranges, fragmented sets as {@link LongBitmapSet}.
+     * Set operations on LongBitmapSet use it to choose representation of result.
+     *
+     * @return this set or new set with the same values
+     */
+    public LongRangeSet compact(){
+        //bitmap must be significantly smaller, so representation does not flip on small changes
+        if(LongBitmapSet.estimateMemory(this) * 2 < memoryUsage())
+            return LongBitmapSet.valueOf(this);
+        return this;
     }
 
 
@@ -349,12 +440,20 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
     }
        
 	public int hashCode() {
+		//the same as Arrays.hashCode(ranges), but does not depend on representation
 		final int prime = 31;
-		int result = 1;
-		result = prime * result + Arrays.hashCode(ranges);
-		return result;
+		int hash = 1;
+		LongRangeIterator iter = rangeIterator();
+		while(iter.moveToNext()){
+			hash = prime * hash + (int) (iter.first() ^ (iter.first() >>> 32));
+			hash = prime * hash + (int) (iter.last() ^ (iter.last() >>> 32));
+		}
+		return prime + hash;
 	}
 
+	/**
+	 * Sets are equal if they contain the same values, regardless of representation
+	 */
 	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
@@ -363,8 +462,19 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
 		if (!(obj instanceof LongRangeSet))
 			return false;
 		LongRangeSet other = (LongRangeSet) obj;
-            return Arrays.equals(ranges, other.ranges);
-        }
+		LongRangeIterator it1 = rangeIterator();
+		LongRangeIterator it2 = other.rangeIterator();
+		while(true){
+			boolean run1 = it1.moveToNext();
+			boolean run2 = it2.moveToNext();
+			if(run1!=run2)
+				return false;
+			if(!run1)
+				return true;
+			if(it1.first()!=it2.first() || it1.last()!=it2.last())
+				return false;
+		}
+	}
 
 	/**
 	 * Create new LongRangeSet with complement (inversion) of values in this set. 
@@ -379,7 +489,7 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
 	 * @return inverted LongRangeSet 
 	 */
 	public LongRangeSet complement() {
-		LongRangeSetBuilder b = new LongRangeSetBuilder(ranges.length +2);
+		LongRangeSetBuilder b = new LongRangeSetBuilder(rangeCount()*2 +2);
 		long last = Long.MIN_VALUE;
 		LongRangeIterator iter = rangeIterator();
 		while(iter.moveToNext()){
@@ -412,53 +522,139 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
      * @return LongRangeSet contains union of original set and parameter set
      */
     public LongRangeSet union(LongRangeSet rs) {
-    	LongRangeIterator it1 = rangeIterator();
-    	LongRangeIterator it2 = rs.rangeIterator();
+    	if(rs.isEmpty())
+    		return this;
+    	if(isEmpty())
+    		return rs;
+    	if(rs instanceof LongBitmapSet)
+    		return rs.union(this);
+    	long[] r1 = rangeArray();
+    	long[] r2 = rs.rangeArray();
+    	int n1 = r1.length/2, n2 = r2.length/2;
+
+    	LongRangeSetBuilder rsb = new LongRangeSetBuilder(r1.length + r2.length);
 
-    	LongRangeSetBuilder rsb = new LongRangeSetBuilder();
-    	
-    	//boolean indicates if iterator have more data
-    	boolean run1 = it1.moveToNext();
-    	boolean run2 = it2.moveToNext();
-    	
     	//problem is that data appended in builder must be sorted
-    	//so use two iterators at the same time and produce sorted result
-    	
-    	while(run1 || run2){ //repeat until any of iterators have data    		
-    		if(run1 && (!run2 || it1.last()<it2.first())){
-        		//scroll first iterator until it overlaps    			
-    			rsb.appendRange(it1.first(), it1.last());
-    			run1 = it1.moveToNext();
-    		}else if(run2 && (!run1 || it2.last()<it1.first())) {
-    			//	scroll second iterator until it overlaps    		    				
-    			rsb.appendRange(it2.first(), it2.last());
-    			run2 = it2.moveToNext();
-    		}else if(run1 && run2){
-    			//overlap
-    			long minFirst = Math.min(it1.first(), it2.first());    				
-    			long maxLast = Math.max(it1.last(), it2.last());
-    			rsb.appendRange(minFirst, maxLast);
-    			run1 = it1.moveToNext();
-    			run2 = it2.moveToNext();
+    	//so walk both arrays at the same time and produce sorted result.
+    	//Ranges before overlap are found by galloping and copied in bulk
+    	int i = 0, j = 0;
+    	while(i<n1 && j<n2){
+    		if(r1[i*2+1] < r2[j*2]){
+    			int k = gallop(r1, i, r2[j*2]);
+    			rsb.appendRanges(r1, i, k);
+    			i = k;
+    		}else if(r2[j*2+1] < r1[i*2]){
+    			int k = gallop(r2, j, r1[i*2]);
+    			rsb.appendRanges(r2, j, k);
+    			j = k;
     		}else{
-    			//should not be here
-    			throw new InternalError();
+    			//overlap, following ranges which overlaps are merged by builder
+    			rsb.appendRange(Math.min(r1[i*2], r2[j*2]), Math.max(r1[i*2+1], r2[j*2+1]));
+    			i++;
+    			j++;
     		}
     	}
-    	
+    	rsb.appendRanges(r1, i, n1);
+    	rsb.appendRanges(r2, j, n2);
     	return rsb.build();
-//    	//naive implementation for tests
-//    	LongSet b = new LongSet();
-//    	b.addAll(longIterator());
-//    	b.addAll(rs.longIterator());
-//    	return b.toLongRangeSet();
+    }
+
+    /**
+     * Union of many sets in single pass. Ranges from all sets are merged using heap,
+     * so it is faster than calling {@link #union(LongRangeSet)} repeatedly.
+     *
+     * @param sets sets to make union of
+     * @return LongRangeSet which contains values from all sets
+     */
+    public static LongRangeSet unionAll(Collection<? extends LongRangeSet> sets){
+    	long[][] arrays = new long[sets.size()][];
+    	int size = 0;
+    	for(LongRangeSet s:sets)
+    		if(!s.isEmpty())
+    			arrays[size++] = s.rangeArray();
+    	if(size == 0)
+    		return LongRangeSetBuilder.EMPTY;
+
+    	//binary heap of array indexes ordered by first value of current range
+    	int[] heap = new int[size];
+    	int[] pos = new int[size];
+    	for(int i = 0;i<size;i++)
+    		heap[i] = i;
+    	for(int i = size/2-1;i>=0;i--)
+    		siftDown(heap, size, i, arrays, pos);
+
+    	LongRangeSetBuilder b = new LongRangeSetBuilder();
+    	while(size>0){
+    		int top = heap[0];
+    		long[] r = arrays[top];
+    		int p = pos[top];
+    		//builder merges overlapping ranges
+    		b.appendRange(r[p], r[p+1]);
+    		pos[top] = p+2;
+    		if(p+2 == r.length)
+    			heap[0] = heap[--size];
+    		if(size>0)
+    			siftDown(heap, size, 0, arrays, pos);
+    	}
+    	return b.build();
+    }
+
+    private static void siftDown(int[] heap, int size, int i, long[][] arrays, int[] pos){
+    	int node = heap[i];
+    	long key = arrays[node][pos[node]];
+    	while(true){
+    		int child = i*2+1;
+    		if(child>=size)
+    			break;
+    		if(child+1<size && arrays[heap[child+1]][pos[heap[child+1]]] < arrays[heap[child]][pos[heap[child]]])
+    			child++;
+    		if(arrays[heap[child]][pos[heap[child]]] >= key)
+    			break;
+    		heap[i] = heap[child];
+    		i = child;
+    	}
+    	heap[i] = node;
+    }
+
+    /**
+     * Exponential search in sorted ranges.
+     *
+     * @param ranges sorted ranges
+     * @param from index of range where search starts
+     * @param value value to search for
+     * @return index of first range at or after `from` whose last is >= value, or number of ranges
+     */
+    static int gallop(long[] ranges, int from, long value){
+    	int n = ranges.length/2;
+    	if(from>=n || ranges[from*2+1]>=value)
+    		return from;
+    	//ranges[lo] is smaller than value, ranges[hi] is not
+    	int lo = from, hi = n, step = 1;
+    	while(lo+step<n){
+    		if(ranges[(lo+step)*2+1]>=value){
+    			hi = lo+step;
+    			break;
+    		}
+    		lo += step;
+    		step <<= 1;
+    	}
+    	while(hi-lo>1){
+    		int mid = (lo+hi)>>>1;
+    		if(ranges[mid*2+1]>=value)
+    			hi = mid;
+    		else
+    			lo = mid;
+    	}
+    	return hi;
     }
 
     /**
      * Construct new LongRangeSet with intersection of values from original set and 
      * parameter set. 
      * <p>
-	 * This operation is FAST. Requires only one traversal of ranges. 
+	 * This operation is FAST. Requires only one traversal of ranges,
+	 * ranges without overlap are skipped by galloping, so it is fast
+	 * even if one set is much bigger than the other.
 	 * It does not decompress RangeSet to pixels.  
  	 * <p>
 	 * This operation does not modify original collection.
@@ -467,66 +663,35 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
      * @return new set that represents the intersect of original and parameter set
      */
     public LongRangeSet intersect(LongRangeSet rs) {
-    	if(isEmpty())
-    		return rs;
-    	if(rs.isEmpty())
-    		return this;
-    	if(first()>rs.last() || last()<rs.first())
+    	if(isEmpty() || rs.isEmpty() || first()>rs.last() || last()<rs.first())
     		return LongRangeSetBuilder.EMPTY;
+    	if(rs instanceof LongBitmapSet)
+    		return rs.intersect(this);
 
-    	LongRangeIterator it1 = rangeIterator();
-    	LongRangeIterator it2 = rs.rangeIterator();
+    	long[] r1 = rangeArray();
+    	long[] r2 = rs.rangeArray();
+    	int n1 = r1.length/2, n2 = r2.length/2;
 
     	LongRangeSetBuilder rsb = new LongRangeSetBuilder();
-    	
-    	//boolean indicates if iterator have more data
-    	boolean run1 = it1.moveToNext();
-    	boolean run2 = it2.moveToNext();
-    	
-    	//problem is that data appended in builder must be sorted
-    	//so use two iterators at the same time and produce sorted result
-    	
-    	while(run1 && run2){ //repeat until both iterators have data
-//    		System.out.println(it1.first() + " - "+it1.last());
-//    		System.out.println(it2.first() + " - "+it2.last());
-//    		System.out.println();
-    		if(it1.last()<it2.first()){
-            	//scroll first iterator until it overlaps    			
-        		run1 = it1.moveToNext(); //TODO use binary search to jump to next value here
-        	}else if(it2.last()<it1.first()) {    		
-        		//	scroll second iterator until it overlaps
-       			run2 = it2.moveToNext(); //TODO use binary search to jump to next value here
-    		}else if(it1.first()<it2.first() && it1.last()>it2.last()){
-    			//second range inside first
-    			rsb.appendRange(it2.first(), it2.last());
-    			run2 = it2.moveToNext();
-    		}else if(it2.first()<it1.first() && it2.last()>it1.last()){
-    			//first range inside first
-    			rsb.appendRange(it1.first(), it1.last());
-    			run1 = it1.moveToNext();
-    		}else {
+
+    	int i = 0, j = 0;
+    	while(i<n1 && j<n2){
+    		if(r1[i*2+1]<r2[j*2]){
+    			//scroll first array until it overlaps
+    			i = gallop(r1, i, r2[j*2]);
+    		}else if(r2[j*2+1]<r1[i*2]){
+    			//scroll second array until it overlaps
+    			j = gallop(r2, j, r1[i*2]);
+    		}else{
     			//overlap
-    			long maxFirst = Math.max(it1.first(), it2.first());    				
-    			long minLast = Math.min(it1.last(), it2.last());
-    			rsb.appendRange(maxFirst, minLast);
-    			if(it1.last()<it2.last())
-    				run1 = it1.moveToNext();
+    			rsb.appendRange(Math.max(r1[i*2], r2[j*2]), Math.min(r1[i*2+1], r2[j*2+1]));
+    			if(r1[i*2+1]<r2[j*2+1])
+    				i++;
     			else
-    				run2 = it2.moveToNext();
-   			}
+    				j++;
+    		}
     	}
-    	
     	return rsb.build();
-    	
-//    	//simple implementation for testing
-//        LongSet b = new LongSet();
-//        LongIterator iter = longIterator();
-//        while(iter.hasNext()){
-//        	long next = iter.next();
-//        	if(rs.contains(next))
-//        		b.add(next);
-//        }
-//        return b.toLongRangeSet();
     }
     
     /**
@@ -535,7 +700,8 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
      * <p>
      * [1-5].substract[4-6] == [1-3] 
      * <p>
-	 * This operation is FAST. Requires only one traversal of ranges. 
+	 * This operation is FAST. Requires only one traversal of ranges,
+	 * ranges without overlap are copied in bulk.
 	 * It does not decompress RangeSet to pixels.  
 
  	 * <p>
@@ -548,26 +714,59 @@ public class LongRangeSet implements Externalizable, Iterable<Long>{
     	//quick check on boundaries
     	if(isEmpty() || rs.isEmpty() || first()>rs.last() || last()<rs.first())
     		return this;
-    	
-    	return intersect(rs.complement());
-
-//    	//naive implementation for testing
-//        LongSet b = new LongSet();
-//        LongIterator iter = longIterator();
-//        while(iter.hasNext()){
-//        	long next = iter.next();
-//        	if(!rs.contains(next))
-//        		b.add(next);
-//        }
-//        return b.toLongRangeSet();
-    	
+    	if(rs instanceof LongBitmapSet)
+    		return ((LongBitmapSet) rs).substractFrom(this);
+
+    	long[] r1 = rangeArray();
+    	long[] r2 = rs.rangeArray();
+    	int n1 = r1.length/2, n2 = r2.length/2;
+
+    	LongRangeSetBuilder rsb = new LongRangeSetBuilder(r1.length);
+    	int i = 0, j = 0;
+    	//remaining part of current range from original set
+    	long first = 0, last = 0;
+    	boolean open = false;
+    	while(i<n1){
+    		if(!open){
+    			if(j == n2){
+    				rsb.appendRanges(r1, i, n1);
+    				break;
+    			}
+    			//copy ranges before next substracted range
+    			int k = gallop(r1, i, r2[j*2]);
+    			rsb.appendRanges(r1, i, k);
+    			i = k;
+    			if(i == n1)
+    				break;
+    			first = r1[i*2];
+    			last = r1[i*2+1];
+    			open = true;
+    		}
+    		j = gallop(r2, j, first);
+    		if(j == n2 || r2[j*2]>last){
+    			rsb.appendRange(first, last);
+    			open = false;
+    			i++;
+    			continue;
+    		}
+    		if(r2[j*2]>first)
+    			rsb.appendRange(first, r2[j*2]-1);
+    		if(r2[j*2+1]>=last){
+    			open = false;
+    			i++;
+    		}else{
+    			first = r2[j*2+1]+1;
+    			j++;
+    		}
+    	}
+    	return rsb.build();
     }
 
     /** 
      * @return true if set does not have any ranges
      */
 	public boolean isEmpty() { 
-		return  ranges.length==0;
+		return  rangeArray().length==0;
 	}
 
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
@@ -8,6 +8,7 @@ package org.asterope.healpix;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Builder for LongRangeSet . LongRangeSet is unmodifiable, this class is 
@@ -125,6 +126,28 @@ public class LongRangeSetBuilder {
             appendRange(iter.first(),iter.last());
     }
 
+    /**
+     * appends ranges from sorted range array, ranges which does not overlap
+     * with already appended ranges are copied in bulk
+     * @param src sorted ranges, even is first, odd is last
+     * @param fromRange index of first range to append
+     * @param toRange index after last range to append
+     */
+    protected void appendRanges(long[] src, int fromRange, int toRange){
+        //merge overlapping
+        while(fromRange<toRange && pos>0 && src[fromRange*2]<=last()+1){
+            appendRange(src[fromRange*2], src[fromRange*2+1]);
+            fromRange++;
+        }
+        if(fromRange>=toRange)
+            return;
+        int len = (toRange-fromRange)*2;
+        if(pos + len>ranges.length)
+            ensureSize(Math.max(ranges.length * 2, pos + len));
+        System.arraycopy(src, fromRange*2, ranges, pos, len);
+        pos+=len;
+    }
+
     /**
      * append all ranges from given LongRangeSet
      * @param set LongRangeSet to append
@@ -156,9 +179,10 @@ public class LongRangeSetBuilder {
      * @throws IOException
      */
     public static void writeTo(DataOutput out,LongRangeSet rs) throws IOException{
-    	out.writeInt(rs.ranges.length);
+    	long[] ranges = rs.rangeArray();
+    	out.writeInt(ranges.length);
     	long last = 0;
-    	for(long i:rs.ranges){
+    	for(long i:ranges){
     		//write packed differences between values, this way it ocupies less space
     		long diff = i - last;
     		packLong(out, diff);
@@ -186,6 +210,124 @@ public class LongRangeSetBuilder {
     }
 
 
+    /**
+     * Number of bytes used by {@link #writeTo(ByteBuffer, LongRangeSet)},
+     * use it to allocate buffer or map file region.
+     */
+    public static int byteSize(LongRangeSet rs){
+        return 8 + 8 * rs.rangeCount() * 2;
+    }
+
+    /**
+     * Write LongRangeSet into buffer in fixed width format, which can be read back
+     * without copying by {@link #view(ByteBuffer)}.
+     * Format is number of ranges (int), padding (int) and ranges as long first, long last.
+     * Buffer byte order is used, position is advanced after written set.
+     */
+    public static void writeTo(ByteBuffer out, LongRangeSet rs){
+        long[] ranges = rs.rangeArray();
+        out.putInt(ranges.length/2);
+        out.putInt(0);
+        out.asLongBuffer().put(ranges);
+        out.position(out.position() + ranges.length*8);
+    }
+
+    /**
+     * Read LongRangeSet written by {@link #writeTo(ByteBuffer, LongRangeSet)} into heap.
+     * Position is advanced after set.
+     */
+    public static LongRangeSet readFrom(ByteBuffer in){
+        int count = readCount(in);
+        long[] ranges = new long[count*2];
+        in.asLongBuffer().get(ranges);
+        in.position(in.position() + ranges.length*8);
+        return new LongRangeSet(ranges, ranges.length);
+    }
+
+    /**
+     * Returns read-only view over LongRangeSet written by {@link #writeTo(ByteBuffer, LongRangeSet)}.
+     * Nothing is copied, so it is fast even for memory-mapped files. Position is advanced after set.
+     */
+    public static LongBufferSet view(ByteBuffer in){
+        int count = readCount(in);
+        ByteBuffer slice = in.slice().order(in.order());
+        slice.limit(count*16);
+        in.position(in.position() + count*16);
+        return new LongBufferSet(slice.asLongBuffer());
+    }
+
+    private static int readCount(ByteBuffer in){
+        int count = in.getInt();
+        in.getInt();
+        if(count<0 || count*16L>in.remaining())
+            throw new IllegalArgumentException("Corrupted LongRangeSet, number of ranges: "+count);
+        return count;
+    }
+
+    /**
+     * Write LongRangeSet into buffer as single compressed block, suitable for cold storage.
+     * Block is number of ranges (int), payload length in bytes (int) and payload.
+     * Payload contains differences between values packed as zig-zag varints,
+     * so fragmented sets occupies few bytes per range. Reader can skip block without decoding it.
+     * Position is advanced after block.
+     */
+    public static void writeCompressed(ByteBuffer out, LongRangeSet rs){
+        long[] ranges = rs.rangeArray();
+        out.putInt(ranges.length/2);
+        int lengthPos = out.position();
+        out.putInt(0);
+        long last = 0;
+        for(long i:ranges){
+            long diff = i - last;
+            //zig-zag, so negative values (complement) are packed as well
+            packLong(out, (diff << 1) ^ (diff >> 63));
+            last = i;
+        }
+        out.putInt(lengthPos, out.position() - lengthPos - 4);
+    }
+
+    /**
+     * Read LongRangeSet from block written by {@link #writeCompressed(ByteBuffer, LongRangeSet)}.
+     * Position is advanced after block.
+     */
+    public static LongRangeSet readCompressed(ByteBuffer in){
+        int count = in.getInt();
+        int length = in.getInt();
+        if(count<0 || length<0 || length>in.remaining())
+            throw new IllegalArgumentException("Corrupted LongRangeSet block");
+        int end = in.position() + length;
+        long[] ranges = new long[count*2];
+        long last = 0;
+        for(int i = 0;i<ranges.length;i++){
+            long zigzag = unpackLong(in);
+            last += (zigzag >>> 1) ^ -(zigzag & 1);
+            ranges[i] = last;
+        }
+        if(in.position()!=end)
+            throw new IllegalArgumentException("Corrupted LongRangeSet block");
+        return new LongRangeSet(ranges, ranges.length);
+    }
+
+    private static void packLong(ByteBuffer out, long value){
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte)(((int) value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long unpackLong(ByteBuffer in){
+        long result = 0;
+        for (int offset = 0; offset < 64; offset += 7) {
+            long b = in.get() & 0xFF;
+            result |= (b & 0x7F) << offset;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed long.");
+    }
+
     /**
      * Pack  non-negative long into output stream.
      * It will occupy 1-10 bytes depending on value (lower values occupy smaller space)
@@ -12,6 +12,8 @@ import org.apache.commons.math3.util.FastMath;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 /**
@@ -30,8 +32,36 @@ public class PixTools {
 
     protected final long nside;
 
+    /** shared ring geometry, null if tables are not used */
+    protected final RingTables tables;
+
     public PixTools(long nside){
+        this(nside, null);
+    }
+
+    private PixTools(long nside, RingTables tables){
         this.nside = nside;
+        this.tables = tables;
+    }
+
+    /**
+     * Creates PixTools which uses precomputed ring tables (ring z, first pixel, pixel count and phi offset),
+     * so `pix2ang`, `pix2vect`, `InRing` and disc queries use table lookups instead of ring geometry math.
+     * Tables are shared between all instances with the same nside. Results are identical to
+     * instance created by constructor.
+     * <p>
+     * Tables are used only for nside up to 2^16 (about 11 MB), bigger nside gives ordinary instance.
+     *
+     * @param nside resolution
+     * @return PixTools with ring tables
+     */
+    public static PixTools withRingTables(long nside){
+        return new PixTools(nside, RingTables.forNside(nside));
+    }
+
+    /** @return true if this instance uses precomputed ring tables */
+    public boolean hasRingTables(){
+        return tables != null;
     }
 
     public static final class Pixel{
@@ -137,7 +167,18 @@ public class PixTools {
      */
     public LongRangeSet query_polygon(ArrayList<Vector3D> vlist,
                                       boolean inclusive) throws Exception {
-        LongRangeSet res = LongRangeSetBuilder.EMPTY;
+        return query_polygon(vlist, inclusive, null);
+    }
+
+    /**
+     * The same as {@link #query_polygon(ArrayList, boolean)}, but rings of triangles
+     * are split between workers of fork/join pool. Result is exactly the same.
+     *
+     * @param pool fork/join pool, or null to process all rings in calling thread
+     */
+    public LongRangeSet query_polygon(ArrayList<Vector3D> vlist,
+                                      boolean inclusive, ForkJoinPool pool) throws Exception {
+        ArrayList<LongRangeSet> triangles = new ArrayList<LongRangeSet>();
         int nv = vlist.size();
         Vector3D vp0, vp1, vp2;
         Vector3D vo;
@@ -232,13 +273,12 @@ public class PixTools {
             vp2 =  vlist.get(n_remain - 1);
 
             /* find pixels within the triangle */
-            LongRangeSet templist = query_triangle(vp0, vp1, vp2, inclusive);
-            res = res.union(templist);
+            triangles.add(query_triangle(vp0, vp1, vp2, inclusive, pool));
 
             n_remain--;
         }
 
-        return res;
+        return LongRangeSet.unionAll(triangles);
     }
 
     /**
@@ -262,6 +302,19 @@ public class PixTools {
     public LongRangeSet query_triangle(
             final Vector3D v1, final Vector3D v2,
             final Vector3D v3,  final boolean  do_inclusive) throws Exception {
+        return query_triangle(v1, v2, v3, do_inclusive, null);
+    }
+
+    /**
+     * The same as {@link #query_triangle(Vector3D, Vector3D, Vector3D, boolean)},
+     * but rings are split between workers of fork/join pool. Result is exactly the same.
+     * It pays off for large triangles at high nside, small triangles are processed in calling thread.
+     *
+     * @param pool fork/join pool, or null to process all rings in calling thread
+     */
+    public LongRangeSet query_triangle(
+            final Vector3D v1, final Vector3D v2,
+            final Vector3D v3,  final boolean  do_inclusive, ForkJoinPool pool) throws Exception {
 
         Vector3D[] vv = new Vector3D[3];
         Vector3D[] vo = new Vector3D[3];
@@ -279,8 +332,6 @@ public class PixTools {
         vv[2] = vv[2].normalize();
 
 
-        final double dth1 = 1.0 / (3.0 * (nside * nside));
-        final double dth2 = 2.0 / (3.0 * nside);
         /*
                   * determ = (v1 X v2) . v3 determines the left ( <0) or right (>0)
                   * handedness of the triangle
@@ -378,128 +429,198 @@ public class PixTools {
                   * are the intersection of the sphere with plains pushed outward by
                   * sin(offset)
                   */
-//		double temp = 0.;
-        double[][] dom = new double[3][2];
-        double[] alldom = new double[6];
-
+        TriangleRings t = new TriangleRings(irmin, irmax, sdet, sin_off, sto, tgthi, phi0i);
+        int chunks = (int) ((irmax - irmin) / PARALLEL_RINGS) + 1;
+        if (pool == null || chunks == 1 || irmax < irmin)
+            return t.rings(irmin, irmax);
+
+        //split rings between workers, each has its own builder.
+        //pixel numbers grow with ring number, so parts are simply concatenated
+        LongRangeSet[] parts = new LongRangeSet[chunks];
+        pool.invoke(new RingTask(t, parts, 0, chunks));
         LongRangeSetBuilder res = new LongRangeSetBuilder();
-        for (long iz = irmin; iz <= irmax; iz++) {
-            boolean found = false;
-            final double z;
-            if (iz <= nside - 1) { // North polar cap
-                z = 1.0 - iz * iz * dth1;
-            } else if (iz <= 3 * nside) { // tropical band + equator
-                z = (2.0 * nside - iz) * dth2;
-            } else {
-                z = -1.0 + (4.0 * nside - iz) * (4.0 * nside - iz) * dth1;
-            }
+        for (LongRangeSet part : parts)
+            res.appendRanges(part.rangeArray(), 0, part.rangeCount());
+        return res.build();
+    }
 
-            /* computes the 3 intervals described by the 3 great circles */
-            final double st = FastMath.sqrt((1.0 - z) * (1.0 + z));
-            final double tgth = z / st; // cotan(theta_ring)
-            double[] dc = new double[3];
-            for (int j = 0; j < 3; j++) {
-                dc[j] = tgthi[j] * tgth - sdet * sin_off
-                        / ((sto[j] + 1.0e-30) * st);
 
-            }
 
-            for (int k = 0; k < 3; k++) {
-
-                if (dc[k] * sdet <= -1.0) { // the whole iso-latitude ring is on
-                    // right side of the great circle
-                    dom[k][0] = 0.0;
-                    dom[k][1] = TWOPI;
-                } else if (dc[k] * sdet >= 1.0) { // all on the wrong side
-                    dom[k][0] = -1.000001 * (k + 1);
-                    dom[k][1] = -1.0 * (k + 1);
-                } else { // some is good some is bad
-                    double phi_neg = phi0i[k] - (FastMath.acos(dc[k]) * sdet);
-                    double phi_pos = phi0i[k] + (FastMath.acos(dc[k]) * sdet);
-                    //
-                    if (phi_pos < 0.)
-                        phi_pos += TWOPI;
-                    if (phi_neg < 0.)
-                        phi_neg += TWOPI;
+    /** number of rings processed by single task in parallel triangle query */
+    protected static final int PARALLEL_RINGS = 64;
 
-                    //
+    /**
+     * Triangle query state computed from vertices, finds pixels on range of rings.
+     * Is immutable, so range of rings can be processed from multiple threads.
+     */
+    protected final class TriangleRings {
+        final long irmin, irmax;
+        final double sdet, sin_off;
+        final double[] sto, tgthi, phi0i;
+
+        TriangleRings(long irmin, long irmax, double sdet, double sin_off,
+                      double[] sto, double[] tgthi, double[] phi0i) {
+            this.irmin = irmin;
+            this.irmax = irmax;
+            this.sdet = sdet;
+            this.sin_off = sin_off;
+            this.sto = sto;
+            this.tgthi = tgthi;
+            this.phi0i = phi0i;
+        }
 
-                    dom[k][0] = PixToolsUtils.MODULO(phi_neg, TWOPI);
-                    dom[k][1] = PixToolsUtils.MODULO(phi_pos, TWOPI);
+        /** find pixels in triangle on rings from izFrom to izTo (inclusive) */
+        LongRangeSet rings(long izFrom, long izTo) {
+            final double dth1 = 1.0 / (3.0 * (nside * nside));
+            final double dth2 = 2.0 / (3.0 * nside);
+            double[][] dom = new double[3][2];
+            double[] alldom = new double[6];
+
+            LongRangeSetBuilder res = new LongRangeSetBuilder();
+            for (long iz = izFrom; iz <= izTo; iz++) {
+                boolean found = false;
+                final double z;
+                if (tables != null) {
+                    z = tables.queryZ[(int) iz];
+                } else if (iz <= nside - 1) { // North polar cap
+                    z = 1.0 - iz * iz * dth1;
+                } else if (iz <= 3 * nside) { // tropical band + equator
+                    z = (2.0 * nside - iz) * dth2;
+                } else {
+                    z = -1.0 + (4.0 * nside - iz) * (4.0 * nside - iz) * dth1;
+                }
+
+                /* computes the 3 intervals described by the 3 great circles */
+                final double st = FastMath.sqrt((1.0 - z) * (1.0 + z));
+                final double tgth = z / st; // cotan(theta_ring)
+                double[] dc = new double[3];
+                for (int j = 0; j < 3; j++) {
+                    dc[j] = tgthi[j] * tgth - sdet * sin_off
+                            / ((sto[j] + 1.0e-30) * st);
 
                 }
-                //
 
-            }
-            /* identify the intersections (0,1,2 or 3) of the 3 intervals */
-
-            double[] dom12 = PixToolsUtils.intrs_intrv(dom[0], dom[1]);
-            final int n12 = dom12.length / 2;
-            int ndom = 0;
-            if (n12 != 0) {
-                if (n12 == 1) {
-                    double[]dom123a = PixToolsUtils.intrs_intrv(dom[2], dom12);
-                    int n123a = dom123a.length / 2;
-
-                    if (n123a == 0)
-                        found = true;
-                    if (!found) {
-                        System.arraycopy(dom123a, 0, alldom, 0, dom123a.length);
+                for (int k = 0; k < 3; k++) {
+
+                    if (dc[k] * sdet <= -1.0) { // the whole iso-latitude ring is on
+                        // right side of the great circle
+                        dom[k][0] = 0.0;
+                        dom[k][1] = TWOPI;
+                    } else if (dc[k] * sdet >= 1.0) { // all on the wrong side
+                        dom[k][0] = -1.000001 * (k + 1);
+                        dom[k][1] = -1.0 * (k + 1);
+                    } else { // some is good some is bad
+                        double phi_neg = phi0i[k] - (FastMath.acos(dc[k]) * sdet);
+                        double phi_pos = phi0i[k] + (FastMath.acos(dc[k]) * sdet);
+                        //
+                        if (phi_pos < 0.)
+                            phi_pos += TWOPI;
+                        if (phi_neg < 0.)
+                            phi_neg += TWOPI;
+
+                        //
+
+                        dom[k][0] = PixToolsUtils.MODULO(phi_neg, TWOPI);
+                        dom[k][1] = PixToolsUtils.MODULO(phi_pos, TWOPI);
 
-                        ndom = n123a; // 1 or 2
                     }
+                    //
+
                 }
-                if (!found) {
-                    if (n12 == 2) {
-                        double[] tmp = { dom12[0], dom12[1] };
-                        double[]dom123a = PixToolsUtils.intrs_intrv(dom[2], tmp);
-                        double[] tmp1 = { dom12[2], dom12[3] };
-                        double[]dom123b = PixToolsUtils.intrs_intrv(dom[2], tmp1);
+                /* identify the intersections (0,1,2 or 3) of the 3 intervals */
+
+                double[] dom12 = PixToolsUtils.intrs_intrv(dom[0], dom[1]);
+                final int n12 = dom12.length / 2;
+                int ndom = 0;
+                if (n12 != 0) {
+                    if (n12 == 1) {
+                        double[]dom123a = PixToolsUtils.intrs_intrv(dom[2], dom12);
                         int n123a = dom123a.length / 2;
-                        int n123b = dom123b.length / 2;
-                        ndom = n123a + n123b; // 0, 1, 2 or 3
 
-                        if (ndom == 0)
+                        if (n123a == 0)
                             found = true;
                         if (!found) {
-                            if (n123a != 0) {
-                                System.arraycopy(dom123a, 0, alldom, 0, 2 * n123a);
-                            }
-                            if (n123b != 0) {
-                                for (int l = 0; l < 2 * n123b; l++) {
-                                    alldom[l + 2 * n123a] = dom123b[l];
+                            System.arraycopy(dom123a, 0, alldom, 0, dom123a.length);
+
+                            ndom = n123a; // 1 or 2
+                        }
+                    }
+                    if (!found) {
+                        if (n12 == 2) {
+                            double[] tmp = { dom12[0], dom12[1] };
+                            double[]dom123a = PixToolsUtils.intrs_intrv(dom[2], tmp);
+                            double[] tmp1 = { dom12[2], dom12[3] };
+                            double[]dom123b = PixToolsUtils.intrs_intrv(dom[2], tmp1);
+                            int n123a = dom123a.length / 2;
+                            int n123b = dom123b.length / 2;
+                            ndom = n123a + n123b; // 0, 1, 2 or 3
+
+                            if (ndom == 0)
+                                found = true;
+                            if (!found) {
+                                if (n123a != 0) {
+                                    System.arraycopy(dom123a, 0, alldom, 0, 2 * n123a);
+                                }
+                                if (n123b != 0) {
+                                    for (int l = 0; l < 2 * n123b; l++) {
+                                        alldom[l + 2 * n123a] = dom123b[l];
+                                    }
+                                }
+                                if (ndom > 3) {
+                                    throw new InternalError("QueryTriangle: too many intervals found");
                                 }
-                            }
-                            if (ndom > 3) {
-                                throw new InternalError("QueryTriangle: too many intervals found");
                             }
                         }
                     }
-                }
-                if (!found) {
-                    for (long idom = 0; idom < ndom; idom++) {
+                    if (!found) {
+                        for (long idom = 0; idom < ndom; idom++) {
 
-                        double a_i = alldom[(int) (2 * idom)];
-                        double b_i = alldom[(int) (2 * idom + 1)];
-                        double phi0 = (a_i + b_i) / 2.0;
-                        double dphiring = FastMath.abs(b_i - a_i) / 2.0;
+                            double a_i = alldom[(int) (2 * idom)];
+                            double b_i = alldom[(int) (2 * idom + 1)];
+                            double phi0 = (a_i + b_i) / 2.0;
+                            double dphiring = FastMath.abs(b_i - a_i) / 2.0;
 
-                        if (dphiring < 0.0) {
-                            phi0 += PI;
-                            dphiring += PI;
-                        }
+                            if (dphiring < 0.0) {
+                                phi0 += PI;
+                                dphiring += PI;
+                            }
 
-                        /* finds pixels in the triangle on that ring */
-                        InRing(iz, phi0, dphiring,res);
+                            /* finds pixels in the triangle on that ring */
+                            InRing(iz, phi0, dphiring,res);
+                        }
                     }
                 }
-            }
 
+            }
+            return res.build();
         }
-        return res.build();
     }
 
+    /** splits chunks of rings until single chunk is left */
+    protected static final class RingTask extends RecursiveAction {
+        private static final long serialVersionUID = 6143958283415371942L;
 
+        final TriangleRings t;
+        final LongRangeSet[] parts;
+        final int from, to;
+
+        RingTask(TriangleRings t, LongRangeSet[] parts, int from, int to) {
+            this.t = t;
+            this.parts = parts;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from == 1) {
+                long izFrom = t.irmin + from * (long) PARALLEL_RINGS;
+                parts[from] = t.rings(izFrom, Math.min(t.irmax, izFrom + PARALLEL_RINGS - 1));
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RingTask(t, parts, from, mid), new RingTask(t, parts, mid, to));
+        }
+    }
 
     /**
      * generates  all pixels that lays within an
@@ -578,7 +699,9 @@ public class PixTools {
         /* loop on ring number */
         for (long iz = irmin; iz <= irmax; iz++) {
             double z;
-            if (iz <= nside - 1) { // north polar cap
+            if (tables != null) {
+                z = tables.queryZ[(int) iz];
+            } else if (iz <= nside - 1) { // north polar cap
                 z = 1.0 - iz * iz * dth1;
             } else if (iz <= 3 * nside) { // tropical band + equator
                 z = (2.0 * nside - iz) * dth2;
@@ -651,7 +774,22 @@ public class PixTools {
      * @return double[] theta,phi
      */
     public double[] pix2ang(long ipix)  {
-        double theta,phi;
+        double[] res = new double[2];
+        pix2zPhi(ipix, res);
+        res[0] = FastMath.acos(res[0]);
+        return res;
+    }
+
+    /**
+     * computes z=cos(theta) and phi coordinates of the pixel center
+     *
+     * @param ipix pixel number
+     * @param out z and phi are stored here
+     * @return ring number
+     */
+    private int pix2zPhi(long ipix, double[] out)  {
+        double z,phi;
+        long iz;
         /*                            */
         if (nside < 1 || nside > ns_max) {
             throw new IllegalArgumentException("Nside should be power of 2 >0 and < "+ns_max);
@@ -673,18 +811,23 @@ public class PixTools {
             long iring = (long) (FastMath.sqrt(hip - FastMath.sqrt(fihip))) + 1; // counted from north
             // pole
             long iphi = ipix1 - 2 * iring * (iring - 1);
-            theta = FastMath.acos(1.0 - iring * iring / (3.0 * nsidesq));
+            if (tables != null)
+                return ringZPhi((int) iring, iphi, out);
+            z = 1.0 - iring * iring / (3.0 * nsidesq);
             phi = ((double)iphi - 0.5) * PI / (2.0 * iring);
-
+            iz = iring;
 
         } else if (ipix1 <= nl2 * (5 * nside + 1)) { // equatorial region
             long ip = ipix1 - ncap - 1;
             long iring = (ip / nl4) + nside; // counted from North pole
             long iphi = ip% nl4 + 1;
+            if (tables != null)
+                return ringZPhi((int) iring, iphi, out);
             double fodd = 0.5 * (1. + PixToolsUtils.MODULO(iring + nside, 2)); // 1 if iring+nside
             // is odd, 1/2 otherwise
-            theta = FastMath.acos((nl2 - iring) / (1.5 * nside));
+            z = (nl2 - iring) / (1.5 * nside);
             phi = ((double)iphi - fodd) * PI / (2.0 * nside);
+            iz = iring;
 
         } else { // South pole cap
             long ip = npix - ipix1 + 1;
@@ -693,28 +836,83 @@ public class PixTools {
             long iring = (long) (FastMath.sqrt(hip - FastMath.sqrt(fihip))) + 1; // counted from South
             // pole
             long iphi = 4 * iring + 1 - (ip - 2 * iring * (iring - 1));
-            theta = FastMath.acos(-1.0 + iring * iring / (3.0 * nsidesq));
+            if (tables != null)
+                return ringZPhi((int) (nl4 - iring), iphi, out);
+            z = -1.0 + iring * iring / (3.0 * nsidesq);
             phi = ((double)iphi - 0.5) * PI / (2.0 * iring);
-
+            iz = nl4 - iring;
         }
-        double[] res = { 0., 0. };
-        res[0] = theta;
-        res[1] = phi;
-        return res;
+        out[0] = z;
+        out[1] = phi;
+        return (int) iz;
+    }
+
+    /** table variant of {@link #pix2zPhi(long, double[])} for n-th pixel (counted from 1) in ring iz */
+    private int ringZPhi(int iz, long iphi, double[] out){
+        out[0] = tables.z[iz];
+        out[1] = ((double)iphi - tables.phiOffset[iz]) * PI / tables.phiDenominator[iz];
+        return iz;
     }
 
     /**
-     * returns the vector pointing in the center of the pixel ipix. The vector
-     * is calculated by makePix2Vect method
+     * returns the vector pointing in the center of the pixel ipix.
      *
      * @param ipix pixel number
      * @return Vector3D
      */
     public Vector3D pix2vect(long ipix)  {
-        return makePix2Vect(ipix).centre;
+        double[] v = new double[3];
+        pix2vect(ipix, v);
+        return new Vector3D(v[0], v[1], v[2]);
     }
 
+    /**
+     * stores the vector pointing in the center of the pixel ipix into given array.
+     * Does not allocate objects, so it can be used in loops.
+     *
+     * @param ipix pixel number
+     * @param out x,y,z coordinates are stored here
+     */
+    public void pix2vect(long ipix, double[] out)  {
+        int iz = pix2zPhi(ipix, out);
+        double z = out[0];
+        double phi = out[1];
+        double sth = tables != null ? tables.sinTheta[iz] : FastMath.sqrt((1.0 - z) * (1.0 + z));
+        out[0] = sth * FastMath.cos(phi);
+        out[1] = sth * FastMath.sin(phi);
+        out[2] = z;
+    }
+
+
+
+    /**
+     * finds neighbours of pixel (RING scheme), does not allocate objects.
+     * See {@link PixToolsNested#neighbours(long, long[])}
+     *
+     * @param ipix pixel number
+     * @param out array with at least 8 items, neighbours are stored here in order SW, W, NW, N, NE, E, SE, S.
+     *            Missing neighbour is -1.
+     */
+    public void neighbours(long ipix, long[] out)  {
+        PixToolsNested.neighbours(Coverage.nside2order(nside), PixToolsNested.ring2nest(nside, ipix), out);
+        for (int i = 0; i < 8; i++)
+            if (out[i] >= 0)
+                out[i] = PixToolsNested.nest2ring(nside, out[i]);
+    }
 
+    /**
+     * finds points on pixel boundary (RING scheme), does not allocate objects.
+     * Unlike {@link #makePix2Vect(long, double[])} edges can be sampled with more points,
+     * which follow curved pixel edges.
+     *
+     * @param ipix pixel number
+     * @param step number of points on each edge, 1 gives corners only
+     * @param out array with at least 12*step items, x,y,z coordinates of 4*step points are stored here.
+     *            Points go around pixel starting from north corner, then west, south and east corner.
+     */
+    public void boundaries(long ipix, int step, double[] out)  {
+        PixToolsNested.boundaries(Coverage.nside2order(nside), PixToolsNested.ring2nest(nside, ipix), step, out);
+    }
 
     /**
      * renders vector (x,y,z) coordinates of the nominal pixel center for pixel
@@ -728,6 +926,22 @@ public class PixTools {
      * @return Pixel
      */
     public Pixel makePix2Vect(long ipix)  {
+        double[] v = new double[15];
+        makePix2Vect(ipix, v);
+        return new Pixel(new Vector3D(v[0], v[1], v[2]), new Vector3D(v[3], v[4], v[5]),
+                new Vector3D(v[6], v[7], v[8]), new Vector3D(v[9], v[10], v[11]),
+                new Vector3D(v[12], v[13], v[14]));
+    }
+
+    /**
+     * same as {@link #makePix2Vect(long)}, but stores coordinates into given array,
+     * so no objects are allocated.
+     *
+     * @param ipix pixel number
+     * @param out array with at least 15 items, x,y,z coordinates of centre, north, south, west and east
+     *            vertices are stored here
+     */
+    public void makePix2Vect(long ipix, double[] out)  {
 
         double z_nv, z_sv,  hdelta_phi;
         double   z,phi;
@@ -820,22 +1034,29 @@ public class PixTools {
         //pixVect.getX() = sth * FastMath.cos(phi);
         //pixVect.getY() = sth * FastMath.sin(phi);
         //pixVect.getZ() = z;
-        Vector3D pixVect = new Vector3D(sth * FastMath.cos(phi), sth * FastMath.sin(phi), z);
-        /* west vertex */
-        double phi_wv = phi - hdelta_phi;
-
-        Vector3D west = new Vector3D(sth * FastMath.cos(phi_wv), sth * FastMath.sin(phi_wv),z);
-
-        /* east vertex */
-        double phi_ev = phi + hdelta_phi;
-        Vector3D east = new Vector3D(sth * FastMath.cos(phi_ev),  sth * FastMath.sin(phi_ev), z);
+        out[0] = sth * FastMath.cos(phi);
+        out[1] = sth * FastMath.sin(phi);
+        out[2] = z;
         /* north vertex */
         double sth_nv = FastMath.sqrt((1.0 - z_nv) * (1.0 + z_nv));
-        Vector3D north = new Vector3D(sth_nv * FastMath.cos(phi_nv), sth_nv * FastMath.sin(phi_nv), z_nv);
+        out[3] = sth_nv * FastMath.cos(phi_nv);
+        out[4] = sth_nv * FastMath.sin(phi_nv);
+        out[5] = z_nv;
         /* south vertex */
         double sth_sv = FastMath.sqrt((1.0 - z_sv) * (1.0 + z_sv));
-        Vector3D south = new Vector3D(sth_sv * FastMath.cos(phi_sv), sth_sv * FastMath.sin(phi_sv),  z_sv);
-        return new Pixel(pixVect, north, south, west, east);
+        out[6] = sth_sv * FastMath.cos(phi_sv);
+        out[7] = sth_sv * FastMath.sin(phi_sv);
+        out[8] = z_sv;
+        /* west vertex */
+        double phi_wv = phi - hdelta_phi;
+        out[9] = sth * FastMath.cos(phi_wv);
+        out[10] = sth * FastMath.sin(phi_wv);
+        out[11] = z;
+        /* east vertex */
+        double phi_ev = phi + hdelta_phi;
+        out[12] = sth * FastMath.cos(phi_ev);
+        out[13] = sth * FastMath.sin(phi_ev);
+        out[14] = z;
     }
 
     /**
@@ -879,18 +1100,40 @@ public class PixTools {
      * @throws IllegalArgumentException
      */
     public long vect2pix(Vector3D vector)  {
+        return vect2pix(vector.getX(), vector.getY(), vector.getZ());
+    }
+
+    /**
+     * renders the pixel number ipix (RING scheme) for a pixel which contains a
+     * point with coordinates (x,y,z). Does not allocate objects.
+     *
+     * @return  long pixel number
+     */
+    public long vect2pix(double x, double y, double z)  {
         if (nside < 1 || nside > ns_max) {
             throw new IllegalArgumentException("Nside should be power of 2 >0 and < "+ns_max);
         }
-        double dnorm = vector.getNorm();
-        double z = vector.getZ() / dnorm;
+        double dnorm = FastMath.sqrt(x * x + y * y + z * z);
         double phi = 0.;
-        if (vector.getX() != 0. || vector.getY() != 0.)
-            phi = FastMath.atan2(vector.getY(), vector.getX()); // phi in [-pi,pi]
+        if (x != 0. || y != 0.)
+            phi = FastMath.atan2(y, x); // phi in [-pi,pi]
 
         if (phi < 0.)
             phi += TWOPI; //  phi in [0, 2pi]
-        return zPhi2Pix(z, phi);
+        return zPhi2Pix(z / dnorm, phi);
+    }
+
+    /**
+     * renders pixel numbers (RING scheme) for array of points
+     *
+     * @param xyz point coordinates as x,y,z triplets
+     * @param out pixel numbers are stored here, its length is number of processed points
+     */
+    public void vect2pix(double[] xyz, long[] out)  {
+        if (xyz.length < out.length * 3)
+            throw new IllegalArgumentException("xyz array is too short");
+        for (int i = 0; i < out.length; i++)
+            out[i] = vect2pix(xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2]);
     }
 
     private long zPhi2Pix(double z, double phi) {
@@ -912,6 +1155,8 @@ public class PixTools {
             if ( PixToolsUtils.MODULO(ir, 2) == 0)
                 kshift = 1; // 1 if ir even, 0 otherwise
             long ip =  ((jp + jm - nside + kshift + 1) / 2) + 1; // in [1,4n]
+            if (ip > nl4)
+                ip = ip - nl4;
             ipix1 = ncap + nl4 * (ir - 1) + ip;
         } else { // North and South polar caps
             double tp = tt - (long) tt;
@@ -977,7 +1222,13 @@ public class PixTools {
 
 
         /* identifies ring number */
-        if ((iz >= nside) && (iz <= 3 * nside)) { // equatorial region
+        if (tables != null) {
+            ipix1 = tables.firstPixel[(int) iz];
+            nr = tables.pixelCount[(int) iz];
+            ipix2 = ipix1 + nr - 1;
+            // pixel centres are shifted by half pixel
+            kshift = tables.phiOffset[(int) iz] == 0.5 ? 1 : 0;
+        } else if ((iz >= nside) && (iz <= 3 * nside)) { // equatorial region
             ir = iz - nside + 1; // in [1, 2*nside + 1]
             ipix1 = ncap + 4 * nside * (ir - 1); // lowest pixel number in the
             // ring
@@ -1074,6 +1325,46 @@ public class PixTools {
 
     }
 
+    /**
+     * returns number of ring which contains pixel
+     *
+     * @param ipix pixel number in RING scheme
+     * @return ring number in {1, 4*nside - 1}
+     */
+    public long pix2ring(long ipix) {
+        long ipix1 = ipix + 1;
+        long ncap = 2 * nside * (nside - 1);
+        if (ipix1 <= ncap) { // North polar cap
+            double hip = ipix1 / 2.0;
+            double fihip = (long) hip;
+            return (long) (FastMath.sqrt(hip - FastMath.sqrt(fihip))) + 1;
+        }
+        if (ipix1 <= 2 * nside * (5 * nside + 1)) // equatorial region
+            return (ipix1 - ncap - 1) / (4 * nside) + nside;
+        // South pole cap
+        long ip = 12 * nside * nside - ipix1 + 1;
+        double hip = ip / 2.0;
+        double fihip = (long) hip;
+        return 4 * nside - (long) (FastMath.sqrt(hip - FastMath.sqrt(fihip))) - 1;
+    }
+
+    /**
+     * returns z coordinate of pixel centres on given ring, inverse of {@link #RingNum(double)}
+     *
+     * @param iz ring number in {1, 4*nside - 1}
+     * @return z coordinate
+     */
+    public double ring2z(long iz) {
+        if (tables != null)
+            return tables.z[(int) iz];
+        if (iz < nside) // north polar cap
+            return 1.0 - iz * iz / (3.0 * nside * nside);
+        if (iz <= 3 * nside) // tropical band + equator
+            return (2.0 * nside - iz) * 2.0 / (3.0 * nside);
+        long ir = 4 * nside - iz;
+        return -1.0 + ir * ir / (3.0 * nside * nside);
+    }
+
     /**
      * returns the ring number in {1, 4*nside - 1} calculated from z coordinate
      *
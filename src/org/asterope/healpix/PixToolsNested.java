@@ -1,40 +1,95 @@
 package org.asterope.healpix;
 
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 import org.apache.commons.math3.util.FastMath;
 
 /**
- * Contains conversion functions between RING and NESTED pixel numbering scheme.
- * We use RING and all NESTED related stuff was removed from source code.
- * But some external sources requires NESTED scheme.
+ * NESTED pixel numbering scheme.
+ * <p>
+ * NESTED pixel number contains base face and bits of x and y coordinates inside face,
+ * interleaved into even and odd bits. So four children of pixel p at next order are 4p..4p+3
+ * and pixel is degraded to lower order by shifting. Pixels close on sky are close in numbering,
+ * which gives long ranges for area queries.
+ * <p>
+ * Static methods convert between RING and NESTED numbering, instance methods work directly
+ * in NESTED scheme at given nside. Bits are (de)interleaved with lookup tables,
+ * translated from HEALPix C++ Healpix_Base.
+ * <p>
+ * Is thread safe.
  *
  */
 public class PixToolsNested {
 
-    protected static final  int xmax = 4096;
-    protected static final int pixmax = 262144;
-    protected static final int xmid = 512;
+    // coordinates of lowest corner of each face, in units of nside and nside/2
+    protected static final int[] JRLL = {2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4};
+    protected static final int[] JPLL = {1, 3, 5, 7, 0, 2, 4, 6, 1, 3, 5, 7};
 
-    // coordinates of lowest corner of each face
-    private static final long[] jrll = { 0, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4 }; // in units of NSIDE
+    /** spreads 8 bits into even bits of 16 bit value*/
+    private static final int[] UTAB = new int[256];
+    /** compresses even bits of 8 bit value into 4 bits */
+    private static final int[] CTAB = new int[256];
 
-    private static final long[] jpll = { 0, 1, 3, 5, 7, 0, 2, 4, 6, 1, 3, 5, 7 }; // in units of NSIDE/2
+    static{
+        for(int i = 0;i<256;i++){
+            for(int bit = 0;bit<8;bit++)
+                if((i & (1<<bit))!=0) UTAB[i] |= 1<<(2*bit);
+            for(int bit = 0;bit<4;bit++)
+                if((i & (1<<(2*bit)))!=0) CTAB[i] |= 1<<bit;
+        }
+    }
 
+    protected final long nside;
+    protected final int order;
+    protected final Coverage coverage;
 
+    /**
+     * @param nside resolution, must be power of 2
+     */
+    public PixToolsNested(long nside){
+        this.order = order(nside);
+        this.nside = nside;
+        this.coverage = new Coverage(order);
+    }
 
-    protected static final long[] x2pix = new long[xmax+1];
+    public long getNside(){
+        return nside;
+    }
 
-    protected static final long[] y2pix = new long[xmax+1];
+    public int getOrder(){
+        return order;
+    }
 
-    protected static final long[] pix2x = new long[pixmax+1];
+    private static int order(long nside){
+        if ((nside < 1) || (nside > PixTools.ns_max))
+            throw new IllegalArgumentException("nside should be power of 2 >0 and < "+PixTools.ns_max);
+        return Coverage.nside2order(nside);
+    }
 
-    protected static final long[] pix2y = new long[pixmax+1];
+    /** @return value with bits of v moved to even positions */
+    protected static long spreadBits(long v){
+        return UTAB[(int) (v & 0xff)]
+                | ((long) UTAB[(int) ((v >>> 8) & 0xff)] << 16)
+                | ((long) UTAB[(int) ((v >>> 16) & 0xff)] << 32)
+                | ((long) UTAB[(int) ((v >>> 24) & 0xff)] << 48);
+    }
 
-    static{
-        mk_pix2xy();
-        mk_xy2pix();
+    /** @return even bits of v compressed together */
+    protected static long compressBits(long v){
+        return CTAB[(int) (v & 0xff)]
+                | ((long) CTAB[(int) ((v >>> 8) & 0xff)] << 4)
+                | ((long) CTAB[(int) ((v >>> 16) & 0xff)] << 8)
+                | ((long) CTAB[(int) ((v >>> 24) & 0xff)] << 12)
+                | ((long) CTAB[(int) ((v >>> 32) & 0xff)] << 16)
+                | ((long) CTAB[(int) ((v >>> 40) & 0xff)] << 20);
     }
 
+    protected static long xyf2nest(long ix, long iy, int face, int order){
+        return ((long)face << (2*order)) + spreadBits(ix) + (spreadBits(iy) << 1);
+    }
 
+    private static long isqrt(long v){
+        return (long) FastMath.sqrt(v + 0.5);
+    }
 
     /**
      * converts pixel number from ring numbering schema to the nested one
@@ -46,103 +101,51 @@ public class PixToolsNested {
      * @throws IllegalArgumentException
      */
     public static long ring2nest(long nside, long ipring) {
-                    long ipnest = 0;
-                    double fihip;
-                    double hip;
-                    long npix, nl2, nl4, ncap, ip, iphi, ipt, ipring1, kshift, face_num;
-                    long nr, irn, ire, irm, irs, irt, ifm, ifp, ix, iy, ix_low, ix_hi, iy_low;
-                    long iy_hi, ipf;
-                    String SID = "ring2nest:";
-                    //
-                    face_num = 0;
-                    if ((nside < 1) || (nside > PixTools.ns_max)) {
-                            throw new IllegalArgumentException(SID + " nside should be power of 2 >0 and < "+PixTools.ns_max);
-                    }
-                    npix = 12 * nside * nside; // total number of points
-
-                    if ((ipring < 0) || (ipring > npix - 1)) {
-                            throw new IllegalArgumentException(SID + " ipring out of range [0,npix-1]");
-                    }
-
-                    nl2 = 2 * nside;
-                    nl4 = 4 * nside;
-                    ncap = nl2 * (nside - 1); // points in each polar cap, =0 for nside = 1
-                    ipring1 = ipring + 1;
-                    // finds the ring number, the position of the ring and the face number
-                    if (ipring1 <= ncap) { // north polar cap
-                            hip = ipring1 / 2.0;
-                            fihip = FastMath.floor(hip);
-                            irn = (long)( FastMath.sqrt(hip - FastMath.sqrt(fihip))) + 1; // counted from
-                            // north pole
-                            iphi = ipring1 - 2 * irn * (irn - 1);
-
-                            kshift = 0;
-                            nr = irn; // 1/4 of the number of points on the current ring
-                            face_num = (iphi - 1) / irn; // in [0,3 ]
-
-                    } else if (ipring1 <= nl2 * (5 * nside + 1)) { // equatorial region
-                            ip = ipring1 - ncap - 1;
-                            irn = (long)(ip / nl4) + nside; // counted from north pole
-                            iphi = (long) PixToolsUtils.MODULO(ip, nl4) + 1;
-
-                            kshift = (long) PixToolsUtils.MODULO(irn + nside, 2); // 1 if odd 0
-                            // otherwise
-                            nr = nside;
-                            ire = irn - nside + 1; // in [1, 2*nside+1]
-                            irm = nl2 + 2 - ire;
-                            ifm = (iphi - ire / 2 + nside - 1) / nside; // face boundary
-                            ifp = (iphi - irm / 2 + nside - 1) / nside;
-                            if (ifp == ifm) {
-                                    face_num = (long) PixToolsUtils.MODULO(ifp, 4.) + 4;
-                            } else if (ifp + 1 == ifm) { // (half-) faces 0 to 3
-                                    face_num = ifp;
-                            } else if (ifp - 1 == ifm) { // (half-) faces 8 to 11
-                                    face_num = ifp + 7;
-                            }
-
-
-                    } else { // south polar cap
-
-                            ip = npix - ipring1 + 1;
-                            hip = ip / 2.0;
-                            fihip = FastMath.floor(hip);
-                            irs = (long)( FastMath.sqrt(hip - FastMath.sqrt(fihip))) + 1;
-                            iphi = 4 * irs + 1 - (ip - 2 * irs * (irs - 1));
-                            kshift = 0;
-                            nr = irs;
-                            irn = nl4 - irs;
-                            face_num = (iphi - 1) / irs + 8; // in [8,11]
-
-
-                    }
-                    // finds the (x,y) on the face
-
-
-    //
-                    irt = irn - jrll[(int) (face_num + 1)] * nside + 1; // in [-nside+1,0]
-                    ipt = 2 * iphi - jpll[(int) (face_num + 1)] * nr - kshift - 1; // in [-nside+1,
-                    // nside-1]
-    //
-                    if (ipt >= nl2){
-                            ipt = ipt - 8*nside; // for the face #4
-                    }
-                    ix = (ipt - irt) / 2;
-                    iy = -(ipt + irt) / 2;
-
-                    ix_low = (long) PixToolsUtils.MODULO(ix, xmax);
-                    ix_hi = ix / xmax;
-                    iy_low = (long) PixToolsUtils.MODULO(iy, xmax);
-                    iy_hi = iy / xmax;
-
-              //
-
-                    ipf = (x2pix[(int) (ix_hi + 1)] + y2pix[(int) (iy_hi + 1)]) * xmax * xmax
-                                    + (x2pix[(int) (ix_low + 1)] + y2pix[(int) (iy_low + 1)]); // in [0, nside**2 -1]
-                    ipnest = ipf + face_num * nside * nside; // in [0, 12*nside**2 -1]
-
-                    return ipnest;
-
-            }
+        int order = order(nside);
+        long ncap = 2*nside*(nside-1);
+        long npix = 12*nside*nside;
+        if(ipring<0 || ipring>=npix)
+            throw new IllegalArgumentException("ipring out of range");
+        long nl2 = 2*nside;
+        long iring, iphi, kshift, nr;
+        int face;
+        if(ipring<ncap){
+            //north polar cap
+            iring = (1+isqrt(1+2*ipring))>>>1;
+            iphi = (ipring+1) - 2*iring*(iring-1);
+            kshift = 0;
+            nr = iring;
+            face = (int) ((iphi-1)/nr);
+        }else if(ipring<(npix-ncap)){
+            //equatorial region
+            long ip = ipring - ncap;
+            long tmp = ip >>> (order+2);
+            iring = tmp+nside;
+            iphi = ip - tmp*4*nside + 1;
+            kshift = (iring+nside)&1;
+            nr = nside;
+            long ire = tmp+1;
+            long irm = nl2+1-tmp;
+            long ifm = (iphi - (ire>>>1) + nside - 1) >>> order;
+            long ifp = (iphi - (irm>>>1) + nside - 1) >>> order;
+            face = (int) ((ifp==ifm) ? (ifp|4) : ((ifp<ifm) ? ifp : (ifm+8)));
+        }else{
+            //south polar cap
+            long ip = npix - ipring;
+            iring = (1+isqrt(2*ip-1))>>>1;
+            iphi = 4*iring + 1 - (ip - 2*iring*(iring-1));
+            kshift = 0;
+            nr = iring;
+            iring = 2*nl2 - iring;
+            face = (int) (8 + (iphi-1)/nr);
+        }
+        long irt = iring - ((2+(face>>2))*nside) + 1;
+        long ipt = 2*iphi - JPLL[face]*nr - kshift - 1;
+        if(ipt>=nl2) ipt -= 8*nside;
+        long ix = (ipt-irt) >> 1;
+        long iy = (-ipt-irt) >> 1;
+        return xyf2nest(ix, iy, face, order);
+    }
 
     /**
      * converts from NESTED to RING pixel numbering
@@ -155,141 +158,458 @@ public class PixToolsNested {
      * @throws IllegalArgumentException
      */
     public static long nest2ring(long nside, long ipnest) {
-                    long res = 0;
-                    long npix, npface, face_num, ncap, n_before, ipf, ip_low, ip_trunc;
-                    long ip_med, ip_hi, ix, iy, jrt, jr, nr, jpt, jp, kshift, nl4;
-    //		long[] ixiy = { 0, 0 };
-                    String SID = "nest2ring:";
-                    //
-                    if ((nside < 1) || (nside > PixTools.ns_max)) {
-                            throw new IllegalArgumentException(SID + " nside should be power of 2 >0 and < ns_max");
-                    }
-                    npix = 12 * nside * nside;
-                    if ((ipnest < 0) || (ipnest > npix - 1)) {
-                            throw new IllegalArgumentException(SID + " ipnest out of range [0,npix-1]");
-                    }
-                    if (pix2x[pixmax-1] <= 0)
-                            mk_pix2xy();
-                    ncap = 2 * nside * (nside - 1); // number of points in the North polar
-                    // cap
-                    nl4 = 4 * nside;
-                    // finds the face and the number in the face
-                    npface = nside * nside;
-
-                    face_num = ipnest / npface; // face number in [0,11]
-                    if (ipnest >= npface) {
-                            ipf = (long) PixToolsUtils.MODULO(ipnest, npface); // pixel number in the face
-                    } else {
-                            ipf = ipnest;
-                    }
-
-                    // finds the x,y on the face
-                    //  from the pixel number
-                    ip_low = (long) PixToolsUtils.MODULO(ipf, pixmax); // last 15 bits
-                    if (ip_low < 0)
-                            ip_low = -ip_low;
-
-                    ip_trunc = ipf / pixmax; // truncate last 15 bits
-                    ip_med = (long) PixToolsUtils.MODULO(ip_trunc, pixmax); // next 15 bits
-                    if (ip_med < 0)
-                            ip_med = -ip_med;
-                    ip_hi = ip_trunc / pixmax; // high 15 bits
-
-                    ix = pixmax * pix2x[(int) ip_hi] + xmid * pix2x[(int) ip_med] + pix2x[(int) ip_low];
-                    iy = pixmax * pix2y[(int) ip_hi] + xmid * pix2y[(int) ip_med] + pix2y[(int) ip_low];
-
-                    // transform this in (horizontal, vertical) coordinates
-                    jrt = ix + iy; // vertical in [0,2*(nside -1)]
-                    jpt = ix - iy; // horizontal in [-nside+1, nside - 1]
-                    // calculate the z coordinate on the sphere
-                    jr = jrll[(int) (face_num + 1)] * nside - jrt - 1; // ring number in [1,4*nside
-                    // -1]
-                    nr = nside; // equatorial region (the most frequent)
-                    n_before = ncap + nl4 * (jr - nside);
-                    kshift = (long) PixToolsUtils.MODULO(jr - nside, 2);
-                    if (jr < nside) { // north pole region
-                            nr = jr;
-                            n_before = 2 * nr * (nr - 1);
-                            kshift = 0;
-                    } else if (jr > 3 * nside) { // south pole region
-                            nr = nl4 - jr;
-                            n_before = npix - 2 * (nr + 1) * nr;
-                            kshift = 0;
-                    }
-                    // computes the phi coordinate on the sphere in [0,2pi]
-                    jp = (jpll[(int) (face_num + 1)] * nr + jpt + 1 + kshift) / 2; // 'phi' number
-                    // in ring
-                    // [1,4*nr]
-                    if (jp > nl4)
-                            jp -= nl4;
-                    if (jp < 1)
-                            jp += nl4;
-                    res = n_before + jp - 1; // in [0, npix-1]
-                    return res;
+        int order = order(nside);
+        long npix = 12*nside*nside;
+        if(ipnest<0 || ipnest>=npix)
+            throw new IllegalArgumentException("ipnest out of range");
+        int face = (int) (ipnest >>> (2*order));
+        long ipf = ipnest & (nside*nside-1);
+        long ix = compressBits(ipf);
+        long iy = compressBits(ipf >>> 1);
+        return xyf2ring(nside, order, ix, iy, face);
+    }
+
+    /** RING pixel number of pixel with coordinates ix, iy inside face */
+    private static long xyf2ring(long nside, int order, long ix, long iy, int face){
+        long jr = ((long)JRLL[face] << order) - ix - iy - 1;
+        long nr = ringCount(nside, jr) / 4;
+        //rings in north and south cap are always shifted
+        long kshift = (jr>=nside && jr<3*nside && ((jr-nside)&1)!=0) ? 1 : 0;
+        long jp = (JPLL[face]*nr + ix - iy + 1 + kshift) / 2;
+        if(jp<1) jp += 4*nside;
+        return ringFirst(nside, jr) + jp - 1;
+    }
+
+    /** first RING pixel on ring jr (1 to 4*nside-1) */
+    private static long ringFirst(long nside, long jr){
+        if(jr<nside)
+            return 2*jr*(jr-1);
+        if(jr<3*nside)
+            return 2*nside*(nside-1) + (jr-nside)*4*nside;
+        long nr = 4*nside - jr;
+        return 12*nside*nside - 2*nr*(nr+1);
+    }
+
+    /** number of pixels on ring jr (1 to 4*nside-1) */
+    private static long ringCount(long nside, long jr){
+        if(jr<nside)
+            return 4*jr;
+        if(jr<3*nside)
+            return 4*nside;
+        return 4*(4*nside - jr);
+    }
+
+    /**
+     * converts set of pixels from ring numbering schema to the nested one.
+     * <p>
+     * Works with ranges, pixels are not enumerated. Each face is divided into nested cells.
+     * Pixels of cell on one row (constant ix+iy) are single range in ring numbering,
+     * so cell is classified by testing its rows against ring set. Cells fully inside are
+     * appended as one nested range, cells outside are skipped and only cells on
+     * boundary are divided further. Cost is proportional to boundary length, not to area.
+     *
+     * @param nside long resolution
+     * @param ring pixel numbers in ring schema
+     * @return pixel numbers in nest schema
+     */
+    public static LongRangeSet ring2nest(long nside, LongRangeSet ring) {
+        LongRangeSetBuilder b = new LongRangeSetBuilder();
+        if(ring.isEmpty())
+            return b.build();
+        int order = order(nside);
+        for(int face = 0;face<12;face++)
+            ring2nest(nside, order, ring, face, 0, 0, nside, b);
+        return b.build();
+    }
+
+    /**
+     * appends part of cell which is in ring set.
+     * Cell has lower corner ix, iy inside face and is size*size pixels large.
+     * Children are visited in nested order, so builder gets sorted input.
+     */
+    private static void ring2nest(long nside, int order, LongRangeSet ring, int face,
+                                  long ix, long iy, long size, LongRangeSetBuilder b){
+        if(size == 1){
+            if(ring.contains(xyf2ring(nside, order, ix, iy, face)))
+                b.append(xyf2nest(ix, iy, face, order));
+            return;
+        }
+        boolean all = true, any = false;
+        //go over rows of cell, stop when it is known that cell must be divided
+        for(long d = 0; d<2*size-1 && (all || !any); d++){
+            long x0 = Math.max(0, d - size + 1);
+            long x1 = Math.min(d, size - 1);
+            long p0 = xyf2ring(nside, order, ix + x0, iy + d - x0, face);
+            long p1 = xyf2ring(nside, order, ix + x1, iy + d - x1, face);
+            long lo = Math.min(p0, p1);
+            long hi = Math.max(p0, p1);
+            if(hi - lo == x1 - x0){
+                all &= ring.containsAll(lo, hi);
+                any |= ring.containsAny(lo, hi);
+            }else{
+                //row wraps around start of ring
+                long jr = ((long)JRLL[face] << order) - ix - iy - d - 1;
+                long first = ringFirst(nside, jr);
+                long last = first + ringCount(nside, jr) - 1;
+                all &= ring.containsAll(hi, last) && ring.containsAll(first, lo);
+                any |= ring.containsAny(hi, last) || ring.containsAny(first, lo);
             }
+        }
+        if(!any)
+            return;
+        if(all){
+            long first = xyf2nest(ix, iy, face, order);
+            b.appendRange(first, first + size*size - 1);
+            return;
+        }
+        long half = size/2;
+        ring2nest(nside, order, ring, face, ix, iy, half, b);
+        ring2nest(nside, order, ring, face, ix + half, iy, half, b);
+        ring2nest(nside, order, ring, face, ix, iy + half, half, b);
+        ring2nest(nside, order, ring, face, ix + half, iy + half, half, b);
+    }
 
-	/**
-	 * creates an array of pixel numbers pix2x from x and y coordinates in the
-	 * face. Suppose NESTED scheme of pixel ordering Bits corresponding to x and
-	 * y are interleaved in the pixel number in even and odd bits.
-	 */
-	protected static void mk_pix2xy() {
-		long kpix, jpix, ix, iy, ip, id;
-//		boolean flag = true;
-		for (kpix = 0; kpix <= pixmax; kpix++) { // loop on pixel numbers
-			jpix = kpix;
-			ix = 0;
-			iy = 0;
-			ip = 1; // bit position in x and y
+    /**
+     * converts set of pixels from nested numbering schema to the ring one.
+     *
+     * @param nside long resolution
+     * @param nest pixel numbers in nest schema
+     * @return pixel numbers in ring schema
+     */
+    public static LongRangeSet nest2ring(long nside, LongRangeSet nest) {
+        long[] ring = new long[(int) nest.size()];
+        int i = 0;
+        LongIterator iter = nest.longIterator();
+        while(iter.hasNext())
+            ring[i++] = nest2ring(nside, iter.next());
+        java.util.Arrays.sort(ring);
+        LongRangeSetBuilder b = new LongRangeSetBuilder();
+        for(long p:ring)
+            b.append(p);
+        return b.build();
+    }
 
-			while (jpix != 0) { // go through all the bits
+    /**
+     * @param ipnest NESTED pixel number
+     * @param levels number of orders to go up
+     * @return pixel at lower order which contains given pixel
+     */
+    public static long degrade(long ipnest, int levels){
+        return ipnest >>> (2*levels);
+    }
 
-				id = (long) PixToolsUtils.MODULO(jpix, 2); // bit value (in kpix), goes in x
-				jpix /= 2;
-				ix += id * ip;
+    /**
+     * @param ipnest NESTED pixel number
+     * @param levels number of orders to go down
+     * @return first pixel at higher order inside given pixel,
+     *          all pixels inside are in range [upgrade(p,l), upgrade(p+1,l)-1]
+     */
+    public static long upgrade(long ipnest, int levels){
+        return ipnest << (2*levels);
+    }
 
-				id = (long) PixToolsUtils.MODULO(jpix, 2); // bit value, goes in iy
-				jpix /= 2;
-				iy += id * ip;
+    /**
+     * finds NESTED pixel containing given point
+     *
+     * @param v vector, does not have to be normalized
+     * @return NESTED pixel number
+     */
+    public long vect2pix(Vector3D v){
+        return vect2pix(v.getX(), v.getY(), v.getZ());
+    }
 
-				ip *= 2; // next bit (in x and y )
-			}
+    /**
+     * finds NESTED pixel containing given point.
+     * Translated from HEALPix C++ loc2pix()
+     *
+     * @return NESTED pixel number
+     */
+    public long vect2pix(double x, double y, double z){
+        double xl = 1.0/FastMath.sqrt(x*x + y*y + z*z);
+        double nz = z*xl;
+        double za = FastMath.abs(nz);
+        double tt = FastMath.atan2(y, x) * (2/PixTools.PI);
+        if(tt<0) tt += 4;
+        if(tt>=4) tt -= 4;
+
+        if(za<=PixTools.twothird){
+            //equatorial region
+            double temp1 = nside*(0.5+tt);
+            double temp2 = nside*(nz*0.75);
+            long jp = (long) (temp1-temp2); // index of ascending edge line
+            long jm = (long) (temp1+temp2); // index of descending edge line
+            long ifp = jp >>> order;  // in {0,4}
+            long ifm = jm >>> order;
+            int face = (int) ((ifp==ifm) ? (ifp|4) : ((ifp<ifm) ? ifp : (ifm+8)));
+            long ix = jm & (nside-1);
+            long iy = nside - (jp & (nside-1)) - 1;
+            return xyf2nest(ix, iy, face, order);
+        }else{
+            //polar region
+            int ntt = FastMath.min(3, (int) tt);
+            double tp = tt - ntt;
+            double tmp = za<0.99 ?
+                    nside*FastMath.sqrt(3*(1-za)) :
+                    nside*FastMath.sqrt(x*x + y*y)*xl/FastMath.sqrt((1.0+za)/3.0);
+            long jp = FastMath.min(nside-1, (long) (tp*tmp)); // increasing edge line index
+            long jm = FastMath.min(nside-1, (long) ((1.0-tp)*tmp)); // decreasing edge line index
+            return nz>=0 ?
+                    xyf2nest(nside-jm-1, nside-jp-1, ntt, order) :
+                    xyf2nest(jp, jm, ntt+8, order);
+        }
+    }
 
-			pix2x[(int) kpix] = ix; // in [0,pixmax]
-			pix2y[(int) kpix] = iy; // in [0,pixmax]
+    /**
+     * finds NESTED pixels for array of points
+     *
+     * @param xyz point coordinates as x,y,z triplets
+     * @param out pixel numbers are stored here, its length is number of processed points
+     */
+    public void vect2pix(double[] xyz, long[] out){
+        if (xyz.length < out.length * 3)
+            throw new IllegalArgumentException("xyz array is too short");
+        for (int i = 0; i < out.length; i++)
+            out[i] = vect2pix(xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2]);
+    }
 
+    /**
+     * @param ipnest NESTED pixel number
+     * @return unit vector pointing to pixel centre
+     */
+    public Vector3D pix2vect(long ipnest){
+        double[] v = new double[3];
+        pix2vect(ipnest, v);
+        return new Vector3D(v[0], v[1], v[2]);
+    }
 
-		}
-    //    System.out.println(kpix);
-	}
+    /**
+     * @param ipnest NESTED pixel number
+     * @param out unit vector pointing to pixel centre is stored here
+     */
+    public void pix2vect(long ipnest, double[] out){
+        if(ipnest<0 || ipnest>=12*nside*nside)
+            throw new IllegalArgumentException("ipnest out of range");
+        pix2vect(order, ipnest, out);
+    }
 
     /**
-     * fills arrays x2pix and y2pix giving the number of the pixel laying in
-     * (x,y). x and y are in [1,512] the pixel number is in [0, 512**2 -1]
+     * Centre of NESTED pixel at given order, computed directly from face and x,y coordinates.
+     * Translated from HEALPix C++ pix2loc()
      *
-     * if i-1 = sum_p=0 b_p*2^p then ix = sum+p=0 b_p*4^p iy = 2*ix ix + iy in
-     * [0,512**2 -1]
+     * @param out unit vector is stored here
+     */
+    protected static void pix2vect(int order, long ipnest, double[] out){
+        long nside = 1L<<order;
+        int face = (int) (ipnest >>> (2*order));
+        long ipf = ipnest & (nside*nside-1);
+        long ix = compressBits(ipf);
+        long iy = compressBits(ipf>>>1);
+
+        double fact2 = 4.0 / (12*nside*nside);
+        double fact1 = (nside<<1)*fact2;
+        long jr = ((long)JRLL[face] << order) - ix - iy - 1;
+        long nr;
+        double z, sth = -1;
+        if(jr<nside){
+            //north polar cap
+            nr = jr;
+            double tmp = (nr*nr)*fact2;
+            z = 1 - tmp;
+            if(z>0.99) sth = FastMath.sqrt(tmp*(2.0-tmp));
+        }else if(jr>3*nside){
+            //south polar cap
+            nr = nside*4 - jr;
+            double tmp = (nr*nr)*fact2;
+            z = tmp - 1;
+            if(z<-0.99) sth = FastMath.sqrt(tmp*(2.0-tmp));
+        }else{
+            nr = nside;
+            z = (2*nside-jr)*fact1;
+        }
+
+        long tmp = JPLL[face]*nr + ix - iy;
+        if(tmp<0) tmp+=8*nr;
+        double phi = nr==nside ? 0.75*PixTools.HALFPI*tmp*fact1 : (0.5*PixTools.HALFPI*tmp)/nr;
+
+        if(sth<0) sth = FastMath.sqrt((1.0 - z) * (1.0 + z));
+        out[0] = sth*FastMath.cos(phi);
+        out[1] = sth*FastMath.sin(phi);
+        out[2] = z;
+    }
+
+    // neighbour offsets in order SW, W, NW, N, NE, E, SE, S
+    private static final int[] NB_XOFFSET = {-1, -1, 0, 1, 1, 1, 0, -1};
+    private static final int[] NB_YOFFSET = {0, 1, 1, 1, 0, -1, -1, -1};
+    // face of neighbour across face border, indexed by direction and face, -1 if there is no neighbour
+    private static final int[][] NB_FACEARRAY = {
+            {8, 9, 10, 11, -1, -1, -1, -1, 10, 11, 8, 9},   // S
+            {5, 6, 7, 4, 8, 9, 10, 11, 9, 10, 11, 8},       // SE
+            {-1, -1, -1, -1, 5, 6, 7, 4, -1, -1, -1, -1},   // E
+            {4, 5, 6, 7, 11, 8, 9, 10, 11, 8, 9, 10},       // SW
+            {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11},         // center
+            {1, 2, 3, 0, 0, 1, 2, 3, 5, 6, 7, 4},           // NE
+            {-1, -1, -1, -1, 7, 4, 5, 6, -1, -1, -1, -1},   // W
+            {3, 0, 1, 2, 3, 0, 1, 2, 4, 5, 6, 7},           // NW
+            {2, 3, 0, 1, -1, -1, -1, -1, 0, 1, 2, 3}};      // N
+    // coordinate flips across face border: 1 flips x, 2 flips y, 4 swaps x and y
+    private static final int[][] NB_SWAPARRAY = {
+            {0, 0, 3}, {0, 0, 6}, {0, 0, 0}, {0, 0, 5}, {0, 0, 0},
+            {5, 0, 0}, {0, 0, 0}, {6, 0, 0}, {3, 0, 0}};
+
+    /**
+     * finds neighbours of NESTED pixel, does not allocate objects
      *
+     * @param ipnest NESTED pixel number
+     * @param out array with at least 8 items, neighbours are stored here in order SW, W, NW, N, NE, E, SE, S.
+     *            Pixels on corner of base face have only 7 neighbours, missing neighbour is -1.
      */
-    protected static void mk_xy2pix() {
-            long k, ip, id;
-
-            for (int i = 1; i <= xmax; i++) {
-                    long j = i - 1;
-                    k = 0;
-                    ip = 1;
-                    while (j != 0) {
-                            id = (long) PixToolsUtils.MODULO(j, 2);
-                            j /= 2;
-                            k += ip * id;
-                            ip *= 4;
-                    }
-                    x2pix[i] = k;
-                    y2pix[i] = 2 * k;
+    public void neighbours(long ipnest, long[] out){
+        if(ipnest<0 || ipnest>=12*nside*nside)
+            throw new IllegalArgumentException("ipnest out of range");
+        neighbours(order, ipnest, out);
+    }
 
+    /**
+     * Neighbours of NESTED pixel at given order.
+     * Translated from HEALPix C++ Healpix_Base::neighbors()
+     */
+    protected static void neighbours(int order, long ipnest, long[] out){
+        if(out.length<8)
+            throw new IllegalArgumentException("out array is too short");
+        long nside = 1L<<order;
+        int face = (int) (ipnest >>> (2*order));
+        long ipf = ipnest & (nside*nside-1);
+        long ix = compressBits(ipf);
+        long iy = compressBits(ipf>>>1);
+
+        if(ix>0 && ix<nside-1 && iy>0 && iy<nside-1){
+            //all neighbours are on the same face
+            long fpix = (long)face << (2*order);
+            long px0 = spreadBits(ix), py0 = spreadBits(iy)<<1;
+            long pxp = spreadBits(ix+1), pyp = spreadBits(iy+1)<<1;
+            long pxm = spreadBits(ix-1), pym = spreadBits(iy-1)<<1;
+            out[0] = fpix+pxm+py0; out[1] = fpix+pxm+pyp;
+            out[2] = fpix+px0+pyp; out[3] = fpix+pxp+pyp;
+            out[4] = fpix+pxp+py0; out[5] = fpix+pxp+pym;
+            out[6] = fpix+px0+pym; out[7] = fpix+pxm+pym;
+            return;
+        }
+
+        for(int i = 0;i<8;i++){
+            long x = ix+NB_XOFFSET[i], y = iy+NB_YOFFSET[i];
+            int nbnum = 4;
+            if(x<0){
+                x += nside; nbnum -= 1;
+            }else if(x>=nside){
+                x -= nside; nbnum += 1;
+            }
+            if(y<0){
+                y += nside; nbnum -= 3;
+            }else if(y>=nside){
+                y -= nside; nbnum += 3;
+            }
+            int f = NB_FACEARRAY[nbnum][face];
+            if(f<0){
+                out[i] = -1;
+                continue;
             }
+            int bits = NB_SWAPARRAY[nbnum][face>>2];
+            if((bits&1)!=0) x = nside-x-1;
+            if((bits&2)!=0) y = nside-y-1;
+            if((bits&4)!=0){
+                long tmp = x; x = y; y = tmp;
+            }
+            out[i] = xyf2nest(x, y, f, order);
+        }
+    }
 
+    /**
+     * finds points on boundary of NESTED pixel, does not allocate objects
+     *
+     * @param ipnest NESTED pixel number
+     * @param step number of points on each edge, 1 gives corners only
+     * @param out array with at least 12*step items, x,y,z coordinates of 4*step points are stored here.
+     *            Points go around pixel starting from north corner, then west, south and east corner.
+     */
+    public void boundaries(long ipnest, int step, double[] out){
+        if(ipnest<0 || ipnest>=12*nside*nside)
+            throw new IllegalArgumentException("ipnest out of range");
+        boundaries(order, ipnest, step, out);
     }
 
+    /**
+     * Points on boundary of NESTED pixel at given order.
+     * Translated from HEALPix C++ Healpix_Base::boundaries()
+     */
+    protected static void boundaries(int order, long ipnest, int step, double[] out){
+        if(step<1)
+            throw new IllegalArgumentException("step should be >0");
+        if(out.length<12*step)
+            throw new IllegalArgumentException("out array is too short");
+        long nside = 1L<<order;
+        int face = (int) (ipnest >>> (2*order));
+        long ipf = ipnest & (nside*nside-1);
+        long ix = compressBits(ipf);
+        long iy = compressBits(ipf>>>1);
+
+        double dc = 0.5 / nside;
+        double xc = (ix + 0.5) / nside, yc = (iy + 0.5) / nside;
+        double d = 1.0 / (step * nside);
+        for(int i = 0;i<step;i++){
+            xyf2vect(xc+dc-i*d, yc+dc, face, out, 3*i);
+            xyf2vect(xc-dc, yc+dc-i*d, face, out, 3*(i+step));
+            xyf2vect(xc-dc+i*d, yc-dc, face, out, 3*(i+2*step));
+            xyf2vect(xc+dc, yc-dc+i*d, face, out, 3*(i+3*step));
+        }
+    }
+
+    /**
+     * Converts coordinates inside base face to unit vector.
+     * Translated from HEALPix C++ Healpix_Base::xyf2loc()
+     *
+     * @param x coordinate inside face in [0,1]
+     * @param y coordinate inside face in [0,1]
+     * @param out x,y,z are stored here
+     * @param pos position in out array
+     */
+    private static void xyf2vect(double x, double y, int face, double[] out, int pos){
+        double jr = JRLL[face] - x - y;
+        double nr, z, sth = -1;
+        if(jr<1){
+            nr = jr;
+            double tmp = nr*nr/3.;
+            z = 1 - tmp;
+            if(z>0.99) sth = FastMath.sqrt(tmp*(2.0-tmp));
+        }else if(jr>3){
+            nr = 4-jr;
+            double tmp = nr*nr/3.;
+            z = tmp - 1;
+            if(z<-0.99) sth = FastMath.sqrt(tmp*(2.0-tmp));
+        }else{
+            nr = 1;
+            z = (2-jr)*2./3.;
+        }
+        double tmp = JPLL[face]*nr + x - y;
+        if(tmp<0) tmp += 8;
+        if(tmp>=8) tmp -= 8;
+        double phi = nr<1e-15 ? 0 : (0.5*PixTools.HALFPI*tmp)/nr;
+
+        if(sth<0) sth = FastMath.sqrt((1.0 - z) * (1.0 + z));
+        out[pos] = sth*FastMath.cos(phi);
+        out[pos+1] = sth*FastMath.sin(phi);
+        out[pos+2] = z;
+    }
+
+    /**
+     * finds NESTED pixels within disc, see {@link Coverage#queryDisc(Vector3D, double, boolean)}
+     *
+     * @param vector disc centre
+     * @param radius in radians
+     * @param inclusive if true, all pixels which may overlap with disc are included
+     * @return NESTED pixel numbers
+     */
+    public LongRangeSet query_disc(Vector3D vector, double radius, boolean inclusive){
+        return coverage.queryDisc(vector, radius, inclusive);
+    }
 
 }
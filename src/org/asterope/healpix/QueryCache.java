@@ -0,0 +1,227 @@
+//
+// Licenced under GPLv2, see licence.txt
+// (c) Jan Kotek,
+//
+
+package org.asterope.healpix;
+
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache in front of {@link PixTools#query_disc(Vector3D, double, boolean)}
+ * and {@link PixTools#query_polygon(ArrayList, boolean)}.
+ * <p>
+ * Interactive panning produces many nearly identical disc queries, so discs are quantised:
+ * centre is snapped to centre of pixel which contains it and radius is rounded up
+ * to multiple of pixel resolution. Query is then executed for quantised disc,
+ * with radius enlarged by maximal pixel radius. So cached result is always
+ * superset of inclusive result for original disc and can be used as coarse filter.
+ * Quantised disc can not give exact result, so exact (not inclusive) disc queries
+ * are not cached and go directly to {@link PixTools}.
+ * Polygons are cached by exact vertices.
+ * <p>
+ * {@link #moveDisc(LongRangeSet, Vector3D, double, boolean)} computes only pixels
+ * newly exposed since previous query.
+ * <p>
+ * Returned sets are immutable and shared between callers. Is thread safe.
+ *
+ * @author Jan Kotek
+ */
+public class QueryCache {
+
+    protected final PixTools tools;
+    protected final long nside;
+    protected final int maxEntries;
+    /** radius quantisation step */
+    protected final double radiusStep;
+    /** radius is enlarged by this value to cover all discs with centre in the same pixel */
+    protected final double margin;
+
+    protected final LinkedHashMap<Object, LongRangeSet> cache;
+
+    protected long hits, misses;
+
+    /**
+     * @param tools queries are executed with this PixTools
+     * @param maxEntries maximal number of cached results, least recently used are evicted
+     */
+    public QueryCache(PixTools tools, final int maxEntries){
+        if(maxEntries<1)
+            throw new IllegalArgumentException("maxEntries should be >0");
+        this.tools = tools;
+        this.nside = tools.nside;
+        this.maxEntries = maxEntries;
+        this.radiusStep = Math.toRadians(PixTools.PixRes(nside) / 3600);
+        this.margin = Coverage.maxPixrad(nside);
+        this.cache = new LinkedHashMap<Object, LongRangeSet>(16, 0.75f, true){
+            protected boolean removeEldestEntry(Map.Entry<Object, LongRangeSet> eldest) {
+                return size() > QueryCache.this.maxEntries;
+            }
+        };
+    }
+
+    /** cache key for quantised inclusive disc */
+    protected static final class DiscKey{
+        final long nside, centerPix, radiusSteps;
+
+        DiscKey(long nside, long centerPix, long radiusSteps) {
+            this.nside = nside;
+            this.centerPix = centerPix;
+            this.radiusSteps = radiusSteps;
+        }
+
+        public boolean equals(Object o) {
+            if(!(o instanceof DiscKey)) return false;
+            DiscKey k = (DiscKey) o;
+            return nside == k.nside && centerPix == k.centerPix
+                    && radiusSteps == k.radiusSteps;
+        }
+
+        public int hashCode() {
+            long h = centerPix * 31 + radiusSteps;
+            h = h * 31 + nside;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /** cache key for polygon */
+    protected static final class PolygonKey{
+        final long nside;
+        final double[] vertices;
+        final boolean inclusive;
+
+        PolygonKey(long nside, ArrayList<Vector3D> vlist, boolean inclusive) {
+            this.nside = nside;
+            this.inclusive = inclusive;
+            vertices = new double[vlist.size()*3];
+            for(int i = 0;i<vlist.size();i++){
+                vertices[i*3] = vlist.get(i).getX();
+                vertices[i*3+1] = vlist.get(i).getY();
+                vertices[i*3+2] = vlist.get(i).getZ();
+            }
+        }
+
+        public boolean equals(Object o) {
+            if(!(o instanceof PolygonKey)) return false;
+            PolygonKey k = (PolygonKey) o;
+            return nside == k.nside && inclusive == k.inclusive && Arrays.equals(vertices, k.vertices);
+        }
+
+        public int hashCode() {
+            return Arrays.hashCode(vertices) + (inclusive ? 1 : 0);
+        }
+    }
+
+    /**
+     * Disc query. Inclusive disc is quantised and cached, see class description.
+     * Exact disc is passed to {@link PixTools#query_disc(Vector3D, double, boolean)} without caching.
+     *
+     * @param vector disc centre
+     * @param radius disc radius in radians
+     * @param inclusive if true, result is cached superset of pixels which overlap with original disc,
+     *                  if false, result is exact and is not cached
+     * @return pixels in quantised disc, or pixels in original disc if not inclusive
+     */
+    public LongRangeSet queryDisc(Vector3D vector, double radius, boolean inclusive){
+        if (radius < 0.0 || radius > PixTools.PI)
+            throw new IllegalArgumentException("angular radius is in RADIAN and should be in [0,pi]");
+        if(!inclusive)
+            return tools.query_disc(vector, radius, false);
+        long centerPix = tools.vect2pix(vector);
+        long radiusSteps = (long) Math.ceil(radius / radiusStep);
+        DiscKey key = new DiscKey(nside, centerPix, radiusSteps);
+        LongRangeSet ret = get(key);
+        if(ret!=null)
+            return ret;
+        double r = Math.min(PixTools.PI, radiusSteps * radiusStep + margin);
+        ret = tools.query_disc(tools.pix2vect(centerPix), r, true);
+        put(key, ret);
+        return ret;
+    }
+
+    /**
+     * Cached polygon query, polygons are cached by exact vertices.
+     *
+     * @param vlist polygon vertices
+     * @param inclusive if true, pixels crossed by polygon boundaries are included
+     * @return pixels in polygon
+     */
+    public LongRangeSet queryPolygon(ArrayList<Vector3D> vlist, boolean inclusive) throws Exception {
+        PolygonKey key = new PolygonKey(nside, vlist, inclusive);
+        LongRangeSet ret = get(key);
+        if(ret!=null)
+            return ret;
+        ret = tools.query_polygon(vlist, inclusive);
+        put(key, ret);
+        return ret;
+    }
+
+    /**
+     * Incremental disc query, used when disc moves slightly. Caller keeps result of previous query
+     * and fetches only newly exposed pixels.
+     *
+     * @param previous result of previous query, typically {@link Delta#area}
+     * @return current area and its difference from previous area
+     */
+    public Delta moveDisc(LongRangeSet previous, Vector3D vector, double radius, boolean inclusive){
+        LongRangeSet area = queryDisc(vector, radius, inclusive);
+        if(area == previous)
+            return new Delta(area, LongRangeSetBuilder.EMPTY, LongRangeSetBuilder.EMPTY);
+        return new Delta(area, area.substract(previous), previous.substract(area));
+    }
+
+    /** Result of incremental query */
+    public static final class Delta{
+        /** all pixels in current area */
+        public final LongRangeSet area;
+        /** pixels which are in current area, but were not in previous area */
+        public final LongRangeSet added;
+        /** pixels which were in previous area, but are not in current area */
+        public final LongRangeSet removed;
+
+        public Delta(LongRangeSet area, LongRangeSet added, LongRangeSet removed) {
+            this.area = area;
+            this.added = added;
+            this.removed = removed;
+        }
+    }
+
+    protected synchronized LongRangeSet get(Object key){
+        LongRangeSet ret = cache.get(key);
+        if(ret == null)
+            misses++;
+        else
+            hits++;
+        return ret;
+    }
+
+    protected synchronized void put(Object key, LongRangeSet value){
+        cache.put(key, value);
+    }
+
+    public synchronized long getHits(){
+        return hits;
+    }
+
+    public synchronized long getMisses(){
+        return misses;
+    }
+
+    /** @return number of cached results */
+    public synchronized int size(){
+        return cache.size();
+    }
+
+    /** remove all cached results and reset counters */
+    public synchronized void clear(){
+        cache.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+}
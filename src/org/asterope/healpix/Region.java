@@ -138,6 +138,27 @@ public class Region {
 
 		return res.build();
 	}
+	/**
+	 * The same as {@link #pixelize(double)}, but returns pixels in NESTED scheme.
+	 * Nested tree is descended from order 0 and cells fully inside region are emitted as whole ranges,
+	 * only pixels on region boundary are tested one by one. So it is fast even for large regions at fine precision.
+	 * <p>
+	 * It is meant for NESTED consumers, it is not a faster {@link #pixelize(double)}. RING pixelization
+	 * is cheaper when RING numbers are needed, this method is cheaper than pixelize followed
+	 * by {@link PixToolsNested#ring2nest(long, LongRangeSet)} (see RegionBench).
+	 * @param precision - angular size of the division element in arcsec, nside must not be bigger than 2^20
+	 * @return pixel numbers in nested schema for specified resolution
+	 */
+	public LongRangeSet pixelizeNested(double precision){
+		long nside = PixTools.GetNSide(precision);
+		PixTools pt = new PixTools(nside);
+		long rnmin = pt.RingNum(Math.cos(tetMin));
+		long rnmax = pt.RingNum(Math.cos(tetMax));
+		Coverage coverage = new Coverage(Coverage.nside2order(nside));
+		return coverage.queryRingBox(pt, rnmin, rnmax-1,
+				(phiMin + phiMax)/2., (phiMax - phiMin)/2.);
+	}
+
 	/**
 	 * provides polar coordinates of the region vertices
 	 * @return  array of corner coordinates in form of polar thete,phi angles.
@@ -0,0 +1,109 @@
+//
+// Licenced under GPLv2, see licence.txt
+// (c) Jan Kotek,
+//
+
+package org.asterope.healpix;
+
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed geometry of RING scheme rings for one nside, used by {@link PixTools#withRingTables(long)}.
+ * Arrays are indexed by ring number in {1, 4*nside - 1}, item 0 is unused.
+ * Values are computed with exactly the same expressions as {@link PixTools}, so results with and without tables are identical.
+ * PixTools computes ring z in two different ways (pixel centres and ring queries), which may differ in the last bit,
+ * so both are stored.
+ * <p>
+ * Tables take about 44 bytes per ring, so they are created only up to {@link #MAX_NSIDE}.
+ * Tables are shared between all PixTools with the same nside.
+ * <p>
+ * Is readonly, so is thread safe.
+ *
+ * @author Jan Kotek
+ */
+final class RingTables {
+
+    /** maximal nside with tables, 2^16 takes about 11 MB */
+    static final long MAX_NSIDE = 1L<<16;
+
+    private static final ConcurrentHashMap<Long, RingTables> SHARED = new ConcurrentHashMap<Long, RingTables>();
+
+    final long nside;
+    /** z coordinate of pixel centres, as computed by pix2ang and ring2z */
+    final double[] z;
+    /** z coordinate of ring, as computed by query_disc and query_triangle from dth1 and dth2 */
+    final double[] queryZ;
+    /** sin(theta) of pixel centres, sqrt((1-z)(1+z)) */
+    final double[] sinTheta;
+    /** first pixel in ring */
+    final long[] firstPixel;
+    /** number of pixels in ring */
+    final int[] pixelCount;
+    /** phi of n-th pixel (counted from 1) is (n - phiOffset) * PI / phiDenominator */
+    final double[] phiOffset;
+    final double[] phiDenominator;
+
+    /**
+     * @return shared tables for given nside, or null if nside is too big or is not power of 2
+     */
+    static RingTables forNside(long nside){
+        if(nside<1 || nside>MAX_NSIDE || (nside & (nside-1))!=0)
+            return null;
+        RingTables ret = SHARED.get(nside);
+        if(ret == null){
+            ret = new RingTables(nside);
+            RingTables old = SHARED.putIfAbsent(nside, ret);
+            if(old!=null)
+                ret = old;
+        }
+        return ret;
+    }
+
+    private RingTables(long nside){
+        this.nside = nside;
+        int nrings = (int) (4*nside);
+        z = new double[nrings];
+        queryZ = new double[nrings];
+        sinTheta = new double[nrings];
+        firstPixel = new long[nrings];
+        pixelCount = new int[nrings];
+        phiOffset = new double[nrings];
+        phiDenominator = new double[nrings];
+
+        long nsidesq = nside * nside;
+        long npix = 12 * nsidesq;
+        long ncap = 2 * nside * (nside - 1);
+        double dth1 = 1.0 / (3.0 * nside * nside);
+        double dth2 = 2.0 / (3.0 * nside);
+        for(int i = 1; i<nrings; i++){
+            long iz = i;
+            if(iz < nside){ //north polar cap
+                z[i] = 1.0 - iz * iz / (3.0 * nsidesq);
+                queryZ[i] = 1.0 - iz * iz * dth1;
+                firstPixel[i] = 2 * iz * (iz - 1);
+                pixelCount[i] = (int) (4 * iz);
+                phiOffset[i] = 0.5;
+                phiDenominator[i] = 2.0 * iz;
+            }else if(iz <= 3*nside){ //equatorial region
+                z[i] = (2 * nside - iz) / (1.5 * nside);
+                queryZ[i] = (2.0 * nside - iz) * dth2;
+                firstPixel[i] = ncap + 4 * nside * (iz - nside);
+                pixelCount[i] = (int) (4 * nside);
+                phiOffset[i] = 0.5 * (1. + PixToolsUtils.MODULO(iz + nside, 2));
+                phiDenominator[i] = 2.0 * nside;
+            }else{ //south polar cap
+                long ir = 4 * nside - iz;
+                z[i] = -1.0 + ir * ir / (3.0 * nsidesq);
+                queryZ[i] = -1.0 + (4.0 * nside - iz) * (4.0 * nside - iz) * dth1;
+                firstPixel[i] = npix - 2 * ir * (ir + 1);
+                pixelCount[i] = (int) (4 * ir);
+                phiOffset[i] = 0.5;
+                phiDenominator[i] = 2.0 * ir;
+            }
+            sinTheta[i] = FastMath.sqrt((1.0 - z[i]) * (1.0 + z[i]));
+        }
+    }
+
+}
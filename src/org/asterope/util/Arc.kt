@@ -1,6 +1,8 @@
 package org.asterope.util
 
 import org.asterope.healpix.PixTools
+import org.asterope.healpix.PixToolsNested
+import org.asterope.healpix.Coverage
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D
 import java.math.BigDecimal
 
@@ -13,12 +15,16 @@ import java.math.BigDecimal
 
 val HEALPIX_RESOLUTION = 20.arcMinute();
 val HEALPIX_NSIDE = PixTools.GetNSide(HEALPIX_RESOLUTION.toArcSecond());
-val HEALPIX_TOOLS = PixTools(HEALPIX_NSIDE)
+val HEALPIX_TOOLS = PixTools.withRingTables(HEALPIX_NSIDE)!!
+/** order of NESTED scheme used by star index, nside = 2^order */
+val HEALPIX_ORDER = Coverage.nside2order(HEALPIX_NSIDE)
+val HEALPIX_COVERAGE = Coverage(HEALPIX_ORDER)
+val HEALPIX_NESTED = PixToolsNested(HEALPIX_NSIDE)
 val ARC_SECOND_TO_MICRO_ARC_SEC:Long = 1000000.toLong();
 
 val ARC_MINUTE_TO_MICRO_ARC_SEC:Long = ARC_SECOND_TO_MICRO_ARC_SEC * 60
 val ARC_DEGREE_TO_MICRO_ARC_SEC:Long = ARC_MINUTE_TO_MICRO_ARC_SEC * 60;
-val MICRO_ARC_SEC_TO_RADIAN:Double = ARC_DEGREE_TO_MICRO_ARC_SEC.toDouble() * 180.toDouble() / Math.PI
+val MICRO_ARC_SEC_TO_RADIAN:Double = Math.PI / 180.toDouble() / ARC_DEGREE_TO_MICRO_ARC_SEC.toDouble()
 
 val ARC_SECOND_TO_MICRO_ARC_SEC_BD = BigDecimal(ARC_SECOND_TO_MICRO_ARC_SEC)
 val ARC_MINUTE_TO_MICRO_ARC_SEC_BD = BigDecimal(ARC_MINUTE_TO_MICRO_ARC_SEC)
@@ -37,6 +43,8 @@ fun Vector3D(ra:Angle, de:Angle) = Vector3D( ra.toRadian(), de.toRadian())
 
 fun Vector3D.toIpix():Long = HEALPIX_TOOLS.vect2pix(this)
 
+fun Vector3D.toNestedIpix():Long = HEALPIX_NESTED.vect2pix(this)
+
 
 
 
@@ -8,6 +8,7 @@ import java.io.Reader
 import java.io.BufferedReader
 import java.io.InputStreamReader
 import java.io.FileInputStream
+import java.io.InputStream
 import org.itadaki.bzip2.BZip2InputStream
 import java.util.zip.GZIPInputStream
 import org.asterope.healpix.PixTools
@@ -26,12 +27,19 @@ fun java.io.File.readToString():String{
 }
 
 fun java.io.File.openReader():BufferedReader{
-    return if (this.getName()!!.matches(".+\\.bz2$"))
-        BufferedReader(InputStreamReader(BZip2InputStream(FileInputStream(this), false)))
-    else if (this.getName()!!.matches(".+\\.gz$"))
-        BufferedReader(InputStreamReader(GZIPInputStream(FileInputStream(this))))
+    return openReader(this.getName()!!, FileInputStream(this))
+}
+
+/**
+ * Open reader over given stream, decompress it if name ends with .bz2 or .gz
+ */
+fun openReader(name:String, input:InputStream):BufferedReader{
+    return if (name.matches(".+\\.bz2$"))
+        BufferedReader(InputStreamReader(BZip2InputStream(input, false)))
+    else if (name.matches(".+\\.gz$"))
+        BufferedReader(InputStreamReader(GZIPInputStream(input)))
     else
-        Files.newReader(this,Charsets.UTF_8)!!;
+        BufferedReader(InputStreamReader(input, Charsets.UTF_8))
 }
 
 fun String.toBigDecimal() = BigDecimal(this)
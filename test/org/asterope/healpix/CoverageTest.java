@@ -0,0 +1,244 @@
+package org.asterope.healpix;
+
+import junit.framework.TestCase;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+public class CoverageTest extends TestCase {
+
+    int order = 5;
+    long nside = 1L<<order;
+    Coverage coverage = new Coverage(order);
+    PixTools pt = new PixTools(nside);
+
+    public void testNside2Order(){
+        assertEquals(0, Coverage.nside2order(1));
+        assertEquals(10, Coverage.nside2order(1024));
+        try{
+            Coverage.nside2order(12);
+            fail();
+        }catch(IllegalArgumentException e){
+            //expected
+        }
+    }
+
+    public void testMaxPixrad(){
+        for(int o = 0;o<10;o++){
+            long n = 1L<<o;
+            PixTools t = new PixTools(n);
+            double r = Coverage.maxPixrad(n);
+            //corners of every pixel are closer than pixrad
+            for(long p = 0;p<PixTools.Nside2Npix(n);p+=7){
+                PixTools.Pixel pix = t.makePix2Vect(p);
+                for(Vector3D v:pix.toVertex())
+                    assertTrue(Vector3D.angle(pix.centre,v)<=r+1e-12);
+            }
+        }
+    }
+
+    /** compare with brute force test of all pixel centres */
+    public void testDiscExclusive(){
+        Random r = new Random(1);
+        for(int i = 0;i<20;i++){
+            Vector3D center = new Vector3D(r.nextDouble()*2*Math.PI, r.nextDouble()*Math.PI - Math.PI/2);
+            double radius = r.nextDouble();
+            LongRangeSet nest = coverage.queryDisc(center, radius, false);
+            for(long p = 0;p<PixTools.Nside2Npix(nside);p++){
+                Vector3D c = pt.pix2vect(PixToolsNested.nest2ring(nside, p));
+                double dist = Vector3D.angle(center, c);
+                //skip rounding errors on boundary
+                if(Math.abs(dist - radius)<1e-10) continue;
+                assertEquals("pix "+p, dist<radius, nest.containsAny(p, p));
+            }
+        }
+    }
+
+    public void testDiscInclusive(){
+        Random r = new Random(2);
+        double pixrad = Coverage.maxPixrad(nside);
+        for(int i = 0;i<20;i++){
+            Vector3D center = new Vector3D(r.nextDouble()*2*Math.PI, r.nextDouble()*Math.PI - Math.PI/2);
+            double radius = r.nextDouble()*0.1;
+            LongRangeSet inclusive = coverage.queryDisc(center, radius, true);
+            LongRangeSet exclusive = coverage.queryDisc(center, radius, false);
+            LongRangeIterator ex = exclusive.rangeIterator();
+            while(ex.moveToNext())
+                assertTrue(inclusive.containsAll(ex.first(), ex.last()));
+            //pixel containing centre is always there
+            long centerPix = PixToolsNested.ring2nest(nside, pt.vect2pix(center));
+            assertTrue(inclusive.containsAny(centerPix, centerPix));
+            LongIterator iter = inclusive.longIterator();
+            while(iter.hasNext()){
+                Vector3D c = pt.pix2vect(PixToolsNested.nest2ring(nside, iter.next()));
+                assertTrue(Vector3D.angle(center, c) <= radius + pixrad);
+            }
+        }
+    }
+
+    public void testPolygon(){
+        ArrayList<Vector3D> square = new ArrayList<Vector3D>();
+        square.add(new Vector3D(Math.toRadians(10), Math.toRadians(10)));
+        square.add(new Vector3D(Math.toRadians(30), Math.toRadians(10)));
+        square.add(new Vector3D(Math.toRadians(30), Math.toRadians(30)));
+        square.add(new Vector3D(Math.toRadians(10), Math.toRadians(30)));
+        double[] normals = Coverage.edgeNormals(square);
+        double pixrad = Coverage.maxPixrad(nside);
+
+        LongRangeSet exclusive = coverage.queryPolygon(square, false);
+        LongRangeSet inclusive = coverage.queryPolygon(square, true);
+        for(long p = 0;p<PixTools.Nside2Npix(nside);p++){
+            Vector3D c = pt.pix2vect(PixToolsNested.nest2ring(nside, p));
+            boolean in = Coverage.polygonContains(normals, c.getX(), c.getY(), c.getZ());
+            assertEquals("pix "+p, in, exclusive.containsAny(p, p));
+            if(in)
+                assertTrue(inclusive.containsAny(p, p));
+        }
+        //inclusive does not go far
+        LongIterator iter = inclusive.longIterator();
+        while(iter.hasNext()){
+            Vector3D c = pt.pix2vect(PixToolsNested.nest2ring(nside, iter.next()));
+            for(int i = 0;i<normals.length;i+=3)
+                assertTrue(normals[i]*c.getX() + normals[i+1]*c.getY() + normals[i+2]*c.getZ() >= -Math.sin(pixrad));
+        }
+
+        //reversed order gives the same result
+        Collections.reverse(square);
+        assertEquals(exclusive, coverage.queryPolygon(square, false));
+    }
+
+    public void testPolygonNotConvex(){
+        ArrayList<Vector3D> v = new ArrayList<Vector3D>();
+        v.add(new Vector3D(0, 0));
+        v.add(new Vector3D(0.5, 0));
+        v.add(new Vector3D(0.1, 0.1));
+        v.add(new Vector3D(0, 0.5));
+        try{
+            coverage.queryPolygon(v, false);
+            fail();
+        }catch(IllegalArgumentException e){
+            //expected
+        }
+    }
+
+    public void testFewRanges(){
+        //large disc has few ranges, because inner cells are emitted at coarse order
+        Coverage c = new Coverage(16);
+        LongRangeSet s = c.queryDisc(new Vector3D(1,1,1), Math.toRadians(30), true);
+        assertTrue(s.size() > 1e9);
+        assertTrue(s.rangeCount() * 1000L < s.size());
+    }
+
+    public void testRing2NestSet(){
+        LongRangeSet ring = pt.query_disc(new Vector3D(1,0,0), 0.3, false);
+        LongRangeSet nest = PixToolsNested.ring2nest(nside, ring);
+        assertEquals(ring.size(), nest.size());
+        assertEquals(ring, PixToolsNested.nest2ring(nside, nest));
+        LongIterator iter = ring.longIterator();
+        while(iter.hasNext()){
+            long p = PixToolsNested.ring2nest(nside, iter.next());
+            assertTrue(nest.containsAny(p, p));
+        }
+    }
+
+    public void testRing2NestSetByRanges(){
+        //random ranges and discs give same result as pixel by pixel conversion
+        Random r = new Random(5);
+        for(int o = 0;o<=6;o++){
+            long n = 1L<<o;
+            long npix = 12*n*n;
+            PixTools t = new PixTools(n);
+            for(int i = 0;i<30;i++){
+                LongRangeSet ring;
+                if(i%2==0){
+                    LongRangeSetBuilder b = new LongRangeSetBuilder();
+                    long p = 0;
+                    while(true){
+                        p += r.nextInt((int) npix/4 + 1);
+                        long last = p + r.nextInt((int) npix/4 + 1);
+                        if(last>=npix) break;
+                        b.appendRange(p, last);
+                        p = last + 2;
+                    }
+                    ring = b.build();
+                }else{
+                    Vector3D v = new Vector3D(r.nextGaussian(), r.nextGaussian(), r.nextGaussian());
+                    ring = t.query_disc(v, r.nextDouble(), i%4==1);
+                }
+                LongRangeSetBuilder b = new LongRangeSetBuilder();
+                ArrayList<Long> nest = new ArrayList<Long>();
+                LongIterator iter = ring.longIterator();
+                while(iter.hasNext())
+                    nest.add(PixToolsNested.ring2nest(n, iter.next()));
+                Collections.sort(nest);
+                for(long p:nest)
+                    b.append(p);
+                assertEquals(b.build(), PixToolsNested.ring2nest(n, ring));
+            }
+        }
+        LongRangeSetBuilder all = new LongRangeSetBuilder();
+        all.appendRange(0, 12*nside*nside-1);
+        assertEquals(all.build(), PixToolsNested.ring2nest(nside, all.build()));
+        assertTrue(PixToolsNested.ring2nest(nside, LongRangeSetBuilder.EMPTY).isEmpty());
+    }
+
+    public void testConservative(){
+        Random r = new Random(3);
+        Coverage c = new Coverage(10);
+        PixTools t = new PixTools(1L<<10);
+        for(int i = 0;i<20;i++){
+            Vector3D center = new Vector3D(r.nextDouble()*2*Math.PI, r.nextDouble()*Math.PI - Math.PI/2);
+            double radius = r.nextDouble()*0.3;
+            Coverage.Stats exact = new Coverage.Stats();
+            Coverage.Stats inclusive = new Coverage.Stats();
+            Coverage.Stats conservative = new Coverage.Stats();
+            LongRangeSet e = c.queryDisc(center, radius, false, exact);
+            LongRangeSet in = c.queryDisc(center, radius, true, inclusive);
+            double maxMargin = Math.toRadians(1);
+            LongRangeSet cons = c.queryDiscConservative(center, radius, maxMargin, conservative);
+
+            assertEquals(10, exact.order);
+            assertEquals(10, inclusive.order);
+            assertTrue(conservative.order < 10);
+            assertTrue(conservative.margin <= maxMargin);
+            assertEquals(Coverage.maxPixrad(1L<<10), exact.margin, 1e-15);
+            //conservative is cheaper
+            assertTrue(conservative.cellsTested < inclusive.cellsTested);
+            assertTrue(exact.boundaryCells > 0);
+
+            //exact is subset of inclusive which is subset of conservative
+            assertTrue(in.containsAll(e.rangeIterator()));
+            assertTrue(cons.containsAll(in.rangeIterator()));
+            //pixels are within guaranteed margin
+            LongIterator iter = cons.longIterator();
+            while(iter.hasNext()){
+                Vector3D v = t.pix2vect(PixToolsNested.nest2ring(1L<<10, iter.next()));
+                assertTrue(Vector3D.angle(center, v) <= radius + conservative.margin);
+            }
+        }
+        //too small margin falls back to inclusive query
+        Coverage.Stats stats = new Coverage.Stats();
+        Vector3D v = new Vector3D(1, 2, 3);
+        assertEquals(c.queryDisc(v, 0.1, true), c.queryDiscConservative(v, 0.1, 0, stats));
+        assertEquals(10, stats.order);
+    }
+
+    public void testPolygonConservative(){
+        ArrayList<Vector3D> square = new ArrayList<Vector3D>();
+        square.add(new Vector3D(Math.toRadians(10), Math.toRadians(10)));
+        square.add(new Vector3D(Math.toRadians(30), Math.toRadians(10)));
+        square.add(new Vector3D(Math.toRadians(30), Math.toRadians(30)));
+        square.add(new Vector3D(Math.toRadians(10), Math.toRadians(30)));
+        Coverage c = new Coverage(10);
+        Coverage.Stats inclusive = new Coverage.Stats();
+        Coverage.Stats conservative = new Coverage.Stats();
+        LongRangeSet in = c.queryPolygon(square, true, inclusive);
+        LongRangeSet cons = c.queryPolygonConservative(square, Math.toRadians(2), conservative);
+        assertTrue(cons.containsAll(in.rangeIterator()));
+        assertTrue(conservative.cellsTested * 4 < inclusive.cellsTested);
+        assertTrue(cons.size() < in.size() * 1.5);
+    }
+
+}
@@ -0,0 +1,217 @@
+package org.asterope.healpix;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class LongBitmapSetTest extends TestCase {
+
+    Random r = new Random(1);
+
+    /** random set with short runs and sparse and dense chunks, crossing chunk boundaries */
+    TreeSet<Long> randomValues(){
+        TreeSet<Long> ret = new TreeSet<Long>();
+        long base = r.nextInt(3)<<16;
+        for(int chunk = 0;chunk<5;chunk++){
+            int runs = r.nextBoolean() ? 100 : 5000;
+            for(int i = 0;i<runs;i++){
+                long first = base + r.nextInt(1<<16);
+                int len = r.nextInt(r.nextBoolean()? 3 : 100);
+                for(long v = first;v<=first+len;v++)
+                    ret.add(v);
+            }
+            base += (1+r.nextInt(2))<<16;
+        }
+        return ret;
+    }
+
+    LongRangeSet toRangeSet(TreeSet<Long> values){
+        LongRangeSetBuilder b = new LongRangeSetBuilder();
+        for(long v:values)
+            b.append(v);
+        return b.build();
+    }
+
+    void assertValues(TreeSet<Long> expected, LongRangeSet s){
+        assertEquals(expected.size(), s.size());
+        assertEquals(expected.isEmpty(), s.isEmpty());
+        LongIterator iter = s.longIterator();
+        for(long v:expected)
+            assertEquals(v, iter.next());
+        assertFalse(iter.hasNext());
+        assertEquals(toRangeSet(expected), s);
+        assertEquals(toRangeSet(expected).hashCode(), s.hashCode());
+    }
+
+    public void testValueOf(){
+        for(int i = 0;i<10;i++){
+            TreeSet<Long> values = randomValues();
+            LongRangeSet ranges = toRangeSet(values);
+            LongBitmapSet bitmap = LongBitmapSet.valueOf(ranges);
+            assertValues(values, bitmap);
+            assertEquals(ranges.rangeCount(), bitmap.rangeCount());
+            assertEquals(ranges.first(), bitmap.first());
+            assertEquals(ranges.last(), bitmap.last());
+            assertEquals(bitmap, LongBitmapSet.valueOf(ranges.toArray()));
+            assertEquals(ranges.toString(), bitmap.toString());
+        }
+    }
+
+    public void testContains(){
+        TreeSet<Long> values = randomValues();
+        LongBitmapSet bitmap = LongBitmapSet.valueOf(toRangeSet(values));
+        long max = values.last()+10;
+        for(int i = 0;i<100000;i++){
+            long v = (long) (r.nextDouble()*max);
+            assertEquals(values.contains(v), bitmap.contains(v));
+            long last = v + r.nextInt(r.nextBoolean()? 10 : 100000);
+            boolean any = !values.subSet(v, true, last, true).isEmpty();
+            assertEquals(any, bitmap.containsAny(v, last));
+            boolean all = values.subSet(v, true, last, true).size() == last - v + 1;
+            assertEquals(all, bitmap.containsAll(v, last));
+        }
+    }
+
+    public void testRangeOverChunks(){
+        LongRangeSetBuilder b = new LongRangeSetBuilder();
+        b.appendRange(10, 1<<20);
+        b.appendRange((1<<20) + 2, (1<<20) + 2);
+        LongRangeSet ranges = b.build();
+        LongBitmapSet bitmap = LongBitmapSet.valueOf(ranges);
+        assertEquals(ranges, bitmap);
+        assertEquals(2, bitmap.rangeCount());
+        assertTrue(bitmap.containsAll(10, 1<<20));
+        assertFalse(bitmap.containsAll(9, 1<<20));
+        assertFalse(bitmap.containsAny((1<<20) + 1, (1<<20) + 1));
+        //long runs are better stored as ranges
+        assertFalse(bitmap.compact() instanceof LongBitmapSet);
+        assertSame(ranges, ranges.compact());
+    }
+
+    public void testSetOperations(){
+        for(int i = 0;i<10;i++){
+            TreeSet<Long> v1 = randomValues(), v2 = randomValues();
+            LongRangeSet r1 = toRangeSet(v1), r2 = toRangeSet(v2);
+            LongBitmapSet b1 = LongBitmapSet.valueOf(r1), b2 = LongBitmapSet.valueOf(r2);
+
+            TreeSet<Long> union = new TreeSet<Long>(v1);
+            union.addAll(v2);
+            TreeSet<Long> intersect = new TreeSet<Long>(v1);
+            intersect.retainAll(v2);
+            TreeSet<Long> substract = new TreeSet<Long>(v1);
+            substract.removeAll(v2);
+
+            assertValues(union, b1.union(b2));
+            assertValues(intersect, b1.intersect(b2));
+            assertValues(substract, b1.substract(b2));
+            //mixed representation
+            assertValues(union, b1.union(r2));
+            assertValues(union, r1.union(b2));
+            assertValues(intersect, b1.intersect(r2));
+            assertValues(intersect, r1.intersect(b2));
+            assertValues(substract, b1.substract(r2));
+            assertValues(substract, r1.substract(b2));
+
+            assertEquals(r1.complement(), b1.complement());
+            assertEquals(r1, b1.complement().complement());
+        }
+    }
+
+    public void testMixedWithLongRanges(){
+        for(int i = 0;i<10;i++){
+            TreeSet<Long> v1 = randomValues();
+            LongBitmapSet b1 = LongBitmapSet.valueOf(toRangeSet(v1));
+            //few long ranges which cross chunk boundaries
+            LongRangeSetBuilder rb = new LongRangeSetBuilder();
+            TreeSet<Long> v2 = new TreeSet<Long>();
+            long first = r.nextInt(1<<16);
+            for(int k = 0;k<4;k++){
+                long last = first + r.nextInt(3<<16);
+                rb.appendRange(first, last);
+                for(long v = first;v<=last;v++)
+                    v2.add(v);
+                first = last + 2 + r.nextInt(1<<16);
+            }
+            LongRangeSet r2 = rb.build();
+
+            TreeSet<Long> union = new TreeSet<Long>(v1);
+            union.addAll(v2);
+            TreeSet<Long> intersect = new TreeSet<Long>(v1);
+            intersect.retainAll(v2);
+            TreeSet<Long> substract = new TreeSet<Long>(v1);
+            substract.removeAll(v2);
+            TreeSet<Long> substract2 = new TreeSet<Long>(v2);
+            substract2.removeAll(v1);
+
+            assertValues(union, b1.union(r2));
+            assertValues(union, r2.union(b1));
+            assertValues(intersect, b1.intersect(r2));
+            assertValues(intersect, r2.intersect(b1));
+            assertValues(substract, b1.substract(r2));
+            assertValues(substract2, r2.substract(b1));
+
+            LongRangeSet expected = toRangeSet(v1);
+            assertTrue(b1.containsAll(expected.rangeIterator()));
+            assertTrue(b1.containsAll(expected.longIterator()));
+            assertEquals(!intersect.isEmpty(), b1.containsAny(r2.rangeIterator()));
+            assertEquals(!intersect.isEmpty(), b1.containsAny(r2.longIterator()));
+            assertEquals(expected.rangeCount(), b1.rangeCount());
+            for(int k = 0;k<expected.rangeCount();k+=97){
+                assertEquals(expected.rangeFirst(k), b1.rangeFirst(k));
+                assertEquals(expected.rangeLast(k), b1.rangeLast(k));
+            }
+        }
+    }
+
+    public void testAdaptiveResult(){
+        TreeSet<Long> values = new TreeSet<Long>();
+        for(long v = 0;v<1000000;v+=3)
+            values.add(v);
+        LongBitmapSet fragmented = LongBitmapSet.valueOf(toRangeSet(values));
+        //gaps are filled, so result is single range
+        LongRangeSetBuilder b = new LongRangeSetBuilder();
+        b.appendRange(0, 1000000);
+        LongRangeSet union = fragmented.union(LongBitmapSet.valueOf(b.build()));
+        assertFalse(union instanceof LongBitmapSet);
+        assertEquals(1, union.rangeCount());
+        //result stays fragmented
+        assertTrue(fragmented.intersect(b.build()) instanceof LongBitmapSet);
+    }
+
+    public void testCompact(){
+        //fragmented set is smaller as bitmap
+        TreeSet<Long> values = new TreeSet<Long>();
+        for(long v = 0;v<1000000;v+=3)
+            values.add(v);
+        LongRangeSet ranges = toRangeSet(values);
+        LongRangeSet compact = ranges.compact();
+        assertTrue(compact instanceof LongBitmapSet);
+        assertTrue(compact.memoryUsage() * 4 < ranges.memoryUsage());
+        assertEquals(LongBitmapSet.estimateMemory(ranges), compact.memoryUsage());
+        assertValues(values, compact);
+        assertTrue(compact.compact() == compact);
+    }
+
+    public void testEmpty(){
+        LongBitmapSet empty = LongBitmapSet.valueOf(LongRangeSetBuilder.EMPTY);
+        assertTrue(empty.isEmpty());
+        assertEquals(0, empty.size());
+        assertEquals(LongRangeSetBuilder.EMPTY, empty);
+        assertFalse(empty.contains(1));
+        assertFalse(empty.containsAny(0, 100));
+        assertFalse(empty.rangeIterator().moveToNext());
+    }
+
+    public void testSerialization() throws Exception{
+        LongBitmapSet bitmap = LongBitmapSet.valueOf(toRangeSet(randomValues()));
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.writeObject(bitmap);
+        out.close();
+        Object o = new ObjectInputStream(new ByteArrayInputStream(bout.toByteArray())).readObject();
+        assertTrue(o instanceof LongBitmapSet);
+        assertEquals(bitmap, o);
+    }
+}
@@ -3,6 +3,11 @@ package org.asterope.healpix;
 
 import junit.framework.TestCase;
 
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
 public class LongRangeSetBuilderTest extends TestCase{
 	
 	public void testBuild(){
@@ -48,5 +53,99 @@ public class LongRangeSetBuilderTest extends TestCase{
     }catch(Exception e){}
   }
 
+
+  LongRangeSet randomSet(Random r){
+      LongRangeSetBuilder b = new LongRangeSetBuilder();
+      long v = r.nextInt(1000) - 500;
+      int count = 100 + r.nextInt(1000);
+      for(int i = 0;i<count;i++){
+          v += 2 + r.nextInt(100);
+          long last = v + r.nextInt(10);
+          b.appendRange(v, last);
+          v = last;
+      }
+      return b.build();
+  }
+
+  public void testByteBuffer(){
+      Random r = new Random(1);
+      for(ByteOrder order:new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}){
+          LongRangeSet s1 = randomSet(r), s2 = randomSet(r);
+          ByteBuffer buf = ByteBuffer.allocateDirect(4 + LongRangeSetBuilder.byteSize(s1) + LongRangeSetBuilder.byteSize(s2)).order(order);
+          buf.putInt(1111);
+          LongRangeSetBuilder.writeTo(buf, s1);
+          LongRangeSetBuilder.writeTo(buf, s2);
+          assertEquals(0, buf.remaining());
+
+          buf.flip();
+          assertEquals(1111, buf.getInt());
+          assertEquals(s1, LongRangeSetBuilder.readFrom(buf.duplicate().order(order)));
+          LongBufferSet v1 = LongRangeSetBuilder.view(buf);
+          LongBufferSet v2 = LongRangeSetBuilder.view(buf);
+          assertEquals(0, buf.remaining());
+          assertEquals(s1, v1);
+          assertEquals(s2, v2);
+          assertEquals(s1.size(), v1.size());
+          assertEquals(s1.rangeCount(), v1.rangeCount());
+
+          //view answers queries without copy
+          for(int i = 0;i<10000;i++){
+              long first = s1.first() - 10 + r.nextInt((int) (s1.last() - s1.first() + 20));
+              long last = first + r.nextInt(50);
+              assertEquals(s1.contains(first), v1.contains(first));
+              assertEquals(s1.containsAny(first, last), v1.containsAny(first, last));
+              assertEquals(s1.containsAll(first, last), v1.containsAll(first, last));
+          }
+          assertTrue(v1.memoryUsage() < 100);
+
+          //set operations
+          assertEquals(s1.union(s2), v1.union(v2));
+          assertEquals(s1.intersect(s2), v2.intersect(v1));
+      }
+  }
+
+  public void testViewEmpty(){
+      ByteBuffer buf = ByteBuffer.allocate(LongRangeSetBuilder.byteSize(LongRangeSetBuilder.EMPTY));
+      LongRangeSetBuilder.writeTo(buf, LongRangeSetBuilder.EMPTY);
+      buf.flip();
+      LongBufferSet v = LongRangeSetBuilder.view(buf);
+      assertTrue(v.isEmpty());
+      assertFalse(v.contains(0));
+      assertFalse(v.rangeIterator().moveToNext());
+      assertEquals(LongRangeSetBuilder.EMPTY, v);
+  }
+
+  public void testCompressed(){
+      Random r = new Random(2);
+      LongRangeSet s1 = randomSet(r);
+      //complement has negative values and overflowing differences
+      LongRangeSet s2 = s1.complement();
+      ByteBuffer buf = ByteBuffer.allocate(1000000);
+      LongRangeSetBuilder.writeCompressed(buf, s1);
+      LongRangeSetBuilder.writeCompressed(buf, s2);
+      LongRangeSetBuilder.writeCompressed(buf, LongRangeSetBuilder.EMPTY);
+      //ranges are short, so it is much smaller than fixed format
+      assertTrue(buf.position() * 3 < LongRangeSetBuilder.byteSize(s1) * 2);
+      buf.flip();
+      assertEquals(s1, LongRangeSetBuilder.readCompressed(buf));
+      assertEquals(s2, LongRangeSetBuilder.readCompressed(buf));
+      assertTrue(LongRangeSetBuilder.readCompressed(buf).isEmpty());
+      assertEquals(0, buf.remaining());
+  }
+
+  public void testViewSerialization() throws Exception {
+      LongRangeSet s = randomSet(new Random(3));
+      ByteBuffer buf = ByteBuffer.allocate(LongRangeSetBuilder.byteSize(s));
+      LongRangeSetBuilder.writeTo(buf, s);
+      buf.flip();
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bout);
+      out.writeObject(LongRangeSetBuilder.view(buf));
+      out.close();
+      Object o = new ObjectInputStream(new ByteArrayInputStream(bout.toByteArray())).readObject();
+      assertEquals(LongRangeSet.class, o.getClass());
+      assertEquals(s, o);
+  }
+
 }
 
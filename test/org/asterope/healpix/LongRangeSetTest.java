@@ -3,6 +3,8 @@ package org.asterope.healpix;
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeSet;
 
 public class LongRangeSetTest extends TestCase {
 
@@ -195,4 +197,100 @@ public class LongRangeSetTest extends TestCase {
     	assertFalse(r1.containsAny(60,70));    	
     }
 
+
+    public void testEmpty(){
+    	b.appendRange(20, 30);
+    	LongRangeSet r1 = b.build();
+    	LongRangeSet empty = LongRangeSetBuilder.EMPTY;
+
+    	assertTrue(r1.intersect(empty).isEmpty());
+    	assertTrue(empty.intersect(r1).isEmpty());
+    	assertEquals(r1, r1.union(empty));
+    	assertEquals(r1, empty.union(r1));
+    	assertEquals(r1, r1.substract(empty));
+    	assertTrue(empty.substract(r1).isEmpty());
+    	assertTrue(LongRangeSet.unionAll(new ArrayList<LongRangeSet>()).isEmpty());
+    }
+
+    Random r = new Random(1);
+
+    TreeSet<Long> randomValues(int count, int max){
+    	TreeSet<Long> ret = new TreeSet<Long>();
+    	for(int i = 0;i<count;i++){
+    		long first = r.nextInt(max);
+    		int len = r.nextInt(10);
+    		for(long v = first;v<=first+len;v++)
+    			ret.add(v);
+    	}
+    	return ret;
+    }
+
+    LongRangeSet toRangeSet(TreeSet<Long> values){
+    	LongRangeSetBuilder b = new LongRangeSetBuilder();
+    	for(long v:values)
+    		b.append(v);
+    	return b.build();
+    }
+
+    /** compare with naive implementation, sets have very different sizes to test galloping */
+    public void testRandomOperations(){
+    	for(int i = 0;i<200;i++){
+    		TreeSet<Long> v1 = randomValues(r.nextInt(1000), 100000);
+    		TreeSet<Long> v2 = randomValues(r.nextInt(r.nextBoolean() ? 10 : 1000), 100000);
+    		LongRangeSet r1 = toRangeSet(v1), r2 = toRangeSet(v2);
+
+    		TreeSet<Long> union = new TreeSet<Long>(v1);
+    		union.addAll(v2);
+    		TreeSet<Long> intersect = new TreeSet<Long>(v1);
+    		intersect.retainAll(v2);
+    		TreeSet<Long> substract = new TreeSet<Long>(v1);
+    		substract.removeAll(v2);
+
+    		assertEquals(toRangeSet(union), r1.union(r2));
+    		assertEquals(toRangeSet(union), r2.union(r1));
+    		assertEquals(toRangeSet(intersect), r1.intersect(r2));
+    		assertEquals(toRangeSet(intersect), r2.intersect(r1));
+    		assertEquals(toRangeSet(substract), r1.substract(r2));
+
+    		assertEquals(v1.containsAll(v2), r1.containsAll(r2.longIterator()));
+    		assertEquals(v1.containsAll(v2), r1.containsAll(r2.rangeIterator()));
+    		assertEquals(!intersect.isEmpty(), r1.containsAny(r2.longIterator()));
+    		assertEquals(!intersect.isEmpty(), r1.containsAny(r2.rangeIterator()));
+    		assertTrue(union.isEmpty() || r1.union(r2).containsAll(r2.longIterator()));
+    	}
+    }
+
+    public void testContainsUnsorted(){
+    	b.appendRange(20, 30);
+    	b.appendRange(40, 50);
+    	LongRangeSet r1 = b.build();
+    	assertTrue(r1.containsAll(new LongRangeSet(new long[]{45,45,25,25}, 4).longIterator()));
+    	//values are not sorted
+    	final long[] values = {45, 25, 60, 21};
+    	LongIterator iter = new LongIterator(){
+    		int i = 0;
+    		public boolean hasNext() { return i<values.length; }
+    		public long next() { return values[i++]; }
+    	};
+    	assertFalse(r1.containsAll(iter));
+    	values[2] = 42;
+    	iter = new LongIterator(){
+    		int i = 0;
+    		public boolean hasNext() { return i<values.length; }
+    		public long next() { return values[i++]; }
+    	};
+    	assertTrue(r1.containsAll(iter));
+    }
+
+    public void testUnionAll(){
+    	ArrayList<LongRangeSet> sets = new ArrayList<LongRangeSet>();
+    	TreeSet<Long> union = new TreeSet<Long>();
+    	for(int i = 0;i<300;i++){
+    		TreeSet<Long> v = randomValues(r.nextInt(100), 100000);
+    		union.addAll(v);
+    		sets.add(toRangeSet(v));
+    	}
+    	assertEquals(toRangeSet(union), LongRangeSet.unionAll(sets));
+    }
+
 }
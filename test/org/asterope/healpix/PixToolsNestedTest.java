@@ -1,6 +1,9 @@
 package org.asterope.healpix;
 
 import junit.framework.TestCase;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import java.util.Random;
 
 public class PixToolsNestedTest extends TestCase {
 
@@ -68,4 +71,137 @@ public class PixToolsNestedTest extends TestCase {
             System.out.println(" test Ring2Nest is done");
     }
 
+    public void testRoundTrip(){
+        for(long nside = 1;nside<=64;nside*=2){
+            for(long ipring = 0;ipring<12*nside*nside;ipring++){
+                long ipnest = PixToolsNested.ring2nest(nside, ipring);
+                assertEquals(ipring, PixToolsNested.nest2ring(nside, ipnest));
+            }
+        }
+        Random r = new Random(1);
+        for(int order = 0;order<=20;order++){
+            long nside = 1L<<order;
+            for(int i = 0;i<1000;i++){
+                long ipring = (long) (r.nextDouble()*12*nside*nside);
+                assertEquals(ipring, PixToolsNested.nest2ring(nside, PixToolsNested.ring2nest(nside, ipring)));
+            }
+        }
+    }
+
+    /** compare native NESTED methods with RING methods and conversion*/
+    public void testVect2Pix(){
+        Random r = new Random(2);
+        for(int order = 0;order<=20;order++){
+            long nside = 1L<<order;
+            PixTools ring = new PixTools(nside);
+            PixToolsNested nest = new PixToolsNested(nside);
+            for(int i = 0;i<1000;i++){
+                Vector3D v = new Vector3D(r.nextGaussian(), r.nextGaussian(), r.nextGaussian());
+                //close to pole
+                if(i%10 == 0) v = new Vector3D(r.nextGaussian()*1e-3, r.nextGaussian()*1e-3, r.nextBoolean()?1:-1);
+                long ipnest = nest.vect2pix(v);
+                assertEquals(PixToolsNested.ring2nest(nside, ring.vect2pix(v)), ipnest);
+
+                Vector3D c1 = nest.pix2vect(ipnest);
+                Vector3D c2 = ring.pix2vect(PixToolsNested.nest2ring(nside, ipnest));
+                assertEquals(0, Vector3D.angle(c1, c2), 1e-10);
+            }
+        }
+    }
+
+    public void testBatch(){
+        PixToolsNested nest = new PixToolsNested(1024);
+        Random r = new Random(4);
+        double[] xyz = new double[300];
+        for(int i = 0;i<xyz.length;i++)
+            xyz[i] = r.nextGaussian();
+        long[] out = new long[100];
+        nest.vect2pix(xyz, out);
+        for(int i = 0;i<out.length;i++)
+            assertEquals(nest.vect2pix(xyz[i*3], xyz[i*3+1], xyz[i*3+2]), out[i]);
+    }
+
+    public void testDegrade(){
+        PixToolsNested n1 = new PixToolsNested(64);
+        PixToolsNested n2 = new PixToolsNested(512);
+        Random r = new Random(3);
+        for(int i = 0;i<1000;i++){
+            Vector3D v = new Vector3D(r.nextGaussian(), r.nextGaussian(), r.nextGaussian());
+            long p1 = n1.vect2pix(v);
+            long p2 = n2.vect2pix(v);
+            assertEquals(p1, PixToolsNested.degrade(p2, 3));
+            assertTrue(PixToolsNested.upgrade(p1, 3) <= p2);
+            assertTrue(PixToolsNested.upgrade(p1 + 1, 3) > p2);
+        }
+    }
+
+    public void testNeighbours(){
+        for(long nside = 1;nside<=256;nside*=4){
+            PixToolsNested nest = new PixToolsNested(nside);
+            PixTools ring = new PixTools(nside);
+            long npix = 12*nside*nside;
+            double pixrad = Coverage.maxPixrad(nside);
+            long[] nb = new long[8], nb2 = new long[8], nbRing = new long[8];
+            int missing = 0;
+            for(long p = 0;p<npix;p++){
+                nest.neighbours(p, nb);
+                ring.neighbours(PixToolsNested.nest2ring(nside, p), nbRing);
+                Vector3D c = nest.pix2vect(p);
+                for(int i = 0;i<8;i++){
+                    if(nb[i]<0){
+                        assertEquals(-1, nbRing[i]);
+                        missing++;
+                        continue;
+                    }
+                    assertEquals(PixToolsNested.nest2ring(nside, nb[i]), nbRing[i]);
+                    assertTrue(nb[i]!=p);
+                    //neighbour touches pixel
+                    assertTrue(Vector3D.angle(c, nest.pix2vect(nb[i])) <= 2*pixrad + 1e-12);
+                    //relation is symmetric
+                    nest.neighbours(nb[i], nb2);
+                    boolean found = false;
+                    for(long q:nb2) found |= q==p;
+                    assertTrue(found);
+                }
+            }
+            //only 3 faces meet at 8 vertices, 3 pixels around each vertex have 7 neighbours
+            if(nside>1)
+                assertEquals(24, missing);
+        }
+    }
+
+    public void testBoundaries(){
+        long nside = 64;
+        PixToolsNested nest = new PixToolsNested(nside);
+        PixTools ring = new PixTools(nside);
+        double[] corners = new double[12];
+        double[] edges = new double[12*5];
+        double[] ringCorners = new double[12];
+        double[] vert = new double[15];
+        for(long p = 0;p<12*nside*nside;p+=7){
+            long ipring = PixToolsNested.nest2ring(nside, p);
+            nest.boundaries(p, 1, corners);
+            ring.boundaries(ipring, 1, ringCorners);
+            assertTrue(java.util.Arrays.equals(corners, ringCorners));
+            //corners in order north, west, south, east, the same as makePix2Vect
+            ring.makePix2Vect(ipring, vert);
+            int[] order = {1, 3, 2, 4};
+            for(int i = 0;i<4;i++){
+                Vector3D a = new Vector3D(corners[i*3], corners[i*3+1], corners[i*3+2]);
+                Vector3D b = new Vector3D(vert[order[i]*3], vert[order[i]*3+1], vert[order[i]*3+2]);
+                assertEquals(0, Vector3D.angle(a, b), 1e-10);
+            }
+            //every fifth point is corner, all points are unit vectors close to centre
+            nest.boundaries(p, 5, edges);
+            Vector3D c = nest.pix2vect(p);
+            for(int i = 0;i<20;i++){
+                Vector3D v = new Vector3D(edges[i*3], edges[i*3+1], edges[i*3+2]);
+                assertEquals(1, v.getNorm(), 1e-12);
+                assertTrue(Vector3D.angle(c, v) <= Coverage.maxPixrad(nside) + 1e-12);
+                if(i%5==0)
+                    assertEquals(corners[i/5*3+2], edges[i*3+2], 1e-12);
+            }
+        }
+    }
+
 }
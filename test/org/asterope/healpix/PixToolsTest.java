@@ -765,5 +765,124 @@ public class PixToolsTest extends TestCase {
     	assertTrue("pixel not found in disc",r.contains(ipix));
 
     }
-}
 
+    /** array versions must give the same result as versions returning objects */
+    public void testAllocationFree() {
+        for (long nside = 1; nside <= 1024; nside *= 4) {
+            PixTools pt = new PixTools(nside);
+            long npix = 12 * nside * nside;
+            double[] v = new double[3];
+            double[] vert = new double[15];
+            for (long ipix = 0; ipix < npix; ipix += 1 + npix / 1000) {
+                PixTools.Pixel p = pt.makePix2Vect(ipix);
+                pt.pix2vect(ipix, v);
+                assertEquals(p.centre, new Vector3D(v[0], v[1], v[2]));
+                assertEquals(p.centre, pt.pix2vect(ipix));
+                pt.makePix2Vect(ipix, vert);
+                Vector3D[] expected = {p.centre, p.north, p.south, p.west, p.east};
+                for (int i = 0; i < 5; i++)
+                    assertEquals(expected[i], new Vector3D(vert[i * 3], vert[i * 3 + 1], vert[i * 3 + 2]));
+
+                double[] ang = pt.pix2ang(ipix);
+                assertEquals(0, Vector3D.angle(p.centre, PixTools.Ang2Vec(ang[0], ang[1])), 1e-10);
+            }
+
+            java.util.Random r = new java.util.Random(1);
+            double[] xyz = new double[300];
+            for (int i = 0; i < xyz.length; i++)
+                xyz[i] = r.nextGaussian();
+            long[] out = new long[100];
+            pt.vect2pix(xyz, out);
+            for (int i = 0; i < out.length; i++)
+                assertEquals(pt.vect2pix(new Vector3D(xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2])), out[i]);
+        }
+    }
+
+	/** parallel query must give exactly the same result */
+	public void testParallelQuery() throws Exception {
+		java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+		try{
+			for(long nside:new long[]{64, 1024, 8192}){
+				PixTools pt = new PixTools(nside);
+				Vector3D v1 = new Vector3D(0.1, 0.5);
+				Vector3D v2 = new Vector3D(1.5, 0.3);
+				Vector3D v3 = new Vector3D(0.8, -0.9);
+				for(boolean inclusive:new boolean[]{false, true}){
+					LongRangeSet seq = pt.query_triangle(v1, v2, v3, inclusive);
+					assertEquals(seq, pt.query_triangle(v1, v2, v3, inclusive, pool));
+					//triangle in polar cap
+					Vector3D p1 = new Vector3D(0, 1.0), p2 = new Vector3D(1.2, 1.1), p3 = new Vector3D(0.6, 1.4);
+					assertEquals(pt.query_triangle(p1, p2, p3, inclusive), pt.query_triangle(p1, p2, p3, inclusive, pool));
+
+					ArrayList<Vector3D> square = new ArrayList<Vector3D>();
+					square.add(new Vector3D(0, -0.5));
+					square.add(new Vector3D(1, -0.5));
+					square.add(new Vector3D(1, 0.5));
+					square.add(new Vector3D(0, 0.5));
+					LongRangeSet polygon = pt.query_polygon(new ArrayList<Vector3D>(square), inclusive);
+					assertEquals(polygon, pt.query_polygon(new ArrayList<Vector3D>(square), inclusive, pool));
+					assertEquals(polygon.rangeCount(), pt.query_polygon(new ArrayList<Vector3D>(square), inclusive, pool).rangeCount());
+				}
+			}
+		}finally{
+			pool.shutdown();
+		}
+	}
+
+	/** ring tables must give exactly the same result */
+	public void testRingTables() throws Exception {
+		for (long nside = 1; nside <= 4096; nside *= 8) {
+			PixTools pt = new PixTools(nside);
+			PixTools tab = PixTools.withRingTables(nside);
+			assertTrue(tab.hasRingTables());
+			long npix = 12 * nside * nside;
+			double[] v1 = new double[3], v2 = new double[3];
+			for (long ipix = 0; ipix < npix; ipix += 1 + npix / 10000) {
+				pt.pix2vect(ipix, v1);
+				tab.pix2vect(ipix, v2);
+				assertTrue(java.util.Arrays.equals(v1, v2));
+				assertTrue(java.util.Arrays.equals(pt.pix2ang(ipix), tab.pix2ang(ipix)));
+			}
+			for (long iz = 1; iz < 4 * nside; iz++) {
+				assertEquals(pt.InRing(iz, 1.0, 0.5), tab.InRing(iz, 1.0, 0.5));
+				assertEquals(pt.InRing(iz, 0.1, 0.3), tab.InRing(iz, 0.1, 0.3));
+				assertEquals(pt.ring2z(iz), tab.ring2z(iz), 0);
+			}
+			java.util.Random r = new java.util.Random(1);
+			for (int i = 0; i < 20; i++) {
+				Vector3D center = new Vector3D(r.nextDouble() * 2 * Math.PI, r.nextDouble() * Math.PI - Math.PI / 2);
+				double radius = r.nextDouble() * 0.5;
+				assertEquals(pt.query_disc(center, radius, false), tab.query_disc(center, radius, false));
+				assertEquals(pt.query_disc(center, radius, true), tab.query_disc(center, radius, true));
+				Vector3D b = new Vector3D(center.getX() + 0.3, center.getY() - 0.2, center.getZ() + 0.1).normalize();
+				Vector3D c = new Vector3D(center.getX() - 0.2, center.getY() + 0.1, center.getZ() + 0.3).normalize();
+				assertEquals(pt.query_triangle(center, b, c, false), tab.query_triangle(center, b, c, false));
+			}
+		}
+		//tables are shared
+		assertSame(PixTools.withRingTables(1024).tables, PixTools.withRingTables(1024).tables);
+		//too big nside does not use tables
+		assertFalse(PixTools.withRingTables(1L << 20).hasRingTables());
+		assertFalse(new PixTools(1024).hasRingTables());
+	}
+
+	/**
+	 * tests ring number of pixel
+	 */
+	public void testPix2Ring() {
+		for (long nside : new long[]{1, 2, 4, 64, 256}) {
+			PixTools pt = new PixTools(nside);
+			long npix = 12 * nside * nside;
+			long iz = 1;
+			for (long ipix = 0; ipix < npix; ipix++) {
+				long ring = pt.pix2ring(ipix);
+				//rings are numbered from north, pixels are ordered by rings
+				assertTrue(ring == iz || ring == iz + 1);
+				iz = ring;
+				assertEquals(pt.ring2z(iz), pt.pix2vect(ipix).getZ(), 1e-12);
+			}
+			assertEquals(4 * nside - 1, iz);
+		}
+	}
+
+}
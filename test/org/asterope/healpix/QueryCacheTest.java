@@ -0,0 +1,88 @@
+package org.asterope.healpix;
+
+import junit.framework.TestCase;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+
+import java.util.ArrayList;
+
+public class QueryCacheTest extends TestCase {
+
+    long nside = 256;
+    PixTools pt = new PixTools(nside);
+
+    public void testDiscHitsAndSuperset(){
+        QueryCache cache = new QueryCache(pt, 10);
+        Vector3D c = new Vector3D(Math.toRadians(10), Math.toRadians(20));
+        double radius = Math.toRadians(2);
+        LongRangeSet r1 = cache.queryDisc(c, radius, true);
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        //nearly identical cone hits cache
+        Vector3D c2 = new Vector3D(Math.toRadians(10) + 1e-6, Math.toRadians(20));
+        LongRangeSet r2 = cache.queryDisc(c2, radius + 1e-7, true);
+        assertSame(r1, r2);
+        assertEquals(1, cache.getHits());
+
+        //cached result is superset of exact results
+        assertEquals(pt.query_disc(c, radius, true).size(), pt.query_disc(c, radius, true).intersect(r1).size());
+        assertEquals(pt.query_disc(c2, radius + 1e-7, true).size(), pt.query_disc(c2, radius + 1e-7, true).intersect(r1).size());
+
+        //exact query is not quantised and not cached
+        assertEquals(pt.query_disc(c2, radius, false), cache.queryDisc(c2, radius, false));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    public void testEviction(){
+        QueryCache cache = new QueryCache(pt, 3);
+        for(int i = 0;i<10;i++)
+            cache.queryDisc(new Vector3D(Math.toRadians(i*10), 0), 0.01, true);
+        assertEquals(3, cache.size());
+        assertEquals(10, cache.getMisses());
+        //most recent is still there
+        cache.queryDisc(new Vector3D(Math.toRadians(90), 0), 0.01, true);
+        assertEquals(1, cache.getHits());
+        //oldest was evicted
+        cache.queryDisc(new Vector3D(0, 0), 0.01, true);
+        assertEquals(12 - 1, cache.getMisses());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getMisses());
+    }
+
+    public void testMoveDisc(){
+        QueryCache cache = new QueryCache(pt, 10);
+        double radius = Math.toRadians(1);
+        QueryCache.Delta d1 = cache.moveDisc(LongRangeSetBuilder.EMPTY, new Vector3D(0.1, 0.1), radius, true);
+        assertEquals(d1.area, d1.added);
+        assertTrue(d1.removed.isEmpty());
+
+        QueryCache.Delta d2 = cache.moveDisc(d1.area, new Vector3D(0.105, 0.1), radius, true);
+        assertFalse(d2.added.isEmpty());
+        assertFalse(d2.removed.isEmpty());
+        //added pixels are new
+        assertEquals(d2.added.size(), d2.added.substract(d1.area).size());
+        //previous area - removed + added == current area
+        assertEquals(d2.area, d1.area.substract(d2.removed).union(d2.added));
+
+        //not moved
+        QueryCache.Delta d3 = cache.moveDisc(d2.area, new Vector3D(0.105, 0.1), radius, true);
+        assertTrue(d3.added.isEmpty());
+        assertTrue(d3.removed.isEmpty());
+    }
+
+    public void testPolygon() throws Exception {
+        QueryCache cache = new QueryCache(pt, 10);
+        ArrayList<Vector3D> v = new ArrayList<Vector3D>();
+        v.add(new Vector3D(0, 0));
+        v.add(new Vector3D(0.1, 0));
+        v.add(new Vector3D(0.1, 0.1));
+        LongRangeSet r1 = cache.queryPolygon(v, false);
+        assertEquals(pt.query_polygon(v, false), r1);
+        ArrayList<Vector3D> v2 = new ArrayList<Vector3D>(v);
+        assertSame(r1, cache.queryPolygon(v2, false));
+        assertEquals(1, cache.getHits());
+    }
+}
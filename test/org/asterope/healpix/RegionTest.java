@@ -99,4 +99,38 @@ public class RegionTest extends TestCase {
 		}
 
 	}
+
+	/**
+	 * nested descent gives the same pixels as ring pixelization
+	 */
+	public void testPixelizeNested() {
+		double[][] boxes = {
+				{10., 60., -20., 0.},
+				{0., 30., 0., 10.},
+				{20., 95., 30., 80.},
+				{100., 300., -85., -40.},
+				{0., 360., -90., 90.},
+				{350., 10., -5., 5.},
+				{45.3, 45.9, 12.1, 12.4}};
+		double[] precisions = {3600., 600., 100.};
+		for (double[] b : boxes) {
+			Region rg = new Region(b[0], b[1], b[2], b[3]);
+			for (double precision : precisions) {
+				long nside = PixTools.GetNSide(precision);
+				LongRangeSet ring = rg.pixelize(precision);
+				LongRangeSet nested = rg.pixelizeNested(precision);
+				assertEquals("box " + b[0] + " " + b[1] + " " + b[2] + " " + b[3] + " precision " + precision,
+						ring, PixToolsNested.nest2ring(nside, nested));
+			}
+		}
+	}
+
+	public void testPixelizeNestedFewRanges() {
+		//inner cells are emitted at coarse order
+		Region rg = new Region(10., 60., -20., 20.);
+		LongRangeSet nested = rg.pixelizeNested(10.);
+		assertTrue(nested.size() > 1e8);
+		assertEquals(rg.pixelize(10.).size(), nested.size());
+		assertTrue(nested.rangeCount() * 1000L < nested.size());
+	}
 }